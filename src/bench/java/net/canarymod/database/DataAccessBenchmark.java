@@ -0,0 +1,102 @@
+package net.canarymod.database;
+
+import net.canarymod.backbone.BanDataAccess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing the columns of a row through the cached {@link DataAccessMeta}
+ * with looking the column fields up on every call, as DataAccess did before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataAccessBenchmark {
+    private BanDataAccess row;
+    private HashMap<String, Object> dataSet;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        // Keep the benchmark off the database, the schema of the table doesn't matter here
+        Field schemaUpdated = DataAccess.class.getDeclaredField("schemaUpdated");
+        schemaUpdated.setAccessible(true);
+        ((Set<Class<? extends DataAccess>>) schemaUpdated.get(null)).add(BanDataAccess.class);
+
+        row = new BanDataAccess();
+        row.uuid = "f84c6a79-0a4e-45e0-879b-cd49ebd4c4e2";
+        row.player = "John";
+        row.ip = "127.0.0.1";
+        row.reason = "Testing";
+        row.banningPlayer = "Server";
+        row.unbanDate = 12345L;
+        dataSet = new HashMap<String, Object>();
+        for (Map.Entry<Column, Object> entry : row.toDatabaseEntryList().entrySet()) {
+            dataSet.put(entry.getKey().columnName(), entry.getValue());
+        }
+    }
+
+    @Benchmark
+    public HashMap<Column, Object> cachedToEntryList() throws Exception {
+        return row.toDatabaseEntryList();
+    }
+
+    @Benchmark
+    public HashMap<Column, Object> uncachedToEntryList() throws Exception {
+        HashMap<Column, Object> fieldMap = new HashMap<Column, Object>();
+        for (Field field : columnFields(row.getClass())) {
+            Column column = field.getAnnotation(Column.class);
+            if (column == null) {
+                continue;
+            }
+            fieldMap.put(column, field.get(row));
+        }
+        return fieldMap;
+    }
+
+    @Benchmark
+    public BanDataAccess cachedApplyDataSet() throws Exception {
+        BanDataAccess target = new BanDataAccess();
+        target.applyDataSet(dataSet);
+        return target;
+    }
+
+    @Benchmark
+    public BanDataAccess uncachedApplyDataSet() throws Exception {
+        BanDataAccess target = new BanDataAccess();
+        for (Field field : columnFields(target.getClass())) {
+            Column column = field.getAnnotation(Column.class);
+            if (column == null) {
+                continue;
+            }
+            field.set(target, dataSet.get(column.columnName()));
+        }
+        return target;
+    }
+
+    private static Set<Field> columnFields(Class<?> type) {
+        Set<Field> all = new LinkedHashSet<Field>();
+        Collections.addAll(all, type.getFields());
+        Collections.addAll(all, type.getDeclaredFields());
+        return all;
+    }
+}
@@ -0,0 +1,68 @@
+package net.canarymod.hook;
+
+import net.canarymod.plugin.PluginListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the generated direct-call {@link Dispatcher} with the reflective one for the same handler method
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+    private Listener listener;
+    private BenchHook hook;
+    private Dispatcher generated;
+    private Dispatcher reflective;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        listener = new Listener();
+        hook = new BenchHook();
+        DispatcherFactory.setGenerationEnabled(true);
+        generated = DispatcherFactory.createDispatcher(Listener.class.getMethod("onHook", BenchHook.class));
+        reflective = DispatcherFactory.createReflectiveDispatcher(Listener.class.getMethod("onHook", BenchHook.class));
+        if (generated.getClass().getName().equals(reflective.getClass().getName())) {
+            throw new IllegalStateException("No dispatcher was generated");
+        }
+    }
+
+    @Benchmark
+    public void generated(Blackhole bh) {
+        generated.execute(listener, hook);
+        bh.consume(listener.calls);
+    }
+
+    @Benchmark
+    public void reflective(Blackhole bh) {
+        reflective.execute(listener, hook);
+        bh.consume(listener.calls);
+    }
+
+    public static class BenchHook extends Hook {
+    }
+
+    public static class Listener implements PluginListener {
+        int calls;
+
+        @HookHandler
+        public void onHook(BenchHook hook) {
+            calls++;
+        }
+    }
+}
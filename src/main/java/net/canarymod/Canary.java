@@ -9,7 +9,10 @@ import net.canarymod.channels.ChannelManager;
 import net.canarymod.commandsys.CommandManager;
 import net.canarymod.commandsys.PlayerSelector;
 import net.canarymod.config.Configuration;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.Database;
+import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.xml.XmlDatabase;
 import net.canarymod.help.HelpManager;
 import net.canarymod.hook.HookExecutor;
 import net.canarymod.kit.KitProvider;
@@ -18,9 +21,11 @@ import net.canarymod.motd.MessageOfTheDay;
 import net.canarymod.permissionsystem.PermissionManager;
 import net.canarymod.plugin.IPluginManager;
 import net.canarymod.serialize.Serializer;
+import net.canarymod.tasks.ServerTaskManager;
 import net.canarymod.tasks.TaskOwner;
 import net.canarymod.user.OperatorsProvider;
 import net.canarymod.user.ReservelistProvider;
+import net.canarymod.user.UUIDResolver;
 import net.canarymod.user.UserAndGroupsProvider;
 import net.canarymod.user.WhitelistProvider;
 import net.canarymod.util.JsonNBTUtility;
@@ -30,6 +35,7 @@ import net.visualillusionsent.utils.JarUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The interface to the brains of the bird! AKA Utils
@@ -73,6 +79,13 @@ public abstract class Canary implements TaskOwner {
     static {
         System.out.println("Please wait while the libraries initialize...");
         log = Logman.getLogman("CanaryMod");
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                shutdownServices();
+            }
+        }, "Canary Shutdown"));
     }
 
     /**
@@ -286,6 +299,27 @@ public abstract class Canary implements TaskOwner {
         }
     }
 
+    /**
+     * Stops Canary's background work and closes the database, in this order: async hook listeners and server tasks,
+     * UUID lookups, queued {@link AsyncDatabase} operations, cached XML tables, then the connection pool.
+     * To be called by the implementation as it stops the server, after the plugins are disabled.
+     * A shutdown hook calls it too, for a JVM that exits without stopping the server.
+     */
+    public static void shutdownServices() {
+        synchronized (Canary.class) {
+            if (instance != null && instance.hookExecutor != null && !instance.hookExecutor.shutdownAsync(10, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for async hook listeners to finish");
+            }
+            if (!ServerTaskManager.shutdownWorkers(10, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for async server tasks to finish");
+            }
+            UUIDResolver.shutdownInstance();
+            AsyncDatabase.shutdownInstance(30, TimeUnit.SECONDS);
+            XmlDatabase.flushTables();
+            JdbcConnectionManager.shutdown();
+        }
+    }
+
     /**
      * Get the Server for managing server related stuff
      *
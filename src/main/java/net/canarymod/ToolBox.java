@@ -1,18 +1,11 @@
 package net.canarymod;
 
-import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.DimensionType;
 import net.canarymod.api.world.UnknownWorldException;
 import net.canarymod.api.world.World;
 import net.canarymod.config.Configuration;
-import net.visualillusionsent.utils.PropertiesFile;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-
-import java.io.DataOutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import net.canarymod.user.UUIDResolver;
+
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -28,8 +21,6 @@ public class ToolBox {
 
     private static TimeZone tz_GMT = TimeZone.getTimeZone("GMT");
     private static Pattern uuid = Pattern.compile("[0-9a-f]{8}\\-([0-9a-f]{4}\\-){3}[0-9a-f]{12}");
-    private static Pattern uName = Pattern.compile("[A-Za-z0-9_]{3,16}");
-    protected static final PropertiesFile userLookup = new PropertiesFile("uuidreverselookup.cfg");
 
     /**
      * Check if an array contains a specified value
@@ -437,7 +428,10 @@ public class ToolBox {
     }
 
     /**
-     * Ask's Mojang's API for a UUID for a give UserName
+     * Ask's Mojang's API for a UUID for a give UserName.
+     * Waits up to 30 seconds for the answer unless it is cached, see {@link UUIDResolver#resolveNow(String)}.
+     * On the server thread use {@link UUIDResolver#resolveOnServerThread(String, UUIDResolver.Callback)}
+     * or {@link UUIDResolver#getKnownUUID(String)} instead.
      *
      * @param username
      *         the user name to get a UUID for
@@ -445,75 +439,12 @@ public class ToolBox {
      * @return user's uuid or null if not found/on error
      */
     public static String usernameToUUID(String username) {
-        if (!uName.matcher(username).matches()) {
-            if (uuid.matcher(username).matches()) {
-                return username; // shmuck passed in a UUID so pass it back
-            }
-            return null; // username isn't valid, so don't bother checking against the mojang API
-        }
-        // Make sure the server isn't null, this can happen when called early in server init
-        if (Canary.getServer() != null) {
-            Player p = Canary.getServer().getPlayer(username);
-            if (p != null) return p.getUUIDString(); // player is online, so don't query the mojang API
-        }
-
-        // Check the reverse lookup cache
-        if (userLookup.getPropertiesMap().containsValue(username)) {
-            for (Map.Entry<String, String> entry : userLookup.getPropertiesMap().entrySet()) {
-                if (entry.getValue().equals(username)) {
-                    if (userLookup.getComments(entry.getKey()).length > 0) {
-                        if (!userLookupExpired(userLookup.getComments(entry.getKey())[0].replace(";Verified: ", "").trim())) {
-                            return entry.getKey();
-                        }
-                    }
-                }
-            }
-        }
-        
-        String uuid = null;
-        try {
-            URL url = new URL("https://api.mojang.com/profiles/page/1");
-            HttpURLConnection uc = (HttpURLConnection) url.openConnection();
-            uc.setRequestMethod("POST");
-            uc.setUseCaches(false);
-            uc.setDefaultUseCaches(false);
-            uc.addRequestProperty("User-Agent", "Minecraft");
-            uc.addRequestProperty("Cache-Control", "no-cache, no-store, must-revalidate");
-            uc.addRequestProperty("Pragma", "no-cache");
-            uc.setRequestProperty("Content-Type", "application/json");
-            uc.setDoOutput(true);
-            DataOutputStream wr = new DataOutputStream(uc.getOutputStream());
-            wr.writeBytes("[{\"name\":\"" + username + "\", \"agent\":\"Minecraft\"}]");
-            wr.flush();
-            wr.close();
-
-            // Parse it
-            String json = new Scanner(uc.getInputStream(), "UTF-8").useDelimiter("\\A").next();
-            JSONParser parser = new JSONParser();
-            Object obj = parser.parse(json);
-            uuid = (String) ((JSONObject) ((JSONArray) ((JSONObject) obj).get("profiles")).get(0)).get("id");
-        }
-        catch (Exception ex) {
-            Canary.log.warn("Failed to translate Username into a UUID");
-        }
-        if (uuid != null) {
-            if (!uuid.contains("-")) {
-                // Add the hyphens back in
-                uuid = uuid.substring(0, 8) + "-" + uuid.substring(8, 12) + "-" + uuid.substring(12, 16) + "-" + uuid.substring(16, 20) + "-" + uuid.substring(20, 32);
-            }
-
-            // Update the userLookup
-            userLookup.setString(uuid, username);
-            userLookup.setComments(uuid, ";Verified: " + System.currentTimeMillis());
-            userLookup.save();
-        }
-
-        // Return either the UUID string or null if none could be found
-        return uuid;
+        return UUIDResolver.get().resolveNow(username);
     }
 
     /**
-     * Asks Mojang's API for a UUID for a given UserName
+     * Asks Mojang's API for a UUID for a given UserName.
+     * Waits for the answer like {@link #usernameToUUID(String)}.
      *
      * @param username
      *         the user name to get a UUID for
@@ -524,17 +455,4 @@ public class ToolBox {
         String uuidString = usernameToUUID(username);
         return uuidString != null ? UUID.fromString(uuidString) : null;
     }
-
-    protected static boolean userLookupExpired(String timestamp) {
-        long time = 0;
-        try {
-            time = Long.parseLong(timestamp);
-        }
-        catch (NumberFormatException nfex) {
-            return true; // re-verify
-        }
-
-        // 3 days seems legit
-        return time == 0 || TimeUnit.MILLISECONDS.toDays(time) + 3 < TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
-    }
 }
@@ -1,6 +1,7 @@
 package net.canarymod.backbone;
 
 import net.canarymod.bansystem.Ban;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
@@ -15,6 +16,8 @@ import static net.canarymod.Canary.log;
 /**
  * Backbone to the ban System. This contains NO logic, it is only the data
  * source access!
+ * <p/>
+ * Writes go through the {@link AsyncDatabase}, reads wait for the writes queued before them.
  *
  * @author Chris
  */
@@ -32,45 +35,32 @@ public class BackboneBans extends Backbone {
         }
     }
 
-    private boolean banExists(Ban ban) {
-        BanDataAccess data = new BanDataAccess();
-
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("uuid", ban.getUUID());
-            Database.get().load(data, filter);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-        return data.hasData();
-    }
-
     /**
      * Add a new Ban to the list of bans.
+     * The ban is written in the background, replacing an existing ban of the same uuid.
      *
      * @param ban
      *         The ban to add.
      */
     public void addBan(Ban ban) {
-        if (banExists(ban)) {
-            updateBan(ban);
-            return;
-        }
-        BanDataAccess data = new BanDataAccess();
-
-        data.uuid = ban.getUUID();
-        data.player = ban.getSubject();
-        data.banningPlayer = ban.getBanningPlayer();
-        data.unbanDate = ban.getTimestamp();
-        data.reason = ban.getReason();
-        data.ip = ban.getIp();
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        final BanDataAccess data = toDataAccess(ban);
+        AsyncDatabase.get().batch(schema, new Database.Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException, DatabaseReadException {
+                HashMap<String, Object> filter = new HashMap<String, Object>();
+                filter.put("uuid", data.uuid);
+                BanDataAccess existing = new BanDataAccess();
+                database.load(existing, filter);
+                if (existing.hasData()) {
+                    data.id = existing.id;
+                    database.update(data, filter);
+                }
+                else {
+                    database.insert(data);
+                }
+            }
+        });
     }
 
     /**
@@ -80,14 +70,9 @@ public class BackboneBans extends Backbone {
      *         Player uuid to unban.
      */
     public void liftBan(String uuid) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("uuid", uuid);
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("uuid", uuid);
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -97,14 +82,37 @@ public class BackboneBans extends Backbone {
      *         IP Address to unban.
      */
     public void liftIpBan(String subject) {
-        try {
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("ip", subject);
+        AsyncDatabase.get().remove(schema, filter);
+    }
+
+    /**
+     * Lift several bans at once, in one write.
+     * IP bans are lifted by their IP, others by their uuid.
+     *
+     * @param bans
+     *         the bans to lift
+     */
+    public void liftBans(List<Ban> bans) {
+        final List<HashMap<String, Object>> filters = new ArrayList<HashMap<String, Object>>(bans.size());
+        for (Ban ban : bans) {
             HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("ip", subject);
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
+            if (ban.isIpBan()) {
+                filter.put("ip", ban.getIp());
+            }
+            else {
+                filter.put("uuid", ban.getUUID());
+            }
+            filters.add(filter);
         }
+        AsyncDatabase.get().batch(schema, new Database.Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException, DatabaseReadException {
+                database.removeAll(schema, filters);
+            }
+        });
     }
 
     /**
@@ -119,6 +127,7 @@ public class BackboneBans extends Backbone {
     public Ban getBan(String uuid) {
         BanDataAccess data = new BanDataAccess();
 
+        AsyncDatabase.get().flush(schema);
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("uuid", uuid);
@@ -143,35 +152,39 @@ public class BackboneBans extends Backbone {
 
     /**
      * Update a ban.
+     * The ban is written in the background, if it exists.
      *
      * @param ban
      *         Ban instance to update.
      */
     public void updateBan(Ban ban) {
-        BanDataAccess data = new BanDataAccess();
-
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("uuid", ban.getUUID());
-            Database.get().load(data, filter);
-            if (data.hasData()) {
-                data.uuid = ban.getUUID();
-                data.banningPlayer = ban.getBanningPlayer();
-                data.ip = ban.getIp();
-                data.player = ban.getSubject();
-                data.reason = ban.getReason();
-                data.unbanDate = ban.getTimestamp();
-                Database.get().update(data, filter);
+        final BanDataAccess data = toDataAccess(ban);
+        AsyncDatabase.get().batch(schema, new Database.Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException, DatabaseReadException {
+                HashMap<String, Object> filter = new HashMap<String, Object>();
+                filter.put("uuid", data.uuid);
+                BanDataAccess existing = new BanDataAccess();
+                database.load(existing, filter);
+                if (existing.hasData()) {
+                    data.id = existing.id;
+                    database.update(data, filter);
+                }
             }
+        });
+    }
 
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+    private BanDataAccess toDataAccess(Ban ban) {
+        BanDataAccess data = new BanDataAccess();
 
+        data.uuid = ban.getUUID();
+        data.player = ban.getSubject();
+        data.banningPlayer = ban.getBanningPlayer();
+        data.unbanDate = ban.getTimestamp();
+        data.reason = ban.getReason();
+        data.ip = ban.getIp();
+        return data;
     }
 
     /**
@@ -183,6 +196,7 @@ public class BackboneBans extends Backbone {
         List<Ban> banList = new ArrayList<Ban>();
         List<DataAccess> dataList = new ArrayList<DataAccess>();
 
+        AsyncDatabase.get().flush(schema);
         try {
             Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
             for (DataAccess da : dataList) {
@@ -2,7 +2,9 @@ package net.canarymod.backbone;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.canarymod.Canary;
@@ -18,6 +20,7 @@ import net.canarymod.permissionsystem.MultiworldPermissionProvider;
 import net.canarymod.permissionsystem.PermissionNode;
 import net.canarymod.permissionsystem.PermissionProvider;
 import net.canarymod.user.Group;
+import net.canarymod.user.UUIDResolver;
 
 /**
  * Backbone to the permissions System. This contains NO logic, it is only the
@@ -94,12 +97,16 @@ public class BackbonePermissions extends Backbone {
         // Validate player permissions
         this.validatePlayerPermissions(world);
         // Database.get().remove("permission", new String[] {"owner", "type"}, new Object[] {group.getName(), "group"});
-        PermissionProvider provider = new MultiworldPermissionProvider(world, true, uuid);
+        MultiworldPermissionProvider provider = new MultiworldPermissionProvider(world, true, uuid);
+        if (provider.getOwner() == null) {
+            // Given by a name whose UUID is being looked up, the provider loads once it is known
+            return provider;
+        }
         ArrayList<DataAccess> dataList = new ArrayList<DataAccess>();
 
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("owner", uuid);
+            filter.put("owner", provider.getOwner());
             filter.put("type", "player");
             Database.get().loadAll(new PermissionDataAccess(world), dataList, filter);
             for (DataAccess da : dataList) {
@@ -123,41 +130,7 @@ public class BackbonePermissions extends Backbone {
      *         Group to save permission from to the database.
      */
     public void saveGroupPermissions(Group g) {
-        PermissionProvider permissions = g.getPermissionProvider();
-        List<PermissionNode> permissionList = permissions.getPermissionMap();
-        HashMap<String, Object> filter = new HashMap<String, Object>();
-
-        try {
-            for (PermissionNode node : permissionList) {
-                ArrayList<PermissionNode> childs = new ArrayList<PermissionNode>();
-
-                for (PermissionNode child : permissions.getChildNodes(node, childs)) {
-                    PermissionDataAccess data = new PermissionDataAccess(g.getWorldName());
-                    filter.clear();
-                    filter.put("id", child.getId());
-                    Database.get().load(data, filter);
-                    if (data.hasData()) {
-                        data.path = child.getFullPath();
-                        data.value = child.getValue();
-                        Database.get().update(data, filter);
-                    }
-                    else {
-                        data.owner = g.getName();
-                        data.path = child.getFullPath();
-                        data.type = "group";
-                        data.value = child.getValue();
-                        Database.get().insert(data);
-                    }
-                }
-            }
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-
+        savePermissions(g.getPermissionProvider(), g.getWorldName(), g.getName(), "group");
     }
 
     /**
@@ -168,32 +141,82 @@ public class BackbonePermissions extends Backbone {
      */
     public void saveUserPermissions(Player p) {
         PermissionProvider permissions = p.getPermissionProvider();
-        List<PermissionNode> permissionList = permissions.getPermissionMap();
-        HashMap<String, Object> filter = new HashMap<String, Object>();
+        savePermissions(permissions, permissions.getWorld(), p.getUUIDString(), "player");
+    }
+
+    /**
+     * Writes all nodes of a provider in one batch.
+     * The stored permissions of the owner are loaded once, nodes are matched to them by id, or else by path.
+     * Unchanged permissions are left alone, changed ones are updated and unknown ones are inserted.
+     */
+    private void savePermissions(PermissionProvider permissions, String world, String owner, String type) {
+        ArrayList<DataAccess> dataList = new ArrayList<DataAccess>();
+        HashMap<Integer, PermissionDataAccess> byId = new HashMap<Integer, PermissionDataAccess>();
+        HashMap<String, PermissionDataAccess> byPath = new HashMap<String, PermissionDataAccess>();
+        final List<DataAccess> updates = new ArrayList<DataAccess>();
+        final List<HashMap<String, Object>> updateFilters = new ArrayList<HashMap<String, Object>>();
+        final List<DataAccess> inserts = new ArrayList<DataAccess>();
 
         try {
-            for (PermissionNode node : permissionList) {
+            HashMap<String, Object> filter = new HashMap<String, Object>();
+            filter.put("owner", owner);
+            filter.put("type", type);
+            Database.get().loadAll(new PermissionDataAccess(world), dataList, filter);
+            for (DataAccess da : dataList) {
+                PermissionDataAccess data = (PermissionDataAccess) da;
+                byId.put(data.id, data);
+                if (!byPath.containsKey(data.path)) {
+                    byPath.put(data.path, data);
+                }
+            }
+
+            for (PermissionNode node : permissions.getPermissionMap()) {
                 ArrayList<PermissionNode> childs = new ArrayList<PermissionNode>();
 
                 for (PermissionNode child : permissions.getChildNodes(node, childs)) {
-                    PermissionDataAccess data = new PermissionDataAccess(permissions.getWorld());
-                    filter.clear();
-                    filter.put("id", child.getId());
-                    Database.get().load(data, filter);
-                    if (data.hasData()) {
-                        data.path = child.getFullPath();
+                    String path = child.getFullPath();
+                    PermissionDataAccess data = byId.get(child.getId());
+                    if (data == null) {
+                        data = byPath.get(path);
+                    }
+                    if (data != null) {
+                        // Each stored permission is matched to one node only
+                        byId.remove(data.id);
+                        if (byPath.get(data.path) == data) {
+                            byPath.remove(data.path);
+                        }
+                        if (path.equals(data.path) && child.getValue() == data.value) {
+                            continue;
+                        }
+                        data.path = path;
                         data.value = child.getValue();
-                        Database.get().update(data, filter);
+                        HashMap<String, Object> idFilter = new HashMap<String, Object>();
+                        idFilter.put("id", data.id);
+                        updates.add(data);
+                        updateFilters.add(idFilter);
                     }
                     else {
-                        data.owner = p.getUUIDString();
-                        data.path = child.getFullPath();
-                        data.type = "player";
+                        data = new PermissionDataAccess(world);
+                        data.owner = owner;
+                        data.path = path;
+                        data.type = type;
                         data.value = child.getValue();
-                        Database.get().insert(data);
+                        inserts.add(data);
                     }
                 }
             }
+
+            if (updates.isEmpty() && inserts.isEmpty()) {
+                return;
+            }
+            Database.get().batch(new Database.Batch() {
+
+                @Override
+                public void run(Database database) throws DatabaseWriteException {
+                    database.updateAll(updates, updateFilters);
+                    database.insertAll(inserts);
+                }
+            });
         }
         catch (DatabaseWriteException e) {
             log.error(e.getMessage(), e);
@@ -427,6 +450,8 @@ public class BackbonePermissions extends Backbone {
     
     /**
      * Validate that player permissions have a UUID and not a playername.
+     * Called whenever player permissions are loaded, so it doesn't wait for lookups:
+     * the permissions of a name are moved to its UUID on the server thread once that is known.
      */
     public void validatePlayerPermissions(String world) {
         if (world != null && world.isEmpty()) {
@@ -434,6 +459,7 @@ public class BackbonePermissions extends Backbone {
         }
         // Database.get().remove("permission", new String[] {"owner", "type"}, new Object[] {group.getName(), "group"});
         ArrayList<DataAccess> dataList = new ArrayList<DataAccess>();
+        Set<String> names = new HashSet<String>();
 
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
@@ -443,22 +469,54 @@ public class BackbonePermissions extends Backbone {
                 PermissionDataAccess data = (PermissionDataAccess) da;
 
                 if (!ToolBox.isUUID(data.owner)) {
-                    HashMap<String, Object> updateFilter = new HashMap<String, Object>();
-                    updateFilter.put("owner", data.owner);
-                    
-                    String uuid = ToolBox.usernameToUUID(data.owner);
-                    data.owner = uuid;
-                    try {
-                        Database.get().update(data, updateFilter);
-                    } catch (DatabaseWriteException ex) {
-                        Canary.log.error("Error Validating Player Permissions: ", ex);
+                    names.add(data.owner);
+                }
+            }
+        }
+        catch (DatabaseReadException e) {
+            log.error(e.getMessage(), e);
+        }
+        final String permissionWorld = world;
+        for (final String name : names) {
+            UUIDResolver.get().resolveOnServerThread(name, new UUIDResolver.Callback() {
+
+                @Override
+                public void run(String uuid) {
+                    if (uuid != null) {
+                        movePlayerPermissions(name, uuid, permissionWorld);
                     }
-                    
                 }
+            });
+        }
+    }
+
+    /** Moves the permissions of a player name to the player's UUID */
+    private void movePlayerPermissions(String name, String uuid, String world) {
+        ArrayList<DataAccess> dataList = new ArrayList<DataAccess>();
+
+        try {
+            // Loaded again, they may have been moved since they were validated
+            HashMap<String, Object> filter = new HashMap<String, Object>();
+            filter.put("owner", name);
+            filter.put("type", "player");
+            Database.get().loadAll(new PermissionDataAccess(world), dataList, filter);
+            for (DataAccess da : dataList) {
+                PermissionDataAccess data = (PermissionDataAccess) da;
+                HashMap<String, Object> updateFilter = new HashMap<String, Object>();
+                updateFilter.put("id", data.id);
+                data.owner = uuid;
+                Database.get().update(data, updateFilter);
             }
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
         }
+        catch (DatabaseWriteException ex) {
+            Canary.log.error("Error Validating Player Permissions: ", ex);
+        }
+        Player player = dataList.isEmpty() ? null : Canary.getServer().getPlayerFromUUID(uuid);
+        if (player != null) {
+            player.getPermissionProvider().reload();
+        }
     }
 }
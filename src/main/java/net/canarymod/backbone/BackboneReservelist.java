@@ -11,6 +11,7 @@ import java.util.List;
 
 import static net.canarymod.Canary.log;
 import net.canarymod.ToolBox;
+import net.canarymod.user.UUIDResolver;
 
 /**
  * Backbone to the reservelist system. This contains NO logic, it is only the data
@@ -61,7 +62,8 @@ public class BackboneReservelist extends Backbone {
     }
 
     /**
-     * Add a new reservelist entry
+     * Add a new reservelist entry.
+     * A name is stored with its UUID if that is known already, otherwise {@link #validateReserveList()} looks it up.
      *
      * @param player
      *         the player's name or uuid
@@ -77,7 +79,9 @@ public class BackboneReservelist extends Backbone {
         }
         else {
             data.player = player;
-            data.uuid = ToolBox.usernameToUUID(player);
+            // Don't wait for a lookup
+            String uuid = UUIDResolver.get().getKnownUUID(player);
+            data.uuid = uuid == null ? "" : uuid;
         }
         try {
             Database.get().insert(data);
@@ -100,7 +104,7 @@ public class BackboneReservelist extends Backbone {
                 filter.put("uuid", subject);
             }
             else {
-                filter.put("uuid", ToolBox.usernameToUUID(subject));
+                filter.put("player", subject);
             }
             Database.get().remove(schema, filter);
         }
@@ -112,7 +116,7 @@ public class BackboneReservelist extends Backbone {
     /**
      * Load and return all recorded reservelist entries
      *
-     * @return An array list of all recorded reserve entries.
+     * @return An array list of all recorded reserve entries, the name of those without a UUID
      */
     public List<String> loadReservelist() {
         List<String> reservelist = new ArrayList<String>();
@@ -122,7 +126,7 @@ public class BackboneReservelist extends Backbone {
             Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
             for (DataAccess da : dataList) {
                 ReservelistDataAccess data = (ReservelistDataAccess) da;
-                reservelist.add(data.uuid);
+                reservelist.add(data.uuid == null || data.uuid.isEmpty() ? data.player : data.uuid);
             }
         }
         catch (DatabaseReadException e) {
@@ -134,7 +138,7 @@ public class BackboneReservelist extends Backbone {
     /**
      * Validate all user entries in the database.
      * At this time it merely checks that all entries have a valid UUID.  If an
-     * entry does not, it attempts to retrieve it from Mojang's web service and
+     * entry does not, it attempts to retrieve it from Mojang's web service, waiting for the answer, and
      */
     public void validateReserveList() {
         List<DataAccess> daos = new ArrayList<DataAccess>();
@@ -9,6 +9,7 @@ import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 import net.canarymod.user.Group;
+import net.canarymod.user.UUIDResolver;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -79,28 +80,55 @@ public class BackboneUsers extends Backbone {
 
     /**
      * Used to update a player. This can not override existing player entries.
-     * If there is a player with the uuid name, nothing will happen
+     * If there is a player with the uuid name, nothing will happen.
+     * A name is resolved to its UUID without waiting, the player is added on the main thread once it is known.
      *
      * @param nameOrUUID
      *         the player's name or uuid
      * @param group
      *         the group's name
      */
-    public void addUser(String nameOrUUID, String group) {
-        String uuid = ToolBox.isUUID(nameOrUUID) ? nameOrUUID : ToolBox.usernameToUUID(nameOrUUID);
+    public void addUser(final String nameOrUUID, final String group) {
+        if (ToolBox.isUUID(nameOrUUID)) {
+            addUser(null, nameOrUUID, group);
+            return;
+        }
+        UUIDResolver.get().resolveOnServerThread(nameOrUUID, new UUIDResolver.Callback() {
+
+            @Override
+            public void run(String uuid) {
+                if (uuid == null) {
+                    log.warn("No UUID found for player " + nameOrUUID + ". Skipping!");
+                    return;
+                }
+                addUser(nameOrUUID, uuid, group);
+            }
+        });
+    }
+
+    /**
+     * Used to update a player. This can not override existing player entries.
+     * If there is a player with the uuid name, nothing will happen
+     *
+     * @param name
+     *         the player's name, may be {@code null}
+     * @param uuid
+     *         the player's uuid
+     * @param group
+     *         the group's name
+     */
+    public void addUser(String name, String uuid, String group) {
         if (uuid == null) {
-            log.warn("Player name or uuid is 'null'. Skipping!");
+            log.warn("No UUID given for player " + name + ". Skipping!");
             return;
         }
         if (userExists(uuid)) {
             log.warn("Player " + uuid + " already exists. Attempting update...");
-            updatePlayer(Canary.getServer().matchKnownPlayer(nameOrUUID));
+            updatePlayer(Canary.getServer().matchKnownPlayer(name != null ? name : uuid));
             return;
         }
         PlayerDataAccess data = new PlayerDataAccess();
-        if (!ToolBox.isUUID(nameOrUUID)) {
-            data.name = nameOrUUID;
-        }
+        data.name = name;
         data.uuid = uuid;
         data.group = group;
         data.prefix = null;
@@ -287,7 +315,7 @@ public class BackboneUsers extends Backbone {
     /**
      * Validate all user entries in the database.
      * At this time it merely checks that all entries have a valid UUID.  If an
-     * entry does not, it attempts to retrieve it from Mojang's web service and
+     * entry does not, it attempts to retrieve it from Mojang's web service, waiting for the answer, and
      */
     public void validateUsers() {
         List<DataAccess> daos = new ArrayList<DataAccess>();
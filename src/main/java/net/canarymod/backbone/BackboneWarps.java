@@ -3,6 +3,7 @@ package net.canarymod.backbone;
 import net.canarymod.Canary;
 import net.canarymod.ToolBox;
 import net.canarymod.api.world.position.Location;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
@@ -19,6 +20,8 @@ import static net.canarymod.Canary.log;
 /**
  * Backbone to the warps system This contains NO logic, it is only the data
  * source access!
+ * <p/>
+ * Writes go through the {@link AsyncDatabase}, reads wait for the writes queued before them.
  *
  * @author Chris
  */
@@ -36,20 +39,6 @@ public class BackboneWarps extends Backbone {
         }
     }
 
-    private boolean warpExists(Warp warp) {
-        WarpDataAccess data = new WarpDataAccess();
-
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", warp.getName());
-            Database.get().load(data, filter);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-        return data.hasData();
-    }
-
     /**
      * Creates a groups array.
      * IMPORTANT NOTE: This requires the groups backbone to be loaded already!
@@ -70,29 +59,29 @@ public class BackboneWarps extends Backbone {
 
     /**
      * Add a new Warp to the list of Warps.
+     * The warp is written in the background, replacing an existing warp of the same name.
      *
      * @param warp
      *         Warp instance to add to the data source.
      */
     public void addWarp(Warp warp) {
-        if (warpExists(warp)) {
-            updateWarp(warp);
-            return;
-        }
-        WarpDataAccess data = new WarpDataAccess();
-
-        data.groups = warp.getGroupsAsString();
-        data.isPlayerHome = warp.isPlayerHome();
-        data.location = warp.getLocation().toString();
-        data.name = warp.getName();
-        data.owner = warp.getOwner();
-
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        final WarpDataAccess data = toDataAccess(warp);
+        AsyncDatabase.get().batch(schema, new Database.Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException, DatabaseReadException {
+                HashMap<String, Object> filter = new HashMap<String, Object>();
+                filter.put("name", data.name);
+                WarpDataAccess existing = new WarpDataAccess();
+                database.load(existing, filter);
+                if (existing.hasData()) {
+                    database.update(data, filter);
+                }
+                else {
+                    database.insert(data);
+                }
+            }
+        });
     }
 
     /**
@@ -102,15 +91,10 @@ public class BackboneWarps extends Backbone {
      *         Warp instance to remove from the data source.
      */
     public void removeWarp(Warp warp) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", warp.getName());
-            filter.put("location", warp.getLocation().toString());
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("name", warp.getName());
+        filter.put("location", warp.getLocation().toString());
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -120,6 +104,12 @@ public class BackboneWarps extends Backbone {
      *         Warp instance to update to the data source.
      */
     public void updateWarp(Warp warp) {
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("name", warp.getName());
+        AsyncDatabase.get().update(toDataAccess(warp), filter);
+    }
+
+    private WarpDataAccess toDataAccess(Warp warp) {
         WarpDataAccess data = new WarpDataAccess();
 
         data.groups = warp.getGroupsAsString();
@@ -127,14 +117,7 @@ public class BackboneWarps extends Backbone {
         data.location = warp.getLocation().toString();
         data.name = warp.getName();
         data.owner = warp.getOwner();
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", warp.getName());
-            Database.get().update(data, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        return data;
     }
 
     /**
@@ -146,6 +129,7 @@ public class BackboneWarps extends Backbone {
         List<Warp> warps = new ArrayList<Warp>();
         List<DataAccess> daos = new ArrayList<DataAccess>();
 
+        AsyncDatabase.get().flush(schema);
         try {
             Database.get().loadAll(schema, daos, new HashMap<String, Object>());
             for (DataAccess dao : daos) {
@@ -34,7 +34,8 @@ public class BackboneWhitelist extends Backbone {
     }
 
     /**
-     * Checks if the player is whitelisted
+     * Checks if the player is whitelisted.
+     * Waits for a UUID lookup if given a name that isn't cached.
      *
      * @param player
      *         the player's name or uuid to check
@@ -61,7 +62,8 @@ public class BackboneWhitelist extends Backbone {
     }
 
     /**
-     * Add a new whitelist entry
+     * Add a new whitelist entry.
+     * Waits for a UUID lookup if given a name that isn't cached.
      *
      * @param player
      *         the player's name or uuid
@@ -90,7 +92,8 @@ public class BackboneWhitelist extends Backbone {
     }
 
     /**
-     * Removes a player from the whitelist
+     * Removes a player from the whitelist.
+     * Waits for a UUID lookup if given a name that isn't cached.
      *
      * @param subject
      *         the player's name or uuid
@@ -136,7 +139,7 @@ public class BackboneWhitelist extends Backbone {
     /**
      * Validate all user entries in the database.
      * At this time it merely checks that all entries have a valid UUID.  If an
-     * entry does not, it attempts to retrieve it from Mojang's web service and
+     * entry does not, it attempts to retrieve it from Mojang's web service, waiting for the answer, and
      */
     public void validateReserveList() {
         List<DataAccess> daos = new ArrayList<DataAccess>();
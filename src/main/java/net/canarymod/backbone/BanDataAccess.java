@@ -16,7 +16,7 @@ public class BanDataAccess extends DataAccess {
     }
 
     /** Player uuid for this ban. */
-    @Column(columnName = "uuid", dataType = DataType.STRING)
+    @Column(columnName = "uuid", dataType = DataType.STRING, indexed = true)
     public String uuid;
 
     /** Player name for this ban. */
@@ -24,7 +24,7 @@ public class BanDataAccess extends DataAccess {
     public String player;
 
     /** IP Address for this ban. */
-    @Column(columnName = "ip", dataType = DataType.STRING)
+    @Column(columnName = "ip", dataType = DataType.STRING, indexed = true)
     public String ip;
 
     /** Reason for this ban. */
@@ -16,7 +16,7 @@ public class GroupDataAccess extends DataAccess {
     }
 
     /** Name of this group. */
-    @Column(columnName = "name", dataType = DataType.STRING)
+    @Column(columnName = "name", dataType = DataType.STRING, indexed = true)
     public String name;
 
     /** Chat prefix for this group. */
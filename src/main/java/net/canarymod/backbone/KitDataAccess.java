@@ -30,7 +30,7 @@ public class KitDataAccess extends DataAccess {
     public List<String> groups;
 
     /** Name of this kit. */
-    @Column(columnName = "name", dataType = DataType.STRING)
+    @Column(columnName = "name", dataType = DataType.STRING, indexed = true)
     public String name;
 
     /** Items to give from this kit. */
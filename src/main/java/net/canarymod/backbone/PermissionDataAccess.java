@@ -3,12 +3,14 @@ package net.canarymod.backbone;
 import net.canarymod.database.Column;
 import net.canarymod.database.Column.DataType;
 import net.canarymod.database.DataAccess;
+import net.canarymod.database.Index;
 
 /**
  * Permission Data Access
  *
  * @author Chris (damagefilter)
  */
+@Index({"owner", "type"})
 public class PermissionDataAccess extends DataAccess {
 
     private String suffix;
@@ -25,7 +27,7 @@ public class PermissionDataAccess extends DataAccess {
     }
 
     /** Node for this Permission. */
-    @Column(columnName = "path", dataType = DataType.STRING)
+    @Column(columnName = "path", dataType = DataType.STRING, indexed = true)
     public String path;
 
     /** Whether or not this permission is true or false. */
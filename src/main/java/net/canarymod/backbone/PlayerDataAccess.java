@@ -18,11 +18,11 @@ public class PlayerDataAccess extends DataAccess {
     }
 
     /** Player uuid for this ban. */
-    @Column(columnName = "uuid", dataType = DataType.STRING)
+    @Column(columnName = "uuid", dataType = DataType.STRING, indexed = true)
     public String uuid;
 
     /** name of the player. */
-    @Column(columnName = "name", dataType = DataType.STRING)
+    @Column(columnName = "name", dataType = DataType.STRING, indexed = true)
     public String name;
 
     /** Player prefix. */
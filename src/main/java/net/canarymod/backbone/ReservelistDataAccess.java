@@ -16,11 +16,11 @@ public class ReservelistDataAccess extends DataAccess {
     }
 
     /** UUID for this reservelist entry */
-    @Column(columnName = "uuid", dataType = DataType.STRING)
+    @Column(columnName = "uuid", dataType = DataType.STRING, indexed = true)
     public String uuid;
 
     /** Playername for this reservelist entry */
-    @Column(columnName = "player", dataType = DataType.STRING)
+    @Column(columnName = "player", dataType = DataType.STRING, indexed = true)
     public String player;
 
     @Override
@@ -18,7 +18,7 @@ public class WarpDataAccess extends DataAccess {
     }
 
     /** Name of this warp. */
-    @Column(columnName = "name", dataType = DataType.STRING)
+    @Column(columnName = "name", dataType = DataType.STRING, indexed = true)
     public String name;
 
     /** Is this warp a player home? */
@@ -16,13 +16,13 @@ public class WhitelistDataAccess extends DataAccess {
     }
 
     /** UUID for this reservelist entry */
-    @Column(columnName = "uuid", dataType = DataType.STRING)
+    @Column(columnName = "uuid", dataType = DataType.STRING, indexed = true)
     public String uuid;
 
     /** Playername for this
 
     /** Playername for this whitelist entry */
-    @Column(columnName = "player", dataType = DataType.STRING)
+    @Column(columnName = "player", dataType = DataType.STRING, indexed = true)
     public String player;
 
     @Override
@@ -197,6 +197,7 @@ public class Ban {
     
     /**
      * Gets the UUID of the user for this ban.
+     * A ban from before UUIDs gets its UUID on the first call, which waits for the lookup unless the name is cached.
      * 
      * @return UUID of user
      */
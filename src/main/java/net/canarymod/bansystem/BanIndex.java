@@ -0,0 +1,360 @@
+package net.canarymod.bansystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bans known to the {@link BanManager}, indexed by UUID, lowercased name and IP.
+ * <p/>
+ * IP bans on a single address are found by exact match. Bans on IPv4 networks are found by masking
+ * the address with each prefix length in use, so a lookup costs at most 33 hash lookups however many bans there are.
+ * Networks may be given in CIDR notation ({@code 10.0.0.0/8}), with trailing wildcards ({@code 10.0.*})
+ * or as a range ({@code 10.0.0.0-10.0.3.255}), which is split into the networks that cover it.
+ * <p/>
+ * Lookups don't lock, changes lock the index. A ban is indexed by the values it has when it is added,
+ * so it must not be changed afterwards.
+ */
+final class BanIndex {
+    private static final Ban[] NONE = new Ban[0];
+
+    private final ConcurrentHashMap<String, Ban[]> byUuid = new ConcurrentHashMap<String, Ban[]>();
+    private final ConcurrentHashMap<String, Ban[]> byName = new ConcurrentHashMap<String, Ban[]>();
+    private final ConcurrentHashMap<String, Ban[]> byIp = new ConcurrentHashMap<String, Ban[]>();
+    // Keyed by prefix length << 32 | network address
+    private final ConcurrentHashMap<Long, Ban[]> byNetwork = new ConcurrentHashMap<Long, Ban[]>();
+    private final int[] prefixCounts = new int[33]; // Guarded by this
+    private volatile long prefixes; // Bit n is set while there are bans on /n networks
+
+    private final LinkedHashSet<Ban> all = new LinkedHashSet<Ban>(); // Guarded by this
+    // Temporary bans by expiry. Removed bans stay queued and are skipped when polled
+    private final PriorityQueue<Ban> expiry = new PriorityQueue<Ban>(64, new Comparator<Ban>() {
+        @Override
+        public int compare(Ban o1, Ban o2) {
+            return o1.getTimestamp() < o2.getTimestamp() ? -1 : o1.getTimestamp() > o2.getTimestamp() ? 1 : 0;
+        }
+    });
+
+    /**
+     * Adds a ban
+     *
+     * @param ban
+     *         the ban
+     */
+    synchronized void add(Ban ban) {
+        if (!all.add(ban)) {
+            return;
+        }
+        put(byUuid, uuidKey(ban), ban);
+        put(byName, nameKey(ban), ban);
+        if (ban.isIpBan() && ban.getIp() != null) {
+            put(byIp, ban.getIp(), ban);
+            for (long network : parseNetworks(ban.getIp())) {
+                put(byNetwork, network, ban);
+                int prefix = (int) (network >>> 32);
+                if (prefixCounts[prefix]++ == 0) {
+                    prefixes |= 1L << prefix;
+                }
+            }
+        }
+        if (ban.getTimestamp() != -1) {
+            expiry.add(ban);
+        }
+    }
+
+    /**
+     * Removes a ban
+     *
+     * @param ban
+     *         the ban
+     *
+     * @return {@code true} if it was known
+     */
+    synchronized boolean remove(Ban ban) {
+        if (!all.remove(ban)) {
+            return false;
+        }
+        unindex(ban);
+        return true;
+    }
+
+    private void unindex(Ban ban) {
+        take(byUuid, uuidKey(ban), ban);
+        take(byName, nameKey(ban), ban);
+        if (ban.isIpBan() && ban.getIp() != null) {
+            take(byIp, ban.getIp(), ban);
+            for (long network : parseNetworks(ban.getIp())) {
+                take(byNetwork, network, ban);
+                int prefix = (int) (network >>> 32);
+                if (--prefixCounts[prefix] == 0) {
+                    prefixes &= ~(1L << prefix);
+                }
+            }
+        }
+    }
+
+    /** Removes all bans */
+    synchronized void clear() {
+        all.clear();
+        expiry.clear();
+        byUuid.clear();
+        byName.clear();
+        byIp.clear();
+        byNetwork.clear();
+        Arrays.fill(prefixCounts, 0);
+        prefixes = 0;
+    }
+
+    /**
+     * Removes and returns all bans that have expired
+     *
+     * @return the expired bans
+     */
+    synchronized List<Ban> removeExpired() {
+        List<Ban> expired = new ArrayList<Ban>();
+        while (!expiry.isEmpty() && expiry.peek().isExpired()) {
+            Ban ban = expiry.poll();
+            if (all.remove(ban)) {
+                unindex(ban);
+                expired.add(ban);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Gets the bans of a UUID
+     *
+     * @param uuid
+     *         the UUID
+     *
+     * @return the bans, in the order they were added
+     */
+    Ban[] getByUuid(String uuid) {
+        return get(byUuid, uuid.toLowerCase());
+    }
+
+    /**
+     * Gets the bans of a name
+     *
+     * @param name
+     *         the name, in any case
+     *
+     * @return the bans, in the order they were added
+     */
+    Ban[] getByName(String name) {
+        return get(byName, name.toLowerCase());
+    }
+
+    /**
+     * Gets the bans on exactly the given IP, or the given network pattern
+     *
+     * @param ip
+     *         the IP or pattern as it was banned
+     *
+     * @return the bans, in the order they were added
+     */
+    Ban[] getByIp(String ip) {
+        return get(byIp, ip);
+    }
+
+    /**
+     * Gets the bans that cover an address: bans on the address itself and on networks containing it
+     *
+     * @param ip
+     *         the IP address
+     *
+     * @return the bans
+     */
+    Ban[] getCovering(String ip) {
+        Ban[] exact = get(byIp, ip);
+        long used = prefixes;
+        if (used == 0) {
+            return exact;
+        }
+        long address = parseAddress(ip);
+        if (address < 0) {
+            return exact;
+        }
+        List<Ban> found = null;
+        for (int prefix = 32; prefix >= 0; prefix--) {
+            if ((used & (1L << prefix)) == 0) {
+                continue;
+            }
+            Ban[] bans = byNetwork.get(networkKey(address, prefix));
+            if (bans != null) {
+                if (found == null) {
+                    found = new ArrayList<Ban>(Arrays.asList(exact));
+                }
+                found.addAll(Arrays.asList(bans));
+            }
+        }
+        return found == null ? exact : found.toArray(NONE);
+    }
+
+    /**
+     * Gets all bans
+     *
+     * @return the bans, in the order they were added
+     */
+    synchronized Ban[] toArray() {
+        return all.toArray(NONE);
+    }
+
+    private static String uuidKey(Ban ban) {
+        return ban.getUUID() == null ? null : ban.getUUID().toLowerCase();
+    }
+
+    private static String nameKey(Ban ban) {
+        return ban.getSubject() == null ? null : ban.getSubject().toLowerCase();
+    }
+
+    private static <K> Ban[] get(ConcurrentHashMap<K, Ban[]> index, K key) {
+        Ban[] bans = index.get(key);
+        return bans != null ? bans : NONE;
+    }
+
+    private static <K> void put(ConcurrentHashMap<K, Ban[]> index, K key, Ban ban) {
+        if (key == null) {
+            return;
+        }
+        Ban[] bans = index.get(key);
+        if (bans == null) {
+            index.put(key, new Ban[]{ ban });
+        }
+        else {
+            Ban[] grown = Arrays.copyOf(bans, bans.length + 1);
+            grown[bans.length] = ban;
+            index.put(key, grown);
+        }
+    }
+
+    private static <K> void take(ConcurrentHashMap<K, Ban[]> index, K key, Ban ban) {
+        if (key == null) {
+            return;
+        }
+        Ban[] bans = index.get(key);
+        if (bans == null) {
+            return;
+        }
+        List<Ban> left = new ArrayList<Ban>(Arrays.asList(bans));
+        left.remove(ban);
+        if (left.isEmpty()) {
+            index.remove(key);
+        }
+        else {
+            index.put(key, left.toArray(NONE));
+        }
+    }
+
+    private static long networkKey(long address, int prefix) {
+        long mask = prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+        return ((long) prefix << 32) | (address & mask);
+    }
+
+    /**
+     * Parses an IPv4 address
+     *
+     * @param ip
+     *         the address
+     *
+     * @return the address as unsigned 32 bit value, -1 if it isn't an IPv4 address
+     */
+    static long parseAddress(String ip) {
+        long address = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            }
+            else if (c == '.' && value >= 0 && octets < 4) {
+                address = (address << 8) | value;
+                octets++;
+                value = -1;
+            }
+            else {
+                return -1;
+            }
+        }
+        return octets == 4 ? address : -1;
+    }
+
+    /**
+     * Parses a network pattern into the networks it covers
+     *
+     * @param pattern
+     *         a CIDR network, an address with trailing wildcards or a range of addresses
+     *
+     * @return the networks as index keys, empty if the pattern is a single address or not a pattern
+     */
+    static long[] parseNetworks(String pattern) {
+        int slash = pattern.indexOf('/');
+        if (slash > 0) {
+            long address = parseAddress(pattern.substring(0, slash));
+            int prefix;
+            try {
+                prefix = Integer.parseInt(pattern.substring(slash + 1));
+            }
+            catch (NumberFormatException e) {
+                return new long[0];
+            }
+            if (address < 0 || prefix < 0 || prefix > 32) {
+                return new long[0];
+            }
+            return new long[]{ networkKey(address, prefix) };
+        }
+        if (pattern.endsWith("*")) {
+            String[] parts = pattern.split("\\.");
+            StringBuilder base = new StringBuilder();
+            int fixed = 0;
+            for (String part : parts) {
+                if (part.equals("*")) {
+                    break;
+                }
+                base.append(part).append('.');
+                fixed++;
+            }
+            if (fixed == 0 || fixed >= 4) {
+                return fixed == 0 && parts.length == 1 ? new long[]{ networkKey(0, 0) } : new long[0];
+            }
+            for (int i = fixed; i < 4; i++) {
+                base.append(i < 3 ? "0." : "0");
+            }
+            long address = parseAddress(base.toString());
+            return address < 0 ? new long[0] : new long[]{ networkKey(address, fixed * 8) };
+        }
+        int dash = pattern.indexOf('-');
+        if (dash > 0) {
+            long start = parseAddress(pattern.substring(0, dash).trim());
+            long end = parseAddress(pattern.substring(dash + 1).trim());
+            if (start < 0 || end < start) {
+                return new long[0];
+            }
+            // Split into the largest aligned networks that fit
+            List<Long> networks = new ArrayList<Long>();
+            while (start <= end) {
+                int size = start == 0 ? 32 : Long.numberOfTrailingZeros(start);
+                while (size > 0 && start + (1L << size) - 1 > end) {
+                    size--;
+                }
+                networks.add(networkKey(start, 32 - size));
+                start += 1L << size;
+            }
+            long[] keys = new long[networks.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = networks.get(i);
+            }
+            return keys;
+        }
+        return new long[0];
+    }
+}
@@ -3,24 +3,40 @@ package net.canarymod.bansystem;
 import net.canarymod.ToolBox;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.backbone.BackboneBans;
+import net.canarymod.tasks.AsyncServerTask;
+import net.canarymod.tasks.ServerTaskManager;
+import net.canarymod.tasks.TaskOwner;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import static net.canarymod.Canary.log;
 
 /**
  * Used to issue bans
+ * <p/>
+ * Bans are looked up through hash indexes by UUID, name and IP, IP bans may cover IPv4 networks, see {@link BanIndex}.
+ * Expired bans no longer count as bans as soon as they expire, and are lifted together by a sweep every {@link #SWEEP_INTERVAL} ticks.
  *
  * @author Chris (damagefilter)
  */
-public class BanManager {
+public class BanManager implements TaskOwner {
+    /** Ticks between sweeps for expired bans */
+    public static final long SWEEP_INTERVAL = 600L;
+
     private BackboneBans backbone;
-    private List<Ban> bans = new ArrayList<Ban>();
+    private final BanIndex bans = new BanIndex();
 
     public BanManager() {
         backbone = new BackboneBans();
-        bans = backbone.loadBans();
+        for (Ban ban : backbone.loadBans()) {
+            bans.add(ban);
+        }
+        ServerTaskManager.addTask(new AsyncServerTask(this, SWEEP_INTERVAL, true) {
+            @Override
+            public void run() {
+                liftExpiredBans();
+            }
+        });
     }
 
     /**
@@ -128,8 +144,9 @@ public class BanManager {
     }
 
     /**
-     * Check if banned and unban if ban has expired. Returns true if still
-     * banned, false otherwise. THIS WILL ALSO WORK FOR IP!
+     * Check if banned. Returns true if still banned, false otherwise;
+     * an expired ban is lifted with the next sweep. THIS WILL ALSO WORK FOR IP!
+     * An IP is also banned if it is within a banned network.
      *
      * @param subject
      *         the uuid/ip of the subject who was banned
@@ -137,38 +154,16 @@ public class BanManager {
      * @return {@code true} if banned; {@code false} if not
      */
     public boolean isBanned(String subject) {
-        Ban test = null;
-
-        for (Ban b : bans) {
-            if (b.getUUID().equals(subject)) {
-                test = b;
-                break;
-            }
-            else if (b.getIp().equals(subject)) {
-                test = b;
-                break;
-            }
-        }
-        if (test == null) {
-            return false;
-        }
-        else if (test.isExpired()) {
-            if (test.isIpBan()) {
-                backbone.liftIpBan(test.getIp());
-            }
-            else {
-                backbone.liftBan(test.getUUID());
+        for (Ban b : bans.getByUuid(subject)) {
+            if (!b.isExpired()) {
+                return true;
             }
-            bans.remove(test);
-            return false;
-        }
-        else {
-            return true;
         }
+        return isIpBanned(subject);
     }
 
     /**
-     * Check if the given IP is banned
+     * Check if the given IP is banned, either itself or by a banned network it is within
      *
      * @param ip
      *         the IP address
@@ -176,8 +171,8 @@ public class BanManager {
      * @return {@code true} if banned; {@code false} if not
      */
     public boolean isIpBanned(String ip) {
-        for (Ban b : bans) {
-            if (b.getIp().equals(ip)) {
+        for (Ban b : bans.getCovering(ip)) {
+            if (!b.isExpired()) {
                 return true;
             }
         }
@@ -193,12 +188,8 @@ public class BanManager {
      * @return the Ban if exists; {@code null} otherwise
      */
     public Ban getBanFromName(String player) {
-        for (Ban b : bans) {
-            if (b.getSubject().equalsIgnoreCase(player)) {
-                return b;
-            }
-        }
-        return null;
+        Ban[] found = bans.getByName(player);
+        return found.length > 0 ? found[0] : null;
     }
 
     /**
@@ -210,36 +201,25 @@ public class BanManager {
      * @return the Ban if exists; {@code null} otherwise
      */
     public Ban getBan(String uuid) {
-        for (Ban b : bans) {
-            if (b.getUUID().equalsIgnoreCase(uuid)) {
-                return b;
-            }
-        }
-        return null;
+        Ban[] found = bans.getByUuid(uuid);
+        return found.length > 0 ? found[0] : null;
     }
 
     /**
      * Unban a subject, player or ip
      *
      * @param subject
-     *         the uuid/ip of the subject
+     *         the uuid/ip of the subject, or a banned network exactly as it was banned
      */
     public void unban(String subject) {
-        Ban test = null;
-
-        for (Ban b : bans) {
-            if (b.getUUID().equals(subject)) {
-                test = b;
-                break;
-            }
-            else if (b.getIp().equals(subject)) {
-                test = b;
-                break;
-            }
+        Ban[] found = bans.getByUuid(subject);
+        if (found.length == 0) {
+            found = bans.getByIp(subject);
         }
-        if (test == null) {
+        if (found.length == 0) {
             return;
         }
+        Ban test = found[0];
         if (test.isIpBan()) {
             backbone.liftIpBan(test.getIp());
         }
@@ -258,12 +238,10 @@ public class BanManager {
     public void unban(Player player) {
         Ban test = null;
 
-        for (Ban b : bans) {
+        for (Ban b : bans.getByUuid(player.getUUIDString())) {
             if (!b.isIpBan()) {
-                if (b.getUUID().equals(player.getUUID())) {
-                    test = b;
-                    break;
-                }
+                test = b;
+                break;
             }
         }
         if (test == null) {
@@ -279,9 +257,21 @@ public class BanManager {
      * @return an Array of {@link Ban}(s)
      */
     public Ban[] getAllBans() {
-        Ban[] retT = { };
+        return bans.toArray();
+    }
 
-        return bans.toArray(retT);
+    /**
+     * Lifts all bans that have expired, in one write to the datasource.
+     * Called periodically, but may be called any time.
+     *
+     * @return the number of bans lifted
+     */
+    public int liftExpiredBans() {
+        List<Ban> expired = bans.removeExpired();
+        if (!expired.isEmpty()) {
+            backbone.liftBans(expired);
+        }
+        return expired.size();
     }
 
     /**
@@ -319,7 +309,12 @@ public class BanManager {
 
     /** Reloads the bans from datasource */
     public void reload() {
-        bans.clear();
-        bans = backbone.loadBans();
+        List<Ban> loaded = backbone.loadBans();
+        synchronized (bans) {
+            bans.clear();
+            for (Ban ban : loaded) {
+                bans.add(ban);
+            }
+        }
     }
 }
@@ -5,6 +5,7 @@ import net.canarymod.ToolBox;
 import net.canarymod.Translator;
 import net.canarymod.chat.MessageReceiver;
 import net.canarymod.config.Configuration;
+import net.canarymod.permissionsystem.PermissionRegistry;
 import net.visualillusionsent.utils.LocaleHelper;
 
 import java.util.ArrayList;
@@ -67,6 +68,9 @@ public abstract class CanaryCommand implements Comparable<CanaryCommand> {
         this.owner = owner;
         this.translator = translator;
         this.tabComplete = tabComplete;
+        for (String permission : meta.permissions()) {
+            PermissionRegistry.intern(permission);
+        }
     }
 
     /**
@@ -49,6 +49,7 @@ public enum CanaryCommandPermissions {
             BAN = "canary.command.ban",
             CANARYMOD = "canary.command.canarymod",
             CREATEVANILLA = "canary.command.createvanilla",
+            DBSTATS = "canary.command.dbstats",
             HELP = "canary.command.help",
             IPBAN = "canary.command.ipban",
             KICK = "canary.command.kick",
@@ -68,6 +69,7 @@ public enum CanaryCommandPermissions {
             RESERVELIST = "canary.command.reservelist",
             STOP = "canary.command.stop",
             SYSINFO = "canary.command.sysinfo",
+            TIMINGS = "canary.command.timings",
             UNBAN = "canary.command.unban",
             UPTIME = "canary.command.uptime",
             WHITELIST = "canary.command.whitelist",
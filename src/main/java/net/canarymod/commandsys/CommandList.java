@@ -73,6 +73,7 @@ public class CommandList implements CommandListener {
         temp.put("ban", new BanCommand());
         temp.put("canarymod", new CanaryModCommand());
         temp.put("createvanilla", new CreateVanilla());
+        temp.put("dbstats", new DatabaseStatsCommand());
         temp.put("deop", new DeOp());
         temp.put("help", new HelpCommand());
         temp.put("ipban", new IpBanCommand());
@@ -92,6 +93,7 @@ public class CommandList implements CommandListener {
         temp.put("reservelist", new ReservelistCommand());
         temp.put("stop", new StopServer());
         temp.put("sysinfo", new SystemInformation());
+        temp.put("timings", new TimingsCommand());
         temp.put("unban", new UnbanCommand());
         temp.put("uptime", new Uptime());
         temp.put("whitelist", new WhitelistCommand());
@@ -701,6 +703,21 @@ public class CommandList implements CommandListener {
         natives.get("createvanilla").execute(caller, parameters);
     }
 
+    @Command(
+            aliases = {"dbstats"},
+            description = "database operation metrics",
+            permissions = {DBSTATS},
+            toolTip = "/dbstats <on|off|reset|report [lines]|slow [lines]|threshold [ms]|pool|export [file]>"
+    )
+    public void dbstats(MessageReceiver caller, String[] parameters) {
+        natives.get("dbstats").execute(caller, parameters);
+    }
+
+    @TabComplete(commands = {"dbstats"})
+    public List<String> dbstatsTabComplete(MessageReceiver caller, String[] parameters) {
+        return parameters.length == 1 ? matchTo(parameters, new String[]{"on", "off", "reset", "report", "slow", "threshold", "pool", "export"}) : null;
+    }
+
     @Command(
             aliases = {"deop"},
             description = "Takes Op from a Player",
@@ -946,6 +963,21 @@ public class CommandList implements CommandListener {
         natives.get("sysinfo").execute(caller, parameters);
     }
 
+    @Command(
+            aliases = {"timings"},
+            description = "hook and task timings",
+            permissions = {TIMINGS},
+            toolTip = "/timings <on|off|reset|report [lines]|export [file]>"
+    )
+    public void timings(MessageReceiver caller, String[] parameters) {
+        natives.get("timings").execute(caller, parameters);
+    }
+
+    @TabComplete(commands = {"timings"})
+    public List<String> timingsTabComplete(MessageReceiver caller, String[] parameters) {
+        return parameters.length == 1 ? matchTo(parameters, new String[]{"on", "off", "reset", "report", "export"}) : null;
+    }
+
     @Command(
             aliases = {"unban"},
             description = "unban info",
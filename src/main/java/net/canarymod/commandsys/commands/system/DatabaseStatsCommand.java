@@ -0,0 +1,156 @@
+package net.canarymod.commandsys.commands.system;
+
+import net.canarymod.chat.MessageReceiver;
+import net.canarymod.chat.TextFormat;
+import net.canarymod.commandsys.NativeCommand;
+import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.metrics.DatabaseMetrics;
+import net.canarymod.database.metrics.OperationMetrics;
+import net.canarymod.database.metrics.SlowOperation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Database operation metrics command
+ */
+public class DatabaseStatsCommand implements NativeCommand {
+    private static final int DEFAULT_LINES = 10;
+
+    @Override
+    public void execute(MessageReceiver caller, String[] parameters) {
+        String action = parameters.length > 1 ? parameters[1].toLowerCase() : "report";
+        String argument = parameters.length > 2 ? parameters[2] : null;
+        if (action.equals("on")) {
+            DatabaseMetrics.setEnabled(true);
+            caller.notice("Database metrics enabled.");
+        }
+        else if (action.equals("off")) {
+            DatabaseMetrics.setEnabled(false);
+            caller.notice("Database metrics disabled.");
+        }
+        else if (action.equals("reset")) {
+            DatabaseMetrics.reset();
+            caller.notice("Database metrics reset.");
+        }
+        else if (action.equals("report")) {
+            report(caller, argument);
+        }
+        else if (action.equals("slow")) {
+            slow(caller, argument);
+        }
+        else if (action.equals("threshold")) {
+            threshold(caller, argument);
+        }
+        else if (action.equals("pool")) {
+            pool(caller);
+        }
+        else if (action.equals("export")) {
+            export(caller, argument != null ? argument : ReportFiles.defaultName("dbstats"));
+        }
+        else {
+            caller.notice("Usage: /dbstats <on|off|reset|report [lines]|slow [lines]|threshold [ms]|pool|export [file]>");
+        }
+    }
+
+    private void report(MessageReceiver caller, String lineArg) {
+        if (!DatabaseMetrics.isEnabled()) {
+            caller.notice("Database metrics are disabled. Use /dbstats on to start recording.");
+            return;
+        }
+        int lines = parseLines(caller, lineArg);
+        if (lines < 0) {
+            return;
+        }
+        List<OperationMetrics> entries = DatabaseMetrics.getEntries();
+        double sampleMs = DatabaseMetrics.getSampleNanos() / 1000000.0D;
+        caller.message(TextFormat.ORANGE + "   *** " + TextFormat.LIGHT_RED + "DATABASE" + TextFormat.ORANGE + " ***");
+        caller.message(TextFormat.ORANGE + String.format("Sampled: " + TextFormat.WHITE + "%.1fs " + TextFormat.ORANGE + "| Entries: " + TextFormat.WHITE + "%d", sampleMs / 1000.0D, entries.size()));
+        for (int i = 0; i < entries.size() && i < lines; i++) {
+            OperationMetrics entry = entries.get(i);
+            caller.message(String.format(TextFormat.ORANGE + "%s " + TextFormat.WHITE + "%s: " + TextFormat.YELLOW + "%d calls, %.2fms total, %.3fms avg, %.0fms p95, %.3fms max, %.2fms pool wait, %d rows, %d errors",
+                    entry.getTable(), entry.getOperation(), entry.getCount(), entry.getTotalNanos() / 1000000.0D, entry.getAverageNanos() / 1000000.0D,
+                    entry.getPercentileMillis(95), entry.getMaxNanos() / 1000000.0D, entry.getPoolWaitNanos() / 1000000.0D, entry.getRows(), entry.getErrorCount()));
+        }
+    }
+
+    private void slow(MessageReceiver caller, String lineArg) {
+        int lines = parseLines(caller, lineArg);
+        if (lines < 0) {
+            return;
+        }
+        List<SlowOperation> slow = DatabaseMetrics.getSlowOperations();
+        caller.message(TextFormat.ORANGE + String.format("Slow operations (over %dms): " + TextFormat.WHITE + "%d", DatabaseMetrics.getSlowThreshold(), slow.size()));
+        // Most recent first
+        for (int i = slow.size() - 1; i >= 0 && i >= slow.size() - lines; i--) {
+            caller.message(TextFormat.YELLOW + slow.get(i).toString());
+        }
+    }
+
+    private void threshold(MessageReceiver caller, String msArg) {
+        if (msArg != null) {
+            try {
+                DatabaseMetrics.setSlowThreshold(Long.parseLong(msArg));
+            }
+            catch (NumberFormatException nfex) {
+                caller.notice("Invalid threshold: " + msArg);
+                return;
+            }
+        }
+        caller.notice("Slow operation threshold: " + DatabaseMetrics.getSlowThreshold() + "ms");
+    }
+
+    private void pool(MessageReceiver caller) {
+        JdbcConnectionManager.PoolStats stats = JdbcConnectionManager.getPoolStats();
+        if (stats == null) {
+            caller.notice("No connection pool is running.");
+            return;
+        }
+        caller.message(TextFormat.ORANGE + String.format("Connections: " + TextFormat.WHITE + "%d " + TextFormat.ORANGE + "| Busy: " + TextFormat.WHITE + "%d " + TextFormat.ORANGE + "| Idle: " + TextFormat.WHITE + "%d " + TextFormat.ORANGE + "| Waiting threads: " + TextFormat.WHITE + "%d",
+                stats.getConnections(), stats.getBusy(), stats.getIdle(), stats.getAwaiting()));
+        double avgWait = stats.getCheckouts() == 0 ? 0 : stats.getWaitNanos() / 1000000.0D / stats.getCheckouts();
+        caller.message(TextFormat.ORANGE + String.format("Checkouts: " + TextFormat.WHITE + "%d " + TextFormat.ORANGE + "| Avg wait: " + TextFormat.WHITE + "%.3fms " + TextFormat.ORANGE + "| Failed: " + TextFormat.WHITE + "%d " + TextFormat.ORANGE + "| Orphaned: " + TextFormat.WHITE + "%d",
+                stats.getCheckouts(), avgWait, stats.getFailedCheckouts(), stats.getOrphaned()));
+    }
+
+    private int parseLines(MessageReceiver caller, String lineArg) {
+        if (lineArg == null) {
+            return DEFAULT_LINES;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(lineArg));
+        }
+        catch (NumberFormatException nfex) {
+            caller.notice("Invalid line count: " + lineArg);
+            return -1;
+        }
+    }
+
+    private void export(MessageReceiver caller, String fileName) {
+        FileWriter writer = null;
+        try {
+            File file = ReportFiles.create(fileName);
+            writer = new FileWriter(file);
+            DatabaseMetrics.export(writer);
+            caller.notice("Database metrics exported to " + file.getPath());
+        }
+        catch (IOException ioex) {
+            log.error("Failed to export database metrics to " + fileName, ioex);
+            caller.notice("Failed to export database metrics: " + ioex.getMessage());
+        }
+        finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                }
+                catch (IOException ioex) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package net.canarymod.commandsys.commands.system;
 
 import net.canarymod.Canary;
-import net.canarymod.ToolBox;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.chat.MessageReceiver;
 import net.canarymod.chat.TextFormat;
 import net.canarymod.commandsys.NativeCommand;
 import net.canarymod.user.OperatorsProvider;
+import net.canarymod.user.UUIDResolver;
 
 /**
  * DeOp Command
@@ -15,7 +15,7 @@ import net.canarymod.user.OperatorsProvider;
  */
 public final class DeOp implements NativeCommand {
 
-    public void execute(MessageReceiver caller, String[] args) {
+    public void execute(final MessageReceiver caller, final String[] args) {
         OperatorsProvider opPro = Canary.ops();
         switch (caller.getReceiverType()) {
             case COMMANDBLOCK:
@@ -29,18 +29,33 @@ public final class DeOp implements NativeCommand {
                 }
         }
 
-        String opUUID = ToolBox.usernameToUUID(args[0]);
+        // Don't hold up the server while the name is looked up
+        UUIDResolver.get().resolveOnServerThread(args[0], new UUIDResolver.Callback() {
+
+            @Override
+            public void run(String uuid) {
+                deOp(caller, args[0], uuid);
+            }
+        });
+    }
+
+    private void deOp(MessageReceiver caller, String name, String opUUID) {
+        if (opUUID == null) {
+            caller.notice("No UUID found for player " + name);
+            return;
+        }
+        OperatorsProvider opPro = Canary.ops();
         if (opPro.isOpped(opUUID)) {
             opPro.removePlayer(opUUID);
             if (!opPro.isOpped(opUUID)) {
-                Canary.getServer().broadcastMessageToOps(TextFormat.LIGHT_GRAY + "[SERVER] De-opped " + args[0]);
+                Canary.getServer().broadcastMessageToOps(TextFormat.LIGHT_GRAY + "[SERVER] De-opped " + name);
             }
             else {
-                caller.notice("Failed to deop " + args[0]);
+                caller.notice("Failed to deop " + name);
             }
         }
         else {
-            caller.notice(args[0] + " was not an operator.");
+            caller.notice(name + " was not an operator.");
         }
     }
 }
\ No newline at end of file
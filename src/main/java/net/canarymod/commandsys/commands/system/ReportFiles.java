@@ -0,0 +1,62 @@
+package net.canarymod.commandsys.commands.system;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ * Report files written by commands, like /timings export and /dbstats export.
+ * <p/>
+ * Reports only go into the {@code reports/} directory, under plain file names, and never replace an existing file.
+ */
+final class ReportFiles {
+    /** The directory all reports are written to */
+    static final File DIRECTORY = new File("reports/");
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+
+    private ReportFiles() {
+    }
+
+    /**
+     * Gets a file name for a report that is new every second
+     *
+     * @param prefix
+     *         what the report is of
+     *
+     * @return the file name, like timings-20140801-120000.csv
+     */
+    static String defaultName(String prefix) {
+        return prefix + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv";
+    }
+
+    /**
+     * Creates a new, empty report file
+     *
+     * @param name
+     *         the file name, without any directory
+     *
+     * @return the created file
+     *
+     * @throws IOException
+     *         if the name is not a plain file name, the file already exists or it could not be created
+     */
+    static File create(String name) throws IOException {
+        if (name == null || name.length() > 64 || !NAME.matcher(name).matches() || name.contains("..")) {
+            throw new IOException("Invalid file name '" + name + "', use letters, digits, '.', '_' and '-' only");
+        }
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+            throw new IOException("Could not create " + DIRECTORY.getPath());
+        }
+        File file = new File(DIRECTORY, name);
+        // The name is already plain, but don't trust that on every file system
+        if (!DIRECTORY.getCanonicalFile().equals(file.getCanonicalFile().getParentFile())) {
+            throw new IOException("Invalid file name '" + name + "'");
+        }
+        if (!file.createNewFile()) {
+            throw new IOException(DIRECTORY.getPath() + "/" + name + " already exists");
+        }
+        return file;
+    }
+}
@@ -5,6 +5,7 @@ import net.canarymod.Translator;
 import net.canarymod.chat.Colors;
 import net.canarymod.chat.MessageReceiver;
 import net.canarymod.commandsys.NativeCommand;
+import net.canarymod.user.UUIDResolver;
 
 /**
  * Reserve List Command!
@@ -13,14 +14,24 @@ import net.canarymod.commandsys.NativeCommand;
  */
 public class ReservelistCommand implements NativeCommand {
 
-    public void execute(MessageReceiver caller, String[] args) {
-        if (args[0].equalsIgnoreCase("add")) {
-            Canary.reservelist().addPlayer(args[1]);
-            caller.message(Colors.YELLOW + Translator.translate("reservelist player added"));
-        }
-        if (args[0].equalsIgnoreCase("remove")) {
-            Canary.reservelist().removePlayer(args[1]);
-            caller.message(Colors.YELLOW + Translator.translate("reservelist player removed"));
+    public void execute(final MessageReceiver caller, final String[] args) {
+        if (!args[0].equalsIgnoreCase("add") && !args[0].equalsIgnoreCase("remove")) {
+            return;
         }
+        // Look the name up first, so the reservation is stored by UUID where possible
+        UUIDResolver.get().resolveOnServerThread(args[1], new UUIDResolver.Callback() {
+
+            @Override
+            public void run(String uuid) {
+                if (args[0].equalsIgnoreCase("add")) {
+                    Canary.reservelist().addPlayer(uuid != null ? uuid : args[1]);
+                    caller.message(Colors.YELLOW + Translator.translate("reservelist player added"));
+                }
+                else {
+                    Canary.reservelist().removePlayer(args[1]);
+                    caller.message(Colors.YELLOW + Translator.translate("reservelist player removed"));
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,98 @@
+package net.canarymod.commandsys.commands.system;
+
+import net.canarymod.chat.MessageReceiver;
+import net.canarymod.chat.TextFormat;
+import net.canarymod.commandsys.NativeCommand;
+import net.canarymod.timings.TimingEntry;
+import net.canarymod.timings.Timings;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Hook listener and server task timings command
+ */
+public class TimingsCommand implements NativeCommand {
+    private static final int DEFAULT_LINES = 10;
+
+    @Override
+    public void execute(MessageReceiver caller, String[] parameters) {
+        String action = parameters.length > 1 ? parameters[1].toLowerCase() : "report";
+        if (action.equals("on")) {
+            Timings.setEnabled(true);
+            caller.notice("Timings enabled.");
+        }
+        else if (action.equals("off")) {
+            Timings.setEnabled(false);
+            caller.notice("Timings disabled.");
+        }
+        else if (action.equals("reset")) {
+            Timings.reset();
+            caller.notice("Timings reset.");
+        }
+        else if (action.equals("report")) {
+            report(caller, parameters.length > 2 ? parameters[2] : null);
+        }
+        else if (action.equals("export")) {
+            export(caller, parameters.length > 2 ? parameters[2] : ReportFiles.defaultName("timings"));
+        }
+        else {
+            caller.notice("Usage: /timings <on|off|reset|report [lines]|export [file]>");
+        }
+    }
+
+    private void report(MessageReceiver caller, String lineArg) {
+        if (!Timings.isEnabled()) {
+            caller.notice("Timings are disabled. Use /timings on to start recording.");
+            return;
+        }
+        int lines = DEFAULT_LINES;
+        if (lineArg != null) {
+            try {
+                lines = Integer.parseInt(lineArg);
+            }
+            catch (NumberFormatException nfex) {
+                caller.notice("Invalid line count: " + lineArg);
+                return;
+            }
+        }
+        List<TimingEntry> entries = Timings.getEntries();
+        double sampleMs = Timings.getSampleNanos() / 1000000.0D;
+        caller.message(TextFormat.ORANGE + "   *** " + TextFormat.LIGHT_RED + "TIMINGS" + TextFormat.ORANGE + " ***");
+        caller.message(TextFormat.ORANGE + String.format("Sampled: " + TextFormat.WHITE + "%.1fs " + TextFormat.ORANGE + "| Entries: " + TextFormat.WHITE + "%d", sampleMs / 1000.0D, entries.size()));
+        for (int i = 0; i < entries.size() && i < lines; i++) {
+            TimingEntry entry = entries.get(i);
+            caller.message(String.format(TextFormat.ORANGE + "%s " + TextFormat.WHITE + "%s (%s): " + TextFormat.YELLOW + "%d calls, %.2fms total, %.3fms avg, %.3fms max, %d errors",
+                    entry.getOwner(), entry.getHandler(), entry.getTarget(), entry.getCount(), entry.getTotalNanos() / 1000000.0D,
+                    entry.getAverageNanos() / 1000000.0D, entry.getMaxNanos() / 1000000.0D, entry.getExceptionCount()));
+        }
+    }
+
+    private void export(MessageReceiver caller, String fileName) {
+        FileWriter writer = null;
+        try {
+            File file = ReportFiles.create(fileName);
+            writer = new FileWriter(file);
+            Timings.export(writer);
+            caller.notice("Timings exported to " + file.getPath());
+        }
+        catch (IOException ioex) {
+            log.error("Failed to export timings to " + fileName, ioex);
+            caller.notice("Failed to export timings: " + ioex.getMessage());
+        }
+        finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                }
+                catch (IOException ioex) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+}
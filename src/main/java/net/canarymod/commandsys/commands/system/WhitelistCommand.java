@@ -5,6 +5,9 @@ import net.canarymod.Translator;
 import net.canarymod.chat.Colors;
 import net.canarymod.chat.MessageReceiver;
 import net.canarymod.commandsys.NativeCommand;
+import net.canarymod.user.UUIDResolver;
+
+import java.util.UUID;
 
 /**
  * Command to add or remove a player from the whitelist
@@ -13,14 +16,27 @@ import net.canarymod.commandsys.NativeCommand;
  */
 public class WhitelistCommand implements NativeCommand {
 
-    public void execute(MessageReceiver caller, String[] args) {
-        if (args[1].equalsIgnoreCase("add")) {
-            Canary.whitelist().addPlayer(args[2]);
-            caller.message(Colors.YELLOW + Translator.translate("whitelist player added"));
-        }
-        if (args[1].equalsIgnoreCase("remove")) {
-            Canary.whitelist().removePlayer(args[2]);
-            caller.message(Colors.YELLOW + Translator.translate("whitelist player removed"));
+    public void execute(final MessageReceiver caller, final String[] args) {
+        if (!args[1].equalsIgnoreCase("add") && !args[1].equalsIgnoreCase("remove")) {
+            return;
         }
+        // Don't hold up the server while the name is looked up
+        UUIDResolver.get().resolveOnServerThread(args[2], new UUIDResolver.Callback() {
+
+            @Override
+            public void run(String uuid) {
+                if (uuid == null) {
+                    caller.notice("No UUID found for player " + args[2]);
+                }
+                else if (args[1].equalsIgnoreCase("add")) {
+                    Canary.whitelist().addPlayer(UUID.fromString(uuid));
+                    caller.message(Colors.YELLOW + Translator.translate("whitelist player added"));
+                }
+                else {
+                    Canary.whitelist().removePlayer(UUID.fromString(uuid));
+                    caller.message(Colors.YELLOW + Translator.translate("whitelist player removed"));
+                }
+            }
+        });
     }
 }
@@ -89,6 +89,38 @@ public class DatabaseConfiguration implements ConfigurationContainer {
         cfg.getInt("statement-cache-close-threads", 1);
         cfg.addComment("statement-cache-close-threads", "Number of threads to use when closing statements is deferred (happens when parent connection is still in use)");
 
+        // XML settings
+
+        cfg.getBoolean("xml-table-cache", false);
+        cfg.addComment("xml-table-cache", "Keep XML tables in memory and append changes to a journal instead of rewriting the table file on every write.");
+
+        cfg.getInt("xml-journal-compact-threshold", 500);
+        cfg.addComment("xml-journal-compact-threshold", "Number of journaled changes after which a cached XML table is written back to its table file.");
+
+        // SQLite settings
+
+        cfg.getBoolean("sqlite-wal", false);
+        cfg.addComment("sqlite-wal", "Run SQLite in write-ahead logging mode: writes are queued to one writer thread and committed in groups, reads use pooled connections alongside it.");
+
+        cfg.getInt("sqlite-commit-window", 10);
+        cfg.addComment("sqlite-commit-window", "Milliseconds the SQLite writer keeps collecting queued writes before committing them in one transaction. Only used with sqlite-wal.");
+
+        // Async database settings
+
+        cfg.getInt("async-threads", 2);
+        cfg.addComment("async-threads", "Number of threads running queued database operations. Operations on one table always run in order on the same thread.");
+
+        cfg.getInt("async-queue-size", 4096);
+        cfg.addComment("async-queue-size", "Maximum number of queued database operations. When full, callers wait for room instead of operations being dropped.");
+
+        // Metrics settings
+
+        cfg.getBoolean("metrics-enabled", false);
+        cfg.addComment("metrics-enabled", "Record counts, latencies and rows of database operations per table from startup. Can be switched at runtime with /dbstats on|off.");
+
+        cfg.getInt("slow-operation-threshold", 100);
+        cfg.addComment("slow-operation-threshold", "Milliseconds above which a database operation is logged as slow, with its table, filters and calling plugin, while metrics are enabled. 0 to not log slow operations.");
+
         cfg.save();
     }
 
@@ -274,4 +306,78 @@ public class DatabaseConfiguration implements ConfigurationContainer {
     public int getMaxConnectionIdleTime() {
         return cfg.getInt("max-connection-idle-time", 900);
     }
+
+    /**
+     * Defines whether the XML datasource keeps its tables in memory and journals changes
+     * instead of rewriting the table file with each write.
+     *
+     * @return {@code true} if XML tables are cached
+     */
+    public boolean isXmlTableCacheEnabled() {
+        return cfg.getBoolean("xml-table-cache", false);
+    }
+
+    /**
+     * Defines the number of journaled changes after which a cached XML table is compacted back into its table file.
+     *
+     * @return changes per compaction
+     */
+    public int getXmlJournalCompactThreshold() {
+        return cfg.getInt("xml-journal-compact-threshold", 500);
+    }
+
+    /**
+     * Defines whether SQLite runs in write-ahead logging mode, with a single writer thread
+     * that commits queued writes in groups and a pool of connections for reading.
+     *
+     * @return {@code true} if WAL mode is enabled
+     */
+    public boolean isSQLiteWalEnabled() {
+        return cfg.getBoolean("sqlite-wal", false);
+    }
+
+    /**
+     * Defines how long the SQLite writer collects queued writes before committing them together.
+     *
+     * @return the commit window in milliseconds
+     */
+    public int getSQLiteCommitWindow() {
+        return cfg.getInt("sqlite-commit-window", 10);
+    }
+
+    /**
+     * Defines the number of threads running queued database operations
+     *
+     * @return async database threads
+     */
+    public int getAsyncThreads() {
+        return Math.max(1, cfg.getInt("async-threads", 2));
+    }
+
+    /**
+     * Defines the maximum number of queued database operations
+     *
+     * @return async database queue size
+     */
+    public int getAsyncQueueSize() {
+        return Math.max(1, cfg.getInt("async-queue-size", 4096));
+    }
+
+    /**
+     * Defines whether database operations are recorded from startup
+     *
+     * @return {@code true} if database metrics are enabled
+     */
+    public boolean isMetricsEnabled() {
+        return cfg.getBoolean("metrics-enabled", false);
+    }
+
+    /**
+     * Defines the time above which a database operation is logged as slow
+     *
+     * @return the threshold in milliseconds, 0 to not log slow operations
+     */
+    public int getSlowOperationThreshold() {
+        return Math.max(0, cfg.getInt("slow-operation-threshold", 100));
+    }
 }
@@ -49,6 +49,10 @@ public class ServerConfiguration implements ConfigurationContainer {
     private void verifyConfig() {
         cfg.getBoolean("announce-player-achievements", true);
         cfg.setComments("announce-player-achievements", "Sets whether to inform all of a Player's Achievement");
+        cfg.getInt("async-hook-threads", 2);
+        cfg.setComments("async-hook-threads", "Number of threads running async plugin hook listeners");
+        cfg.getInt("async-hook-queue-size", 1024);
+        cfg.setComments("async-hook-queue-size", "Maximum number of hooks waiting for async listeners. Hooks are dropped for async listeners when full");
         cfg.getBoolean("allow-enchantment-stacking", false);
         cfg.setComments("allow-enchantment-stacking", "Sets whether to allow items with enchantments to stack with non-enchanted items");
         cfg.getString("ban-default-message", "You are banned from this server.");
@@ -137,6 +141,10 @@ public class ServerConfiguration implements ConfigurationContainer {
         cfg.setComments("spam-protection", "Level of protection against Spam. Options: default - on for all but ignorerestiction users; off - no protections; all - on for all");
         cfg.getBoolean("strict-sign-characters", true);
         cfg.setComments("strict-sign-characters", "Sets whether to strictly check characters on signs for invalid chat characters. Set to false to disable (and allow more characters)");
+        cfg.getInt("task-tick-budget", 0);
+        cfg.setComments("task-tick-budget", "Milliseconds plugin tasks may take per tick before deferrable tasks are postponed to the next tick. 0 to disable");
+        cfg.getInt("task-worker-threads", 4);
+        cfg.setComments("task-worker-threads", "Number of threads running asynchronous plugin tasks");
         cfg.getString("texture-pack", "");
         cfg.setComments("texture-pack", "The name of the Server's texture/resource pack");
         cfg.getBoolean("update-lang-files", true);
@@ -589,4 +597,40 @@ public class ServerConfiguration implements ConfigurationContainer {
     public boolean getPluginDevModeEnabled() {
         return cfg.getBoolean("plugin-dev-mode", false);
     }
+
+    /**
+     * Gets the number of threads running async hook listeners
+     *
+     * @return async hook threads
+     */
+    public int getAsyncHookThreads() {
+        return Math.max(1, cfg.getInt("async-hook-threads", 2));
+    }
+
+    /**
+     * Gets the maximum number of hooks waiting for async listeners
+     *
+     * @return async hook queue size
+     */
+    public int getAsyncHookQueueSize() {
+        return Math.max(1, cfg.getInt("async-hook-queue-size", 1024));
+    }
+
+    /**
+     * Gets the number of threads running asynchronous server tasks
+     *
+     * @return task worker threads
+     */
+    public int getTaskWorkerThreads() {
+        return Math.max(1, cfg.getInt("task-worker-threads", 4));
+    }
+
+    /**
+     * Gets the time server tasks may take per tick before deferrable tasks are postponed
+     *
+     * @return task tick budget in milliseconds; 0 if disabled
+     */
+    public int getTaskTickBudget() {
+        return Math.max(0, cfg.getInt("task-tick-budget", 0));
+    }
 }
@@ -0,0 +1,579 @@
+package net.canarymod.database;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import net.canarymod.config.Configuration;
+import net.canarymod.config.DatabaseConfiguration;
+import net.canarymod.database.exceptions.DatabaseAccessException;
+import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
+import net.canarymod.database.exceptions.DatabaseWriteException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Runs {@link Database} operations off the calling thread.
+ * <p/>
+ * Operations are queued to a fixed number of lanes, each worked off by one thread.
+ * All operations on a table go to the same lane, so they run in the order they were submitted:
+ * a load queued after an update of the same table sees that update. There is no order between different tables.
+ * <p/>
+ * The queue of each lane is bounded. When it is full, the submitting thread waits for room rather than
+ * dropping the operation, which is counted in {@link #getStalledCount()}.
+ * <p/>
+ * Failures are logged and passed on to the returned future. Callbacks are attached with
+ * {@link Futures#addCallback}; without an executor of their own they run on the lane thread
+ * and hold up the operations queued behind them.
+ * The data of a {@link DataAccess} is copied when a write is submitted, the caller may reuse it right away.
+ */
+public final class AsyncDatabase {
+    private static AsyncDatabase instance;
+
+    private final Lane[] lanes;
+    private final int capacity;
+    private final ReadWriteLock state = new ReentrantReadWriteLock();
+    private boolean running = true; // Guarded by state
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong stalled = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Creates a new async database
+     *
+     * @param threads
+     *         number of lanes
+     * @param capacity
+     *         maximum number of operations waiting, over all lanes
+     */
+    public AsyncDatabase(int threads, int capacity) {
+        this.lanes = new Lane[Math.max(1, threads)];
+        int perLane = Math.max(1, (capacity + lanes.length - 1) / lanes.length);
+        this.capacity = perLane * lanes.length;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(perLane, "Canary Async Database-" + (i + 1));
+        }
+    }
+
+    /**
+     * Gets the async database, creating it from the database configuration on first use.
+     * Whatever is queued is written by {@link #shutdownInstance(long, TimeUnit)} before the connection pool closes.
+     *
+     * @return the {@link AsyncDatabase}
+     */
+    public static synchronized AsyncDatabase get() {
+        if (instance == null) {
+            DatabaseConfiguration cfg = Configuration.getDbConfig();
+            instance = new AsyncDatabase(cfg.getAsyncThreads(), cfg.getAsyncQueueSize());
+        }
+        return instance;
+    }
+
+    /**
+     * Shuts down the async database returned by {@link #get()}, if there is one, waiting for the queued operations to run.
+     * The next call to {@link #get()} creates a new one.
+     *
+     * @param timeout
+     *         maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     *
+     * @return {@code true} if all queued operations ran; {@code false} if the timeout elapsed
+     */
+    public static boolean shutdownInstance(long timeout, TimeUnit unit) {
+        AsyncDatabase async;
+        synchronized (AsyncDatabase.class) {
+            async = instance;
+            instance = null;
+        }
+        if (async == null || async.shutdown(timeout, unit)) {
+            return true;
+        }
+        log.warn("Timed out writing queued database operations, " + async.getQueueDepth() + " are lost");
+        return false;
+    }
+
+    /**
+     * Queues an insert
+     *
+     * @param data
+     *         the data to insert
+     *
+     * @return the future of the insert
+     *
+     * @see Database#insert(DataAccess)
+     */
+    public ListenableFuture<Void> insert(DataAccess data) {
+        final DataAccess copy;
+        try {
+            copy = copy(data);
+        }
+        catch (DatabaseWriteException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return submit(copy.getName(), "insert", new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Database.get().insert(copy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues an update
+     *
+     * @param data
+     *         the new data
+     * @param filters
+     *         the filters selecting the entry to update
+     *
+     * @return the future of the update
+     *
+     * @see Database#update(DataAccess, Map)
+     */
+    public ListenableFuture<Void> update(DataAccess data, Map<String, Object> filters) {
+        final DataAccess copy;
+        try {
+            copy = copy(data);
+        }
+        catch (DatabaseWriteException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        final Map<String, Object> filterCopy = new HashMap<String, Object>(filters);
+        return submit(copy.getName(), "update", new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Database.get().update(copy, filterCopy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues the removal of the first entry matching the filters
+     *
+     * @param da
+     *         a {@link DataAccess} of the table
+     * @param filters
+     *         the filters selecting the entry to remove
+     *
+     * @return the future of the removal
+     *
+     * @see Database#remove(DataAccess, Map)
+     */
+    public ListenableFuture<Void> remove(final DataAccess da, Map<String, Object> filters) {
+        final Map<String, Object> filterCopy = new HashMap<String, Object>(filters);
+        return submit(da.getName(), "remove", new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Database.get().remove(da, filterCopy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues the removal of all entries matching the filters
+     *
+     * @param da
+     *         a {@link DataAccess} of the table
+     * @param filters
+     *         the filters selecting the entries to remove
+     *
+     * @return the future of the removal
+     *
+     * @see Database#removeAll(DataAccess, Map)
+     */
+    public ListenableFuture<Void> removeAll(final DataAccess da, Map<String, Object> filters) {
+        final Map<String, Object> filterCopy = new HashMap<String, Object>(filters);
+        return submit(da.getName(), "removeAll", new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Database.get().removeAll(da, filterCopy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues a load into the given {@link DataAccess}.
+     * It must not be touched before the future is done.
+     *
+     * @param dataset
+     *         the {@link DataAccess} to load into
+     * @param filters
+     *         the filters selecting the entry to load
+     *
+     * @return the future of the loaded {@link DataAccess}
+     *
+     * @see Database#load(DataAccess, Map)
+     */
+    public ListenableFuture<DataAccess> load(final DataAccess dataset, Map<String, Object> filters) {
+        final Map<String, Object> filterCopy = new HashMap<String, Object>(filters);
+        return submit(dataset.getName(), "load", new Callable<DataAccess>() {
+
+            @Override
+            public DataAccess call() throws Exception {
+                Database.get().load(dataset, filterCopy);
+                return dataset;
+            }
+        });
+    }
+
+    /**
+     * Queues a load of all entries matching the filters
+     *
+     * @param typeTemplate
+     *         a {@link DataAccess} of the table
+     * @param filters
+     *         the filters selecting the entries to load
+     *
+     * @return the future of the loaded entries
+     *
+     * @see Database#loadAll(DataAccess, List, Map)
+     */
+    public ListenableFuture<List<DataAccess>> loadAll(final DataAccess typeTemplate, Map<String, Object> filters) {
+        final Map<String, Object> filterCopy = new HashMap<String, Object>(filters);
+        return submit(typeTemplate.getName(), "loadAll", new Callable<List<DataAccess>>() {
+
+            @Override
+            public List<DataAccess> call() throws Exception {
+                List<DataAccess> datasets = new ArrayList<DataAccess>();
+                Database.get().loadAll(typeTemplate, datasets, filterCopy);
+                return datasets;
+            }
+        });
+    }
+
+    /**
+     * Queues a {@link Database.Batch} in the order of the given table.
+     * This is how a read followed by a write, like insert-if-absent, is taken off the calling thread
+     * without other operations on the table coming in between.
+     *
+     * @param table
+     *         a {@link DataAccess} of the table the batch is ordered with
+     * @param batch
+     *         the batch
+     *
+     * @return the future of the batch
+     *
+     * @see Database#batch(Database.Batch)
+     */
+    public ListenableFuture<Void> batch(DataAccess table, final Database.Batch batch) {
+        return submit(table.getName(), "batch", new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Database.get().batch(batch);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Waits until everything queued for the given table so far has run.
+     * Used before reading a table synchronously that is written to asynchronously.
+     *
+     * @param table
+     *         a {@link DataAccess} of the table
+     */
+    public void flush(DataAccess table) {
+        await(Collections.singletonList(lane(table.getName())));
+    }
+
+    /** Waits until everything queued so far has run */
+    public void flush() {
+        List<Lane> all = new ArrayList<Lane>(lanes.length);
+        Collections.addAll(all, lanes);
+        await(all);
+    }
+
+    private void await(List<Lane> waitFor) {
+        List<ListenableFuture<Void>> markers = new ArrayList<ListenableFuture<Void>>(waitFor.size());
+        for (Lane lane : waitFor) {
+            if (Thread.currentThread() == lane.thread) {
+                // Everything before the running operation is done already
+                continue;
+            }
+            ListenableFutureTask<Void> marker = ListenableFutureTask.create(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    return null;
+                }
+            });
+            if (enqueue(lane, marker)) {
+                markers.add(marker);
+            }
+        }
+        boolean interrupted = false;
+        for (ListenableFuture<Void> marker : markers) {
+            while (true) {
+                try {
+                    marker.get();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops accepting operations and waits for the queued ones to run.
+     * Operations submitted afterwards run on the calling thread.
+     *
+     * @param timeout
+     *         maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     *
+     * @return {@code true} if all queued operations ran; {@code false} if the timeout elapsed
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        state.writeLock().lock();
+        try {
+            if (running) {
+                running = false;
+                for (Lane lane : lanes) {
+                    lane.stop();
+                }
+            }
+        }
+        finally {
+            state.writeLock().unlock();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (Lane lane : lanes) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left > 0) {
+                    lane.thread.join(left);
+                }
+                if (lane.thread.isAlive()) {
+                    return false;
+                }
+            }
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private <T> ListenableFuture<T> submit(final String table, final String operation, final Callable<T> work) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                try {
+                    return work.call();
+                }
+                catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("Async database " + operation + " on " + table + " failed", e);
+                    throw e;
+                }
+                finally {
+                    completed.incrementAndGet();
+                }
+            }
+        });
+        submitted.incrementAndGet();
+        Lane lane = lane(table);
+        if (Thread.currentThread() == lane.thread || !enqueue(lane, task)) {
+            // Submitted by the lane itself, or after shutdown, when there is nobody left to run it
+            task.run();
+            return task;
+        }
+        int depth = getQueueDepth();
+        int max = maxDepth.get();
+        while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+            max = maxDepth.get();
+        }
+        return task;
+    }
+
+    /** Queues a task, waiting for room if needed. Returns false if the lanes are shut down */
+    private boolean enqueue(Lane lane, Runnable task) {
+        state.readLock().lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            if (!lane.queue.offer(task)) {
+                if (stalled.getAndIncrement() == 0) {
+                    log.warn("Async database queue is full (" + capacity + "), callers wait for room. Further stalls are only counted.");
+                }
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        lane.queue.put(task);
+                        break;
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        }
+        finally {
+            state.readLock().unlock();
+        }
+    }
+
+    private Lane lane(String table) {
+        return lanes[(table.hashCode() & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    /** Copies the data of a {@link DataAccess} into a new instance, so the caller can go on using it */
+    private static DataAccess copy(DataAccess data) throws DatabaseWriteException {
+        try {
+            HashMap<Column, Object> values = data.toDatabaseEntryList();
+            HashMap<String, Object> dataSet = new HashMap<String, Object>((int) (values.size() / 0.75F) + 1);
+            for (Map.Entry<Column, Object> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                dataSet.put(entry.getKey().columnName(), value instanceof List ? new ArrayList<Object>((List<?>) value) : value);
+            }
+            DataAccess copy = data.getInstance();
+            copy.load(dataSet);
+            return copy;
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    /** @return number of operations submitted */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /** @return number of operations that have run */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /** @return number of operations that failed */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** @return number of times a submitting thread had to wait for room in a full queue */
+    public long getStalledCount() {
+        return stalled.get();
+    }
+
+    /** @return number of operations currently waiting */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    /** @return highest observed number of waiting operations */
+    public int getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /** @return maximum number of waiting operations */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** One thread working off the operations of its tables in order */
+    private static final class Lane implements Runnable {
+        private static final Runnable STOP = new Runnable() {
+
+            @Override
+            public void run() {
+            }
+        };
+        final LinkedBlockingQueue<Runnable> queue;
+        final Thread thread;
+
+        Lane(int capacity, String name) {
+            this.queue = new LinkedBlockingQueue<Runnable>(capacity);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /** Lets the lane finish what is queued, then end */
+        void stop() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(STOP);
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+                if (task == STOP) {
+                    return;
+                }
+                try {
+                    task.run();
+                }
+                catch (Throwable t) {
+                    // Futures catch what the operations throw, this is a failing callback
+                    log.error("Exception in an async database callback", t);
+                }
+            }
+        }
+    }
+}
@@ -57,4 +57,7 @@ public @interface Column {
     /** Is this field an implementation of the List interface? */
     boolean isList() default false;
 
+    /** Should lookups by this column be indexed? See {@link Index} for indexes over several columns */
+    boolean indexed() default false;
+
 }
@@ -1,12 +1,9 @@
 package net.canarymod.database;
 
-import net.canarymod.ToolBox;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 
-import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -89,55 +86,40 @@ public abstract class DataAccess {
      * @throws DatabaseTableInconsistencyException
      */
     public final HashMap<Column, Object> toDatabaseEntryList() throws DatabaseTableInconsistencyException {
-        List<Field> fields = Arrays.asList(ToolBox.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]));
-        HashMap<Column, Object> fieldMap = new HashMap<Column, Object>();
-        for (Field field : fields) {
-            Column colInfo = field.getAnnotation(Column.class);
-
-            if (colInfo == null) {
-                // Not what we're looking for
-                continue;
-            }
-            if (fieldMap.containsKey(colInfo)) {
-                // Seriously ...
-                isInconsistent = true;
-                throw new DatabaseTableInconsistencyException("Found duplicate column field: " + colInfo.columnName());
-            }
+        DataAccessMeta meta = getMeta();
+        HashMap<Column, Object> fieldMap = new HashMap<Column, Object>((int) (meta.fields.length / 0.75F) + 1);
+        for (int i = 0; i < meta.fields.length; i++) {
             try {
-                fieldMap.put(colInfo, field.get(this));
+                fieldMap.put(meta.columns[i], meta.fields[i].get(this));
             }
             catch (IllegalArgumentException e) {
                 log.error(e.getMessage(), e);
             }
             catch (IllegalAccessException e) {
                 isInconsistent = true;
-                throw new DatabaseTableInconsistencyException("Could not access an annotated column field: " + field.getName());
+                throw new DatabaseTableInconsistencyException("Could not access an annotated column field: " + meta.fields[i].getName());
             }
         }
         return fieldMap;
     }
 
     public final void applyDataSet(HashMap<String, Object> dataSet) throws DatabaseAccessException, IllegalArgumentException, IllegalAccessException {
-        Field[] fields = ToolBox.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
-        int columnFields = 0;
+        DataAccessMeta meta = DataAccessMeta.of(getClass());
 
-        for (Field field : fields) {
-            Column col = field.getAnnotation(Column.class);
+        for (int i = 0; i < meta.fields.length; i++) {
+            String name = meta.columns[i].columnName();
+            Object value = dataSet.get(name);
 
-            if (col == null) {
-                continue;
-            }
-            if (!dataSet.containsKey(col.columnName())) {
+            if (value == null && !dataSet.containsKey(name)) {
                 isInconsistent = true;
-                throw new DatabaseAccessException("Cannot apply data to " + getClass().getSimpleName() + ". Column name mismatches! (" + col.columnName() + " does not exist) - " + dataSet.keySet().toString());
+                throw new DatabaseAccessException("Cannot apply data to " + getClass().getSimpleName() + ". Column name mismatches! (" + name + " does not exist) - " + dataSet.keySet().toString());
             }
-            field.set(this, dataSet.get(col.columnName()));
-            columnFields++;
+            meta.fields[i].set(this, value);
         }
-        // If the columnFields is not the size of the dataSet,
+        // If the column count is not the size of the dataSet,
         // There is either excess data or data that has not been put in the AccessObject.
         // This causes inconsistency and therefore must throw an exception
-        if (columnFields != dataSet.size()) {
+        if (meta.fields.length != dataSet.size()) {
             isInconsistent = true;
             throw new DatabaseAccessException("Supplied Data set cannot be applied to this DataAccess(" + getClass().getSimpleName() + "). Column count mismatches!");
         }
@@ -151,27 +133,28 @@ public abstract class DataAccess {
      * @throws DatabaseTableInconsistencyException
      */
     public final HashSet<Column> getTableLayout() throws DatabaseTableInconsistencyException {
-        Field[] fields = ToolBox.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
-        HashSet<Column> layout = new HashSet<Column>(fields.length);
+        return new HashSet<Column>(getMeta().layout);
+    }
 
-        for (Field field : fields) {
-            if (field == null) {
-                throw new DatabaseTableInconsistencyException("A field of " + getClass().getSimpleName() + " is not initialized, check your DataAccess!");
-            }
-            Column colInfo = field.getAnnotation(Column.class);
+    /**
+     * Gets the indexes declared by {@link Column#indexed()}, {@link Index} and {@link Indexes}
+     *
+     * @return the column names of each index, in index order
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    public final List<List<String>> getIndexes() throws DatabaseTableInconsistencyException {
+        return getMeta().indexes;
+    }
 
-            if (colInfo == null) {
-                // Not what we're looking for
-                continue;
-            }
-            if (layout.contains(colInfo)) {
-                // Dude!
-                isInconsistent = true;
-                throw new DatabaseTableInconsistencyException("Found duplicate column field: " + colInfo.columnName());
-            }
-            layout.add(colInfo);
+    /** Gets the cached metadata of this class, making sure it describes a valid table */
+    private DataAccessMeta getMeta() throws DatabaseTableInconsistencyException {
+        DataAccessMeta meta = DataAccessMeta.of(getClass());
+        if (meta.inconsistency != null) {
+            isInconsistent = true;
+            throw new DatabaseTableInconsistencyException(meta.inconsistency);
         }
-        return layout;
+        return meta;
     }
 
     /**
@@ -225,12 +208,7 @@ public abstract class DataAccess {
      */
     public final boolean hasColumn(String name) {
         try {
-            for (Column col : getTableLayout()) {
-                if (col.columnName().equals(name)) {
-                    return true;
-                }
-            }
-            return false;
+            return getMeta().byName.containsKey(name);
         }
         catch (DatabaseTableInconsistencyException e) {
             log.error("Could not finish column name lookup in database for " + tableName, e);
@@ -248,12 +226,7 @@ public abstract class DataAccess {
      */
     public final Column getColumnForName(String name) {
         try {
-            for (Column col : getTableLayout()) {
-                if (col.columnName().equals(name)) {
-                    return col;
-                }
-            }
-            return null;
+            return getMeta().byName.get(name);
         }
         catch (DatabaseTableInconsistencyException e) {
             log.error("Could not finish column name lookup in database for " + tableName, e);
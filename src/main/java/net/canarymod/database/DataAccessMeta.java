@@ -0,0 +1,128 @@
+package net.canarymod.database;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The column fields of a {@link DataAccess} class, read once per class.
+ * <p/>
+ * Looking up fields and their {@link Column} annotations is the expensive part of reflection,
+ * so it is done on first use of a class and the results are reused for every row loaded or saved.
+ */
+final class DataAccessMeta {
+    /**
+     * Weak keys so a disabled plugin's classes can be unloaded. The values refer to their class through
+     * their fields, so they are soft: weak keys alone would never be cleared.
+     */
+    private static final Cache<Class<?>, DataAccessMeta> metas = CacheBuilder.newBuilder().weakKeys().softValues().build();
+
+    /** The column fields, public fields first, each in declaration order */
+    final Field[] fields;
+    /** The column of each field */
+    final Column[] columns;
+    /** The distinct columns */
+    final Set<Column> layout;
+    /** The distinct columns by name */
+    final Map<String, Column> byName;
+    /** The column names of each declared index, single column indexes first */
+    final List<List<String>> indexes;
+    /** Why the class does not make a valid table, {@code null} if it does */
+    final String inconsistency;
+
+    private DataAccessMeta(Class<?> type) {
+        Set<Field> all = new LinkedHashSet<Field>();
+        Collections.addAll(all, type.getFields());
+        Collections.addAll(all, type.getDeclaredFields());
+
+        List<Field> fields = new ArrayList<Field>(all.size());
+        List<Column> columns = new ArrayList<Column>(all.size());
+        Set<Column> layout = new HashSet<Column>();
+        Map<String, Column> byName = new HashMap<String, Column>();
+        String inconsistency = null;
+        for (Field field : all) {
+            Column column = field.getAnnotation(Column.class);
+            if (column == null) {
+                // Not what we're looking for
+                continue;
+            }
+            if (!layout.add(column) && inconsistency == null) {
+                inconsistency = "Found duplicate column field: " + column.columnName();
+            }
+            if (!byName.containsKey(column.columnName())) {
+                byName.put(column.columnName(), column);
+            }
+            if (Modifier.isPublic(field.getModifiers()) && Modifier.isPublic(field.getDeclaringClass().getModifiers())) {
+                // Accessible anyway, this only skips the access check on each get and set
+                try {
+                    field.setAccessible(true);
+                }
+                catch (SecurityException e) {
+                    // Then it is checked each time
+                }
+            }
+            fields.add(field);
+            columns.add(column);
+        }
+        Set<List<String>> indexes = new LinkedHashSet<List<String>>();
+        for (Column column : columns) {
+            if (column.indexed() && column.columnType() == Column.ColumnType.NORMAL) {
+                // Primary and unique columns are indexed by their constraint
+                indexes.add(Collections.singletonList(column.columnName()));
+            }
+        }
+        List<Index> declared = new ArrayList<Index>();
+        if (type.isAnnotationPresent(Index.class)) {
+            declared.add(type.getAnnotation(Index.class));
+        }
+        if (type.isAnnotationPresent(Indexes.class)) {
+            Collections.addAll(declared, type.getAnnotation(Indexes.class).value());
+        }
+        for (Index index : declared) {
+            for (String name : index.value()) {
+                if (!byName.containsKey(name) && inconsistency == null) {
+                    inconsistency = "Index on unknown column: " + name;
+                }
+            }
+            if (index.value().length > 0) {
+                indexes.add(Collections.unmodifiableList(Arrays.asList(index.value().clone())));
+            }
+        }
+
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.columns = columns.toArray(new Column[columns.size()]);
+        this.layout = Collections.unmodifiableSet(layout);
+        this.byName = Collections.unmodifiableMap(byName);
+        this.indexes = Collections.unmodifiableList(new ArrayList<List<String>>(indexes));
+        this.inconsistency = inconsistency;
+    }
+
+    /**
+     * Gets the metadata of a {@link DataAccess} class
+     *
+     * @param type
+     *         the class
+     *
+     * @return the metadata
+     */
+    static DataAccessMeta of(Class<? extends DataAccess> type) {
+        DataAccessMeta meta = metas.getIfPresent(type);
+        if (meta == null) {
+            // Building it twice in a race does no harm
+            meta = new DataAccessMeta(type);
+            metas.put(type, meta);
+        }
+        return meta;
+    }
+}
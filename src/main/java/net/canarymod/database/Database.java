@@ -4,11 +4,14 @@ import net.canarymod.config.Configuration;
 import net.canarymod.database.exceptions.DatabaseException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
+import net.canarymod.database.metrics.DatabaseMetrics;
 import net.canarymod.database.mysql.MySQLDatabase;
 import net.canarymod.database.sqlite.SQLiteDatabase;
 import net.canarymod.database.xml.XmlDatabase;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -60,14 +63,37 @@ public abstract class Database {
         }
     }
 
+    /** A unit of work run by {@link Database#batch(Batch)} */
+    public interface Batch {
+
+        /**
+         * Performs the operations of this batch
+         *
+         * @param database
+         *         the database to perform the operations on
+         *
+         * @throws DatabaseWriteException
+         *         to abort the batch
+         * @throws DatabaseReadException
+         *         to abort the batch
+         */
+        public void run(Database database) throws DatabaseWriteException, DatabaseReadException;
+    }
+
+    /**
+     * Gets the configured database.
+     * While database metrics are enabled, operations on it are recorded, see {@link DatabaseMetrics}.
+     *
+     * @return the database
+     */
     public static Database get() {
         Database ret = Database.Type.getDatabaseFromType(Configuration.getServerConfig().getDatasourceType());
         if (ret != null) {
-            return ret;
+            return DatabaseMetrics.instrument(ret);
         }
         else {
             log.warn("Database type " + Configuration.getServerConfig().getDatasourceType() + " is not available, falling back to XML! Fix your server.cfg");
-            return XmlDatabase.getInstance();
+            return DatabaseMetrics.instrument(XmlDatabase.getInstance());
         }
     }
 
@@ -151,6 +177,39 @@ public abstract class Database {
      */
     public abstract void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException;
 
+    /**
+     * Opens a cursor over all results that match the field - values given.
+     * Unlike {@link #loadAll(DataAccess, List, Map)} rows are loaded one at a time, as the cursor is advanced,
+     * so large tables can be walked without holding all of them in memory.
+     * The cursor must be closed once it is no longer needed.
+     *
+     * @param typeTemplate
+     *         The type template (an instance of the dataaccess type you want to load)
+     * @param filters
+     *         FieldName->Value map to filter which rows should be loaded
+     *
+     * @return the cursor
+     *
+     * @throws DatabaseReadException
+     */
+    public DatabaseCursor stream(DataAccess typeTemplate, Map<String, Object> filters) throws DatabaseReadException {
+        // Databases that can't stream load everything up front
+        List<DataAccess> datasets = new ArrayList<DataAccess>();
+        loadAll(typeTemplate, datasets, filters);
+        final Iterator<DataAccess> rows = datasets.iterator();
+        return new DatabaseCursor() {
+
+            @Override
+            public DataAccess next() {
+                return rows.hasNext() ? rows.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
     /**
      * Updates the database table fields for the given DataAccess object.
      * This method will remove fields that aren't there anymore and add new ones if applicable.
@@ -159,4 +218,112 @@ public abstract class Database {
      *         the new schema
      */
     public abstract void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException;
+
+    /**
+     * Inserts all given DataAccess objects as new sets of data, in one batch.
+     *
+     * @param data
+     *         the data to insert
+     *
+     * @throws DatabaseWriteException
+     *         when something went wrong during the write operation
+     * @see #insert(DataAccess)
+     * @see #batch(Batch)
+     */
+    public void insertAll(final List<DataAccess> data) throws DatabaseWriteException {
+        if (data.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                for (DataAccess da : data) {
+                    insert(da);
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the records in the database that fit to the given filters, in one batch.
+     * Each DataAccess is updated with the filters at the same position in the filters list.
+     *
+     * @param data
+     *         the data to be updated
+     * @param filters
+     *         a FieldName->Value map for each DataAccess to filter which rows should be updated
+     *
+     * @throws DatabaseWriteException
+     *         when something went wrong during the write operation
+     * @see #update(DataAccess, Map)
+     * @see #batch(Batch)
+     */
+    public void updateAll(final List<DataAccess> data, final List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        if (data.size() != filters.size()) {
+            throw new IllegalArgumentException("Every DataAccess needs its filters");
+        }
+        if (data.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                for (int i = 0; i < data.size(); i++) {
+                    update(data.get(i), filters.get(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all data sets from the given table that suit any of the given filters, in one batch.
+     *
+     * @param da
+     *         the DataAccess object that specifies the table
+     * @param filters
+     *         FieldName->Value maps, each of them filtering rows that should be deleted
+     *
+     * @throws DatabaseWriteException
+     *         when something went wrong during the write operation
+     * @see #removeAll(DataAccess, Map)
+     * @see #batch(Batch)
+     */
+    public void removeAll(final DataAccess da, final List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        if (filters.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                for (Map<String, Object> filter : filters) {
+                    removeAll(da, filter);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the given batch of operations as one unit.
+     * JDBC databases run a batch in a single transaction, which is rolled back if the batch fails.
+     * The XML database writes each table changed by a batch only once, when the batch is complete,
+     * and discards the changes if the batch fails (unless its table cache is enabled, which journals each change).
+     * Batches may be nested, a nested batch becomes part of the enclosing one.
+     *
+     * @param batch
+     *         the batch to run
+     *
+     * @throws DatabaseWriteException
+     *         if the batch failed
+     */
+    public void batch(Batch batch) throws DatabaseWriteException {
+        try {
+            batch.run(this);
+        }
+        catch (DatabaseReadException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
 }
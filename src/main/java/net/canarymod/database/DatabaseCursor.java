@@ -0,0 +1,37 @@
+package net.canarymod.database;
+
+import net.canarymod.database.exceptions.DatabaseReadException;
+
+/**
+ * Walks the rows of a table one at a time, see {@link Database#stream(DataAccess, java.util.Map)}.
+ * <p/>
+ * A cursor holds on to database resources until it is closed, so always close it:
+ * <pre>
+ * DatabaseCursor cursor = Database.get().stream(new BanDataAccess(), filters);
+ * try {
+ *     DataAccess row;
+ *     while ((row = cursor.next()) != null) {
+ *         // ...
+ *     }
+ * }
+ * finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ */
+public interface DatabaseCursor {
+
+    /**
+     * Loads the next row
+     *
+     * @return the next row, an instance of the type template the cursor was opened with,
+     * or {@code null} if there are no more rows
+     *
+     * @throws DatabaseReadException
+     *         if the row could not be read
+     */
+    public DataAccess next() throws DatabaseReadException;
+
+    /** Releases the resources held by this cursor. Closing a closed cursor does nothing. */
+    public void close();
+}
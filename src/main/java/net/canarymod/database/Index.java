@@ -0,0 +1,22 @@
+package net.canarymod.database;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index over one or more columns of a DataAccess table.
+ * Lookups filtering by all of the indexed columns, in any order, use the index.
+ * A single column is more easily indexed with {@link Column#indexed()}.
+ * Several indexes are declared with {@link Indexes}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Index {
+
+    /** The names of the indexed columns, most selective first */
+    String[] value();
+}
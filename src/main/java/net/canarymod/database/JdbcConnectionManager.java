@@ -4,10 +4,14 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
 import net.canarymod.config.Configuration;
 import net.canarymod.config.DatabaseConfiguration;
 import net.canarymod.database.exceptions.DatabaseAccessException;
+import net.canarymod.database.sqlite.SQLiteDatabase;
 
 import java.beans.PropertyVetoException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static net.canarymod.Canary.log;
 
@@ -59,11 +63,87 @@ public class JdbcConnectionManager {
     // If you do, it results in a table deadlock.
     // To prevent it, we force one connection only
     private Connection sqliteConnection;
+    // In WAL mode readers don't block the writer, so reads may use more connections from the pool
+    private final boolean sqliteWal;
 
     private Type type;
 
     private static JdbcConnectionManager instance;
 
+    // Checkouts from the pool and the time spent waiting for them, overall and for each thread
+    private static final AtomicLong poolCheckouts = new AtomicLong();
+    private static final AtomicLong poolWaitNanos = new AtomicLong();
+    private static final ThreadLocal<long[]> threadPoolWaitNanos = new ThreadLocal<long[]>() {
+
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /** A snapshot of the state of the connection pool */
+    public static final class PoolStats {
+        private final int connections;
+        private final int busy;
+        private final int idle;
+        private final int awaiting;
+        private final int orphaned;
+        private final long failedCheckouts;
+        private final long checkouts;
+        private final long waitNanos;
+
+        private PoolStats(ComboPooledDataSource cpds) throws SQLException {
+            this.connections = cpds.getNumConnectionsDefaultUser();
+            this.busy = cpds.getNumBusyConnectionsDefaultUser();
+            this.idle = cpds.getNumIdleConnectionsDefaultUser();
+            this.awaiting = cpds.getNumThreadsAwaitingCheckoutDefaultUser();
+            this.orphaned = cpds.getNumUnclosedOrphanedConnectionsDefaultUser();
+            this.failedCheckouts = cpds.getNumFailedCheckoutsDefaultUser();
+            this.checkouts = poolCheckouts.get();
+            this.waitNanos = poolWaitNanos.get();
+        }
+
+        /** @return open connections, busy and idle */
+        public int getConnections() {
+            return connections;
+        }
+
+        /** @return connections checked out of the pool */
+        public int getBusy() {
+            return busy;
+        }
+
+        /** @return connections waiting in the pool */
+        public int getIdle() {
+            return idle;
+        }
+
+        /** @return threads waiting for a connection */
+        public int getAwaiting() {
+            return awaiting;
+        }
+
+        /** @return connections that were never handed back */
+        public int getOrphaned() {
+            return orphaned;
+        }
+
+        /** @return checkouts that failed */
+        public long getFailedCheckouts() {
+            return failedCheckouts;
+        }
+
+        /** @return connections handed out by the pool */
+        public long getCheckouts() {
+            return checkouts;
+        }
+
+        /** @return total time spent waiting for connections, in nanoseconds */
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+    }
+
     /**
      * Instantiates the connection manager
      *
@@ -76,6 +156,7 @@ public class JdbcConnectionManager {
         DatabaseConfiguration cfg = Configuration.getDbConfig();
         cpds = new ComboPooledDataSource();
         this.type = type;
+        this.sqliteWal = type == Type.SQLITE && cfg.isSQLiteWalEnabled();
         try {
             cpds.setDriverClass(type.getClassPath());
             cpds.setJdbcUrl(cfg.getDatabaseUrl(type.getIdentifier()));
@@ -159,10 +240,22 @@ public class JdbcConnectionManager {
                     }
 //                    cman.sqliteConnection.close();
                 }
-                cman.sqliteConnection = cman.cpds.getConnection();
+                cman.sqliteConnection = cman.checkout();
+                if (cman.sqliteWal) {
+                    Statement st = cman.sqliteConnection.createStatement();
+                    try {
+                        // The journal mode sticks with the database file, synchronous with the connection.
+                        // NORMAL only syncs at checkpoints, which is safe in WAL mode.
+                        st.execute("PRAGMA journal_mode=WAL");
+                        st.execute("PRAGMA synchronous=NORMAL");
+                    }
+                    finally {
+                        st.close();
+                    }
+                }
                 return cman.sqliteConnection;
             }
-            return cman.cpds.getConnection();
+            return cman.checkout();
         }
         catch (SQLException e) {
             log.error("Couldn't get a Connection from pool!", e);
@@ -174,15 +267,136 @@ public class JdbcConnectionManager {
         }
     }
 
+    private Connection checkout() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return cpds.getConnection();
+        }
+        finally {
+            long waited = System.nanoTime() - start;
+            poolCheckouts.incrementAndGet();
+            poolWaitNanos.addAndGet(waited);
+            threadPoolWaitNanos.get()[0] += waited;
+        }
+    }
+
+    /**
+     * Gets the time the calling thread has spent waiting for connections from the pool.
+     * The difference between two calls is the time waited in between.
+     *
+     * @return the time waited in nanoseconds
+     */
+    public static long getThreadPoolWaitNanos() {
+        return threadPoolWaitNanos.get()[0];
+    }
+
+    /**
+     * Gets the current state of the connection pool
+     *
+     * @return the pool stats, or {@code null} if no connection pool is running
+     */
+    public static PoolStats getPoolStats() {
+        JdbcConnectionManager cman = instance;
+        if (cman == null) {
+            return null;
+        }
+        try {
+            return new PoolStats(cman.cpds);
+        }
+        catch (SQLException e) {
+            log.warn("Couldn't read the connection pool stats", e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether SQLite runs in write-ahead logging mode
+     *
+     * @return {@code true} if the datasource is SQLite with {@code sqlite-wal} enabled
+     */
+    public static boolean isSQLiteWal() {
+        try {
+            return getInstance().sqliteWal;
+        }
+        catch (DatabaseAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get a connection to read from.
+     * With SQLite in WAL mode this is a read-only pooled connection separate from the one writes go through,
+     * otherwise it is the same as {@link #getConnection()}.
+     * Hand it back with {@link #releaseReadConnection(Connection)}.
+     *
+     * @return connection to read from
+     */
+    public static Connection getReadConnection() {
+        try {
+            JdbcConnectionManager cman = getInstance();
+            if (cman.sqliteWal) {
+                Connection conn = cman.checkout();
+                try {
+                    conn.setReadOnly(true);
+                }
+                catch (SQLException e) {
+                    // Only a hint, some drivers can't change it on an open connection
+                }
+                return conn;
+            }
+        }
+        catch (SQLException e) {
+            log.error("Couldn't get a Connection from pool!", e);
+            return null;
+        }
+        catch (DatabaseAccessException e) {
+            log.error("Couldn't get a Connection from pool!", e);
+            return null;
+        }
+        return getConnection();
+    }
+
+    /**
+     * Hands back a connection obtained from {@link #getReadConnection()}
+     *
+     * @param connection
+     *         the connection
+     */
+    public static void releaseReadConnection(Connection connection) {
+        if (connection == null || instance == null || connection == instance.sqliteConnection) {
+            return;
+        }
+        try {
+            if (connection.isReadOnly()) {
+                // Back in the pool it may be handed out for writing
+                connection.setReadOnly(false);
+            }
+        }
+        catch (SQLException e) {
+            log.warn("Couldn't reset a read connection", e);
+        }
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
     /**
      * Shut down the connection pool.
      * Should be called when the system is reloaded or goes down to prevent data loss.
+     * Queued {@link AsyncDatabase} operations and SQLite writes are committed before the connections close.
      */
     public static void shutdown() {
+        AsyncDatabase.shutdownInstance(30, TimeUnit.SECONDS);
         if (instance == null) {
             // already shut down or never instantiated (perhaps because we're running on a non-jdbc database)
             return;
         }
+        if (instance.type == Type.SQLITE) {
+            SQLiteDatabase.shutdownWriter();
+        }
         instance.cpds.close();
         if (instance.sqliteConnection != null) {
             try {
@@ -0,0 +1,388 @@
+package net.canarymod.database;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes the values of list columns for the JDBC databases.
+ * <p/>
+ * A list is stored as a BLOB: a two byte marker, a version, the element count,
+ * the positions of null elements if there are any, and then the elements themselves.
+ * Numbers are stored in binary, integers and longs as variable length zigzag values, and strings length-prefixed in UTF-8,
+ * so a list is decoded with one pass over the bytes instead of splitting and parsing text.
+ * <p/>
+ * Lists used to be stored as text, their elements separated by a pilcrow.
+ * {@link #decode(Column.DataType, byte[])} still reads that format, it is replaced the next time a row is written.
+ */
+public final class ListCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Cannot start UTF-8 text, which tells the binary format from the old text format
+    private static final byte MARKER_0 = (byte) 0xCA;
+    private static final byte MARKER_1 = (byte) 0x4E;
+    private static final byte VERSION = 1;
+    private static final int HAS_NULLS = 1;
+
+    private static final String TEXT_SEPARATOR = "\u00B6";
+    private static final String TEXT_NULL = "NULL";
+
+    private ListCodec() {
+    }
+
+    /**
+     * Encodes a list
+     *
+     * @param type
+     *         the type of the elements
+     * @param list
+     *         the list, may be {@code null}
+     *
+     * @return the encoded list, {@code null} if the list is {@code null}
+     *
+     * @throws ClassCastException
+     *         if an element does not fit the type
+     */
+    public static byte[] encode(Column.DataType type, List<?> list) {
+        if (list == null) {
+            return null;
+        }
+        int size = list.size();
+        Output out = new Output(8 + size * 4);
+        out.write(MARKER_0);
+        out.write(MARKER_1);
+        out.write(VERSION);
+        out.writeVarInt(size);
+
+        byte[] nulls = null;
+        for (int i = 0; i < size; i++) {
+            if (list.get(i) == null) {
+                if (nulls == null) {
+                    nulls = new byte[(size + 7) >>> 3];
+                }
+                nulls[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.write(nulls == null ? 0 : HAS_NULLS);
+        if (nulls != null) {
+            out.write(nulls, 0, nulls.length);
+        }
+
+        for (int i = 0; i < size; i++) {
+            Object o = list.get(i);
+            if (o == null) {
+                continue;
+            }
+            switch (type) {
+                case BYTE:
+                    out.write(((Number) o).byteValue());
+                    break;
+                case SHORT:
+                    short s = ((Number) o).shortValue();
+                    out.write(s >>> 8);
+                    out.write(s);
+                    break;
+                case INTEGER:
+                    out.writeVarLong(zigzag(((Number) o).intValue()));
+                    break;
+                case LONG:
+                    out.writeVarLong(zigzag(((Number) o).longValue()));
+                    break;
+                case FLOAT:
+                    out.writeFixed(Float.floatToIntBits(((Number) o).floatValue()), 4);
+                    break;
+                case DOUBLE:
+                    out.writeFixed(Double.doubleToLongBits(((Number) o).doubleValue()), 8);
+                    break;
+                case BOOLEAN:
+                    out.write((Boolean) o ? 1 : 0);
+                    break;
+                case STRING:
+                    byte[] bytes = String.valueOf(o).getBytes(UTF8);
+                    out.writeVarInt(bytes.length);
+                    out.write(bytes, 0, bytes.length);
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a list, either from the binary format or from the old text format
+     *
+     * @param type
+     *         the type of the elements
+     * @param data
+     *         the stored value, may be {@code null}
+     *
+     * @return the list, empty if nothing is stored
+     *
+     * @throws IllegalArgumentException
+     *         if the binary data is corrupt
+     */
+    public static List<Comparable<?>> decode(Column.DataType type, byte[] data) {
+        if (data == null) {
+            return new ArrayList<Comparable<?>>();
+        }
+        if (!isEncoded(data)) {
+            return decodeText(type, new String(data, UTF8));
+        }
+        if (data[2] != VERSION) {
+            throw new IllegalArgumentException("Unknown list encoding version " + data[2]);
+        }
+        Input in = new Input(data, 3);
+        int size = in.readVarInt();
+        byte[] nulls = null;
+        if ((in.read() & HAS_NULLS) != 0) {
+            nulls = in.read((size + 7) >>> 3);
+        }
+        // One array, filled in one typed loop
+        Comparable<?>[] values = new Comparable<?>[size];
+        for (int i = 0; i < size; i++) {
+            if (nulls != null && (nulls[i >>> 3] & (1 << (i & 7))) != 0) {
+                continue;
+            }
+            switch (type) {
+                case BYTE:
+                    values[i] = (byte) in.read();
+                    break;
+                case SHORT:
+                    values[i] = (short) ((in.read() << 8) | in.read());
+                    break;
+                case INTEGER:
+                    values[i] = (int) unzigzag(in.readVarLong());
+                    break;
+                case LONG:
+                    values[i] = unzigzag(in.readVarLong());
+                    break;
+                case FLOAT:
+                    values[i] = Float.intBitsToFloat((int) in.readFixed(4));
+                    break;
+                case DOUBLE:
+                    values[i] = Double.longBitsToDouble(in.readFixed(8));
+                    break;
+                case BOOLEAN:
+                    values[i] = in.read() != 0;
+                    break;
+                case STRING:
+                    int length = in.readVarInt();
+                    values[i] = in.readString(length);
+                    break;
+            }
+        }
+        return new ArrayList<Comparable<?>>(Arrays.asList(values));
+    }
+
+    /**
+     * Checks whether a stored value is in the binary format
+     *
+     * @param data
+     *         the stored value
+     *
+     * @return {@code true} if it is, {@code false} if it is in the old text format
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length >= 3 && data[0] == MARKER_0 && data[1] == MARKER_1;
+    }
+
+    /**
+     * Decodes a list stored in the old, pilcrow separated text format
+     *
+     * @param type
+     *         the type of the elements
+     * @param field
+     *         the stored text, may be {@code null}
+     *
+     * @return the list, empty if the text is {@code null} or empty
+     *
+     * @throws NumberFormatException
+     *         if an element is not a number of the type
+     */
+    public static List<Comparable<?>> decodeText(Column.DataType type, String field) {
+        List<Comparable<?>> list = new ArrayList<Comparable<?>>();
+        if (field == null || field.isEmpty()) {
+            // An empty list was stored as empty text
+            return list;
+        }
+        for (String s : field.split(TEXT_SEPARATOR)) {
+            if (s.equals(TEXT_NULL)) {
+                list.add(null);
+                continue;
+            }
+            switch (type) {
+                case BYTE:
+                    list.add(Byte.valueOf(s));
+                    break;
+                case INTEGER:
+                    list.add(Integer.valueOf(s));
+                    break;
+                case FLOAT:
+                    list.add(Float.valueOf(s));
+                    break;
+                case DOUBLE:
+                    list.add(Double.valueOf(s));
+                    break;
+                case LONG:
+                    list.add(Long.valueOf(s));
+                    break;
+                case SHORT:
+                    list.add(Short.valueOf(s));
+                    break;
+                case STRING:
+                    list.add(s);
+                    break;
+                case BOOLEAN:
+                    list.add(Boolean.valueOf(s));
+                    break;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Encodes a list in the old, pilcrow separated text format
+     *
+     * @param list
+     *         the list, may be {@code null}
+     *
+     * @return the text
+     */
+    public static String encodeText(List<?> list) {
+        if (list == null) {
+            return TEXT_NULL;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                sb.append(TEXT_SEPARATOR);
+            }
+            Object o = list.get(i);
+            sb.append(o == null ? TEXT_NULL : String.valueOf(o));
+        }
+        return sb.toString();
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int length;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void write(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int count) {
+            ensure(count);
+            System.arraycopy(bytes, offset, buffer, length, count);
+            length += count;
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void writeFixed(long value, int bytes) {
+            ensure(bytes);
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void ensure(int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int read() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated list data");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        byte[] read(int count) {
+            check(count);
+            byte[] bytes = Arrays.copyOfRange(data, position, position + count);
+            position += count;
+            return bytes;
+        }
+
+        int readVarInt() {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Corrupt list data");
+            }
+            return (int) value;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt list data");
+        }
+
+        long readFixed(int bytes) {
+            check(bytes);
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        String readString(int length) {
+            check(length);
+            String s = new String(data, position, length, UTF8);
+            position += length;
+            return s;
+        }
+
+        private void check(int count) {
+            if (count < 0 || position + count > data.length) {
+                throw new IllegalArgumentException("Truncated list data");
+            }
+        }
+    }
+}
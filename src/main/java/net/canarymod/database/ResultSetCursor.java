@@ -0,0 +1,101 @@
+package net.canarymod.database;
+
+import net.canarymod.database.exceptions.DatabaseAccessException;
+import net.canarymod.database.exceptions.DatabaseReadException;
+import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Set;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * A {@link DatabaseCursor} over a JDBC result set.
+ * Databases supply the conversion of a row into a data set and release their connection in {@link #release()}.
+ */
+public abstract class ResultSetCursor implements DatabaseCursor {
+    private final DataAccess template;
+    private final Set<Column> layout;
+    private ResultSet rs;
+
+    /**
+     * Constructs a new ResultSetCursor
+     *
+     * @param template
+     *         the type template rows are loaded into instances of
+     * @param rs
+     *         the result set, which is closed along with its statement when the cursor is closed
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the template has no valid table layout
+     */
+    public ResultSetCursor(DataAccess template, ResultSet rs) throws DatabaseTableInconsistencyException {
+        this.template = template;
+        this.layout = template.getTableLayout();
+        this.rs = rs;
+    }
+
+    @Override
+    public DataAccess next() throws DatabaseReadException {
+        if (rs == null) {
+            return null;
+        }
+        try {
+            if (!rs.next()) {
+                close();
+                return null;
+            }
+            DataAccess data = template.getInstance();
+            data.load(readRow(rs, layout));
+            return data;
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Failed to read the next row of " + template.getName(), ex);
+        }
+        catch (DatabaseAccessException ex) {
+            throw new DatabaseReadException("Failed to read the next row of " + template.getName(), ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (rs == null) {
+            return;
+        }
+        try {
+            Statement st = rs.getStatement();
+            rs.close();
+            if (st != null) {
+                st.close();
+            }
+        }
+        catch (SQLException ex) {
+            log.error(ex.getMessage(), ex);
+        }
+        finally {
+            rs = null;
+            release();
+        }
+    }
+
+    /**
+     * Reads the current row
+     *
+     * @param rs
+     *         the result set, positioned on the row
+     * @param layout
+     *         the columns to read
+     *
+     * @return the column name to value map
+     *
+     * @throws SQLException
+     *         if the row could not be read
+     */
+    protected abstract HashMap<String, Object> readRow(ResultSet rs, Set<Column> layout) throws SQLException;
+
+    /** Called once the cursor is closed, to release the connection the result set came from */
+    protected abstract void release();
+}
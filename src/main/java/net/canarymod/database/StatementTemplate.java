@@ -0,0 +1,160 @@
+package net.canarymod.database;
+
+import net.canarymod.database.exceptions.DatabaseReadException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The SQL text of a statement together with the order its parameters are bound in.
+ * <p/>
+ * JDBC databases compile a template once per operation, table, {@link DataAccess} class and set of filter columns
+ * and reuse it for every following call, instead of assembling the SQL anew each time.
+ * Each parameter is either the value of a column of the {@link DataAccess} or the value of a filter.
+ */
+public final class StatementTemplate {
+    private final String sql;
+    private final Column[] columns;
+    private final String[] filters;
+
+    /**
+     * Constructs a new StatementTemplate
+     *
+     * @param sql
+     *         the SQL text
+     * @param columns
+     *         the column of each parameter
+     * @param filters
+     *         the filter name of each parameter, or {@code null} where the parameter is a column value
+     */
+    public StatementTemplate(String sql, List<Column> columns, List<String> filters) {
+        if (columns.size() != filters.size()) {
+            throw new IllegalArgumentException("Every parameter needs a column and a filter slot");
+        }
+        this.sql = sql;
+        this.columns = columns.toArray(new Column[columns.size()]);
+        this.filters = filters.toArray(new String[filters.size()]);
+    }
+
+    /**
+     * Gets the SQL text
+     *
+     * @return the SQL
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Gets the number of parameters
+     *
+     * @return the parameter count
+     */
+    public int getParameterCount() {
+        return columns.length;
+    }
+
+    /**
+     * Gets the column of a parameter
+     *
+     * @param index
+     *         the parameter index, starting at 0
+     *
+     * @return the column
+     */
+    public Column getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Gets the value to bind to a parameter
+     *
+     * @param index
+     *         the parameter index, starting at 0
+     * @param values
+     *         the column values of the {@link DataAccess}, may be {@code null} if the template has no column value parameters
+     * @param filters
+     *         the filters, may be {@code null} if the template has no filter parameters
+     *
+     * @return the value
+     */
+    public Object getValue(int index, Map<Column, Object> values, Map<String, Object> filters) {
+        return this.filters[index] != null ? filters.get(this.filters[index]) : values.get(columns[index]);
+    }
+
+    /**
+     * Gets the names of the given filters in the order templates bind them
+     *
+     * @param filters
+     *         the filters
+     *
+     * @return the sorted filter names
+     */
+    public static String[] filterNames(Map<String, Object> filters) {
+        String[] names = filters.keySet().toArray(new String[filters.size()]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Builds the key a template is cached under
+     *
+     * @param operation
+     *         the operation, for instance "select"
+     * @param data
+     *         the {@link DataAccess} the statement is for
+     * @param filterNames
+     *         the sorted filter names, see {@link #filterNames(Map)}
+     *
+     * @return the cache key
+     */
+    public static String key(String operation, DataAccess data, String[] filterNames) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(operation).append('\u0000').append(data.getName()).append('\u0000').append(data.getClass().getName());
+        for (String name : filterNames) {
+            key.append('\u0000').append(name);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Creates a cache for templates.
+     * Sized for the handful of statements each table is used with.
+     *
+     * @return the cache
+     */
+    public static Map<String, StatementTemplate> newCache() {
+        return new ConcurrentHashMap<String, StatementTemplate>(64, 0.75F, 4);
+    }
+
+    /**
+     * Appends a WHERE clause matching all given filters, if there are any, and adds their parameters
+     *
+     * @param sql
+     *         the SQL to append to
+     * @param data
+     *         the {@link DataAccess} the statement is for
+     * @param filterNames
+     *         the sorted filter names
+     * @param columns
+     *         the parameter columns to add to
+     * @param filters
+     *         the parameter filter slots to add to
+     *
+     * @throws DatabaseReadException
+     *         if a filter names a column the {@link DataAccess} does not have
+     */
+    public static void appendWhere(StringBuilder sql, DataAccess data, String[] filterNames, List<Column> columns, List<String> filters) throws DatabaseReadException {
+        for (int i = 0; i < filterNames.length; i++) {
+            Column column = data.getColumnForName(filterNames[i]);
+            if (column == null) {
+                throw new DatabaseReadException("Column " + filterNames[i] + " does not exist in " + data.getName() + "!");
+            }
+            sql.append(i == 0 ? " WHERE `" : " AND `").append(filterNames[i]).append("`=?");
+            columns.add(column);
+            filters.add(filterNames[i]);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package net.canarymod.database.metrics;
+
+import net.canarymod.Canary;
+import net.canarymod.CanaryClassLoader;
+import net.canarymod.config.Configuration;
+import net.canarymod.database.Database;
+import net.canarymod.plugin.Plugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Opt-in statistics of database operations, per table and operation,
+ * and a log of operations slower than a threshold.
+ * <p/>
+ * While enabled, {@link Database#get()} hands out a {@link MetricsDatabase} that records every operation.
+ * While disabled, the only cost is a read of a volatile flag.
+ *
+ * @see OperationMetrics
+ */
+public final class DatabaseMetrics {
+    /** Number of slow operations kept for {@link #getSlowOperations()} */
+    private static final int SLOW_OPERATIONS_KEPT = 50;
+
+    private static volatile boolean enabled = Configuration.getDbConfig().isMetricsEnabled();
+    private static volatile long enabledSince = enabled ? System.nanoTime() : 0;
+    private static volatile long slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Configuration.getDbConfig().getSlowOperationThreshold());
+    private static volatile MetricsDatabase wrapper;
+    private static final ConcurrentHashMap<String, OperationMetrics> entries = new ConcurrentHashMap<String, OperationMetrics>();
+    private static final ArrayDeque<SlowOperation> slowOperations = new ArrayDeque<SlowOperation>();
+    private static final CallerContext callerContext = new CallerContext();
+
+    private DatabaseMetrics() {
+    }
+
+    /**
+     * Checks whether database operations are being recorded
+     *
+     * @return {@code true} if enabled; {@code false} if not
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables recording of database operations. Enabling resets all recorded data.
+     *
+     * @param enable
+     *         {@code true} to enable; {@code false} to disable
+     */
+    public static void setEnabled(boolean enable) {
+        if (enable && !enabled) {
+            reset();
+        }
+        enabled = enable;
+    }
+
+    /**
+     * Resets all recorded data, including the slow operations
+     */
+    public static void reset() {
+        for (OperationMetrics entry : entries.values()) {
+            entry.reset();
+        }
+        synchronized (slowOperations) {
+            slowOperations.clear();
+        }
+        enabledSince = System.nanoTime();
+    }
+
+    /**
+     * Gets the time recorded data covers
+     *
+     * @return nanoseconds since metrics were enabled or reset; 0 if disabled
+     */
+    public static long getSampleNanos() {
+        return enabled ? System.nanoTime() - enabledSince : 0;
+    }
+
+    /**
+     * Gets the time above which an operation is logged as slow
+     *
+     * @return the threshold in milliseconds, 0 if slow operations are not logged
+     */
+    public static long getSlowThreshold() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    /**
+     * Sets the time above which an operation is logged as slow
+     *
+     * @param millis
+     *         the threshold in milliseconds, 0 to not log slow operations
+     */
+    public static void setSlowThreshold(long millis) {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Wraps a database so its operations are recorded, if metrics are enabled
+     *
+     * @param database
+     *         the database
+     *
+     * @return the {@link MetricsDatabase} wrapping it, or the database itself if metrics are disabled
+     */
+    public static Database instrument(Database database) {
+        if (!enabled) {
+            return database;
+        }
+        MetricsDatabase current = wrapper;
+        if (current == null || current.getDelegate() != database) {
+            current = new MetricsDatabase(database);
+            wrapper = current;
+        }
+        return current;
+    }
+
+    /**
+     * Gets or creates the entry for an operation on a table
+     *
+     * @param table
+     *         the table name
+     * @param operation
+     *         the operation
+     *
+     * @return the {@link OperationMetrics}
+     */
+    public static OperationMetrics getEntry(String table, String operation) {
+        String key = table + '\u0000' + operation;
+        OperationMetrics entry = entries.get(key);
+        if (entry == null) {
+            OperationMetrics created = new OperationMetrics(table, operation);
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Records one operation and logs it if it was slow
+     *
+     * @param table
+     *         the table name
+     * @param operation
+     *         the operation
+     * @param filters
+     *         the filters the operation was run with, may be {@code null}
+     * @param nanos
+     *         the time the operation took, in nanoseconds
+     * @param poolWait
+     *         the part of it spent waiting for a pooled connection, in nanoseconds
+     * @param rows
+     *         the number of rows read or written
+     * @param failed
+     *         {@code true} if the operation threw an exception
+     */
+    static void record(String table, String operation, Map<String, Object> filters, long nanos, long poolWait, long rows, boolean failed) {
+        getEntry(table, operation).record(nanos, poolWait, rows, failed);
+        long threshold = slowThresholdNanos;
+        if (threshold > 0 && nanos >= threshold) {
+            // Rare enough to afford finding out who asked for it
+            SlowOperation slow = new SlowOperation(table, operation, filters == null ? "" : String.valueOf(filters),
+                    findCallerPlugin(), Thread.currentThread().getName(), nanos);
+            synchronized (slowOperations) {
+                if (slowOperations.size() >= SLOW_OPERATIONS_KEPT) {
+                    slowOperations.removeFirst();
+                }
+                slowOperations.addLast(slow);
+            }
+            log.warn("Slow database operation: " + slow);
+        }
+    }
+
+    /**
+     * Finds the plugin that called into the database on the current thread
+     *
+     * @return the plugin name, or {@code null} if no plugin is on the call stack
+     */
+    private static String findCallerPlugin() {
+        if (Canary.instance() == null || Canary.manager() == null) {
+            return null;
+        }
+        for (Class<?> cls : callerContext.getCallers()) {
+            ClassLoader loader = cls.getClassLoader();
+            if (loader instanceof CanaryClassLoader) {
+                for (Plugin plugin : Canary.manager().getPlugins()) {
+                    if (plugin.getClass().getClassLoader() == loader) {
+                        return plugin.getName();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets all entries that recorded at least one operation, slowest (by total time) first
+     *
+     * @return snapshot list of entries
+     */
+    public static List<OperationMetrics> getEntries() {
+        List<OperationMetrics> list = new ArrayList<OperationMetrics>();
+        for (OperationMetrics entry : entries.values()) {
+            if (entry.getCount() > 0) {
+                list.add(entry);
+            }
+        }
+        Collections.sort(list, new Comparator<OperationMetrics>() {
+            @Override
+            public int compare(OperationMetrics o1, OperationMetrics o2) {
+                long diff = o2.getTotalNanos() - o1.getTotalNanos();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Gets the most recent slow operations, oldest first
+     *
+     * @return snapshot list of slow operations
+     */
+    public static List<SlowOperation> getSlowOperations() {
+        synchronized (slowOperations) {
+            return new ArrayList<SlowOperation>(slowOperations);
+        }
+    }
+
+    /**
+     * Writes a snapshot of all entries as comma separated values, one line per entry, with a header line.
+     * Besides the totals each line holds the number of operations in each latency histogram bucket.
+     *
+     * @param writer
+     *         the {@link Writer} to export to
+     *
+     * @throws IOException
+     *         if writing fails
+     */
+    public static void export(Writer writer) throws IOException {
+        long[] bounds = OperationMetrics.getBucketBounds();
+        StringBuilder header = new StringBuilder("table,operation,count,errors,rows,total_ns,avg_ns,max_ns,pool_wait_ns,p50_ms,p95_ms,p99_ms");
+        for (long bound : bounds) {
+            header.append(",le_").append(bound).append("ms");
+        }
+        header.append(",gt_").append(bounds[bounds.length - 1]).append("ms\n");
+        writer.write(header.toString());
+        for (OperationMetrics entry : getEntries()) {
+            StringBuilder line = new StringBuilder();
+            line.append(csv(entry.getTable())).append(',').append(csv(entry.getOperation())).append(',')
+                    .append(entry.getCount()).append(',').append(entry.getErrorCount()).append(',').append(entry.getRows()).append(',')
+                    .append(entry.getTotalNanos()).append(',').append(entry.getAverageNanos()).append(',').append(entry.getMaxNanos()).append(',')
+                    .append(entry.getPoolWaitNanos()).append(',').append(entry.getPercentileMillis(50)).append(',')
+                    .append(entry.getPercentileMillis(95)).append(',').append(entry.getPercentileMillis(99));
+            for (long bucket : entry.getHistogram()) {
+                line.append(',').append(bucket);
+            }
+            writer.write(line.append('\n').toString());
+        }
+        writer.flush();
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /** Exposes the classes on the call stack, which a stack trace only has the names of */
+    private static final class CallerContext extends SecurityManager {
+
+        Class<?>[] getCallers() {
+            return getClassContext();
+        }
+    }
+}
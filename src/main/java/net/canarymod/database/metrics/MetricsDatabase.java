@@ -0,0 +1,257 @@
+package net.canarymod.database.metrics;
+
+import net.canarymod.database.DataAccess;
+import net.canarymod.database.Database;
+import net.canarymod.database.DatabaseCursor;
+import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.exceptions.DatabaseReadException;
+import net.canarymod.database.exceptions.DatabaseWriteException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the operations run on another {@link Database}, see {@link DatabaseMetrics}.
+ * <p/>
+ * Each operation is timed from call to return, the part of that time spent waiting for a pooled connection is recorded separately.
+ * A cursor opened by {@link #stream(DataAccess, Map)} is recorded when it is closed, with the time spent opening and advancing it.
+ */
+public final class MetricsDatabase extends Database {
+    /** Table name recorded for batches, which are not tied to one table */
+    static final String ANY_TABLE = "*";
+
+    private final Database delegate;
+
+    MetricsDatabase(Database delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Gets the database operations are run on
+     *
+     * @return the wrapped database
+     */
+    public Database getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void insert(DataAccess data) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.insert(data);
+            failed = false;
+        }
+        finally {
+            record(data.getName(), "insert", null, start, poolWait, 1, failed);
+        }
+    }
+
+    @Override
+    public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.update(data, filters);
+            failed = false;
+        }
+        finally {
+            record(data.getName(), "update", filters, start, poolWait, 0, failed);
+        }
+    }
+
+    @Override
+    public void remove(DataAccess da, Map<String, Object> filters) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.remove(da, filters);
+            failed = false;
+        }
+        finally {
+            record(da.getName(), "remove", filters, start, poolWait, 0, failed);
+        }
+    }
+
+    @Override
+    public void removeAll(DataAccess da, Map<String, Object> filters) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.removeAll(da, filters);
+            failed = false;
+        }
+        finally {
+            record(da.getName(), "removeAll", filters, start, poolWait, 0, failed);
+        }
+    }
+
+    @Override
+    public void load(DataAccess dataset, Map<String, Object> filters) throws DatabaseReadException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.load(dataset, filters);
+            failed = false;
+        }
+        finally {
+            record(dataset.getName(), "load", filters, start, poolWait, dataset.hasData() ? 1 : 0, failed);
+        }
+    }
+
+    @Override
+    public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        int before = datasets.size();
+        boolean failed = true;
+        try {
+            delegate.loadAll(typeTemplate, datasets, filters);
+            failed = false;
+        }
+        finally {
+            record(typeTemplate.getName(), "loadAll", filters, start, poolWait, datasets.size() - before, failed);
+        }
+    }
+
+    @Override
+    public DatabaseCursor stream(DataAccess typeTemplate, final Map<String, Object> filters) throws DatabaseReadException {
+        final String table = typeTemplate.getName();
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        final DatabaseCursor cursor;
+        try {
+            cursor = delegate.stream(typeTemplate, filters);
+        }
+        catch (DatabaseReadException e) {
+            record(table, "stream", filters, start, poolWait, 0, true);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            record(table, "stream", filters, start, poolWait, 0, true);
+            throw e;
+        }
+        final long openNanos = System.nanoTime() - start;
+        final long openPoolWait = JdbcConnectionManager.getThreadPoolWaitNanos() - poolWait;
+        return new DatabaseCursor() {
+            private long nanos = openNanos;
+            private long rows;
+            private boolean failed;
+            private boolean closed;
+
+            @Override
+            public DataAccess next() throws DatabaseReadException {
+                long start = System.nanoTime();
+                boolean ok = false;
+                try {
+                    DataAccess row = cursor.next();
+                    if (row != null) {
+                        rows++;
+                    }
+                    ok = true;
+                    return row;
+                }
+                finally {
+                    nanos += System.nanoTime() - start;
+                    failed |= !ok;
+                }
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+                if (!closed) {
+                    closed = true;
+                    DatabaseMetrics.record(table, "stream", filters, nanos, openPoolWait, rows, failed);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.updateSchema(schemaTemplate);
+            failed = false;
+        }
+        finally {
+            record(schemaTemplate.getName(), "updateSchema", null, start, poolWait, 0, failed);
+        }
+    }
+
+    @Override
+    public void insertAll(List<DataAccess> data) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.insertAll(data);
+            failed = false;
+        }
+        finally {
+            record(data.isEmpty() ? ANY_TABLE : data.get(0).getName(), "insertAll", null, start, poolWait, data.size(), failed);
+        }
+    }
+
+    @Override
+    public void updateAll(List<DataAccess> data, List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.updateAll(data, filters);
+            failed = false;
+        }
+        finally {
+            record(data.isEmpty() ? ANY_TABLE : data.get(0).getName(), "updateAll", null, start, poolWait, 0, failed);
+        }
+    }
+
+    @Override
+    public void removeAll(DataAccess da, List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.removeAll(da, filters);
+            failed = false;
+        }
+        finally {
+            record(da.getName(), "removeAll", null, start, poolWait, 0, failed);
+        }
+    }
+
+    @Override
+    public void batch(final Batch batch) throws DatabaseWriteException {
+        long start = System.nanoTime();
+        long poolWait = JdbcConnectionManager.getThreadPoolWaitNanos();
+        boolean failed = true;
+        try {
+            delegate.batch(new Batch() {
+
+                @Override
+                public void run(Database database) throws DatabaseWriteException, DatabaseReadException {
+                    // Operations within the batch are recorded too
+                    batch.run(MetricsDatabase.this);
+                }
+            });
+            failed = false;
+        }
+        finally {
+            record(ANY_TABLE, "batch", null, start, poolWait, 0, failed);
+        }
+    }
+
+    private static void record(String table, String operation, Map<String, Object> filters, long start, long poolWait, long rows, boolean failed) {
+        DatabaseMetrics.record(table, operation, filters, System.nanoTime() - start, JdbcConnectionManager.getThreadPoolWaitNanos() - poolWait, rows, failed);
+    }
+}
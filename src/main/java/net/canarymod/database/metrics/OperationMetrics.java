@@ -0,0 +1,197 @@
+package net.canarymod.database.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of one kind of database operation on one table, such as {@code load} on {@code bans}
+ *
+ * @see DatabaseMetrics
+ */
+public final class OperationMetrics {
+    /** Upper bounds of the latency histogram buckets in milliseconds, the last bucket holds everything slower */
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000};
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_MS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BUCKET_BOUNDS_MS[i]);
+        }
+    }
+
+    private final String table;
+    private final String operation;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong poolWaitNanos = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+
+    OperationMetrics(String table, String operation) {
+        this.table = table;
+        this.operation = operation;
+    }
+
+    /**
+     * Records one operation
+     *
+     * @param nanos
+     *         the time the operation took, in nanoseconds
+     * @param poolWait
+     *         the part of it spent waiting for a pooled connection, in nanoseconds
+     * @param rowCount
+     *         the number of rows read or written
+     * @param failed
+     *         {@code true} if the operation threw an exception
+     */
+    void record(long nanos, long poolWait, long rowCount, boolean failed) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        if (poolWait > 0) {
+            poolWaitNanos.addAndGet(poolWait);
+        }
+        if (rowCount > 0) {
+            rows.addAndGet(rowCount);
+        }
+        if (failed) {
+            errors.incrementAndGet();
+        }
+        histogram.incrementAndGet(bucket(nanos));
+    }
+
+    private static int bucket(long nanos) {
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            if (nanos <= BUCKET_BOUNDS_NANOS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_NANOS.length;
+    }
+
+    /**
+     * Gets the name of the table
+     *
+     * @return the table name
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the operation, the name of the {@link net.canarymod.database.Database} method
+     *
+     * @return the operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getPoolWaitNanos() {
+        return poolWaitNanos.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Gets the average operation time
+     *
+     * @return average time in nanoseconds, 0 if never executed
+     */
+    public long getAverageNanos() {
+        long calls = count.get();
+        return calls == 0 ? 0 : totalNanos.get() / calls;
+    }
+
+    /**
+     * Gets the upper bounds of the latency histogram buckets
+     *
+     * @return the bounds in milliseconds, one less than there are buckets
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS_MS.clone();
+    }
+
+    /**
+     * Gets the latency histogram
+     *
+     * @return the number of operations in each bucket, see {@link #getBucketBounds()}
+     */
+    public long[] getHistogram() {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Estimates a latency percentile from the histogram
+     *
+     * @param percentile
+     *         the percentile, between 0 and 100
+     *
+     * @return the upper bound of the bucket the percentile falls into, in milliseconds,
+     * or the maximum time if it falls into the last bucket; 0 if never executed
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = getHistogram();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0D);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MS[i];
+            }
+        }
+        return getMaxNanos() / 1000000.0D;
+    }
+
+    void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        poolWaitNanos.set(0);
+        rows.set(0);
+        errors.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OperationMetrics[table=%s, operation=%s, count=%d, total=%dns, max=%dns, poolWait=%dns, rows=%d, errors=%d]", table, operation, getCount(), getTotalNanos(), getMaxNanos(), getPoolWaitNanos(), getRows(), getErrorCount());
+    }
+}
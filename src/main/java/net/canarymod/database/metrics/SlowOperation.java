@@ -0,0 +1,67 @@
+package net.canarymod.database.metrics;
+
+/**
+ * A database operation that took longer than the slow operation threshold
+ *
+ * @see DatabaseMetrics#getSlowOperations()
+ */
+public final class SlowOperation {
+    private final long time;
+    private final String table;
+    private final String operation;
+    private final String filters;
+    private final String caller;
+    private final String thread;
+    private final long nanos;
+
+    SlowOperation(String table, String operation, String filters, String caller, String thread, long nanos) {
+        this.time = System.currentTimeMillis();
+        this.table = table;
+        this.operation = operation;
+        this.filters = filters;
+        this.caller = caller;
+        this.thread = thread;
+        this.nanos = nanos;
+    }
+
+    /** @return when the operation completed, in milliseconds since the epoch */
+    public long getTime() {
+        return time;
+    }
+
+    /** @return the table name */
+    public String getTable() {
+        return table;
+    }
+
+    /** @return the operation */
+    public String getOperation() {
+        return operation;
+    }
+
+    /** @return the filters the operation was run with, empty if it had none */
+    public String getFilters() {
+        return filters;
+    }
+
+    /** @return the name of the plugin that ran the operation, or {@code null} if it was not run by a plugin */
+    public String getCaller() {
+        return caller;
+    }
+
+    /** @return the name of the thread that ran the operation */
+    public String getThread() {
+        return thread;
+    }
+
+    /** @return the time the operation took, in nanoseconds */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s on %s took %.1fms (filters: %s, caller: %s, thread: %s)", operation, table, nanos / 1000000.0D,
+                filters.isEmpty() ? "none" : filters, caller == null ? "server" : caller, thread);
+    }
+}
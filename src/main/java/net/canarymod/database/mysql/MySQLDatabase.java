@@ -3,7 +3,11 @@ package net.canarymod.database.mysql;
 import net.canarymod.database.Column;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
+import net.canarymod.database.DatabaseCursor;
 import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.ListCodec;
+import net.canarymod.database.ResultSetCursor;
+import net.canarymod.database.StatementTemplate;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
@@ -24,8 +28,12 @@ import static net.canarymod.Canary.log;
 public class MySQLDatabase extends Database {
 
     private static MySQLDatabase instance;
-    private final String LIST_REGEX = "\u00B6";
-    private final String NULL_STRING = "NULL";
+    private static final String[] NO_FILTERS = new String[0];
+    // Characters of a TEXT column that go into an index, fits the key length limit even with 4 byte characters
+    private static final int INDEX_PREFIX_LENGTH = 191;
+    private final Map<String, StatementTemplate> templates = StatementTemplate.newCache();
+    // The connection of the batch the current thread is running, if any
+    private final ThreadLocal<Connection> transaction = new ThreadLocal<Connection>();
 
     private MySQLDatabase() {
         // one does not simply instantiate MySQLDatabase!
@@ -40,52 +48,21 @@ public class MySQLDatabase extends Database {
 
     @Override
     public void insert(DataAccess data) throws DatabaseWriteException {
-        if (this.doesEntryExist(data)) {
-            return;
-        }
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         PreparedStatement ps = null;
 
         try {
-            StringBuilder fields = new StringBuilder();
-            StringBuilder values = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
-
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    fields.append("`").append(column.columnName()).append("`").append(",");
-                    values.append("?").append(",");
-                }
-            }
-            if (fields.length() > 0) {
-                fields.deleteCharAt(fields.length() - 1);
-            }
-            if (values.length() > 0) {
-                values.deleteCharAt(values.length() - 1);
-            }
-            ps = conn.prepareStatement("INSERT INTO `" + data.getName() + "` (" + fields.toString() + ") VALUES(" + values.toString() + ")");
-
-            int i = 1;
-            for (Column c : columns.keySet()) {
-                if (!c.autoIncrement()) {
-                    setToStatement(i, columns.get(c), ps, c);
-                    i++;
-                }
-            }
-
-            if (ps.executeUpdate() == 0) {
-                throw new DatabaseWriteException("Error inserting MySQL: no rows updated!");
-            }
-
+            StatementTemplate template = getInsertTemplate(data);
+            ps = conn.prepareStatement(template.getSql());
+            bind(ps, template, data.toDatabaseEntryList(), null);
+            // Nothing is inserted if the very same entry exists already
+            ps.executeUpdate();
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error inserting into MySQL table " + data.getName(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            log.error(dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error inserting into MySQL table " + data.getName(), dtie);
         }
         finally {
             close(conn, ps, null);
@@ -95,164 +72,256 @@ public class MySQLDatabase extends Database {
 
     @Override
     public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        if (!this.doesEntryExist(data)) {
-            return;
-        }
-        Connection conn = JdbcConnectionManager.getConnection();
-        ResultSet rs = null;
+        Connection conn = getConnection();
+        PreparedStatement ps = null;
+        int updated;
 
         try {
-            rs = this.getResultSet(conn, data, filters, true);
-            if (rs != null) {
-                if (rs.next()) {
-                    HashMap<Column, Object> columns = data.toDatabaseEntryList();
-                    Iterator<Column> it = columns.keySet().iterator();
-                    Column column;
-                    while (it.hasNext()) {
-                        column = it.next();
-                        if (column.isList()) {
-                            rs.updateObject(column.columnName(), this.getString((List<?>) columns.get(column)));
-                        }
-                        else {
-                            rs.updateObject(column.columnName(), columns.get(column));
-                        }
-                    }
-                    rs.updateRow();
-                }
-                else {
-                    throw new DatabaseWriteException("Error updating DataAccess to MySQL, no such entry: " + data.toString());
-                }
-            }
+            StatementTemplate template = getUpdateTemplate(data, StatementTemplate.filterNames(filters));
+            ps = conn.prepareStatement(template.getSql());
+            bind(ps, template, data.toDatabaseEntryList(), filters);
+            updated = ps.executeUpdate();
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error updating MySQL table " + data.getName(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            log.error(dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error updating MySQL table " + data.getName(), dtie);
         }
         catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
+            throw new DatabaseWriteException("Error updating MySQL table " + data.getName(), e);
         }
         finally {
-            PreparedStatement st = null;
-            try {
-                st = rs != null && rs.getStatement() instanceof PreparedStatement ? (PreparedStatement) rs.getStatement() : null;
-            }
-            catch (SQLException e) {
-                log.error(e.getMessage(), e);
-            }
-            close(conn, st, rs);
+            close(conn, ps, null);
+        }
+        if (updated == 0) {
+            // No such entry, that means it is a new entry
+            insert(data);
         }
     }
 
 
     @Override
     public void remove(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+        deleteRows(dataAccess, filters, true);
+    }
+
+    @Override
+    public void removeAll(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
+        deleteRows(dataAccess, filters, false);
+    }
+
+    private void deleteRows(DataAccess dataAccess, Map<String, Object> filters, boolean limitOne) throws DatabaseWriteException {
+        if (filters.isEmpty()) {
+            return;
+        }
+        Connection conn = getConnection();
         PreparedStatement ps = null;
 
         try {
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
+            StatementTemplate template = getDeleteTemplate(dataAccess, StatementTemplate.filterNames(filters), limitOne);
+            ps = conn.prepareStatement(template.getSql());
+            bind(ps, template, null, filters);
+            ps.executeUpdate();
+        }
+        catch (DatabaseReadException dre) {
+            throw new DatabaseWriteException("Error deleting from MySQL table " + dataAccess.getName(), dre);
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error deleting from MySQL table " + dataAccess.getName(), ex);
+        }
+        finally {
+            close(conn, ps, null);
+        }
+    }
+
+    @Override
+    public void insertAll(final List<DataAccess> data) throws DatabaseWriteException {
+        if (data.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                List<StatementTemplate> statements = new ArrayList<StatementTemplate>(data.size());
+                List<Map<Column, Object>> values = new ArrayList<Map<Column, Object>>(data.size());
+                try {
+                    for (DataAccess da : data) {
+                        statements.add(getInsertTemplate(da));
+                        values.add(da.toDatabaseEntryList());
                     }
                 }
+                catch (DatabaseTableInconsistencyException dtie) {
+                    throw new DatabaseWriteException(dtie.getMessage(), dtie);
+                }
+                executeBatch(statements, values, null);
+            }
+        });
+    }
+
+    @Override
+    public void updateAll(final List<DataAccess> data, final List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        if (data.size() != filters.size()) {
+            throw new IllegalArgumentException("Every DataAccess needs its filters");
+        }
+        if (data.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
 
-                ps = conn.prepareStatement("DELETE FROM `" + dataAccess.getName() + "` WHERE " + sb.toString() + "LIMIT 1");
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = dataAccess.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error deleting MySQL row in " + dataAccess.getName() + ". Column " + fieldNames[i] + " does not exist!");
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                List<StatementTemplate> statements = new ArrayList<StatementTemplate>(data.size());
+                List<Map<Column, Object>> values = new ArrayList<Map<Column, Object>>(data.size());
+                try {
+                    for (int i = 0; i < data.size(); i++) {
+                        statements.add(getUpdateTemplate(data.get(i), StatementTemplate.filterNames(filters.get(i))));
+                        values.add(data.get(i).toDatabaseEntryList());
+                    }
+                }
+                catch (DatabaseTableInconsistencyException dtie) {
+                    throw new DatabaseWriteException(dtie.getMessage(), dtie);
+                }
+                catch (DatabaseReadException dre) {
+                    throw new DatabaseWriteException(dre.getMessage(), dre);
+                }
+                int[] updated = executeBatch(statements, values, filters);
+                List<DataAccess> missing = new ArrayList<DataAccess>();
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] == 0) {
+                        // No such entry, that means it is a new entry
+                        missing.add(data.get(i));
                     }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col);
                 }
+                insertAll(missing);
+            }
+        });
+    }
 
+    @Override
+    public void removeAll(final DataAccess dataAccess, final List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        if (filters.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                List<StatementTemplate> statements = new ArrayList<StatementTemplate>(filters.size());
+                List<Map<String, Object>> used = new ArrayList<Map<String, Object>>(filters.size());
+                try {
+                    for (Map<String, Object> filter : filters) {
+                        if (!filter.isEmpty()) {
+                            statements.add(getDeleteTemplate(dataAccess, StatementTemplate.filterNames(filter), false));
+                            used.add(filter);
+                        }
+                    }
+                }
+                catch (DatabaseReadException dre) {
+                    throw new DatabaseWriteException(dre.getMessage(), dre);
+                }
+                executeBatch(statements, null, used);
             }
+        });
+    }
 
+    @Override
+    public void batch(Batch batch) throws DatabaseWriteException {
+        if (transaction.get() != null) {
+            // Part of the enclosing batch
+            super.batch(batch);
+            return;
         }
-        catch (DatabaseReadException dre) {
-            log.error(dre.getMessage(), dre);
+        Connection conn = getConnection();
+        if (conn == null) {
+            throw new DatabaseWriteException("No MySQL connection available to run a batch");
+        }
+        boolean committed = false;
+        try {
+            conn.setAutoCommit(false);
+            transaction.set(conn);
+            super.batch(batch);
+            conn.commit();
+            committed = true;
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            throw new DatabaseWriteException("Failed to run MySQL batch", ex);
         }
         finally {
-            close(conn, ps, null);
+            transaction.remove();
+            try {
+                if (!committed) {
+                    conn.rollback();
+                }
+                conn.setAutoCommit(true);
+            }
+            catch (SQLException ex) {
+                log.error(ex.getMessage(), ex);
+            }
+            close(conn, null, null);
         }
     }
 
-    @Override
-    public void removeAll(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+    /**
+     * Executes statements in the current batch, with one JDBC batch for each run of statements sharing a template
+     *
+     * @param statements
+     *         the template of each statement
+     * @param values
+     *         the column values of each statement, may be {@code null} if the templates have no column value parameters
+     * @param filters
+     *         the filters of each statement, may be {@code null} if the templates have no filter parameters
+     *
+     * @return the update count of each statement
+     *
+     * @throws DatabaseWriteException
+     *         if a statement failed
+     */
+    private int[] executeBatch(List<StatementTemplate> statements, List<Map<Column, Object>> values, List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        Connection conn = transaction.get();
+        int[] counts = new int[statements.size()];
         PreparedStatement ps = null;
+        StatementTemplate current = null;
+        int start = 0;
 
         try {
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-
-                ps = conn.prepareStatement("DELETE FROM `" + dataAccess.getName() + "` WHERE " + sb.toString());
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = dataAccess.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error deleting MySQL row in " + dataAccess.getName() + ". Column " + fieldNames[i] + " does not exist!");
+            for (int i = 0; i < statements.size(); i++) {
+                StatementTemplate template = statements.get(i);
+                if (template != current) {
+                    if (ps != null) {
+                        System.arraycopy(ps.executeBatch(), 0, counts, start, i - start);
+                        ps.close();
                     }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col);
+                    current = template;
+                    start = i;
+                    ps = conn.prepareStatement(template.getSql());
                 }
-
+                bind(ps, template, values != null ? values.get(i) : null, filters != null ? filters.get(i) : null);
+                ps.addBatch();
+            }
+            if (ps != null) {
+                System.arraycopy(ps.executeBatch(), 0, counts, start, statements.size() - start);
             }
-
-        }
-        catch (DatabaseReadException dre) {
-            log.error(dre.getMessage(), dre);
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            throw new DatabaseWriteException("Failed to execute MySQL batch", ex);
         }
         finally {
-            close(conn, ps, null);
+            close(null, ps, null);
         }
+        return counts;
     }
 
     @Override
     public void load(DataAccess da, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
-        Connection conn = JdbcConnectionManager.getConnection();
-        HashMap<String, Object> dataSet = new HashMap<String, Object>();
+        Connection conn = getConnection();
         try {
             rs = this.getResultSet(conn, da, filters, true);
             if (rs != null) {
                 if (rs.next()) {
-                    for (Column column : da.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), this.getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (rs.getObject(column.columnName()) instanceof Boolean) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-                    da.load(dataSet);
+                    da.load(readRow(rs, da.getTableLayout()));
                 }
             }
         }
@@ -282,25 +351,14 @@ public class MySQLDatabase extends Database {
     @Override
     public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         List<HashMap<String, Object>> stuff = new ArrayList<HashMap<String, Object>>();
         try {
             rs = this.getResultSet(conn, typeTemplate, filters, false);
             if (rs != null) {
+                Set<Column> layout = typeTemplate.getTableLayout();
                 while (rs.next()) {
-                    HashMap<String, Object> dataSet = new HashMap<String, Object>();
-                    for (Column column : typeTemplate.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), this.getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (rs.getObject(column.columnName()) instanceof Boolean) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-                    stuff.add(dataSet);
+                    stuff.add(readRow(rs, layout));
                 }
             }
 
@@ -336,9 +394,81 @@ public class MySQLDatabase extends Database {
         }
     }
 
+    @Override
+    public DatabaseCursor stream(DataAccess typeTemplate, Map<String, Object> filters) throws DatabaseReadException {
+        final Connection conn = getConnection();
+        PreparedStatement ps = null;
+        boolean handedOff = false; // Set once the cursor owns the statement and connection
+        try {
+            StatementTemplate template = getSelectTemplate(typeTemplate, StatementTemplate.filterNames(filters), false);
+            ps = conn.prepareStatement(template.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (transaction.get() == null) {
+                // Makes the driver hand out rows as they arrive instead of buffering the whole result.
+                // The connection can't be used for anything else until the cursor is closed, which is fine for a pooled one.
+                ps.setFetchSize(Integer.MIN_VALUE);
+            }
+            bind(ps, template, null, filters);
+            ResultSetCursor cursor = new ResultSetCursor(typeTemplate, ps.executeQuery()) {
+
+                @Override
+                protected HashMap<String, Object> readRow(ResultSet rs, Set<Column> layout) throws SQLException {
+                    return MySQLDatabase.this.readRow(rs, layout);
+                }
+
+                @Override
+                protected void release() {
+                    MySQLDatabase.this.close(conn, null, null);
+                }
+            };
+            handedOff = true;
+            return cursor;
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error opening MySQL cursor on " + typeTemplate.getName(), ex);
+        }
+        catch (DatabaseWriteException ex) {
+            throw new DatabaseReadException("Error opening MySQL cursor on " + typeTemplate.getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error opening MySQL cursor on " + typeTemplate.getName(), ex);
+        }
+        finally {
+            if (!handedOff) {
+                // Failed before the cursor took over
+                close(conn, ps, null);
+            }
+        }
+    }
+
+    /**
+     * Reads the current row of a result set
+     *
+     * @param rs
+     *         the result set
+     * @param layout
+     *         the columns to read
+     *
+     * @return the column name to value map
+     *
+     * @throws SQLException
+     */
+    private HashMap<String, Object> readRow(ResultSet rs, Set<Column> layout) throws SQLException {
+        HashMap<String, Object> dataSet = new HashMap<String, Object>();
+        for (Column column : layout) {
+            if (column.isList()) {
+                dataSet.put(column.columnName(), ListCodec.decode(column.dataType(), rs.getBytes(column.columnName())));
+            }
+            else {
+                Object value = rs.getObject(column.columnName());
+                dataSet.put(column.columnName(), value instanceof Boolean ? (Object) rs.getBoolean(column.columnName()) : value);
+            }
+        }
+        return dataSet;
+    }
+
     @Override
     public void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         PreparedStatement ps = null;
         ResultSet rs = null;
 
@@ -377,7 +507,9 @@ public class MySQLDatabase extends Database {
                 for (Map.Entry<String, Column> entry : toAdd.entrySet()) {
                     this.insertColumn(schemaTemplate.getName(), entry.getValue());
                 }
+                this.migrateListColumns(schemaTemplate);
             }
+            this.createIndexes(schemaTemplate);
         }
         catch (SQLException sqle) {
             throw new DatabaseWriteException("Error updating MySQL schema: " + sqle.getMessage());
@@ -391,7 +523,7 @@ public class MySQLDatabase extends Database {
     }
 
     public void createTable(DataAccess data) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         PreparedStatement ps = null;
 
         try {
@@ -404,7 +536,7 @@ public class MySQLDatabase extends Database {
             while (it.hasNext()) {
                 column = it.next();
                 fields.append("`").append(column.columnName()).append("` ");
-                fields.append(this.getDataTypeSyntax(column.dataType()));
+                fields.append(this.getColumnSyntax(column));
                 if (column.autoIncrement()) {
                     fields.append(" AUTO_INCREMENT");
                 }
@@ -432,13 +564,165 @@ public class MySQLDatabase extends Database {
         }
     }
 
+    public void createIndexes(DataAccess data) throws DatabaseWriteException {
+        Connection conn = getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            List<List<String>> indexes = data.getIndexes();
+            if (indexes.isEmpty()) {
+                return;
+            }
+            // MySQL has no CREATE INDEX IF NOT EXISTS
+            Set<String> existing = new HashSet<String>();
+            rs = conn.getMetaData().getIndexInfo(null, null, data.getName(), false, false);
+            while (rs.next()) {
+                existing.add(rs.getString("INDEX_NAME"));
+            }
+            for (List<String> index : indexes) {
+                String name = getIndexName(data.getName(), index);
+                if (existing.contains(name)) {
+                    continue;
+                }
+                StringBuilder columns = new StringBuilder();
+                for (String column : index) {
+                    if (columns.length() > 0) {
+                        columns.append(", ");
+                    }
+                    columns.append("`").append(column).append("`");
+                    Column declared = data.getColumnForName(column);
+                    if (declared.dataType() == Column.DataType.STRING || declared.isList()) {
+                        // TEXT columns are indexed by a prefix
+                        columns.append("(").append(INDEX_PREFIX_LENGTH).append(")");
+                    }
+                }
+                close(null, ps, null);
+                ps = conn.prepareStatement("CREATE INDEX `" + name + "` ON `" + data.getName() + "` (" + columns + ")");
+                ps.execute();
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error creating MySQL indexes on '" + data.getName() + "'. " + ex.getMessage());
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            log.error(ex.getMessage() + " Error creating MySQL indexes on '" + data.getName() + "'. ", ex);
+        }
+        finally {
+            close(conn, ps, rs);
+        }
+    }
+
+    /** Index names are limited to 64 characters */
+    private String getIndexName(String table, List<String> columns) {
+        StringBuilder name = new StringBuilder("idx_").append(table);
+        for (String column : columns) {
+            name.append("_").append(column);
+        }
+        if (name.length() > 64) {
+            String hash = Integer.toHexString(name.toString().hashCode());
+            name.setLength(63 - hash.length());
+            name.append("_").append(hash);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Turns list columns still holding the old text format into BLOB columns and re-encodes their rows
+     *
+     * @param data
+     *         the table
+     *
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private void migrateListColumns(DataAccess data) throws DatabaseWriteException, DatabaseTableInconsistencyException {
+        Connection conn = getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            Map<String, String> types = new HashMap<String, String>();
+            rs = conn.getMetaData().getColumns(null, null, data.getName(), null);
+            while (rs.next()) {
+                types.put(rs.getString("COLUMN_NAME"), rs.getString("TYPE_NAME"));
+            }
+            for (Column column : data.getTableLayout()) {
+                String type = types.get(column.columnName());
+                if (!column.isList() || type == null || type.toUpperCase().endsWith("BLOB")) {
+                    continue;
+                }
+                close(null, ps, null);
+                // Keeps the bytes of the text, which are re-encoded afterwards
+                ps = conn.prepareStatement("ALTER TABLE `" + data.getName() + "` MODIFY `" + column.columnName() + "` " + getColumnSyntax(column));
+                ps.execute();
+                int converted = reencodeList(conn, data.getName(), column, "");
+                log.info("Converted " + converted + " rows of list column " + data.getName() + "." + column.columnName() + " to binary");
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error converting MySQL list columns of '" + data.getName() + "'. " + ex.getMessage());
+        }
+        finally {
+            close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Re-encodes the rows of a list column that are still in the old text format.
+     * Rows that can't be decoded are logged and left as they are.
+     *
+     * @return the number of rows converted
+     */
+    private int reencodeList(Connection conn, String table, Column column, String condition) throws SQLException {
+        PreparedStatement select = null;
+        PreparedStatement update = null;
+        ResultSet rs = null;
+        int converted = 0;
+
+        try {
+            select = conn.prepareStatement("SELECT `id`, `" + column.columnName() + "` FROM `" + table + "` WHERE `" + column.columnName() + "` IS NOT NULL" + condition);
+            update = conn.prepareStatement("UPDATE `" + table + "` SET `" + column.columnName() + "` = ? WHERE `id` = ?");
+            rs = select.executeQuery();
+            while (rs.next()) {
+                byte[] value = rs.getBytes(2);
+                if (ListCodec.isEncoded(value)) {
+                    continue;
+                }
+                List<Comparable<?>> list;
+                try {
+                    list = ListCodec.decode(column.dataType(), value);
+                }
+                catch (IllegalArgumentException ex) {
+                    // Leave the row as it is, one bad row shouldn't stop the others from being converted
+                    log.warn("Could not convert row " + rs.getInt(1) + " of list column " + table + "." + column.columnName() + ": " + ex.getMessage());
+                    continue;
+                }
+                update.setBytes(1, ListCodec.encode(column.dataType(), list));
+                update.setInt(2, rs.getInt(1));
+                update.addBatch();
+                converted++;
+            }
+            // Done reading before writing to the table
+            rs.close();
+            if (converted > 0) {
+                update.executeBatch();
+            }
+        }
+        finally {
+            close(null, update, null);
+            close(null, select, rs);
+        }
+        return converted;
+    }
+
     public void insertColumn(String tableName, Column column) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         PreparedStatement ps = null;
 
         try {
             if (column != null && !column.columnName().trim().equals("")) {
-                ps = conn.prepareStatement("ALTER TABLE `" + tableName + "` ADD `" + column.columnName() + "` " + this.getDataTypeSyntax(column.dataType()));
+                ps = conn.prepareStatement("ALTER TABLE `" + tableName + "` ADD `" + column.columnName() + "` " + this.getColumnSyntax(column));
                 ps.execute();
             }
         }
@@ -452,7 +736,7 @@ public class MySQLDatabase extends Database {
     }
 
     public void deleteColumn(String tableName, String columnName) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         PreparedStatement ps = null;
 
         try {
@@ -470,7 +754,7 @@ public class MySQLDatabase extends Database {
     }
 
     public boolean doesEntryExist(DataAccess data) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+        Connection conn = getConnection();
         PreparedStatement ps = null;
         ResultSet rs = null;
         boolean toRet = false;
@@ -540,55 +824,133 @@ public class MySQLDatabase extends Database {
     }
 
     public ResultSet getResultSet(Connection conn, DataAccess data, Map<String, Object> filters, boolean limitOne) throws DatabaseReadException {
-        PreparedStatement ps;
-        ResultSet toRet;
-
         try {
+            StatementTemplate template = getSelectTemplate(data, StatementTemplate.filterNames(filters), limitOne);
+            PreparedStatement ps = conn.prepareStatement(template.getSql());
+            bind(ps, template, null, filters);
+            return ps.executeQuery();
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error fetching MySQL ResultSet in " + data.getName(), ex);
+        }
+        catch (Exception ex) {
+            throw new DatabaseReadException("Error fetching MySQL ResultSet in " + data.getName(), ex);
+        }
+    }
 
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-                if (limitOne) {
-                    sb.append(" LIMIT 1");
+    /**
+     * Gets the statement inserting a new entry, unless the very same entry exists already.
+     * Should the entry collide with a key, the existing entry is updated instead.
+     */
+    private StatementTemplate getInsertTemplate(DataAccess data) throws DatabaseTableInconsistencyException {
+        String key = StatementTemplate.key("insert", data, NO_FILTERS);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> values = new ArrayList<Column>();
+            for (Column column : data.getTableLayout()) {
+                if (!column.autoIncrement()) {
+                    values.add(column);
                 }
-                ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` WHERE " + sb.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = data.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error fetching MySQL ResultSet in " + data.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col);
+            }
+            StringBuilder fields = new StringBuilder();
+            StringBuilder params = new StringBuilder();
+            StringBuilder exists = new StringBuilder();
+            StringBuilder update = new StringBuilder();
+            for (Column column : values) {
+                if (fields.length() > 0) {
+                    fields.append(",");
+                    params.append(",");
+                    exists.append(" AND ");
+                    update.append(",");
                 }
-
+                fields.append("`").append(column.columnName()).append("`");
+                params.append("?");
+                exists.append("`").append(column.columnName()).append("`<=>?");
+                update.append("`").append(column.columnName()).append("`=VALUES(`").append(column.columnName()).append("`)");
+            }
+            String sql;
+            List<Column> columns = new ArrayList<Column>(values);
+            if (values.isEmpty()) {
+                sql = "INSERT INTO `" + data.getName() + "` () VALUES()";
             }
             else {
-                if (limitOne) {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` LIMIT 1", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
+                sql = "INSERT INTO `" + data.getName() + "` (" + fields + ") SELECT " + params + " FROM DUAL"
+                        + " WHERE NOT EXISTS (SELECT 1 FROM `" + data.getName() + "` WHERE " + exists + ")"
+                        + " ON DUPLICATE KEY UPDATE " + update;
+                columns.addAll(values);
+            }
+            template = new StatementTemplate(sql, columns, Arrays.asList(new String[columns.size()]));
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    /** Gets the statement updating the first entry matching the given filters */
+    private StatementTemplate getUpdateTemplate(DataAccess data, String[] filterNames) throws DatabaseTableInconsistencyException, DatabaseReadException {
+        String key = StatementTemplate.key("update", data, filterNames);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> columns = new ArrayList<Column>();
+            List<String> filters = new ArrayList<String>();
+            StringBuilder sql = new StringBuilder("UPDATE `").append(data.getName()).append("` SET ");
+            for (Column column : data.getTableLayout()) {
+                // Do not change auto-increment fields
+                if (column.autoIncrement()) {
+                    continue;
                 }
-                else {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "`", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
+                if (!columns.isEmpty()) {
+                    sql.append(",");
                 }
+                sql.append("`").append(column.columnName()).append("`=?");
+                columns.add(column);
+                filters.add(null);
             }
-            toRet = ps.executeQuery();
+            StatementTemplate.appendWhere(sql, data, filterNames, columns, filters);
+            sql.append(" LIMIT 1");
+            template = new StatementTemplate(sql.toString(), columns, filters);
+            templates.put(key, template);
         }
-        catch (SQLException ex) {
-            throw new DatabaseReadException("Error fetching MySQL ResultSet in " + data.getName(), ex);
+        return template;
+    }
+
+    private StatementTemplate getDeleteTemplate(DataAccess data, String[] filterNames, boolean limitOne) throws DatabaseReadException {
+        String key = StatementTemplate.key(limitOne ? "delete1" : "delete", data, filterNames);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> columns = new ArrayList<Column>();
+            List<String> filters = new ArrayList<String>();
+            StringBuilder sql = new StringBuilder("DELETE FROM `").append(data.getName()).append("`");
+            StatementTemplate.appendWhere(sql, data, filterNames, columns, filters);
+            if (limitOne) {
+                sql.append(" LIMIT 1");
+            }
+            template = new StatementTemplate(sql.toString(), columns, filters);
+            templates.put(key, template);
         }
-        catch (Exception ex) {
-            throw new DatabaseReadException("Error fetching MySQL ResultSet in " + data.getName(), ex);
+        return template;
+    }
+
+    private StatementTemplate getSelectTemplate(DataAccess data, String[] filterNames, boolean limitOne) throws DatabaseReadException {
+        String key = StatementTemplate.key(limitOne ? "select1" : "select", data, filterNames);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> columns = new ArrayList<Column>();
+            List<String> filters = new ArrayList<String>();
+            StringBuilder sql = new StringBuilder("SELECT * FROM `").append(data.getName()).append("`");
+            StatementTemplate.appendWhere(sql, data, filterNames, columns, filters);
+            if (limitOne) {
+                sql.append(" LIMIT 1");
+            }
+            template = new StatementTemplate(sql.toString(), columns, filters);
+            templates.put(key, template);
         }
+        return template;
+    }
 
-        return toRet;
+    private void bind(PreparedStatement ps, StatementTemplate template, Map<Column, Object> values, Map<String, Object> filters) throws DatabaseWriteException {
+        for (int i = 0; i < template.getParameterCount(); i++) {
+            setToStatement(i + 1, template.getValue(i, values, filters), ps, template.getColumn(i));
+        }
     }
 
     public List<String> getColumnNames(DataAccess data) {
@@ -598,7 +960,7 @@ public class MySQLDatabase extends Database {
         ArrayList<String> columns = new ArrayList<String>();
         String columnName;
 
-        Connection connection = JdbcConnectionManager.getConnection();
+        Connection connection = getConnection();
         try {
             statement = connection.createStatement();
             resultSet = statement.executeQuery("SHOW COLUMNS FROM `" + data.getName() + "`");
@@ -624,6 +986,11 @@ public class MySQLDatabase extends Database {
         return columns;
     }
 
+    /** Lists are stored in binary, see {@link ListCodec} */
+    private String getColumnSyntax(Column column) {
+        return column.isList() ? "MEDIUMBLOB" : getDataTypeSyntax(column.dataType());
+    }
+
     private String getDataTypeSyntax(Column.DataType type) {
         switch (type) {
             case BYTE:
@@ -679,7 +1046,16 @@ public class MySQLDatabase extends Database {
     private void setToStatement(int index, Object o, PreparedStatement ps, Column t) throws DatabaseWriteException {
         try {
             if (t.isList()) {
-                ps.setString(index, getString((List<?>) o));
+                byte[] encoded = ListCodec.encode(t.dataType(), (List<?>) o);
+                if (encoded == null) {
+                    ps.setNull(index, Types.BLOB);
+                }
+                else {
+                    ps.setBytes(index, encoded);
+                }
+            }
+            else if (o == null) {
+                ps.setNull(index, Types.NULL);
             }
             else {
                 switch (t.dataType()) {
@@ -720,120 +1096,27 @@ public class MySQLDatabase extends Database {
     }
 
     /**
-     * Gets a Java List representation from the mysql String.
+     * Get the old text representation of a Java List.
      *
-     * @param type
-     * @param field
+     * @param list
+     *
+     * @return a string representation of the passed list.
      *
-     * @return
+     * @deprecated lists are stored in binary now, see {@link ListCodec}
      */
-    private List<Comparable<?>> getList(Column.DataType type, String field) {
-        List<Comparable<?>> list = new ArrayList<Comparable<?>>();
-        if (field == null) {
-            return list;
-        }
-        switch (type) {
-            case BYTE:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Byte.valueOf(s));
-                }
-                break;
-            case INTEGER:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Integer.valueOf(s));
-                }
-                break;
-            case FLOAT:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Float.valueOf(s));
-                }
-                break;
-            case DOUBLE:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Double.valueOf(s));
-                }
-                break;
-            case LONG:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Long.valueOf(s));
-                }
-                break;
-            case SHORT:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Short.valueOf(s));
-                }
-                break;
-            case STRING:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(s);
-                }
-                break;
-            case BOOLEAN:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Boolean.valueOf(s));
-                }
-                break;
-        }
-        return list;
+    @Deprecated
+    public String getString(List<?> list) {
+        return ListCodec.encodeText(list);
     }
 
     /**
-     * Get the database entry for a Java List.
+     * Gets the connection of the batch the current thread is running, or a connection from the pool
      *
-     * @param list
-     *
-     * @return a string representation of the passed list.
+     * @return the connection
      */
-    public String getString(List<?> list) {
-        if (list == null) {
-            return NULL_STRING;
-        }
-        StringBuilder sb = new StringBuilder();
-        for (Object o : list) {
-            if (o == null) {
-                sb.append(NULL_STRING);
-            }
-            else {
-                sb.append(String.valueOf(o));
-            }
-            sb.append(this.LIST_REGEX);
-        }
-        if (sb.length() > 0) {
-            sb.deleteCharAt(sb.length() - 1);
-        }
-        return sb.toString();
+    private Connection getConnection() {
+        Connection conn = transaction.get();
+        return conn != null ? conn : JdbcConnectionManager.getConnection();
     }
 
     /**
@@ -856,7 +1139,8 @@ public class MySQLDatabase extends Database {
             if (rs != null) {
                 rs.close();
             }
-            if (c != null) {
+            // The connection of a batch is closed once the batch is complete
+            if (c != null && c != transaction.get()) {
                 c.close();
             }
         }
@@ -1,10 +1,15 @@
 package net.canarymod.database.sqlite;
 
+import net.canarymod.config.Configuration;
 import net.canarymod.database.Column;
 import net.canarymod.database.Column.DataType;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
+import net.canarymod.database.DatabaseCursor;
 import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.ListCodec;
+import net.canarymod.database.ResultSetCursor;
+import net.canarymod.database.StatementTemplate;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
@@ -18,12 +23,15 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 
@@ -37,8 +45,14 @@ import static net.canarymod.Canary.log;
 public class SQLiteDatabase extends Database {
 
     private static SQLiteDatabase instance;
-    private final String LIST_REGEX = "\u00B6";
-    private final String NULL_STRING = "NULL";
+
+    private static final String[] NO_FILTERS = new String[0];
+    private final Map<String, StatementTemplate> templates = StatementTemplate.newCache();
+    // All threads share one connection, writes are serialized so a batch's transaction only holds its own changes
+    private boolean inBatch;
+    // Only in WAL mode
+    private final SQLiteWriter writer;
+    private static final int STREAM_FETCH_SIZE = 256;
 
     private SQLiteDatabase() {
         File path = new File("db/");
@@ -54,7 +68,12 @@ public class SQLiteDatabase extends Database {
         catch (SQLException e) {
             log.error("Error while instantiating a new SQLiteDatabase!", e);
         }
-
+        if (JdbcConnectionManager.isSQLiteWal()) {
+            writer = new SQLiteWriter(Configuration.getDbConfig().getSQLiteCommitWindow());
+        }
+        else {
+            writer = null;
+        }
     }
 
     public static SQLiteDatabase getInstance() {
@@ -64,148 +83,373 @@ public class SQLiteDatabase extends Database {
         return SQLiteDatabase.instance;
     }
 
-    @Override
-    public void insert(DataAccess data) throws DatabaseWriteException {
-        if (doesEntryExist(data)) {
-            return;
+    /**
+     * Commits the queued writes and stops the writer thread.
+     * Called by {@link JdbcConnectionManager#shutdown()} before the connections close; later writes run on the calling thread.
+     */
+    public static void shutdownWriter() {
+        SQLiteDatabase db = SQLiteDatabase.instance;
+        if (db != null && db.writer != null) {
+            db.writer.shutdown();
         }
-        PreparedStatement ps = null;
+    }
 
+    @Override
+    public void insert(final DataAccess data) throws DatabaseWriteException {
+        final HashMap<Column, Object> values;
         try {
-            StringBuilder fields = new StringBuilder();
-            StringBuilder values = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
+            // Taken now, the caller may change the DataAccess before a queued write runs
+            values = data.toDatabaseEntryList();
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            log.error(dtie.getMessage(), dtie);
+            return;
+        }
+        write(new SQLiteWriter.Write() {
 
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    fields.append("`").append(column.columnName()).append("`").append(",");
-                    values.append("?").append(",");
-                }
-            }
-            if (fields.length() > 0) {
-                fields.deleteCharAt(fields.length() - 1);
-            }
-            if (values.length() > 0) {
-                values.deleteCharAt(values.length() - 1);
+            @Override
+            void run() throws DatabaseWriteException {
+                insertRow(data, values);
             }
-            String state = "INSERT INTO `" + data.getName() + "` (" + fields.toString() + ") VALUES(" + values.toString() + ")";
-            ps = JdbcConnectionManager.getConnection().prepareStatement(state);
+        });
+    }
 
-            int i = 1;
-            for (Column c : columns.keySet()) {
-                if (!c.autoIncrement()) {
-                    if (c.isList()) {
-                        ps.setString(i, getString((List<?>) columns.get(c)));
-                    }
-                    ps.setObject(i, columns.get(c));
-                    i++;
-                }
-            }
+    /**
+     * Inserts a row. Failures are thrown, so the savepoint of a queued write is rolled back.
+     */
+    private void insertRow(DataAccess data, Map<Column, Object> values) throws DatabaseWriteException {
+        PreparedStatement ps = null;
 
-            if (ps.executeUpdate() == 0) {
-                throw new DatabaseWriteException("Error inserting SQLite: no rows updated!");
-            }
+        try {
+            StatementTemplate template = getInsertTemplate(data);
+            ps = JdbcConnectionManager.getConnection().prepareStatement(template.getSql());
+            bind(ps, template, values, null);
+            // Nothing is inserted if the very same entry exists already
+            ps.executeUpdate();
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error inserting into SQLite table " + data.getName(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            log.error(dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error inserting into SQLite table " + data.getName(), dtie);
         }
         finally {
             close(null, ps, null);
         }
-
     }
 
     @Override
-    public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        if (!doesEntryExist(data)) {
+    public void update(final DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        final HashMap<Column, Object> values;
+        try {
+            values = data.toDatabaseEntryList();
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            log.error(dtie.getMessage(), dtie);
             return;
         }
-        Connection conn = JdbcConnectionManager.getConnection();
-        ResultSet rs = null;
+        final Map<String, Object> filterValues = new HashMap<String, Object>(filters);
+        write(new SQLiteWriter.Write() {
 
-        try {
-            rs = this.getResultSet(conn, data, filters, true);
-            if (rs != null) {
-                if (rs.next()) {
-                    HashMap<Column, Object> columns = data.toDatabaseEntryList();
-                    Iterator<Column> it = columns.keySet().iterator();
-                    Column column;
-                    while (it.hasNext()) {
-                        column = it.next();
-                        if (column.isList()) {
-                            rs.updateObject(column.columnName(), this.getString((List<?>) columns.get(column)));
-                        }
-                        else {
-                            rs.updateObject(column.columnName(), columns.get(column));
-                        }
-                    }
-                    rs.updateRow();
-                }
-                else {
-                    throw new DatabaseWriteException("Error updating DataAccess to SQLite, no such entry: " + data.toString());
-                }
+            @Override
+            void run() throws DatabaseWriteException {
+                updateRow(data, values, filterValues);
             }
+        });
+    }
+
+    /**
+     * Updates the matching row, or inserts it if there is none. Failures are thrown, so the savepoint of a queued write is rolled back.
+     */
+    private void updateRow(DataAccess data, Map<Column, Object> values, Map<String, Object> filters) throws DatabaseWriteException {
+        PreparedStatement ps = null;
+        int updated;
+
+        try {
+            StatementTemplate template = getUpdateTemplate(data, StatementTemplate.filterNames(filters));
+            ps = JdbcConnectionManager.getConnection().prepareStatement(template.getSql());
+            bind(ps, template, values, filters);
+            updated = ps.executeUpdate();
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error updating SQLite table " + data.getName(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            log.error(dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error updating SQLite table " + data.getName(), dtie);
         }
         catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
+            throw new DatabaseWriteException("Error updating SQLite table " + data.getName(), e);
         }
         finally {
-            PreparedStatement st = null;
-            try {
-                st = rs != null && rs.getStatement() instanceof PreparedStatement ? (PreparedStatement) rs.getStatement() : null;
+            close(null, ps, null);
+        }
+        if (updated == 0) {
+            // No such entry, that means it is a new entry
+            insertRow(data, values);
+        }
+    }
+
+    @Override
+    public void remove(final DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
+        final Map<String, Object> filterValues = new HashMap<String, Object>(filters);
+        write(new SQLiteWriter.Write() {
+
+            @Override
+            void run() throws DatabaseWriteException {
+                // Like it always was on SQLite, all matching rows go
+                deleteRows(JdbcConnectionManager.getConnection(), dataAccess, filterValues);
             }
-            catch (SQLException e) {
-                log.error(e.getMessage(), e);
+        });
+    }
+
+    @Override
+    public void removeAll(final DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
+        final Map<String, Object> filterValues = new HashMap<String, Object>(filters);
+        write(new SQLiteWriter.Write() {
+
+            @Override
+            void run() throws DatabaseWriteException {
+                deleteRows(JdbcConnectionManager.getConnection(), dataAccess, filterValues);
             }
-            close(conn, st, rs);
+        });
+    }
+
+    /**
+     * Runs a write.
+     * In WAL mode it is queued to the writer, unless this is the writer already,
+     * otherwise writes are serialized on the shared connection.
+     */
+    private void write(SQLiteWriter.Write write) throws DatabaseWriteException {
+        if (writer == null) {
+            synchronized (this) {
+                write.run();
+            }
+        }
+        else if (writer.isWriterThread()) {
+            write.run();
+        }
+        else {
+            writer.execute(write);
         }
     }
 
+    /**
+     * Gets the connection to read from.
+     * In WAL mode this waits for the writes the calling thread has queued, so it reads what it wrote.
+     * Hand it back with {@link JdbcConnectionManager#releaseReadConnection(Connection)}.
+     */
+    private Connection readConnection() {
+        if (writer == null || writer.isWriterThread()) {
+            return JdbcConnectionManager.getConnection();
+        }
+        writer.awaitOwnWrites();
+        return JdbcConnectionManager.getReadConnection();
+    }
+
     @Override
-    public void remove(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
-        Connection conn = JdbcConnectionManager.getConnection();
+    public void insertAll(final List<DataAccess> data) throws DatabaseWriteException {
+        if (data.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                List<StatementTemplate> statements = new ArrayList<StatementTemplate>(data.size());
+                List<Map<Column, Object>> values = new ArrayList<Map<Column, Object>>(data.size());
+                try {
+                    for (DataAccess da : data) {
+                        statements.add(getInsertTemplate(da));
+                        values.add(da.toDatabaseEntryList());
+                    }
+                }
+                catch (DatabaseTableInconsistencyException dtie) {
+                    throw new DatabaseWriteException(dtie.getMessage(), dtie);
+                }
+                executeBatch(statements, values, null);
+            }
+        });
+    }
+
+    @Override
+    public void updateAll(final List<DataAccess> data, final List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        if (data.size() != filters.size()) {
+            throw new IllegalArgumentException("Every DataAccess needs its filters");
+        }
+        if (data.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
 
-        this.deleteRows(conn, dataAccess, filters);
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                List<StatementTemplate> statements = new ArrayList<StatementTemplate>(data.size());
+                List<Map<Column, Object>> values = new ArrayList<Map<Column, Object>>(data.size());
+                try {
+                    for (int i = 0; i < data.size(); i++) {
+                        statements.add(getUpdateTemplate(data.get(i), StatementTemplate.filterNames(filters.get(i))));
+                        values.add(data.get(i).toDatabaseEntryList());
+                    }
+                }
+                catch (DatabaseTableInconsistencyException dtie) {
+                    throw new DatabaseWriteException(dtie.getMessage(), dtie);
+                }
+                catch (DatabaseReadException dre) {
+                    throw new DatabaseWriteException(dre.getMessage(), dre);
+                }
+                int[] updated = executeBatch(statements, values, filters);
+                List<DataAccess> missing = new ArrayList<DataAccess>();
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] == 0) {
+                        // No such entry, that means it is a new entry
+                        missing.add(data.get(i));
+                    }
+                }
+                insertAll(missing);
+            }
+        });
+    }
+
+    @Override
+    public void removeAll(final DataAccess dataAccess, final List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        if (filters.isEmpty()) {
+            return;
+        }
+        batch(new Batch() {
+
+            @Override
+            public void run(Database database) throws DatabaseWriteException {
+                List<StatementTemplate> statements = new ArrayList<StatementTemplate>(filters.size());
+                try {
+                    for (Map<String, Object> filter : filters) {
+                        statements.add(getDeleteTemplate(dataAccess, StatementTemplate.filterNames(filter)));
+                    }
+                }
+                catch (DatabaseReadException dre) {
+                    throw new DatabaseWriteException(dre.getMessage(), dre);
+                }
+                executeBatch(statements, null, filters);
+            }
+        });
     }
 
     @Override
-    public void removeAll(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
+    public void batch(final Batch batch) throws DatabaseWriteException {
+        if (writer != null) {
+            if (writer.isWriterThread()) {
+                // Already runs within the writer's transaction
+                super.batch(batch);
+                return;
+            }
+            writer.executeAndWait(new SQLiteWriter.Write() {
+
+                @Override
+                void run() throws DatabaseWriteException {
+                    SQLiteDatabase.super.batch(batch);
+                }
+            });
+            return;
+        }
+        synchronized (this) {
+            runBatch(batch);
+        }
+    }
+
+    private void runBatch(Batch batch) throws DatabaseWriteException {
+        if (inBatch) {
+            // Part of the enclosing batch
+            super.batch(batch);
+            return;
+        }
         Connection conn = JdbcConnectionManager.getConnection();
+        if (conn == null) {
+            throw new DatabaseWriteException("No SQLite connection available to run a batch");
+        }
+        boolean committed = false;
+        try {
+            conn.setAutoCommit(false);
+            inBatch = true;
+            super.batch(batch);
+            conn.commit();
+            committed = true;
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Failed to run SQLite batch", ex);
+        }
+        finally {
+            inBatch = false;
+            try {
+                if (!committed) {
+                    conn.rollback();
+                }
+                conn.setAutoCommit(true);
+            }
+            catch (SQLException ex) {
+                log.error(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Executes statements in the current batch, with one JDBC batch for each run of statements sharing a template
+     *
+     * @param statements
+     *         the template of each statement
+     * @param values
+     *         the column values of each statement, may be {@code null} if the templates have no column value parameters
+     * @param filters
+     *         the filters of each statement, may be {@code null} if the templates have no filter parameters
+     *
+     * @return the update count of each statement
+     *
+     * @throws DatabaseWriteException
+     *         if a statement failed
+     */
+    private int[] executeBatch(List<StatementTemplate> statements, List<Map<Column, Object>> values, List<? extends Map<String, Object>> filters) throws DatabaseWriteException {
+        Connection conn = JdbcConnectionManager.getConnection();
+        int[] counts = new int[statements.size()];
+        PreparedStatement ps = null;
+        StatementTemplate current = null;
+        int start = 0;
 
-        this.deleteRows(conn, dataAccess, filters);
+        try {
+            for (int i = 0; i < statements.size(); i++) {
+                StatementTemplate template = statements.get(i);
+                if (template != current) {
+                    if (ps != null) {
+                        System.arraycopy(ps.executeBatch(), 0, counts, start, i - start);
+                        ps.close();
+                    }
+                    current = template;
+                    start = i;
+                    ps = conn.prepareStatement(template.getSql());
+                }
+                bind(ps, template, values != null ? values.get(i) : null, filters != null ? filters.get(i) : null);
+                ps.addBatch();
+            }
+            if (ps != null) {
+                System.arraycopy(ps.executeBatch(), 0, counts, start, statements.size() - start);
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Failed to execute SQLite batch", ex);
+        }
+        finally {
+            close(null, ps, null);
+        }
+        return counts;
     }
 
     @Override
     public void load(DataAccess dataset, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
         HashMap<String, Object> dataSet = new HashMap<String, Object>();
+        Connection conn = readConnection();
         try {
-            rs = this.getResultSet(JdbcConnectionManager.getConnection(), dataset, filters, true);
+            rs = this.getResultSet(conn, dataset, filters, true);
             if (rs != null) {
                 if (rs.next()) {
-                    for (Column column : dataset.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (column.dataType() == DataType.BOOLEAN) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
+                    dataSet = readRow(rs, dataset.getTableLayout());
                 }
             }
         }
@@ -228,6 +472,9 @@ public class SQLiteDatabase extends Database {
             catch (SQLException ex) {
                 log.error(ex.getMessage(), ex);
             }
+            finally {
+                JdbcConnectionManager.releaseReadConnection(conn);
+            }
         }
         try {
             if (!dataSet.isEmpty()) {
@@ -243,23 +490,13 @@ public class SQLiteDatabase extends Database {
     public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
         List<HashMap<String, Object>> stuff = new ArrayList<HashMap<String, Object>>();
+        Connection conn = readConnection();
         try {
-            rs = this.getResultSet(JdbcConnectionManager.getConnection(), typeTemplate, filters, false);
+            rs = this.getResultSet(conn, typeTemplate, filters, false);
             if (rs != null) {
+                Set<Column> layout = typeTemplate.getTableLayout();
                 while (rs.next()) {
-                    HashMap<String, Object> dataSet = new HashMap<String, Object>();
-                    for (Column column : typeTemplate.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (column.dataType() == DataType.BOOLEAN) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-                    stuff.add(dataSet);
+                    stuff.add(readRow(rs, layout));
                 }
             }
 
@@ -283,6 +520,9 @@ public class SQLiteDatabase extends Database {
             catch (SQLException ex) {
                 log.error(ex.getMessage(), ex);
             }
+            finally {
+                JdbcConnectionManager.releaseReadConnection(conn);
+            }
         }
         try {
             for (HashMap<String, Object> temp : stuff) {
@@ -298,7 +538,88 @@ public class SQLiteDatabase extends Database {
     }
 
     @Override
-    public void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException {
+    public DatabaseCursor stream(DataAccess typeTemplate, Map<String, Object> filters) throws DatabaseReadException {
+        final Connection conn = readConnection();
+        PreparedStatement ps = null;
+        boolean handedOff = false; // Set once the cursor owns the statement and connection
+        try {
+            StatementTemplate template = getSelectTemplate(typeTemplate, StatementTemplate.filterNames(filters), false);
+            ps = conn.prepareStatement(template.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            bind(ps, template, null, filters);
+            ResultSetCursor cursor = new ResultSetCursor(typeTemplate, ps.executeQuery()) {
+
+                @Override
+                protected HashMap<String, Object> readRow(ResultSet rs, Set<Column> layout) throws SQLException {
+                    return SQLiteDatabase.this.readRow(rs, layout);
+                }
+
+                @Override
+                protected void release() {
+                    JdbcConnectionManager.releaseReadConnection(conn);
+                }
+            };
+            handedOff = true;
+            return cursor;
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error opening SQLite cursor on " + typeTemplate.getName(), ex);
+        }
+        catch (DatabaseWriteException ex) {
+            throw new DatabaseReadException("Error opening SQLite cursor on " + typeTemplate.getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error opening SQLite cursor on " + typeTemplate.getName(), ex);
+        }
+        finally {
+            if (!handedOff) {
+                // Failed before the cursor took over
+                close(null, ps, null);
+                JdbcConnectionManager.releaseReadConnection(conn);
+            }
+        }
+    }
+
+    /**
+     * Reads the current row of a result set
+     *
+     * @param rs
+     *         the result set
+     * @param layout
+     *         the columns to read
+     *
+     * @return the column name to value map
+     *
+     * @throws SQLException
+     */
+    private HashMap<String, Object> readRow(ResultSet rs, Set<Column> layout) throws SQLException {
+        HashMap<String, Object> dataSet = new HashMap<String, Object>();
+        for (Column column : layout) {
+            if (column.isList()) {
+                dataSet.put(column.columnName(), ListCodec.decode(column.dataType(), rs.getBytes(column.columnName())));
+            }
+            else if (column.dataType() == DataType.BOOLEAN) {
+                dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
+            }
+            else {
+                dataSet.put(column.columnName(), rs.getObject(column.columnName()));
+            }
+        }
+        return dataSet;
+    }
+
+    @Override
+    public void updateSchema(final DataAccess schemaTemplate) throws DatabaseWriteException {
+        if (writer != null && !writer.isWriterThread()) {
+            writer.executeAndWait(new SQLiteWriter.Write() {
+
+                @Override
+                void run() throws DatabaseWriteException {
+                    updateSchema(schemaTemplate);
+                }
+            });
+            return;
+        }
         ResultSet rs = null;
 
         try {
@@ -342,7 +663,10 @@ public class SQLiteDatabase extends Database {
                 for (Map.Entry<String, Column> entry : toAdd.entrySet()) {
                     insertColumn(schemaTemplate.getName(), entry.getValue());
                 }
+                migrateListColumns(schemaTemplate);
             }
+            // Also after columns have been dropped, that recreates the table without its indexes
+            createIndexes(schemaTemplate);
         }
         catch (SQLException sqle) {
             throw new DatabaseWriteException("Error updating SQLite schema: " + sqle.getMessage(), sqle);
@@ -374,7 +698,7 @@ public class SQLiteDatabase extends Database {
                     continue;
                 }
                 else {
-                    fields.append(getDataTypeSyntax(column.dataType()));
+                    fields.append(getColumnSyntax(column));
                 }
 
 
@@ -407,12 +731,120 @@ public class SQLiteDatabase extends Database {
         }
     }
 
+    public void createIndexes(DataAccess data) throws DatabaseWriteException {
+        Statement stmt = null;
+
+        try {
+            List<List<String>> indexes = data.getIndexes();
+            if (indexes.isEmpty()) {
+                return;
+            }
+            stmt = JdbcConnectionManager.getConnection().createStatement();
+            for (List<String> index : indexes) {
+                StringBuilder name = new StringBuilder("idx_").append(data.getName());
+                StringBuilder columns = new StringBuilder();
+                for (String column : index) {
+                    name.append("_").append(column);
+                    if (columns.length() > 0) {
+                        columns.append(", ");
+                    }
+                    columns.append("`").append(column).append("`");
+                }
+                stmt.execute("CREATE INDEX IF NOT EXISTS `" + name + "` ON `" + data.getName() + "` (" + columns + ")");
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error creating SQLite indexes on '" + data.getName() + "'", ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseWriteException("Error creating SQLite indexes on '" + data.getName() + "'", ex);
+        }
+        finally {
+            close(null, stmt, null);
+        }
+    }
+
+    /**
+     * Re-encodes the rows of list columns still holding the old text format.
+     * SQLite keeps BLOBs as they are in a TEXT column, so the column itself stays.
+     *
+     * @param data
+     *         the table
+     *
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private void migrateListColumns(DataAccess data) throws DatabaseWriteException, DatabaseTableInconsistencyException {
+        try {
+            for (Column column : data.getTableLayout()) {
+                if (!column.isList()) {
+                    continue;
+                }
+                int converted = reencodeList(JdbcConnectionManager.getConnection(), data.getName(), column, " AND typeof(`" + column.columnName() + "`) = 'text'");
+                if (converted > 0) {
+                    log.info("Converted " + converted + " rows of list column " + data.getName() + "." + column.columnName() + " to binary");
+                }
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error converting SQLite list columns of '" + data.getName() + "'", ex);
+        }
+    }
+
+    /**
+     * Re-encodes the rows of a list column that are still in the old text format.
+     * Rows that can't be decoded are logged and left as they are.
+     *
+     * @return the number of rows converted
+     */
+    private int reencodeList(Connection conn, String table, Column column, String condition) throws SQLException {
+        PreparedStatement select = null;
+        PreparedStatement update = null;
+        ResultSet rs = null;
+        int converted = 0;
+
+        try {
+            select = conn.prepareStatement("SELECT `id`, `" + column.columnName() + "` FROM `" + table + "` WHERE `" + column.columnName() + "` IS NOT NULL" + condition);
+            update = conn.prepareStatement("UPDATE `" + table + "` SET `" + column.columnName() + "` = ? WHERE `id` = ?");
+            rs = select.executeQuery();
+            while (rs.next()) {
+                byte[] value = rs.getBytes(2);
+                if (ListCodec.isEncoded(value)) {
+                    continue;
+                }
+                List<Comparable<?>> list;
+                try {
+                    list = ListCodec.decode(column.dataType(), value);
+                }
+                catch (IllegalArgumentException ex) {
+                    // Leave the row as it is, one bad row shouldn't stop the others from being converted
+                    log.warn("Could not convert row " + rs.getInt(1) + " of list column " + table + "." + column.columnName() + ": " + ex.getMessage());
+                    continue;
+                }
+                update.setBytes(1, ListCodec.encode(column.dataType(), list));
+                update.setInt(2, rs.getInt(1));
+                update.addBatch();
+                converted++;
+            }
+            // Done reading before writing to the table
+            rs.close();
+            if (converted > 0) {
+                update.executeBatch();
+            }
+        }
+        finally {
+            close(null, update, null);
+            close(null, select, rs);
+        }
+        return converted;
+    }
+
     public void insertColumn(String tableName, Column column) throws DatabaseWriteException {
         PreparedStatement ps = null;
 
         try {
             if (column != null && !column.columnName().trim().equals("")) {
-                ps = JdbcConnectionManager.getConnection().prepareStatement("ALTER TABLE `" + tableName + "` ADD `" + column.columnName() + "` " + getDataTypeSyntax(column.dataType()));
+                ps = JdbcConnectionManager.getConnection().prepareStatement("ALTER TABLE `" + tableName + "` ADD `" + column.columnName() + "` " + getColumnSyntax(column));
                 ps.execute();
             }
         }
@@ -549,46 +981,11 @@ public class SQLiteDatabase extends Database {
     }
 
     public ResultSet getResultSet(Connection conn, DataAccess data, Map<String, Object> filters, boolean limitOne) throws DatabaseReadException {
-        PreparedStatement ps;
-        ResultSet toRet;
-
         try {
-
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-                if (limitOne) {
-                    sb.append(" LIMIT 1");
-                }
-                ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` WHERE " + sb.toString());
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = data.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error fetching SQLite ResultSet in " + data.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col.dataType());
-                }
-
-            }
-            else {
-                if (limitOne) {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` LIMIT 1");
-                }
-                else {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "`");
-                }
-            }
-            toRet = ps.executeQuery();
+            StatementTemplate template = getSelectTemplate(data, StatementTemplate.filterNames(filters), limitOne);
+            PreparedStatement ps = conn.prepareStatement(template.getSql());
+            bind(ps, template, null, filters);
+            return ps.executeQuery();
         }
         catch (SQLException ex) {
             throw new DatabaseReadException("Error fetching SQLite ResultSet in " + data.getName(), ex);
@@ -599,39 +996,14 @@ public class SQLiteDatabase extends Database {
         catch (DatabaseWriteException ex) {
             throw new DatabaseReadException("Error fetching SQLite ResultSet in " + data.getName(), ex);
         }
-
-        return toRet;
     }
 
     public void deleteRows(Connection conn, DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        PreparedStatement ps;
+        PreparedStatement ps = null;
         try {
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-                ps = conn.prepareStatement("DELETE FROM `" + data.getName() + "` WHERE " + sb.toString());
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = data.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error deleting from SQLite table " + data.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col.dataType());
-                }
-
-            }
-            else {
-                ps = conn.prepareStatement("DELETE FROM `" + data.getName() + "`");
-            }
+            StatementTemplate template = getDeleteTemplate(data, StatementTemplate.filterNames(filters));
+            ps = conn.prepareStatement(template.getSql());
+            bind(ps, template, null, filters);
             ps.execute();
         }
         catch (SQLException ex) {
@@ -643,6 +1015,119 @@ public class SQLiteDatabase extends Database {
         catch (DatabaseWriteException ex) {
             throw new DatabaseWriteException("Error deleting from SQLite table " + data.getName(), ex);
         }
+        finally {
+            close(null, ps, null);
+        }
+    }
+
+    /**
+     * Gets the statement inserting a new entry, unless the very same entry exists already.
+     * Should the entry collide with a unique column, the existing entry is replaced instead.
+     */
+    private StatementTemplate getInsertTemplate(DataAccess data) throws DatabaseTableInconsistencyException {
+        String key = StatementTemplate.key("insert", data, NO_FILTERS);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> values = new ArrayList<Column>();
+            for (Column column : data.getTableLayout()) {
+                if (!column.autoIncrement()) {
+                    values.add(column);
+                }
+            }
+            StringBuilder fields = new StringBuilder();
+            StringBuilder params = new StringBuilder();
+            StringBuilder exists = new StringBuilder();
+            for (Column column : values) {
+                if (fields.length() > 0) {
+                    fields.append(",");
+                    params.append(",");
+                    exists.append(" AND ");
+                }
+                fields.append("`").append(column.columnName()).append("`");
+                params.append("?");
+                exists.append("`").append(column.columnName()).append("` IS ?");
+            }
+            String sql;
+            List<Column> columns = new ArrayList<Column>(values);
+            if (values.isEmpty()) {
+                sql = "INSERT INTO `" + data.getName() + "` DEFAULT VALUES";
+            }
+            else {
+                sql = "INSERT OR REPLACE INTO `" + data.getName() + "` (" + fields + ") SELECT " + params
+                        + " WHERE NOT EXISTS (SELECT 1 FROM `" + data.getName() + "` WHERE " + exists + ")";
+                columns.addAll(values);
+            }
+            template = new StatementTemplate(sql, columns, Arrays.asList(new String[columns.size()]));
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    /** Gets the statement updating the first entry matching the given filters */
+    private StatementTemplate getUpdateTemplate(DataAccess data, String[] filterNames) throws DatabaseTableInconsistencyException, DatabaseReadException {
+        String key = StatementTemplate.key("update", data, filterNames);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> columns = new ArrayList<Column>();
+            List<String> filters = new ArrayList<String>();
+            StringBuilder sql = new StringBuilder("UPDATE `").append(data.getName()).append("` SET ");
+            for (Column column : data.getTableLayout()) {
+                // Do not change auto-increment fields
+                if (column.autoIncrement()) {
+                    continue;
+                }
+                if (!columns.isEmpty()) {
+                    sql.append(",");
+                }
+                sql.append("`").append(column.columnName()).append("`=?");
+                columns.add(column);
+                filters.add(null);
+            }
+            // SQLite is usually built without UPDATE ... LIMIT
+            sql.append(" WHERE rowid IN (SELECT rowid FROM `").append(data.getName()).append("`");
+            StatementTemplate.appendWhere(sql, data, filterNames, columns, filters);
+            sql.append(" LIMIT 1)");
+            template = new StatementTemplate(sql.toString(), columns, filters);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    private StatementTemplate getDeleteTemplate(DataAccess data, String[] filterNames) throws DatabaseReadException {
+        String key = StatementTemplate.key("delete", data, filterNames);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> columns = new ArrayList<Column>();
+            List<String> filters = new ArrayList<String>();
+            StringBuilder sql = new StringBuilder("DELETE FROM `").append(data.getName()).append("`");
+            StatementTemplate.appendWhere(sql, data, filterNames, columns, filters);
+            template = new StatementTemplate(sql.toString(), columns, filters);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    private StatementTemplate getSelectTemplate(DataAccess data, String[] filterNames, boolean limitOne) throws DatabaseReadException {
+        String key = StatementTemplate.key(limitOne ? "select1" : "select", data, filterNames);
+        StatementTemplate template = templates.get(key);
+        if (template == null) {
+            List<Column> columns = new ArrayList<Column>();
+            List<String> filters = new ArrayList<String>();
+            StringBuilder sql = new StringBuilder("SELECT * FROM `").append(data.getName()).append("`");
+            StatementTemplate.appendWhere(sql, data, filterNames, columns, filters);
+            if (limitOne) {
+                sql.append(" LIMIT 1");
+            }
+            template = new StatementTemplate(sql.toString(), columns, filters);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    private void bind(PreparedStatement ps, StatementTemplate template, Map<Column, Object> values, Map<String, Object> filters) throws DatabaseWriteException {
+        for (int i = 0; i < template.getParameterCount(); i++) {
+            setToStatement(i + 1, template.getValue(i, values, filters), ps, template.getColumn(i));
+        }
     }
 
     /**
@@ -661,22 +1146,40 @@ public class SQLiteDatabase extends Database {
      * @throws DatabaseWriteException
      *         when an SQLException was raised or when the data type doesn't match the objects type
      */
-    private void setToStatement(int index, Object o, PreparedStatement ps, Column.DataType t) throws DatabaseWriteException {
+    private void setToStatement(int index, Object o, PreparedStatement ps, Column t) throws DatabaseWriteException {
         try {
-            switch (t) {
-                case BYTE:
-                case INTEGER:
-                case LONG:
-                case SHORT:
-                case BOOLEAN: //SQlite doesn't know boolean values, it converts it to tinyint
-                    ps.setInt(index, (Integer) o);
-                    break;
-                case FLOAT:
-                case DOUBLE:
-                    ps.setDouble(index, (Double) o);
-                    break;
-                case STRING:
-                    ps.setString(index, (String) o);
+            if (t.isList()) {
+                byte[] encoded = ListCodec.encode(t.dataType(), (List<?>) o);
+                if (encoded == null) {
+                    ps.setNull(index, Types.BLOB);
+                }
+                else {
+                    ps.setBytes(index, encoded);
+                }
+            }
+            else if (o == null) {
+                ps.setNull(index, Types.NULL);
+            }
+            else {
+                switch (t.dataType()) {
+                    case BYTE:
+                    case INTEGER:
+                    case SHORT:
+                        ps.setInt(index, ((Number) o).intValue());
+                        break;
+                    case LONG:
+                        ps.setLong(index, (Long) o);
+                        break;
+                    case BOOLEAN: //SQlite doesn't know boolean values, it converts it to tinyint
+                        ps.setInt(index, (Boolean) o ? 1 : 0);
+                        break;
+                    case FLOAT:
+                    case DOUBLE:
+                        ps.setDouble(index, ((Number) o).doubleValue());
+                        break;
+                    case STRING:
+                        ps.setString(index, (String) o);
+                }
             }
         }
         catch (SQLException e) {
@@ -713,6 +1216,11 @@ public class SQLiteDatabase extends Database {
         return columns;
     }
 
+    /** Lists are stored in binary, see {@link ListCodec} */
+    private String getColumnSyntax(Column column) {
+        return column.isList() ? "BLOB" : getDataTypeSyntax(column.dataType());
+    }
+
     public String getDataTypeSyntax(Column.DataType type) {
         switch (type) {
             case BYTE:
@@ -731,120 +1239,16 @@ public class SQLiteDatabase extends Database {
     }
 
     /**
-     * Gets a Java List representation from the SQLite String.
-     *
-     * @param type
-     * @param field
-     *
-     * @return
-     */
-    private List<Comparable<?>> getList(Column.DataType type, String field) {
-        List<Comparable<?>> list = new ArrayList<Comparable<?>>();
-        if (field == null) {
-            return list;
-        }
-        switch (type) {
-            case BYTE:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Byte.valueOf(s));
-                }
-                break;
-            case INTEGER:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Integer.valueOf(s));
-                }
-                break;
-            case FLOAT:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Float.valueOf(s));
-                }
-                break;
-            case DOUBLE:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Double.valueOf(s));
-                }
-                break;
-            case LONG:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Long.valueOf(s));
-                }
-                break;
-            case SHORT:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Short.valueOf(s));
-                }
-                break;
-            case STRING:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(s);
-                }
-                break;
-            case BOOLEAN:
-                for (String s : field.split(this.LIST_REGEX)) {
-                    if (s.equals(NULL_STRING)) {
-                        list.add(null);
-                        continue;
-                    }
-                    list.add(Boolean.valueOf(s));
-                }
-                break;
-        }
-        return list;
-    }
-
-    /**
-     * Get the database entry for a Java List.
+     * Get the old text representation of a Java List.
      *
      * @param list
      *
      * @return a string representation of the passed list.
+     *
+     * @deprecated lists are stored in binary now, see {@link ListCodec}
      */
+    @Deprecated
     public String getString(List<?> list) {
-        if (list == null) {
-            return NULL_STRING;
-        }
-        StringBuilder sb = new StringBuilder();
-        Iterator<?> it = list.iterator();
-        while (it.hasNext()) {
-            Object o = it.next();
-            if (o == null) {
-                sb.append(NULL_STRING);
-            }
-            else {
-                sb.append(String.valueOf(o));
-            }
-            if (it.hasNext()) {
-                sb.append(this.LIST_REGEX);
-            }
-        }
-        return sb.toString();
+        return ListCodec.encodeText(list);
     }
 }
@@ -0,0 +1,281 @@
+package net.canarymod.database.sqlite;
+
+import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.exceptions.DatabaseWriteException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * The single thread all SQLite writes go through in WAL mode.
+ * <p/>
+ * Writes are queued and run on the writer connection in groups: the writer collects whatever is queued within the commit window
+ * and commits it in one transaction, so the cost of a commit is shared by all writes of a group.
+ * Each write runs within its own savepoint, a failing write is rolled back without affecting the others in its group.
+ * <p/>
+ * Queued writes are not visible to readers before they are committed.
+ * A thread that reads what it wrote calls {@link #awaitOwnWrites()} first.
+ */
+final class SQLiteWriter implements Runnable {
+    /** Most writes committed in one transaction */
+    private static final int MAX_GROUP = 512;
+
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<Write>();
+    private final long window;
+    private final Thread thread;
+    private final ThreadLocal<long[]> lastQueued = new ThreadLocal<long[]>() {
+
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    private final Object commitLock = new Object();
+    private long queued; // Guarded by the queue
+    private long committed; // Guarded by commitLock
+    private volatile boolean running = true;
+
+    /** A queued write */
+    abstract static class Write {
+        private long sequence;
+        private boolean waited;
+        private boolean done;
+        private DatabaseWriteException failure;
+
+        /**
+         * Performs the write on the writer connection
+         *
+         * @throws DatabaseWriteException
+         *         to roll back this write
+         */
+        abstract void run() throws DatabaseWriteException;
+    }
+
+    /**
+     * Starts a writer
+     *
+     * @param window
+     *         the commit window in milliseconds
+     */
+    SQLiteWriter(long window) {
+        this.window = Math.max(0, window);
+        this.thread = new Thread(this, "Canary SQLite Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Checks whether the calling thread is the writer
+     *
+     * @return {@code true} if it is
+     */
+    boolean isWriterThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues a write.
+     * Failures are logged, as nobody is waiting for them.
+     *
+     * @param write
+     *         the write
+     */
+    void execute(Write write) {
+        synchronized (queue) {
+            if (running) {
+                write.sequence = ++queued;
+                queue.add(write);
+                lastQueued.get()[0] = write.sequence;
+                return;
+            }
+        }
+        // Shut down already, so nobody else is left to commit it
+        commit(Collections.singletonList(write));
+    }
+
+    /**
+     * Queues a write and waits until it is committed
+     *
+     * @param write
+     *         the write
+     *
+     * @throws DatabaseWriteException
+     *         if the write failed
+     */
+    void executeAndWait(Write write) throws DatabaseWriteException {
+        write.waited = true;
+        execute(write);
+        boolean interrupted = false;
+        synchronized (commitLock) {
+            while (!write.done) {
+                if (!thread.isAlive()) {
+                    throw new DatabaseWriteException("The SQLite writer is not running");
+                }
+                try {
+                    commitLock.wait(1000);
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (write.failure != null) {
+            throw write.failure;
+        }
+    }
+
+    /** Waits until every write the calling thread has queued is committed */
+    void awaitOwnWrites() {
+        awaitCommitted(lastQueued.get()[0]);
+    }
+
+    /** Waits until every write queued so far is committed */
+    void flush() {
+        long last;
+        synchronized (queue) {
+            last = queued;
+        }
+        awaitCommitted(last);
+    }
+
+    private void awaitCommitted(long sequence) {
+        if (isWriterThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (commitLock) {
+            while (committed < sequence && thread.isAlive()) {
+                try {
+                    commitLock.wait(1000);
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Commits what is queued and stops the writer */
+    void shutdown() {
+        flush();
+        synchronized (queue) {
+            running = false;
+        }
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        List<Write> group = new ArrayList<Write>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+                while (group.size() < MAX_GROUP) {
+                    long left = deadline - System.nanoTime();
+                    Write next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            }
+            catch (InterruptedException e) {
+                // Woken up to shut down, commit what has been collected
+                if (group.isEmpty()) {
+                    continue;
+                }
+            }
+            commit(group);
+            group.clear();
+        }
+    }
+
+    private synchronized void commit(List<Write> group) {
+        Connection conn = JdbcConnectionManager.getConnection();
+        DatabaseWriteException groupFailure = null;
+        if (conn == null) {
+            groupFailure = new DatabaseWriteException("No SQLite connection available to write");
+        }
+        else {
+            try {
+                conn.setAutoCommit(false);
+                Statement st = conn.createStatement();
+                try {
+                    for (Write write : group) {
+                        st.execute("SAVEPOINT canary_write");
+                        try {
+                            write.run();
+                            st.execute("RELEASE canary_write");
+                        }
+                        catch (DatabaseWriteException e) {
+                            write.failure = e;
+                        }
+                        catch (RuntimeException e) {
+                            write.failure = new DatabaseWriteException(String.valueOf(e.getMessage()), e);
+                        }
+                        if (write.failure != null) {
+                            st.execute("ROLLBACK TO canary_write");
+                            st.execute("RELEASE canary_write");
+                        }
+                    }
+                }
+                finally {
+                    st.close();
+                }
+                conn.commit();
+            }
+            catch (SQLException e) {
+                groupFailure = new DatabaseWriteException("Failed to commit SQLite writes", e);
+                try {
+                    conn.rollback();
+                }
+                catch (SQLException ex) {
+                    log.error(ex.getMessage(), ex);
+                }
+            }
+            finally {
+                try {
+                    conn.setAutoCommit(true);
+                }
+                catch (SQLException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+
+        synchronized (commitLock) {
+            for (Write write : group) {
+                if (groupFailure != null) {
+                    write.failure = groupFailure;
+                }
+                write.done = true;
+            }
+            committed = Math.max(committed, group.get(group.size() - 1).sequence);
+            commitLock.notifyAll();
+        }
+        for (Write write : group) {
+            if (write.failure != null && !write.waited) {
+                log.error("SQLite write failed", write.failure);
+            }
+        }
+    }
+}
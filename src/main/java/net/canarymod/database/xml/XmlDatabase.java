@@ -1,9 +1,12 @@
 package net.canarymod.database.xml;
 
+import net.canarymod.config.Configuration;
+import net.canarymod.config.DatabaseConfiguration;
 import net.canarymod.database.Column;
 import net.canarymod.database.Column.DataType;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
+import net.canarymod.database.DatabaseCursor;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
@@ -13,6 +16,7 @@ import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.StAXStreamBuilder;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
@@ -22,13 +26,32 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import static net.canarymod.Canary.log;
 
 /**
  * Represent access to an XML database
+ * <p/>
+ * With {@code xml-table-cache} enabled tables are parsed once and kept in memory.
+ * Writes are then appended to a journal and written back to the table file in the background
+ * once the journal grows past {@code xml-journal-compact-threshold}, or on {@link #flush()}.
  *
  * @author Chris (damagefilter)
  */
 public class XmlDatabase extends Database {
+    private final boolean cacheTables;
+    private final int compactThreshold;
+    private final Map<String, XmlTable> tables = new ConcurrentHashMap<String, XmlTable>();
+    private ExecutorService compactor;
+    // The tables read and changed by the batch the current thread is running, if any
+    private final ThreadLocal<PendingBatch> batches = new ThreadLocal<PendingBatch>();
 
     private XmlDatabase() {
         File path = new File("db/");
@@ -36,6 +59,10 @@ public class XmlDatabase extends Database {
         if (!path.exists()) {
             path.mkdirs();
         }
+        DatabaseConfiguration cfg = Configuration.getDbConfig();
+        cacheTables = cfg.isXmlTableCacheEnabled();
+        compactThreshold = Math.max(1, cfg.getXmlJournalCompactThreshold());
+        recoverJournals(path);
     }
 
     private static XmlDatabase instance;
@@ -47,11 +74,24 @@ public class XmlDatabase extends Database {
         return instance;
     }
 
+    /**
+     * Writes the cached tables back, if the XML database is in use. Called on server shutdown.
+     */
+    public static void flushTables() {
+        XmlDatabase db = instance;
+        if (db != null) {
+            db.flush();
+        }
+    }
+
     /** Used to serialize the XML data into a bytestream */
     private XMLOutputter xmlSerializer = new XMLOutputter(Format.getPrettyFormat().setExpandEmptyElements(true).setOmitDeclaration(true).setOmitEncoding(true).setLineSeparator("\n"));
 
     private SAXBuilder fileBuilder = new SAXBuilder();
 
+    /** Used to read tables one entry at a time */
+    private final XMLInputFactory streamFactory = XMLInputFactory.newInstance();
+
     @Override
     public void insert(DataAccess data) throws DatabaseWriteException {
         File file = new File("db/" + data.getName() + ".xml");
@@ -70,6 +110,14 @@ public class XmlDatabase extends Database {
         Document dbTable;
 
         try {
+            if (cacheTables) {
+                XmlTable table = getTable(file, data.getName());
+                synchronized (table) {
+                    table.insert(createEntry(table.getDocument(), data));
+                }
+                checkJournal(table);
+                return;
+            }
             dbTable = verifyTable(file, data.getName());
             insertData(file, data, dbTable);
         }
@@ -88,11 +136,25 @@ public class XmlDatabase extends Database {
     public void load(DataAccess data, Map<String, Object> filters) throws DatabaseReadException {
         File file = new File("db/" + data.getName() + ".xml");
 
-        if (!file.exists()) {
+        if (!tableExists(file, data.getName())) {
             throw new DatabaseReadException("Table " + data.getName() + " does not exist!");
         }
 
         try {
+            if (cacheTables) {
+                XmlTable table = getTable(file, data.getName());
+                HashMap<String, Object> dataSet = null;
+                synchronized (table) {
+                    List<Element> rows = table.find(filters, true);
+                    if (!rows.isEmpty()) {
+                        dataSet = toDataSet(rows.get(0));
+                    }
+                }
+                if (dataSet != null) {
+                    data.load(dataSet);
+                }
+                return;
+            }
             Document table = verifyTable(file, data.getName());
 
             loadData(data, table, filters);
@@ -112,11 +174,27 @@ public class XmlDatabase extends Database {
     public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
         File file = new File("db/" + typeTemplate.getName() + ".xml");
 
-        if (!file.exists()) {
+        if (!tableExists(file, typeTemplate.getName())) {
             throw new DatabaseReadException("Table " + typeTemplate.getName() + " does not exist!");
         }
 
         try {
+            if (cacheTables) {
+                XmlTable table = getTable(file, typeTemplate.getName());
+                List<HashMap<String, Object>> dataSets = new ArrayList<HashMap<String, Object>>();
+                synchronized (table) {
+                    for (Element row : table.find(filters, false)) {
+                        dataSets.add(toDataSet(row));
+                    }
+                }
+                for (HashMap<String, Object> dataSet : dataSets) {
+                    DataAccess da = typeTemplate.getInstance();
+
+                    da.load(dataSet);
+                    datasets.add(da);
+                }
+                return;
+            }
             Document table = verifyTable(file, typeTemplate.getName());
 
             loadAllData(typeTemplate, datasets, table, filters);
@@ -133,15 +211,81 @@ public class XmlDatabase extends Database {
 
     }
 
+    @Override
+    public DatabaseCursor stream(DataAccess typeTemplate, Map<String, Object> filters) throws DatabaseReadException {
+        File file = new File("db/" + typeTemplate.getName() + ".xml");
+
+        if (!tableExists(file, typeTemplate.getName())) {
+            throw new DatabaseReadException("Table " + typeTemplate.getName() + " does not exist!");
+        }
+
+        try {
+            if (cacheTables) {
+                XmlTable table = getTable(file, typeTemplate.getName());
+                List<Element> rows;
+                synchronized (table) {
+                    rows = table.find(filters, false);
+                }
+                return new ElementCursor(typeTemplate, rows, table);
+            }
+            PendingBatch batch = batches.get();
+            if (batch != null && batch.tables.containsKey(file.getPath())) {
+                // Walk the changes of the running batch rather than the outdated file
+                Document table = batch.tables.get(file.getPath());
+                List<Element> rows = new ArrayList<Element>();
+                for (Element element : table.getRootElement().getChildren()) {
+                    if (XmlTable.matches(element, filters)) {
+                        rows.add(element);
+                    }
+                }
+                return new ElementCursor(typeTemplate, rows, table);
+            }
+            if (file.length() <= 0) {
+                initFile(file, typeTemplate.getName());
+            }
+            return new StreamCursor(typeTemplate, file, filters);
+        }
+        catch (JDOMException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (XMLStreamException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
         File file = new File("db/" + data.getName() + ".xml");
 
-        if (!file.exists()) {
+        if (!tableExists(file, data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
+            if (cacheTables) {
+                XmlTable table = getTable(file, data.getName());
+                boolean hasUpdated = false;
+                synchronized (table) {
+                    for (Element row : table.find(filters, false)) {
+                        String[] indexed = table.beginUpdate(row);
+                        if (updateEntry(table.getDocument(), row, data)) {
+                            hasUpdated = true;
+                        }
+                        table.endUpdate(row, indexed);
+                    }
+                }
+                if (hasUpdated) {
+                    checkJournal(table);
+                }
+                else {
+                    // No fields found, that means it is a new entry
+                    insert(data);
+                }
+                return;
+            }
             Document table = verifyTable(file, data.getName());
             updateData(file, table, data, filters);
         }
@@ -160,11 +304,15 @@ public class XmlDatabase extends Database {
     public void remove(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
         File file = new File("db/" + data.getName() + ".xml");
 
-        if (!file.exists()) {
+        if (!tableExists(file, data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
+            if (cacheTables) {
+                removeCached(getTable(file, data.getName()), filters, false);
+                return;
+            }
             Document table = verifyTable(file, data.getName());
             removeData(file, table, filters, false);
         }
@@ -180,11 +328,15 @@ public class XmlDatabase extends Database {
     public void removeAll(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
         File file = new File("db/" + data.getName() + ".xml");
 
-        if (!file.exists()) {
+        if (!tableExists(file, data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
+            if (cacheTables) {
+                removeCached(getTable(file, data.getName()), filters, true);
+                return;
+            }
             Document table = verifyTable(file, data.getName());
             removeData(file, table, filters, true);
         }
@@ -212,15 +364,28 @@ public class XmlDatabase extends Database {
             }
         }
         try {
-            Document table = verifyTable(file, data.getName());
-
             HashSet<Column> tableLayout = data.getTableLayout();
 
+            if (cacheTables) {
+                XmlTable table = getTable(file, data.getName());
+                synchronized (table) {
+                    for (Element element : table.getDocument().getRootElement().getChildren()) {
+                        addFields(element, tableLayout);
+                        removeFields(element, tableLayout);
+                    }
+                    table.clearIndexes();
+                    table.declareIndexes(data.getIndexes());
+                    compact(table);
+                }
+                return;
+            }
+            Document table = verifyTable(file, data.getName());
+
             for (Element element : table.getRootElement().getChildren()) {
                 addFields(element, tableLayout);
                 removeFields(element, tableLayout);
             }
-            write(file.getPath(), table);
+            save(file, table);
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -301,6 +466,22 @@ public class XmlDatabase extends Database {
      *
      */
     private void insertData(File file, DataAccess data, Document dbTable) throws IOException, DatabaseTableInconsistencyException {
+        dbTable.getRootElement().addContent(createEntry(dbTable, data));
+        save(file, dbTable);
+    }
+
+    /**
+     * Creates the entry element holding the data of the given DataAccess
+     *
+     * @param dbTable
+     * @param data
+     *
+     * @return the entry
+     *
+     * @throws DatabaseTableInconsistencyException
+     *
+     */
+    private Element createEntry(Document dbTable, DataAccess data) throws DatabaseTableInconsistencyException {
         HashMap<Column, Object> entry = data.toDatabaseEntryList();
 
         if (data.isInconsistent()) {
@@ -330,8 +511,7 @@ public class XmlDatabase extends Database {
             if (!foundDupe) {
             }
         }
-        dbTable.getRootElement().addContent(set);
-        write(file.getPath(), dbTable);
+        return set;
     }
 
     /**
@@ -367,29 +547,12 @@ public class XmlDatabase extends Database {
             if (equalFields != fields.length) {
                 continue; // Not the entry we're looking for
             }
-
-            if (data.isInconsistent()) {
-                // Just an extra precaution
-                throw new DatabaseTableInconsistencyException("DataAccess is marked inconsistent!");
-            }
-
-            HashMap<Column, Object> dataSet = data.toDatabaseEntryList();
-            for (Column column : dataSet.keySet()) {
-                Element child = element.getChild(column.columnName());
-
-                if (child == null) {
-                    throw new DatabaseTableInconsistencyException("Column " + column.columnName() + " does not exist. Update table schema or fix DataAccess!");
-                }
-                // Do not change auto-increment fields
-                if (column.autoIncrement()) {
-                    continue;
-                }
-                addToElement(table, child, dataSet.get(column), column);
+            if (updateEntry(table, element, data)) {
                 hasUpdated = true;
             }
         }
         if (hasUpdated) {
-            write(file.getPath(), table);
+            save(file, table);
         }
         else {
             // No fields found, that means it is a new entry
@@ -397,6 +560,52 @@ public class XmlDatabase extends Database {
         }
     }
 
+    /**
+     * Writes the data of the given DataAccess into an existing entry.
+     * All columns are checked before anything is changed.
+     *
+     * @param table
+     * @param element
+     * @param data
+     *
+     * @return true if a field was updated
+     *
+     * @throws DatabaseTableInconsistencyException
+     *
+     */
+    private boolean updateEntry(Document table, Element element, DataAccess data) throws DatabaseTableInconsistencyException {
+        if (data.isInconsistent()) {
+            // Just an extra precaution
+            throw new DatabaseTableInconsistencyException("DataAccess is marked inconsistent!");
+        }
+
+        HashMap<Column, Object> dataSet = data.toDatabaseEntryList();
+        for (Column column : dataSet.keySet()) {
+            if (element.getChild(column.columnName()) == null) {
+                throw new DatabaseTableInconsistencyException("Column " + column.columnName() + " does not exist. Update table schema or fix DataAccess!");
+            }
+        }
+        boolean hasUpdated = false;
+        for (Column column : dataSet.keySet()) {
+            // Do not change auto-increment fields
+            if (column.autoIncrement()) {
+                continue;
+            }
+            addToElement(table, element.getChild(column.columnName()), dataSet.get(column), column);
+            hasUpdated = true;
+        }
+        return hasUpdated;
+    }
+
+    private void removeCached(XmlTable table, Map<String, Object> filters, boolean removeAll) throws IOException {
+        synchronized (table) {
+            for (Element element : table.find(filters, !removeAll)) {
+                table.remove(element);
+            }
+        }
+        checkJournal(table);
+    }
+
     private void removeData(File file, Document table, Map<String, Object> filters, boolean removeAll) throws IOException {
         ArrayList<Element> toremove = new ArrayList<Element>();
         String[] fields = new String[filters.size()];
@@ -426,7 +635,7 @@ public class XmlDatabase extends Database {
         for (Element e : toremove) {
             e.detach();
         }
-        write(file.getPath(), table);
+        save(file, table);
     }
 
     private void loadData(DataAccess data, Document table, Map<String, Object> filters) throws DatabaseAccessException {
@@ -447,12 +656,7 @@ public class XmlDatabase extends Database {
             if (equalFields != fields.length) {
                 continue; // Not the entry we're looking for
             }
-            HashMap<String, Object> dataSet = new HashMap<String, Object>();
-            for (Element child : element.getChildren()) {
-                DataType type = DataType.fromString(child.getAttributeValue("data-type"));
-                addTypeToMap(child, dataSet, type);
-            }
-            data.load(dataSet);
+            data.load(toDataSet(element));
             return;
         }
     }
@@ -475,20 +679,31 @@ public class XmlDatabase extends Database {
             if (equalFields != fields.length) {
                 continue; // Not the entry we're looking for
             }
-            HashMap<String, Object> dataSet = new HashMap<String, Object>();
-
-            for (Element child : element.getChildren()) {
-                DataType type = DataType.fromString(child.getAttributeValue("data-type"));
-
-                addTypeToMap(child, dataSet, type);
-            }
             DataAccess da = template.getInstance();
 
-            da.load(dataSet);
+            da.load(toDataSet(element));
             datasets.add(da);
         }
     }
 
+    /**
+     * Reads the data set of an entry
+     *
+     * @param element
+     *
+     * @return the column name to value map
+     */
+    private HashMap<String, Object> toDataSet(Element element) {
+        HashMap<String, Object> dataSet = new HashMap<String, Object>();
+
+        for (Element child : element.getChildren()) {
+            DataType type = DataType.fromString(child.getAttributeValue("data-type"));
+
+            addTypeToMap(child, dataSet, type);
+        }
+        return dataSet;
+    }
+
     /**
      * Performs a field-by-field comparison for the two given Contents.
      * First they must be of type Element and then the fields are checked against each other.
@@ -751,6 +966,10 @@ public class XmlDatabase extends Database {
     }
 
     private Document verifyTable(File file, String root) throws IOException, JDOMException {
+        PendingBatch batch = batches.get();
+        if (batch != null && batch.tables.containsKey(file.getPath())) {
+            return batch.tables.get(file.getPath());
+        }
         if (file.length() <= 0) {
             initFile(file, root);
         }
@@ -758,6 +977,334 @@ public class XmlDatabase extends Database {
         FileInputStream in = new FileInputStream(file);
         Document document = fileBuilder.build(in);
         in.close();
+        if (batch != null) {
+            batch.tables.put(file.getPath(), document);
+        }
         return document;
     }
+
+    /** Writes a changed table, or marks it to be written once the current batch is complete */
+    private void save(File file, Document doc) throws IOException {
+        PendingBatch batch = batches.get();
+        if (batch != null) {
+            batch.changed.add(file.getPath());
+        }
+        else {
+            write(file.getPath(), doc);
+        }
+    }
+
+    @Override
+    public void batch(Batch batch) throws DatabaseWriteException {
+        if (cacheTables || batches.get() != null) {
+            // Cached tables journal each change anyway, and nested batches are part of the enclosing one
+            super.batch(batch);
+            return;
+        }
+        PendingBatch pending = new PendingBatch();
+        batches.set(pending);
+        try {
+            super.batch(batch);
+        }
+        finally {
+            batches.remove();
+        }
+        // Only reached if the batch went through, otherwise its changes are dropped
+        try {
+            for (String path : pending.changed) {
+                write(path, pending.tables.get(path));
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes all cached tables back to their table files and discards their journals.
+     * Does nothing unless the table cache is enabled.
+     */
+    public void flush() {
+        for (XmlTable table : tables.values()) {
+            try {
+                synchronized (table) {
+                    if (table.getJournalSize() > 0) {
+                        compact(table);
+                    }
+                }
+            }
+            catch (IOException e) {
+                log.error("Failed to write XML table " + table.getName(), e);
+            }
+        }
+    }
+
+    private boolean tableExists(File file, String name) {
+        return (cacheTables && tables.containsKey(name)) || file.exists();
+    }
+
+    private XmlTable getTable(File file, String name) throws IOException, JDOMException {
+        XmlTable table = tables.get(name);
+        if (table != null) {
+            return table;
+        }
+        synchronized (tables) {
+            table = tables.get(name);
+            if (table == null) {
+                table = loadTable(file, name);
+                tables.put(name, table);
+            }
+            return table;
+        }
+    }
+
+    /** Parses a table file and applies the journal a previous session may have left */
+    private XmlTable loadTable(File file, String name) throws IOException, JDOMException {
+        XmlTable table = new XmlTable(name, file, new File("db/" + name + ".journal"), verifyTable(file, name));
+        int replayed = table.replay();
+        if (replayed > 0) {
+            log.info("Recovered " + replayed + " journaled changes of XML table " + name);
+            compact(table);
+        }
+        return table;
+    }
+
+    /**
+     * Finishes compactions that were interrupted and folds journals into their table files,
+     * in case the cache has been turned off since they were written
+     */
+    private void recoverJournals(File path) {
+        File[] temps = path.listFiles();
+        if (temps == null) {
+            return;
+        }
+        for (File temp : temps) {
+            String fileName = temp.getName();
+            if (!fileName.endsWith(".xml.tmp")) {
+                continue;
+            }
+            String name = fileName.substring(0, fileName.length() - ".xml.tmp".length());
+            try {
+                if (new File(path, name + ".journal").exists()) {
+                    // Interrupted before the table was complete, the journal still has everything
+                    if (!temp.delete()) {
+                        log.warn("Failed to remove incomplete XML table file " + temp.getPath());
+                    }
+                }
+                else {
+                    replace(temp, new File(path, name + ".xml"));
+                }
+            }
+            catch (IOException e) {
+                log.error("Failed to recover XML table " + name, e);
+            }
+        }
+        File[] journals = path.listFiles();
+        if (journals == null) {
+            return;
+        }
+        for (File journal : journals) {
+            String fileName = journal.getName();
+            if (!fileName.endsWith(".journal")) {
+                continue;
+            }
+            String name = fileName.substring(0, fileName.length() - ".journal".length());
+            File file = new File(path, name + ".xml");
+            try {
+                if (file.exists()) {
+                    XmlTable table = loadTable(file, name);
+                    if (cacheTables) {
+                        tables.put(name, table);
+                    }
+                }
+            }
+            catch (IOException e) {
+                log.error("Failed to recover the journal of XML table " + name, e);
+            }
+            catch (JDOMException e) {
+                log.error("Failed to recover the journal of XML table " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a table back to its table file.
+     * The table is written to a temporary file first, which only replaces the table file once the journal is gone.
+     * That way either the journal or the temporary file survives a crash, see {@link #recoverJournals(File)}.
+     */
+    private void compact(XmlTable table) throws IOException {
+        synchronized (table) {
+            File file = table.getFile();
+            File temp = new File(file.getPath() + ".tmp");
+            write(temp.getPath(), table.getDocument());
+            table.compacted();
+            replace(temp, file);
+        }
+    }
+
+    private void replace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            // Not atomic on every platform
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Failed to replace XML table file " + file.getPath());
+            }
+        }
+    }
+
+    /** Queues a compaction of the given table once its journal has grown large enough */
+    private void checkJournal(final XmlTable table) {
+        synchronized (table) {
+            if (table.getJournalSize() < compactThreshold || !table.queueCompaction()) {
+                return;
+            }
+        }
+        synchronized (this) {
+            if (compactor == null) {
+                compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Canary XML Compactor");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        compactor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    compact(table);
+                }
+                catch (IOException e) {
+                    log.error("Failed to write XML table " + table.getName(), e);
+                }
+            }
+        });
+    }
+
+    private static final class PendingBatch {
+        final Map<String, Document> tables = new HashMap<String, Document>();
+        final Set<String> changed = new LinkedHashSet<String>();
+    }
+
+    /** Walks rows that are in memory already, converting each one as the cursor gets to it */
+    private final class ElementCursor implements DatabaseCursor {
+        private final DataAccess template;
+        private final List<Element> rows;
+        private final Object lock;
+        private int next;
+
+        ElementCursor(DataAccess template, List<Element> rows, Object lock) {
+            this.template = template;
+            this.rows = rows;
+            this.lock = lock;
+        }
+
+        @Override
+        public DataAccess next() throws DatabaseReadException {
+            if (next >= rows.size()) {
+                return null;
+            }
+            HashMap<String, Object> dataSet;
+            synchronized (lock) {
+                dataSet = toDataSet(rows.get(next++));
+            }
+            try {
+                DataAccess data = template.getInstance();
+                data.load(dataSet);
+                return data;
+            }
+            catch (DatabaseAccessException e) {
+                throw new DatabaseReadException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            next = rows.size();
+        }
+    }
+
+    /** Parses a table file one entry at a time, so only the current entry is held in memory */
+    private final class StreamCursor implements DatabaseCursor {
+        private final DataAccess template;
+        private final Map<String, Object> filters;
+        private final StAXStreamBuilder builder = new StAXStreamBuilder();
+        private FileInputStream in;
+        private XMLStreamReader reader;
+
+        StreamCursor(DataAccess template, File file, Map<String, Object> filters) throws IOException, XMLStreamException {
+            this.template = template;
+            this.filters = filters;
+            in = new FileInputStream(file);
+            try {
+                reader = streamFactory.createXMLStreamReader(in);
+                reader.nextTag(); // The table element
+            }
+            catch (XMLStreamException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public DataAccess next() throws DatabaseReadException {
+            if (reader == null) {
+                return null;
+            }
+            try {
+                while (true) {
+                    int event = reader.next();
+                    if (event == XMLStreamReader.START_ELEMENT) {
+                        // Reads the whole entry and leaves the reader at its end
+                        Element element = (Element) builder.fragment(reader);
+                        if (XmlTable.matches(element, filters)) {
+                            DataAccess data = template.getInstance();
+                            data.load(toDataSet(element));
+                            return data;
+                        }
+                    }
+                    else if (event == XMLStreamReader.END_ELEMENT || event == XMLStreamReader.END_DOCUMENT) {
+                        // The end of the table
+                        close();
+                        return null;
+                    }
+                }
+            }
+            catch (XMLStreamException e) {
+                throw new DatabaseReadException(e.getMessage(), e);
+            }
+            catch (JDOMException e) {
+                throw new DatabaseReadException(e.getMessage(), e);
+            }
+            catch (DatabaseAccessException e) {
+                throw new DatabaseReadException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (in != null) {
+                    in.close();
+                }
+            }
+            catch (XMLStreamException e) {
+                log.error(e.getMessage(), e);
+            }
+            catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+            finally {
+                reader = null;
+                in = null;
+            }
+        }
+    }
 }
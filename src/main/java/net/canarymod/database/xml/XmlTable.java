@@ -0,0 +1,530 @@
+package net.canarymod.database.xml;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * An XML table held in memory.
+ * <p/>
+ * Rows are looked up through per-column hash indexes that are built on first use.
+ * Indexes declared by the DataAccess class are built when the table is loaded, including those over several columns,
+ * which are used when a lookup filters by all of their columns.
+ * Changes are appended to a journal next to the table file, one row per line,
+ * until the table is compacted back into its table file.
+ * Journal entries address rows by a sequence number that follows the row order of the table file,
+ * so a journal can be replayed on top of the table file it was started from.
+ * <p/>
+ * Not thread-safe, synchronize on the table.
+ */
+final class XmlTable {
+    private final String name;
+    private final File file;
+    private final File journalFile;
+    private final Document document;
+
+    private final Map<Long, Element> rows = new HashMap<Long, Element>();
+    private final Map<Element, Long> sequences = new IdentityHashMap<Element, Long>();
+    private final Map<List<String>, Map<String, List<Element>>> indexes = new LinkedHashMap<List<String>, Map<String, List<Element>>>();
+    private List<List<String>> composites = Collections.emptyList();
+    private long nextSequence;
+    // Joins the values of a multi column index key, cannot occur in XML text
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final XMLOutputter serializer = new XMLOutputter(Format.getRawFormat().setLineSeparator("\n"));
+    private Writer journal;
+    private int journalSize;
+    private boolean compactionPending;
+
+    XmlTable(String name, File file, File journalFile, Document document) {
+        this.name = name;
+        this.file = file;
+        this.journalFile = journalFile;
+        this.document = document;
+        renumber();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Finds the rows whose columns have the given values
+     *
+     * @param filters
+     *         column name to value map
+     * @param first
+     *         {@code true} to stop after the first matching row
+     *
+     * @return the matching rows, in table order
+     */
+    List<Element> find(Map<String, Object> filters, boolean first) {
+        List<Element> candidates = null;
+        if (filters.isEmpty()) {
+            candidates = document.getRootElement().getChildren();
+        }
+        else {
+            List<String> composite = getComposite(filters);
+            if (composite != null) {
+                candidates = getIndex(composite).get(keyOf(filters, composite));
+                if (candidates == null) {
+                    return Collections.emptyList();
+                }
+            }
+            for (Map.Entry<String, Object> filter : filters.entrySet()) {
+                List<Element> bucket = getIndex(Collections.singletonList(filter.getKey())).get(String.valueOf(filter.getValue()));
+                if (bucket == null) {
+                    return Collections.emptyList();
+                }
+                if (candidates == null || bucket.size() < candidates.size()) {
+                    candidates = bucket;
+                }
+            }
+        }
+        List<Element> found = new ArrayList<Element>(first ? 1 : candidates.size());
+        for (Element row : candidates) {
+            if (matches(row, filters)) {
+                found.add(row);
+                if (first) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Appends a new row to the table
+     *
+     * @param row
+     *         the row
+     *
+     * @throws IOException
+     *         if the journal could not be written
+     */
+    void insert(Element row) throws IOException {
+        document.getRootElement().addContent(row);
+        long sequence = nextSequence++;
+        rows.put(sequence, row);
+        sequences.put(row, sequence);
+        for (Map.Entry<List<String>, Map<String, List<Element>>> index : indexes.entrySet()) {
+            String value = valueOf(row, index.getKey());
+            if (value != null) {
+                add(index.getValue(), value, row);
+            }
+        }
+        journal("put", sequence, row);
+    }
+
+    /**
+     * Captures the indexed values of a row that is about to be changed
+     *
+     * @param row
+     *         the row
+     *
+     * @return the values to hand to {@link #endUpdate(Element, String[])}
+     */
+    String[] beginUpdate(Element row) {
+        String[] values = new String[indexes.size()];
+        int i = 0;
+        for (List<String> columns : indexes.keySet()) {
+            values[i++] = valueOf(row, columns);
+        }
+        return values;
+    }
+
+    /**
+     * Re-indexes and journals a row that has been changed
+     *
+     * @param row
+     *         the row
+     * @param old
+     *         the values captured by {@link #beginUpdate(Element)}
+     *
+     * @throws IOException
+     *         if the journal could not be written
+     */
+    void endUpdate(Element row, String[] old) throws IOException {
+        int i = 0;
+        for (Map.Entry<List<String>, Map<String, List<Element>>> index : indexes.entrySet()) {
+            String before = old[i++];
+            String after = valueOf(row, index.getKey());
+            if (before == null ? after != null : !before.equals(after)) {
+                if (before != null) {
+                    remove(index.getValue(), before, row);
+                }
+                if (after != null) {
+                    add(index.getValue(), after, row);
+                }
+            }
+        }
+        journal("put", sequences.get(row), row);
+    }
+
+    /**
+     * Removes a row from the table
+     *
+     * @param row
+     *         the row
+     *
+     * @throws IOException
+     *         if the journal could not be written
+     */
+    void remove(Element row) throws IOException {
+        for (Map.Entry<List<String>, Map<String, List<Element>>> index : indexes.entrySet()) {
+            String value = valueOf(row, index.getKey());
+            if (value != null) {
+                remove(index.getValue(), value, row);
+            }
+        }
+        row.detach();
+        Long sequence = sequences.remove(row);
+        rows.remove(sequence);
+        journal("delete", sequence, null);
+    }
+
+    /** Drops all indexes, for instance after the columns have changed */
+    void clearIndexes() {
+        indexes.clear();
+        composites = Collections.emptyList();
+    }
+
+    /**
+     * Builds the indexes declared for this table
+     *
+     * @param declared
+     *         the column names of each index
+     */
+    void declareIndexes(List<List<String>> declared) {
+        List<List<String>> multi = new ArrayList<List<String>>();
+        for (List<String> columns : declared) {
+            getIndex(columns);
+            if (columns.size() > 1) {
+                multi.add(columns);
+            }
+        }
+        composites = multi;
+    }
+
+    /**
+     * Applies a journal left behind by a previous session to this table
+     *
+     * @return the number of journal entries applied
+     *
+     * @throws IOException
+     *         if the journal could not be read
+     */
+    int replay() throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        SAXBuilder builder = new SAXBuilder();
+        Element root = document.getRootElement();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        int applied = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Element record;
+                long sequence;
+                try {
+                    record = builder.build(new StringReader(line)).getRootElement();
+                    sequence = Long.parseLong(record.getAttributeValue("row"));
+                }
+                catch (JDOMException e) {
+                    // The server went down while this entry was written
+                    log.warn("Discarding incomplete journal entry of XML table " + name);
+                    break;
+                }
+                catch (NumberFormatException e) {
+                    log.warn("Discarding incomplete journal entry of XML table " + name);
+                    break;
+                }
+                Element existing = rows.remove(sequence);
+                if (existing != null) {
+                    sequences.remove(existing);
+                }
+                if (record.getName().equals("put")) {
+                    Element row = record.getChild("entry");
+                    if (row == null) {
+                        log.warn("Discarding malformed journal entry of XML table " + name);
+                        continue;
+                    }
+                    row.detach();
+                    if (existing != null) {
+                        root.setContent(root.indexOf(existing), row);
+                    }
+                    else {
+                        root.addContent(row);
+                    }
+                    rows.put(sequence, row);
+                    sequences.put(row, sequence);
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                }
+                else if (existing != null) {
+                    existing.detach();
+                }
+                applied++;
+            }
+        }
+        finally {
+            in.close();
+        }
+        indexes.clear();
+        return applied;
+    }
+
+    /**
+     * Gets the number of changes journaled since the last compaction
+     *
+     * @return the journal size
+     */
+    int getJournalSize() {
+        return journalSize;
+    }
+
+    /**
+     * Marks a compaction as queued
+     *
+     * @return {@code true} if none was queued yet
+     */
+    boolean queueCompaction() {
+        if (compactionPending) {
+            return false;
+        }
+        compactionPending = true;
+        return true;
+    }
+
+    /**
+     * Discards the journal once the table has been written to its table file
+     *
+     * @throws IOException
+     *         if the journal could not be removed
+     */
+    void compacted() throws IOException {
+        compactionPending = false;
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("Failed to remove XML journal " + journalFile.getPath());
+        }
+        journalSize = 0;
+        // The table file now holds the rows in order without gaps, number them the same way
+        renumber();
+    }
+
+    /** Closes the journal without discarding it */
+    void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void renumber() {
+        rows.clear();
+        sequences.clear();
+        long sequence = 0;
+        for (Element row : document.getRootElement().getChildren()) {
+            rows.put(sequence, row);
+            sequences.put(row, sequence);
+            sequence++;
+        }
+        nextSequence = sequence;
+    }
+
+    private void journal(String operation, long sequence, Element row) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append('<').append(operation).append(" row=\"").append(sequence).append('"');
+        if (row != null) {
+            line.append('>');
+            // Keep one entry per line, line breaks in values are escaped like any other character
+            String entry = serializer.outputString(row);
+            for (int i = 0; i < entry.length(); i++) {
+                char c = entry.charAt(i);
+                if (c == '\n') {
+                    line.append("&#10;");
+                }
+                else if (c == '\r') {
+                    line.append("&#13;");
+                }
+                else {
+                    line.append(c);
+                }
+            }
+            line.append("</").append(operation).append('>');
+        }
+        else {
+            line.append("/>");
+        }
+        line.append('\n');
+
+        if (journal == null) {
+            journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8"));
+        }
+        journal.write(line.toString());
+        journal.flush();
+        journalSize++;
+    }
+
+    /** Gets the declared index over the most of the filtered columns, if any covers them */
+    private List<String> getComposite(Map<String, Object> filters) {
+        List<String> best = null;
+        for (List<String> columns : composites) {
+            if ((best == null || columns.size() > best.size()) && filters.keySet().containsAll(columns)) {
+                best = columns;
+            }
+        }
+        return best;
+    }
+
+    private Map<String, List<Element>> getIndex(List<String> columns) {
+        Map<String, List<Element>> index = indexes.get(columns);
+        if (index == null) {
+            index = new HashMap<String, List<Element>>();
+            for (Element row : document.getRootElement().getChildren()) {
+                String value = valueOf(row, columns);
+                if (value != null) {
+                    List<Element> bucket = index.get(value);
+                    if (bucket == null) {
+                        bucket = new ArrayList<Element>(1);
+                        index.put(value, bucket);
+                    }
+                    bucket.add(row); // Table order
+                }
+            }
+            indexes.put(columns, index);
+        }
+        return index;
+    }
+
+    private void add(Map<String, List<Element>> index, String value, Element row) {
+        List<Element> bucket = index.get(value);
+        if (bucket == null) {
+            bucket = new ArrayList<Element>(1);
+            index.put(value, bucket);
+        }
+        bucket.add(-(search(bucket, sequences.get(row)) + 1), row);
+    }
+
+    private void remove(Map<String, List<Element>> index, String value, Element row) {
+        List<Element> bucket = index.get(value);
+        if (bucket == null) {
+            return;
+        }
+        int position = search(bucket, sequences.get(row));
+        if (position >= 0) {
+            bucket.remove(position);
+            if (bucket.isEmpty()) {
+                index.remove(value);
+            }
+        }
+    }
+
+    /** Binary search of a bucket, which is kept in table order */
+    private int search(List<Element> bucket, long sequence) {
+        int low = 0;
+        int high = bucket.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long other = sequences.get(bucket.get(mid));
+            if (other < sequence) {
+                low = mid + 1;
+            }
+            else if (other > sequence) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Checks whether a row has the given values
+     *
+     * @param row
+     *         the row
+     * @param filters
+     *         column name to value map
+     *
+     * @return {@code true} if each filtered column has the given value
+     */
+    static boolean matches(Element row, Map<String, Object> filters) {
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            String value = valueOf(row, filter.getKey());
+            if (value == null || !value.equals(String.valueOf(filter.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The key of a row in an index, {@code null} if a column is missing */
+    private static String valueOf(Element row, List<String> columns) {
+        if (columns.size() == 1) {
+            return valueOf(row, columns.get(0));
+        }
+        StringBuilder key = new StringBuilder();
+        for (String column : columns) {
+            String value = valueOf(row, column);
+            if (value == null) {
+                return null;
+            }
+            key.append(value).append(KEY_SEPARATOR);
+        }
+        return key.toString();
+    }
+
+    /** The key of the filtered values in an index */
+    private static String keyOf(Map<String, Object> filters, List<String> columns) {
+        StringBuilder key = new StringBuilder();
+        for (String column : columns) {
+            key.append(String.valueOf(filters.get(column))).append(KEY_SEPARATOR);
+        }
+        return key.toString();
+    }
+
+    private static String valueOf(Element row, String column) {
+        Element child = row.getChild(column);
+        return child != null ? child.getText() : null;
+    }
+}
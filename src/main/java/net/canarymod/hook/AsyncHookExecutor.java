@@ -0,0 +1,153 @@
+package net.canarymod.hook;
+
+import net.canarymod.plugin.RegisteredPluginListener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Runs {@link HookHandler#async()} listeners off the server thread.
+ * <p/>
+ * The work queue is bounded. When it is full, the hook is dropped for the async listeners
+ * rather than blocking the server thread, and counted in {@link #getDroppedCount()}.
+ */
+public final class AsyncHookExecutor {
+    private final ThreadPoolExecutor executor;
+    private final int capacity;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Creates a new async lane
+     *
+     * @param threads
+     *         number of worker threads
+     * @param capacity
+     *         maximum number of hooks waiting to be processed
+     */
+    public AsyncHookExecutor(int threads, int capacity) {
+        this.capacity = capacity;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Canary Async Hook-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the async listeners of a hook that has finished its synchronous dispatch
+     *
+     * @param hook
+     *         the dispatched {@link Hook}
+     * @param listeners
+     *         the async listeners, in execution order
+     */
+    void submit(final Hook hook, final RegisteredPluginListener[] listeners) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (RegisteredPluginListener listener : listeners) {
+                        try {
+                            listener.execute(hook);
+                        }
+                        catch (HookExecutionException hexex) {
+                            failed.incrementAndGet();
+                            log.error("Exception while executing async Hook: " + hook.getHookName() + " in PluginListener: " +
+                                    listener.getListener().getClass().getSimpleName() + " (Plugin: " + listener.getPlugin().getName() + ")", hexex.getCause());
+                        }
+                        catch (Throwable t) {
+                            failed.incrementAndGet();
+                            log.error("Exception while executing async Hook: " + hook.getHookName() + " in PluginListener: " +
+                                    listener.getListener().getClass().getSimpleName() + " (Plugin: " + listener.getPlugin().getName() + ")", t);
+                        }
+                    }
+                    completed.incrementAndGet();
+                }
+            });
+            submitted.incrementAndGet();
+            int depth = executor.getQueue().size();
+            int max = maxDepth.get();
+            while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+                max = maxDepth.get();
+            }
+        }
+        catch (RejectedExecutionException rejected) {
+            if (dropped.getAndIncrement() == 0) {
+                log.warn("Async hook queue is full (" + capacity + "), dropping " + hook.getHookName() + " for async listeners. Further drops are only counted.");
+            }
+        }
+    }
+
+    /**
+     * Stops accepting hooks and waits for queued hooks to be processed
+     *
+     * @param timeout
+     *         maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     *
+     * @return {@code true} if all queued hooks were processed; {@code false} if the timeout elapsed
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeout, unit);
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** @return number of hooks accepted into the queue */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /** @return number of hooks whose async listeners all ran */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /** @return number of hooks not passed to async listeners because the queue was full */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** @return number of async listener executions that threw an exception */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** @return number of hooks currently waiting */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** @return highest observed number of waiting hooks */
+    public int getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /** @return maximum number of waiting hooks */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -4,12 +4,13 @@ import net.canarymod.plugin.PluginListener;
 
 /**
  * This class invokes a method on a listener.
- * It is inline-implemented in HookExecutor.registerHook, for each hook seperately
+ * It is created by {@link DispatcherFactory} in HookExecutor.registerListener, for each hook seperately
  *
  * @author Chris (damagefilter)
  */
 public abstract class Dispatcher {
     public boolean ignoreCanceled;
+    public boolean async;
 
     public abstract void execute(PluginListener listener, Hook hook);
 }
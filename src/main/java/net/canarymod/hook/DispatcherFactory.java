@@ -0,0 +1,304 @@
+package net.canarymod.hook;
+
+import net.canarymod.plugin.PluginListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Creates {@link Dispatcher}s for {@link HookHandler} methods.
+ * <p/>
+ * Where possible a small class is generated per handler method that calls the method directly,
+ * avoiding the reflection, access checks and exception wrapping of {@link Method#invoke(Object, Object...)}.
+ * Methods that cannot be linked directly (non-public methods or classes, static methods or foreign class loaders)
+ * fall back to a reflective {@link Dispatcher}.
+ */
+public final class DispatcherFactory {
+    private static final String DISPATCHER = "net/canarymod/hook/Dispatcher";
+    private static final String EXECUTE_DESC = "(Lnet/canarymod/plugin/PluginListener;Lnet/canarymod/hook/Hook;)V";
+    private static final String GENERATED_PREFIX = "net.canarymod.hook.GeneratedDispatcher$";
+
+    private static final AtomicInteger counter = new AtomicInteger();
+    private static final Map<ClassLoader, WeakReference<DispatcherLoader>> loaders = new WeakHashMap<ClassLoader, WeakReference<DispatcherLoader>>();
+    private static boolean generate = !Boolean.getBoolean("canary.hooks.reflectiveDispatch");
+
+    private DispatcherFactory() {
+    }
+
+    /**
+     * Creates a {@link Dispatcher} that passes the {@link Hook} to the given handler method
+     *
+     * @param method
+     *         the handler method, taking exactly one {@link Hook} parameter
+     *
+     * @return a direct-call {@link Dispatcher} if one could be generated, a reflective one otherwise
+     */
+    public static Dispatcher createDispatcher(Method method) {
+        if (generate && canGenerate(method)) {
+            try {
+                return generate(method);
+            }
+            catch (Throwable t) {
+                log.debug("Unable to generate a Dispatcher for " + method + ", falling back to reflection", t);
+            }
+        }
+        return createReflectiveDispatcher(method);
+    }
+
+    /**
+     * Creates a {@link Dispatcher} that invokes the handler method through reflection
+     *
+     * @param method
+     *         the handler method
+     *
+     * @return the reflective {@link Dispatcher}
+     */
+    public static Dispatcher createReflectiveDispatcher(final Method method) {
+        return new Dispatcher() {
+
+            @Override
+            public void execute(PluginListener listener, Hook hook) {
+                try {
+                    method.invoke(listener, hook);
+                } catch (Exception ex) {
+                    throw new HookExecutionException(ex.getMessage(), ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * Enables or disables generation of direct-call dispatchers.
+     * Listeners registered while disabled use reflection.
+     *
+     * @param enabled
+     *         {@code true} to generate dispatchers; {@code false} to always use reflection
+     */
+    public static void setGenerationEnabled(boolean enabled) {
+        generate = enabled;
+    }
+
+    private static boolean canGenerate(Method method) {
+        int mod = method.getModifiers();
+        if (!Modifier.isPublic(mod) || Modifier.isStatic(mod)) {
+            return false;
+        }
+        Class<?> owner = method.getDeclaringClass();
+        Class<?> hookCls = method.getParameterTypes()[0];
+        if (!Modifier.isPublic(owner.getModifiers()) || !Modifier.isPublic(hookCls.getModifiers())) {
+            return false;
+        }
+        ClassLoader loader = owner.getClassLoader();
+        if (loader == null) {
+            return false;
+        }
+        // The generated class must see the very same Dispatcher and Hook classes we do
+        try {
+            return loader.loadClass(Dispatcher.class.getName()) == Dispatcher.class
+                    && loader.loadClass(hookCls.getName()) == hookCls;
+        }
+        catch (ClassNotFoundException cnfex) {
+            return false;
+        }
+    }
+
+    private static Dispatcher generate(Method method) throws Exception {
+        Class<?> owner = method.getDeclaringClass();
+        String name = GENERATED_PREFIX + counter.incrementAndGet();
+        byte[] bytes = emit(name.replace('.', '/'), method);
+
+        DispatcherLoader loader;
+        synchronized (loaders) {
+            // Held weakly; the loader stays reachable through the classes it defined
+            WeakReference<DispatcherLoader> ref = loaders.get(owner.getClassLoader());
+            loader = ref != null ? ref.get() : null;
+            if (loader == null) {
+                loader = new DispatcherLoader(owner.getClassLoader());
+                loaders.put(owner.getClassLoader(), new WeakReference<DispatcherLoader>(loader));
+            }
+        }
+        return (Dispatcher) loader.define(name, bytes).newInstance();
+    }
+
+    /**
+     * Emits a class equivalent to:
+     * <pre>
+     * public final class GeneratedDispatcher$N extends Dispatcher {
+     *     public void execute(PluginListener listener, Hook hook) {
+     *         ((Owner) listener).method((HookType) hook);
+     *     }
+     * }
+     * </pre>
+     */
+    private static byte[] emit(String internalName, Method method) throws IOException {
+        Class<?> owner = method.getDeclaringClass();
+        Class<?> hookCls = method.getParameterTypes()[0];
+        Class<?> ret = method.getReturnType();
+        String desc = "(" + descriptor(hookCls) + ")" + descriptor(ret);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor
+        out.writeShort(50); // major, Java 6. No branches, so no StackMapTable required
+
+        // Constant pool
+        out.writeShort(20);
+        utf8(out, internalName); // 1
+        classRef(out, 1); // 2
+        utf8(out, DISPATCHER); // 3
+        classRef(out, 3); // 4
+        utf8(out, "<init>"); // 5
+        utf8(out, "()V"); // 6
+        nameAndType(out, 5, 6); // 7
+        memberRef(out, 10, 4, 7); // 8 Methodref Dispatcher.<init>
+        utf8(out, "execute"); // 9
+        utf8(out, EXECUTE_DESC); // 10
+        utf8(out, "Code"); // 11
+        utf8(out, owner.getName().replace('.', '/')); // 12
+        classRef(out, 12); // 13
+        utf8(out, hookCls.getName().replace('.', '/')); // 14
+        classRef(out, 14); // 15
+        utf8(out, method.getName()); // 16
+        utf8(out, desc); // 17
+        nameAndType(out, 16, 17); // 18
+        memberRef(out, owner.isInterface() ? 11 : 10, 13, 18); // 19 handler method
+
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(2); // this
+        out.writeShort(4); // super
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+
+        // public <init>() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(5);
+        out.writeShort(6);
+        code(out, 1, 1, new byte[]{
+                0x2A, // aload_0
+                (byte) 0xB7, 0x00, 0x08, // invokespecial #8
+                (byte) 0xB1 // return
+        });
+
+        // public void execute(PluginListener, Hook)
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0x2B); // aload_1
+        body.write(new byte[]{ (byte) 0xC0, 0x00, 0x0D }); // checkcast #13
+        body.write(0x2C); // aload_2
+        body.write(new byte[]{ (byte) 0xC0, 0x00, 0x0F }); // checkcast #15
+        if (owner.isInterface()) {
+            body.write(new byte[]{ (byte) 0xB9, 0x00, 0x13, 0x02, 0x00 }); // invokeinterface #19, 2
+        }
+        else {
+            body.write(new byte[]{ (byte) 0xB6, 0x00, 0x13 }); // invokevirtual #19
+        }
+        if (ret == long.class || ret == double.class) {
+            body.write(0x58); // pop2
+        }
+        else if (ret != void.class) {
+            body.write(0x57); // pop
+        }
+        body.write(0xB1); // return
+
+        out.writeShort(0x0001);
+        out.writeShort(9);
+        out.writeShort(10);
+        code(out, 2, 3, body.toByteArray());
+
+        out.writeShort(0); // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+
+    private static void nameAndType(DataOutputStream out, int nameIndex, int descIndex) throws IOException {
+        out.writeByte(12);
+        out.writeShort(nameIndex);
+        out.writeShort(descIndex);
+    }
+
+    private static void memberRef(DataOutputStream out, int tag, int classIndex, int natIndex) throws IOException {
+        out.writeByte(tag);
+        out.writeShort(classIndex);
+        out.writeShort(natIndex);
+    }
+
+    private static void code(DataOutputStream out, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(1); // attribute count
+        out.writeShort(11); // "Code"
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static String descriptor(Class<?> cls) {
+        if (cls.isArray()) {
+            return cls.getName().replace('.', '/');
+        }
+        if (cls == void.class) {
+            return "V";
+        }
+        if (cls == boolean.class) {
+            return "Z";
+        }
+        if (cls == byte.class) {
+            return "B";
+        }
+        if (cls == char.class) {
+            return "C";
+        }
+        if (cls == short.class) {
+            return "S";
+        }
+        if (cls == int.class) {
+            return "I";
+        }
+        if (cls == long.class) {
+            return "J";
+        }
+        if (cls == float.class) {
+            return "F";
+        }
+        if (cls == double.class) {
+            return "D";
+        }
+        return "L" + cls.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * Defines generated dispatchers as children of the class loader that owns the listener,
+     * so they are unloaded together with the plugin
+     */
+    private static final class DispatcherLoader extends ClassLoader {
+        DispatcherLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
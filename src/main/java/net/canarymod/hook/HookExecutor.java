@@ -1,16 +1,29 @@
 package net.canarymod.hook;
 
-import com.google.common.collect.ArrayListMultimap;
 import net.canarymod.ToolBox;
+import net.canarymod.config.Configuration;
+import net.canarymod.config.ServerConfiguration;
 import net.canarymod.plugin.Plugin;
 import net.canarymod.plugin.PluginListener;
 import net.canarymod.plugin.Priority;
 import net.canarymod.plugin.RegisteredPluginListener;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static net.canarymod.Canary.log;
 
@@ -23,7 +36,24 @@ import static net.canarymod.Canary.log;
  */
 public class HookExecutor implements HookExecutorInterface {
     private final PluginComparator listener_comp = new PluginComparator();
-    final ArrayListMultimap<Class<? extends Hook>, RegisteredPluginListener> listeners = ArrayListMultimap.create();
+    private final Object lock = new Object();
+    private static final RegisteredPluginListener[] NONE = new RegisteredPluginListener[0];
+    private static final HookDispatch NO_DISPATCH = new HookDispatch(NONE, NONE);
+    /** Immutable, priority-ordered snapshots per registered hook type. Replaced as a whole on every change */
+    final ConcurrentHashMap<Class<?>, RegisteredPluginListener[]> listeners = new ConcurrentHashMap<Class<?>, RegisteredPluginListener[]>();
+    /**
+     * All listeners applying to a concrete hook class, including those registered for its superclasses and interfaces.
+     * Filled on first dispatch of each class, replaced by an empty cache on every change
+     */
+    private volatile ConcurrentHashMap<Class<?>, HookDispatch> dispatchCache = new ConcurrentHashMap<Class<?>, HookDispatch>();
+    /** Runs async listeners, created on first use */
+    private volatile AsyncHookExecutor asyncExecutor;
+    /** Listeners by owning plugin, guarded by lock */
+    private final Map<Plugin, List<RegisteredPluginListener>> pluginListeners = new HashMap<Plugin, List<RegisteredPluginListener>>();
+    /** The hook class each listener is registered for, guarded by lock */
+    private final Map<RegisteredPluginListener, Class<?>> hookClasses = new IdentityHashMap<RegisteredPluginListener, Class<?>>();
+    /** How often {@link #hasListeners(Class)} answered false, per hook class */
+    private final ConcurrentHashMap<Class<? extends Hook>, AtomicLong> skipped = new ConcurrentHashMap<Class<? extends Hook>, AtomicLong>();
 
     /**
      * Register a {@link PluginListener} for a system hook
@@ -47,34 +77,48 @@ public class HookExecutor implements HookExecutorInterface {
             }
             Class<?> hookCls = parameters[0];
 
-            if (!Hook.class.isAssignableFrom(hookCls)) {
+            // Interfaces are allowed to listen to all hooks implementing them
+            if (!Hook.class.isAssignableFrom(hookCls) && !hookCls.isInterface()) {
                 throw new HookConsistencyException("Hook is not assignable from " + hookCls.getName());
             }
 
-            Dispatcher dispatcher = new Dispatcher() {
-
-                @Override
-                public void execute(PluginListener listener, Hook hook) {
-                    try {
-                        method.invoke(listener, hook);
-                    } catch (Exception ex) {
-                        throw new HookExecutionException(ex.getMessage(), ex);
-                    }
-                }
-            };
+            Dispatcher dispatcher = DispatcherFactory.createDispatcher(method);
             dispatcher.ignoreCanceled = handler.ignoreCanceled();
+            dispatcher.async = handler.async();
 
-            registerHook(listener, plugin, hookCls, dispatcher, handler.priority());
+            registerHook(listener, plugin, hookCls, dispatcher, handler.priority(), method.getName());
         }
     }
 
     /**
      * A more flexible hook interface used internally. Adds flexibility required for Scala hook registration.
+     * Listeners registered for a hook superclass or interface receive all hooks extending it.
      */
     public void registerHook(PluginListener listener, Plugin plugin, Class<?> hookCls, Dispatcher dispatcher, Priority priority) {
+        registerHook(listener, plugin, hookCls, dispatcher, priority, null);
+    }
+
+    /**
+     * Registers a hook dispatcher, naming the handling method for timings.
+     */
+    public void registerHook(PluginListener listener, Plugin plugin, Class<?> hookCls, Dispatcher dispatcher, Priority priority, String handlerName) {
         // Caller is assumed to check class (this is an internal API)
-        listeners.put((Class<? extends Hook>) hookCls, new RegisteredPluginListener(listener, plugin, dispatcher, priority));
-        Collections.sort(listeners.get((Class<? extends Hook>) hookCls), listener_comp);
+        if (dispatcher.async && !isAsyncSafe(hookCls)) {
+            throw new HookConsistencyException("Hook " + hookCls.getName() + " cannot be handled async" + (handlerName == null ? "" : " by " + handlerName)
+                    + ", only hooks that can be neither canceled nor changed can");
+        }
+        RegisteredPluginListener registered = new RegisteredPluginListener(listener, plugin, dispatcher, priority, hookCls, handlerName);
+        synchronized (lock) {
+            listeners.put(hookCls, insertSorted(listeners.get(hookCls), registered));
+            List<RegisteredPluginListener> owned = pluginListeners.get(plugin);
+            if (owned == null) {
+                owned = new ArrayList<RegisteredPluginListener>();
+                pluginListeners.put(plugin, owned);
+            }
+            owned.add(registered);
+            hookClasses.put(registered, hookCls);
+            invalidateDispatchCache();
+        }
     }
 
     /**
@@ -84,26 +128,98 @@ public class HookExecutor implements HookExecutorInterface {
      */
     @Override
     public void unregisterPluginListeners(Plugin plugin) {
-        Iterator<RegisteredPluginListener> iter = listeners.values().iterator();
-        while (iter.hasNext()) {
-            RegisteredPluginListener listener = iter.next();
-            if (listener.getPlugin().equals(plugin)) {
-                iter.remove();
+        synchronized (lock) {
+            List<RegisteredPluginListener> owned = pluginListeners.remove(plugin);
+            if (owned != null) {
+                removeAll(owned);
+                invalidateDispatchCache();
             }
         }
     }
 
     @Override
     public void unregisterPluginListener(PluginListener listener) {
-        Iterator<RegisteredPluginListener> iter = listeners.values().iterator();
-        while (iter.hasNext()) {
-            RegisteredPluginListener rListener = iter.next();
-            if (rListener.getListener().equals(listener)) {
-                iter.remove();
+        synchronized (lock) {
+            Iterator<List<RegisteredPluginListener>> lists = pluginListeners.values().iterator();
+            while (lists.hasNext()) {
+                List<RegisteredPluginListener> owned = lists.next();
+                List<RegisteredPluginListener> removed = new ArrayList<RegisteredPluginListener>();
+                Iterator<RegisteredPluginListener> iter = owned.iterator();
+                while (iter.hasNext()) {
+                    RegisteredPluginListener rListener = iter.next();
+                    if (rListener.getListener().equals(listener)) {
+                        removed.add(rListener);
+                        iter.remove();
+                    }
+                }
+                removeAll(removed);
+                if (owned.isEmpty()) {
+                    lists.remove();
+                }
             }
+            invalidateDispatchCache();
         }
     }
 
+    /**
+     * Checks whether any listener is registered for the given hook class.
+     * Implementations can use this to avoid building hooks nobody listens to.
+     * Every negative answer is counted as an avoided hook construction.
+     *
+     * @param hookCls
+     *         the {@link Hook} class
+     *
+     * @return {@code true} if the hook has listeners; {@code false} if calling it would do nothing
+     */
+    public boolean hasListeners(Class<? extends Hook> hookCls) {
+        if (getDispatch(hookCls) != NO_DISPATCH) {
+            return true;
+        }
+        AtomicLong counter = skipped.get(hookCls);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = skipped.putIfAbsent(hookCls, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets the number of hook constructions avoided through {@link #hasListeners(Class)}, per hook class
+     *
+     * @return a copy of the avoided construction counts
+     */
+    public Map<Class<? extends Hook>, Long> getSkippedHookCounts() {
+        Map<Class<? extends Hook>, Long> counts = new HashMap<Class<? extends Hook>, Long>();
+        for (Map.Entry<Class<? extends Hook>, AtomicLong> entry : skipped.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the total number of hook constructions avoided through {@link #hasListeners(Class)}
+     *
+     * @return the avoided construction count
+     */
+    public long getSkippedHookTotal() {
+        long total = 0;
+        for (AtomicLong counter : skipped.values()) {
+            total += counter.get();
+        }
+        return total;
+    }
+
+    /**
+     * Resets the avoided hook construction counters
+     */
+    public void resetSkippedHookCounts() {
+        skipped.clear();
+    }
+
     /**
      * Call a system hook
      */
@@ -113,18 +229,268 @@ public class HookExecutor implements HookExecutorInterface {
             return;
         }
         hook.hasExecuted();
-        if (!this.listeners.containsKey(hook.getClass())) {
-            return;
-        }
-        Iterator<RegisteredPluginListener> iter = this.listeners.get(hook.getClass()).iterator();
-        while (iter.hasNext()) {
-            RegisteredPluginListener listener = iter.next();
+        // Snapshot; registrations during the call are seen by the next call
+        HookDispatch dispatch = getDispatch(hook.getClass());
+        for (RegisteredPluginListener listener : dispatch.sync) {
             try {
                 listener.execute(hook);
             } catch (HookExecutionException hexex) {
                 log.error("Exception while executing Hook: " + hook.getHookName() + " in PluginListener: " +
                         listener.getListener().getClass().getSimpleName() + " (Plugin: " + listener.getPlugin().getName() + ")", hexex.getCause());
+            } catch (Throwable t) {
+                // Generated dispatchers call the handler directly, so its exceptions arrive unwrapped
+                log.error("Exception while executing Hook: " + hook.getHookName() + " in PluginListener: " +
+                        listener.getListener().getClass().getSimpleName() + " (Plugin: " + listener.getPlugin().getName() + ")", t);
+            }
+        }
+        if (dispatch.async.length > 0) {
+            getAsyncExecutor().submit(hook, dispatch.async);
+        }
+    }
+
+    /**
+     * Gets the async lane, creating it from the server configuration on first use
+     *
+     * @return the {@link AsyncHookExecutor}
+     */
+    public AsyncHookExecutor getAsyncExecutor() {
+        AsyncHookExecutor async = asyncExecutor;
+        if (async == null) {
+            synchronized (lock) {
+                async = asyncExecutor;
+                if (async == null) {
+                    ServerConfiguration cfg = Configuration.getServerConfig();
+                    async = new AsyncHookExecutor(cfg.getAsyncHookThreads(), cfg.getAsyncHookQueueSize());
+                    asyncExecutor = async;
+                }
+            }
+        }
+        return async;
+    }
+
+    /**
+     * Replaces the async lane. The previous one, if any, is shut down after finishing its queued hooks.
+     *
+     * @param async
+     *         the new {@link AsyncHookExecutor}
+     */
+    public void setAsyncExecutor(AsyncHookExecutor async) {
+        AsyncHookExecutor old;
+        synchronized (lock) {
+            old = asyncExecutor;
+            asyncExecutor = async;
+        }
+        if (old != null) {
+            old.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Waits for queued async listeners to finish and stops the async lane. Called on server shutdown.
+     *
+     * @param timeout
+     *         maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     *
+     * @return {@code true} if all queued hooks were processed; {@code false} if the timeout elapsed
+     */
+    public boolean shutdownAsync(long timeout, TimeUnit unit) {
+        AsyncHookExecutor async;
+        synchronized (lock) {
+            async = asyncExecutor;
+            asyncExecutor = null;
+        }
+        return async == null || async.shutdown(timeout, unit);
+    }
+
+    /**
+     * Checks whether a hook class may be handled async. Async listeners run while the server goes on using the hook,
+     * so the hook must not be cancelable and must not have setters or non-final public fields.
+     *
+     * @param hookCls
+     *         the hook class
+     *
+     * @return {@code true} if async listeners may receive it; {@code false} if not
+     */
+    static boolean isAsyncSafe(Class<?> hookCls) {
+        if (hookCls.isInterface() || CancelableHook.class.isAssignableFrom(hookCls)) {
+            return false;
+        }
+        for (Method method : hookCls.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers()) && method.getName().startsWith("set") && method.getParameterTypes().length > 0) {
+                return false;
+            }
+        }
+        for (Field field : hookCls.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the listeners receiving hooks of the given concrete class, in execution order
+     */
+    private HookDispatch getDispatch(Class<?> hookCls) {
+        HookDispatch cached = dispatchCache.get(hookCls);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (lock) {
+            // Build and publish under the lock so a concurrent change cannot be overwritten by stale data
+            ConcurrentHashMap<Class<?>, HookDispatch> cache = dispatchCache;
+            cached = cache.get(hookCls);
+            if (cached == null) {
+                cached = split(flatten(hookCls), isAsyncSafe(hookCls));
+                cache.put(hookCls, cached);
             }
+            return cached;
+        }
+    }
+
+    /**
+     * Splits listeners into synchronous and async ones.
+     * Async listeners registered for a superclass are left out for hook classes that are not async safe.
+     */
+    private static HookDispatch split(RegisteredPluginListener[] all, boolean asyncSafe) {
+        List<RegisteredPluginListener> sync = new ArrayList<RegisteredPluginListener>(all.length);
+        List<RegisteredPluginListener> async = new ArrayList<RegisteredPluginListener>();
+        for (RegisteredPluginListener listener : all) {
+            if (!listener.isAsync()) {
+                sync.add(listener);
+            }
+            else if (asyncSafe) {
+                async.add(listener);
+            }
+        }
+        if (sync.isEmpty() && async.isEmpty()) {
+            return NO_DISPATCH;
+        }
+        return new HookDispatch(sync.toArray(new RegisteredPluginListener[sync.size()]), async.toArray(new RegisteredPluginListener[async.size()]));
+    }
+
+    /**
+     * Merges the listeners of every registered type the hook class is assignable to. Must hold the lock.
+     * With equal priorities, listeners of more specific types run first.
+     */
+    private RegisteredPluginListener[] flatten(Class<?> hookCls) {
+        List<Class<?>> matching = new ArrayList<Class<?>>();
+        for (Class<?> registered : listeners.keySet()) {
+            if (registered.isAssignableFrom(hookCls)) {
+                matching.add(registered);
+            }
+        }
+        if (matching.isEmpty()) {
+            return NONE;
+        }
+        if (matching.size() == 1) {
+            return listeners.get(matching.get(0));
+        }
+        Collections.sort(matching, new Comparator<Class<?>>() {
+            @Override
+            public int compare(Class<?> o1, Class<?> o2) {
+                int diff = supertypeCount(o2) - supertypeCount(o1);
+                return diff != 0 ? diff : o1.getName().compareTo(o2.getName());
+            }
+        });
+        List<RegisteredPluginListener> merged = new ArrayList<RegisteredPluginListener>();
+        for (Class<?> registered : matching) {
+            Collections.addAll(merged, listeners.get(registered));
+        }
+        Collections.sort(merged, listener_comp); // Stable, keeps specific types first
+        return merged.toArray(new RegisteredPluginListener[merged.size()]);
+    }
+
+    private static int supertypeCount(Class<?> cls) {
+        Set<Class<?>> seen = new HashSet<Class<?>>();
+        collectSupertypes(cls, seen);
+        return seen.size();
+    }
+
+    private static void collectSupertypes(Class<?> cls, Set<Class<?>> seen) {
+        if (cls == null || !seen.add(cls)) {
+            return;
+        }
+        collectSupertypes(cls.getSuperclass(), seen);
+        for (Class<?> iface : cls.getInterfaces()) {
+            collectSupertypes(iface, seen);
+        }
+    }
+
+    /**
+     * Drops all flattened dispatch arrays. Must hold the lock, after the registered listeners changed.
+     */
+    private void invalidateDispatchCache() {
+        dispatchCache = new ConcurrentHashMap<Class<?>, HookDispatch>();
+    }
+
+    /**
+     * Removes the given listeners from their hook snapshots. Must hold the lock.
+     */
+    private void removeAll(List<RegisteredPluginListener> removed) {
+        Map<Class<?>, Set<RegisteredPluginListener>> byHook = new HashMap<Class<?>, Set<RegisteredPluginListener>>();
+        for (RegisteredPluginListener rListener : removed) {
+            Class<?> cls = hookClasses.remove(rListener);
+            Set<RegisteredPluginListener> set = byHook.get(cls);
+            if (set == null) {
+                set = Collections.newSetFromMap(new IdentityHashMap<RegisteredPluginListener, Boolean>());
+                byHook.put(cls, set);
+            }
+            set.add(rListener);
+        }
+        for (Map.Entry<Class<?>, Set<RegisteredPluginListener>> entry : byHook.entrySet()) {
+            RegisteredPluginListener[] current = listeners.get(entry.getKey());
+            if (current == null) {
+                continue;
+            }
+            List<RegisteredPluginListener> kept = new ArrayList<RegisteredPluginListener>(current.length);
+            for (RegisteredPluginListener rListener : current) {
+                if (!entry.getValue().contains(rListener)) {
+                    kept.add(rListener);
+                }
+            }
+            if (kept.isEmpty()) {
+                listeners.remove(entry.getKey());
+            }
+            else {
+                listeners.put(entry.getKey(), kept.toArray(new RegisteredPluginListener[kept.size()]));
+            }
+        }
+    }
+
+    /**
+     * Copies the snapshot with the listener inserted behind all listeners of equal or higher priority
+     */
+    private RegisteredPluginListener[] insertSorted(RegisteredPluginListener[] current, RegisteredPluginListener registered) {
+        if (current == null) {
+            return new RegisteredPluginListener[]{ registered };
+        }
+        int index = current.length;
+        for (int i = 0; i < current.length; i++) {
+            if (listener_comp.compare(registered, current[i]) < 0) {
+                index = i;
+                break;
+            }
+        }
+        RegisteredPluginListener[] updated = new RegisteredPluginListener[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        updated[index] = registered;
+        System.arraycopy(current, index, updated, index + 1, current.length - index);
+        return updated;
+    }
+
+    /**
+     * The synchronous and async listeners of one concrete hook class
+     */
+    private static final class HookDispatch {
+        final RegisteredPluginListener[] sync;
+        final RegisteredPluginListener[] async;
+
+        HookDispatch(RegisteredPluginListener[] sync, RegisteredPluginListener[] async) {
+            this.sync = sync;
+            this.async = async;
         }
     }
 
@@ -18,4 +18,15 @@ public @interface HookHandler {
     Priority priority() default Priority.NORMAL;
 
     boolean ignoreCanceled() default false;
+
+    /**
+     * Runs the handler on a worker thread, after all synchronous listeners have finished.
+     * <p/>
+     * Async handlers are for observing only (logging, statistics, forwarding), and the hook may be accessed
+     * concurrently by other async handlers. Only hooks that can be neither canceled nor changed can be handled async,
+     * registering an async handler for any other hook fails with a {@link HookConsistencyException}.
+     * Async handlers registered for a superclass don't receive hooks that can be canceled or changed.
+     * If the async queue is full the hook is not passed to async handlers at all.
+     */
+    boolean async() default false;
 }
@@ -0,0 +1,252 @@
+package net.canarymod.permissionsystem;
+
+import net.canarymod.user.Group;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The permissions of a group or a player flattened into bit sets over the IDs of the {@link PermissionRegistry}.
+ * <p/>
+ * For a group, the bits hold what {@link Group#hasPermission(String)} would find by walking the group and its parents:
+ * the first of their providers that knows a path decides it, if none does it is denied.
+ * For a player, the bits hold what the player's own provider decides, a path it doesn't know is passed on to the player's group.
+ * <p/>
+ * Checking a permission that has an ID is then a single bit test. Paths without an ID, wildcard and blank queries,
+ * and groups or players with providers other than {@link MultiworldPermissionProvider}, are resolved the slow way.
+ * <p/>
+ * A group belongs to one world and its provider falls back to the global one, so the bits of a group are those of the group in its world.
+ * <p/>
+ * The bits are validated lazily. Every change to a provider or the group hierarchy bumps a global epoch;
+ * the next check after that compares the generations of the providers the bits were computed from
+ * and only recomputes if they changed, so a change to one group leaves the bits of unrelated groups in place.
+ * Paths interned after the bits were computed are added without recomputing the others.
+ */
+public final class EffectivePermissions {
+    private static final AtomicLong epoch = new AtomicLong();
+
+    private final Group group; // null for a player
+    private final PermissionProvider player; // null for a group
+    private volatile State state;
+
+    private EffectivePermissions(Group group, PermissionProvider player) {
+        this.group = group;
+        this.player = player;
+    }
+
+    /**
+     * Creates the effective permissions of a group, including those it inherits from its parents
+     *
+     * @param group
+     *         the group
+     *
+     * @return the effective permissions
+     */
+    public static EffectivePermissions forGroup(Group group) {
+        return new EffectivePermissions(group, null);
+    }
+
+    /**
+     * Gets the effective permissions of a player's own permission provider,
+     * which are checked before those of the player's group
+     *
+     * @param provider
+     *         the player's permission provider
+     *
+     * @return the effective permissions
+     */
+    public static EffectivePermissions forPlayer(PermissionProvider provider) {
+        if (provider instanceof MultiworldPermissionProvider) {
+            return ((MultiworldPermissionProvider) provider).getOverlay();
+        }
+        return new EffectivePermissions(null, provider);
+    }
+
+    static EffectivePermissions createOverlay(PermissionProvider provider) {
+        return new EffectivePermissions(null, provider);
+    }
+
+    /**
+     * Marks all effective permissions for validation, to be called whenever a permission provider
+     * or the group hierarchy changes
+     */
+    public static void invalidateAll() {
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Checks a group permission
+     *
+     * @param permission
+     *         the permission
+     *
+     * @return {@code true} if granted
+     *
+     * @throws IllegalStateException
+     *         if these are a player's permissions
+     */
+    public boolean hasPermission(String permission) {
+        if (group == null) {
+            throw new IllegalStateException("The permissions of a player are checked together with their group");
+        }
+        return check(permission, null);
+    }
+
+    /**
+     * Checks a player permission: the player's own permissions first, then the permissions of the given group
+     *
+     * @param permission
+     *         the permission
+     * @param playerGroup
+     *         the player's group, may be {@code null}
+     *
+     * @return {@code true} if granted
+     *
+     * @throws IllegalStateException
+     *         if these are a group's permissions
+     */
+    public boolean hasPermission(String permission, Group playerGroup) {
+        if (player == null) {
+            throw new IllegalStateException("The permissions of a group are checked on their own");
+        }
+        return check(permission, playerGroup);
+    }
+
+    private boolean check(String permission, Group playerGroup) {
+        State s = state;
+        if (s == null || s.epoch != epoch.get()) {
+            s = validate();
+        }
+        int id;
+        if (s.providers != null && (id = PermissionRegistry.idOf(permission)) >= 0) {
+            if (id >= s.computed) {
+                s = extend(s);
+            }
+            if ((s.known[id >>> 6] & (1L << id)) != 0) {
+                return (s.granted[id >>> 6] & (1L << id)) != 0;
+            }
+            return playerGroup != null && playerGroup.hasPermission(permission);
+        }
+        // Not tracked or not a known path, walk the providers
+        for (PermissionProvider provider : providers()) {
+            if (provider.pathExists(permission)) {
+                return provider.queryPermission(permission);
+            }
+        }
+        return playerGroup != null && playerGroup.hasPermission(permission);
+    }
+
+    /**
+     * Gets the providers deciding these permissions, in the order they are asked
+     *
+     * @return the providers
+     */
+    private List<PermissionProvider> providers() {
+        List<PermissionProvider> providers = new ArrayList<PermissionProvider>();
+        if (group == null) {
+            providers.add(player);
+            return providers;
+        }
+        if (group.getPermissionProvider() != null) {
+            providers.add(group.getPermissionProvider());
+        }
+        for (Group parent : group.parentsToList()) {
+            if (parent.getPermissionProvider() != null) {
+                providers.add(parent.getPermissionProvider());
+            }
+        }
+        return providers;
+    }
+
+    private synchronized State validate() {
+        long current = epoch.get();
+        State s = state;
+        if (s != null && s.epoch == current) {
+            return s;
+        }
+        List<PermissionProvider> list = providers();
+        PermissionProvider[] providers = new PermissionProvider[list.size()];
+        long[] generations = new long[providers.length];
+        for (int i = 0; i < providers.length; i++) {
+            PermissionProvider provider = list.get(i);
+            if (!(provider instanceof MultiworldPermissionProvider)) {
+                // Can't tell when a foreign provider changes
+                s = new State(current, null, null, 0, new long[0], new long[0]);
+                state = s;
+                return s;
+            }
+            providers[i] = provider;
+            generations[i] = ((MultiworldPermissionProvider) provider).getGeneration();
+        }
+        if (s != null && s.providers != null && Arrays.equals(s.providers, providers) && Arrays.equals(s.generations, generations)) {
+            // Something else changed
+            s = new State(current, providers, generations, s.computed, s.known, s.granted);
+        }
+        else {
+            s = compute(new State(current, providers, generations, 0, new long[0], new long[0]));
+        }
+        state = s;
+        return s;
+    }
+
+    private synchronized State extend(State s) {
+        State extended = compute(s);
+        if (state == s) {
+            state = extended;
+        }
+        return extended;
+    }
+
+    /**
+     * Computes the bits for the IDs interned since the given state was computed
+     *
+     * @param s
+     *         the state to extend
+     *
+     * @return the extended state
+     */
+    private static State compute(State s) {
+        int size = PermissionRegistry.size();
+        if (size <= s.computed) {
+            return s;
+        }
+        int words = (size + 63) >>> 6;
+        long[] known = Arrays.copyOf(s.known, words);
+        long[] granted = Arrays.copyOf(s.granted, words);
+        for (int id = s.computed; id < size; id++) {
+            String[] path = PermissionRegistry.getSegments(id);
+            for (PermissionProvider provider : s.providers) {
+                byte resolved = ((MultiworldPermissionProvider) provider).resolve(path);
+                if (resolved != PermissionTrie.MISSING) {
+                    known[id >>> 6] |= 1L << id;
+                    if (resolved == PermissionTrie.GRANTED) {
+                        granted[id >>> 6] |= 1L << id;
+                    }
+                    break;
+                }
+            }
+        }
+        return new State(s.epoch, s.providers, s.generations, size, known, granted);
+    }
+
+    /** The bits together with what they were computed from. Replaced as a whole. */
+    private static final class State {
+        final long epoch;
+        final PermissionProvider[] providers; // null if not tracked
+        final long[] generations;
+        final int computed;
+        final long[] known;
+        final long[] granted;
+
+        State(long epoch, PermissionProvider[] providers, long[] generations, int computed, long[] known, long[] granted) {
+            this.epoch = epoch;
+            this.providers = providers;
+            this.generations = generations;
+            this.computed = computed;
+            this.known = known;
+            this.granted = granted;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package net.canarymod.permissionsystem;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import net.canarymod.Canary;
 import net.canarymod.ToolBox;
 import net.canarymod.Translator;
@@ -9,9 +11,13 @@ import net.canarymod.chat.MessageReceiver;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
+import net.canarymod.user.UUIDResolver;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static net.canarymod.Canary.log;
 
 /**
  * A PermissionProvider implementation based on PermissionNode objects,
@@ -20,15 +26,21 @@ import java.util.Map.Entry;
  * @author Chris (damagefilter)
  */
 public class MultiworldPermissionProvider implements PermissionProvider {
+    private static final int MAX_CACHED = 1024;
+
     private List<PermissionNode> permissions;
-    private Map<String, Boolean> permissionCache = new HashMap<String, Boolean>(35);
+    private volatile Snapshot snapshot; // null until first queried after a change
+    private volatile long generation;
     private boolean isPlayerProvider;
-    private String owner; // This can either be a player uuid or group name
+    private String owner; // This can either be a player uuid or group name, null while a player's uuid is looked up
     private String world;
     private PermissionProvider parent = null;
+    private EffectivePermissions overlay; // Created when first checked as a player's provider
 
     /**
-     * Constructs a new PermissionProvider that's valid for the given world
+     * Constructs a new PermissionProvider that's valid for the given world.
+     * A player given by a name whose UUID isn't cached has no permissions until the UUID is looked up,
+     * the provider then takes it on and reloads.
      *
      * @param world
      *         the world
@@ -37,12 +49,18 @@ public class MultiworldPermissionProvider implements PermissionProvider {
         this.world = world;
         permissions = new ArrayList<PermissionNode>();
         this.isPlayerProvider = isPlayer;
+        if (isPlayer && !ToolBox.isUUID(owner)) {
+            // Providers are created on the main thread, don't wait for a lookup.
+            // Never own permissions by name, they would be apart from those stored by UUID.
+            String uuid = UUIDResolver.get().getCachedUUID(owner);
+            if (uuid == null) {
+                resolveOwner(owner);
+            }
+            owner = uuid;
+        }
         // If world is not null, set the parent to the global providers
-        if (world != null) {
+        if (world != null && owner != null) {
             if (isPlayer) {
-                if (!ToolBox.isUUID(owner)) {
-                    owner = ToolBox.usernameToUUID(owner);
-                }
                 this.parent = Canary.permissionManager().getPlayerProvider(owner, null);
             }
             else {
@@ -74,34 +92,125 @@ public class MultiworldPermissionProvider implements PermissionProvider {
         this.parent = parent;
     }
 
+    /** Looks up the UUID of a player known by name, and takes it on once it is known */
+    private void resolveOwner(final String name) {
+        UUIDResolver.get().resolveOnServerThread(name, new UUIDResolver.Callback() {
+
+            @Override
+            public void run(String uuid) {
+                if (uuid == null) {
+                    log.warn("No UUID found for player " + name + ". Their permissions stay empty!");
+                    return;
+                }
+                ownerResolved(uuid);
+            }
+        });
+    }
+
     /**
-     * Add a given permission to the permissions cache. The cache is limited and
-     * will prune itself if it gets too big.
+     * Takes on the UUID of a player that was given by name, and loads the player's permissions
      *
-     * @param path
-     * @param value
+     * @param uuid
+     *         the player's uuid
      */
-    private void addPermissionToCache(String path, boolean value) {
-        if (permissionCache.size() > 35) {
-            Iterator<Entry<String, Boolean>> it = permissionCache.entrySet().iterator();
+    synchronized void ownerResolved(String uuid) {
+        owner = uuid;
+        if (world != null) {
+            parent = Canary.permissionManager().getPlayerProvider(uuid, null);
+        }
+        reload();
+    }
 
-            while (it.hasNext() && permissionCache.size() > 10) {
-                it.next();
-                it.remove();
+    /**
+     * Gets the owner of these permissions
+     *
+     * @return the player uuid or group name; {@code null} while the UUID of a player given by name is looked up
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets the current snapshot, compiling the permission nodes if they changed
+     * and dropping cached results if the parent changed since they were resolved.
+     *
+     * @return the snapshot
+     */
+    private Snapshot snapshot() {
+        Snapshot s = snapshot;
+        if (s != null && s.parentGeneration == parentGeneration()) {
+            return s;
+        }
+        synchronized (this) {
+            s = snapshot;
+            long parentGeneration = parentGeneration();
+            if (s == null) {
+                s = new Snapshot(PermissionTrie.compile(permissions), parentGeneration);
+                snapshot = s;
+            }
+            else if (s.parentGeneration != parentGeneration) {
+                s = new Snapshot(s.trie, parentGeneration);
+                snapshot = s;
             }
+            return s;
         }
-        permissionCache.put(path, value);
     }
 
     /**
-     * Check the permission cache if we have something already
+     * Gets a counter that changes whenever the nodes of this provider or its parents change
      *
-     * @param permission
+     * @return the generation
+     */
+    long getGeneration() {
+        return generation + parentGeneration();
+    }
+
+    private long parentGeneration() {
+        return parent instanceof MultiworldPermissionProvider ? ((MultiworldPermissionProvider) parent).getGeneration() : 0;
+    }
+
+    /** Publishes changes to the permission nodes; the next query compiles them */
+    private void invalidate() {
+        generation++;
+        snapshot = null;
+        EffectivePermissions.invalidateAll();
+    }
+
+    /**
+     * Resolves a path through this provider and its parents without caching the result,
+     * with the same outcome as {@link #pathExists(String)} followed by {@link #queryPermission(String)}
      *
-     * @return
+     * @param path
+     *         the path segments
+     *
+     * @return {@link PermissionTrie#MISSING} if neither this provider nor its parents know the path,
+     * {@link PermissionTrie#GRANTED} or {@link PermissionTrie#DENIED} otherwise
      */
-    private Boolean checkCached(String permission) {
-        return permissionCache.get(permission);
+    byte resolve(String[] path) {
+        byte resolved = snapshot().trie.resolve(path);
+        if (resolved != PermissionTrie.MISSING || parent == null) {
+            return resolved;
+        }
+        if (parent instanceof MultiworldPermissionProvider) {
+            return ((MultiworldPermissionProvider) parent).resolve(path);
+        }
+        String permission = PermissionRegistry.join(path);
+        if (!parent.pathExists(permission)) {
+            return PermissionTrie.MISSING;
+        }
+        return parent.queryPermission(permission) ? PermissionTrie.GRANTED : PermissionTrie.DENIED;
+    }
+
+    /**
+     * Gets the effective permissions of this provider as a player's provider
+     *
+     * @return the effective permissions
+     */
+    synchronized EffectivePermissions getOverlay() {
+        if (overlay == null) {
+            overlay = EffectivePermissions.createOverlay(this);
+        }
+        return overlay;
     }
 
     @Override
@@ -115,22 +224,6 @@ public class MultiworldPermissionProvider implements PermissionProvider {
         return childs;
     }
 
-    /**
-     * get a node that must be directly in the permissions list
-     *
-     * @param name
-     *
-     * @return
-     */
-    private PermissionNode getRootNode(String name) {
-        for (PermissionNode n : permissions) {
-            if (n.getName().equals(name) || n.isWildcard()) {
-                return n;
-            }
-        }
-        return null;
-    }
-
     /**
      * Resolve a path when adding new stuff
      *
@@ -151,32 +244,24 @@ public class MultiworldPermissionProvider implements PermissionProvider {
     }
 
     /**
-     * Resolve the string path and return the result
-     *
-     * @param path
-     *
-     * @return
-     */
-    private boolean resolvePath(String[] path) {
-        PermissionNode node = getRootNode(path[0]);
-        return node != null && node.resolveToValue(path, 1);
-    }
-
-    /**
-     * Checks if this permission provider actually has the given path loaded.
+     * get a node that must be directly in the permissions list
      *
-     * @param path
+     * @param name
      *
      * @return
      */
-    private boolean hasPath(String[] path) {
-        PermissionNode node = getRootNode(path[0]);
-        return node != null && node.resolvePath(path, 1);
+    private PermissionNode getRootNode(String name) {
+        for (PermissionNode n : permissions) {
+            if (n.getName().equals(name) || n.isWildcard()) {
+                return n;
+            }
+        }
+        return null;
     }
 
     @Override
-    public void addPermission(String path, boolean value, int id) {
-        String[] paths = path.split("\\.");
+    public synchronized void addPermission(String path, boolean value, int id) {
+        String[] paths = PermissionTrie.split(path);
 
         if (paths.length == 0) {
             paths = new String[]{path}; // we have only one node (root)
@@ -184,14 +269,18 @@ public class MultiworldPermissionProvider implements PermissionProvider {
         PermissionNode node = addPath(paths, value);
 
         node.setId(id);
-        flushCache();
+        PermissionRegistry.intern(path);
+        invalidate();
     }
 
     @Override
     public void addPermission(String path, boolean value) {
+        if (owner == null) {
+            log.warn("Can't add permission " + path + " before the player's UUID is known. Skipping!");
+            return;
+        }
         addPermission(path, value, Canary.permissionManager().addPermission(path, value, owner, isPlayerProvider ? "player" : "group", this.world));
         // addPermission(path, value, permissions.size()); //Testing
-        flushCache();
     }
 
     @Override
@@ -199,45 +288,57 @@ public class MultiworldPermissionProvider implements PermissionProvider {
         if (permission.isEmpty() || permission.equals(" ")) {
             return true;
         }
-        Boolean b = checkCached(permission);
+        Snapshot s = snapshot();
+        Boolean b = s.cache.getIfPresent(permission);
         if (b != null) {
-            Canary.log.trace("Found... Returning as " + b);
             return b;
         }
-        String[] path = permission.split("\\.");
-        if (!this.hasPath(path)) {
-            if (parent != null) {
-                return parent.queryPermission(permission);
+        boolean result;
+        byte resolved = s.trie.resolve(PermissionTrie.split(permission));
+        if (resolved == PermissionTrie.MISSING && parent != null) {
+            result = parent.queryPermission(permission);
+            if (!(parent instanceof MultiworldPermissionProvider)) {
+                return result; // Can't tell when a foreign parent changes
             }
         }
-        boolean result = resolvePath(permission.split("\\."));
-        addPermissionToCache(permission, result);
+        else {
+            result = resolved == PermissionTrie.GRANTED;
+        }
+        s.cache.put(permission, result);
 
         return result;
     }
 
     @Override
     public boolean pathExists(String permission) {
-        return permission.trim().isEmpty() || hasPath(permission.split("\\.")) || (parent != null && parent.pathExists(permission));
+        return permission.trim().isEmpty() || snapshot().trie.resolve(PermissionTrie.split(permission)) != PermissionTrie.MISSING || (parent != null && parent.pathExists(permission));
     }
 
     @Override
-    public void flushCache() {
-        permissionCache.clear();
+    public synchronized void flushCache() {
+        Snapshot s = snapshot;
+        if (s != null) {
+            snapshot = new Snapshot(s.trie, s.parentGeneration);
+        }
     }
 
     @Override
-    public void reload() {
-        permissions.clear();
-        permissionCache.clear();
+    public synchronized void reload() {
+        if (owner == null) {
+            // Reloaded once the UUID is known
+            return;
+        }
+        List<PermissionNode> loaded;
         if (isPlayerProvider) {
             PermissionProvider p = Canary.permissionManager().getPlayerProvider(owner, world);
-            permissions = p.getPermissionMap();
+            loaded = p.getPermissionMap();
         }
         else {
             PermissionProvider p = Canary.permissionManager().getGroupsProvider(owner, world);
-            permissions = p.getPermissionMap();
+            loaded = p.getPermissionMap();
         }
+        permissions = loaded;
+        invalidate();
     }
 
     @Override
@@ -303,4 +404,25 @@ public class MultiworldPermissionProvider implements PermissionProvider {
     public PermissionProvider getParent() {
         return parent;
     }
+
+    /**
+     * The compiled permission nodes together with the results resolved from them.
+     * Replaced as a whole whenever either goes stale.
+     */
+    private static final class Snapshot {
+        final PermissionTrie trie;
+        final long parentGeneration;
+        final Cache<String, Boolean> cache;
+
+        Snapshot(PermissionTrie trie, long parentGeneration) {
+            this.trie = trie;
+            this.parentGeneration = parentGeneration;
+            // Most providers are asked about a few dozen distinct permissions, the least used go first beyond that
+            this.cache = CacheBuilder.newBuilder()
+                    .initialCapacity(Math.min(MAX_CACHED, Math.max(64, trie.size() * 2)))
+                    .maximumSize(MAX_CACHED)
+                    .concurrencyLevel(4)
+                    .build();
+        }
+    }
 }
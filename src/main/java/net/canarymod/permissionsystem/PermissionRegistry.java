@@ -0,0 +1,135 @@
+package net.canarymod.permissionsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns permission paths to dense int IDs, so the permissions of a group or player
+ * can be flattened into bit sets, see {@link EffectivePermissions}.
+ * <p/>
+ * Paths are interned as they become known: when permission nodes are loaded from the database
+ * and when commands are registered with their permissions. Queries only look IDs up, so checking arbitrary
+ * strings doesn't fill the registry. Wildcard paths are not interned, they are patterns rather than permissions.
+ * IDs are never reused; past {@link #MAX_IDS} paths, new ones are no longer interned and are resolved through the trie instead.
+ */
+public final class PermissionRegistry {
+    /** Most paths interned */
+    static final int MAX_IDS = 1 << 16;
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>(256);
+    // Written while holding ids, published through size
+    private static volatile String[][] segments = new String[256][];
+    private static volatile int size;
+
+    private PermissionRegistry() {
+    }
+
+    /**
+     * Gets the ID of a permission path, interning it if it is new
+     *
+     * @param path
+     *         the permission path
+     *
+     * @return the ID, or -1 if the path is a wildcard, blank, or the registry is full
+     */
+    public static int intern(String path) {
+        Integer id = ids.get(path);
+        if (id != null) {
+            return id;
+        }
+        if (!isInternable(path)) {
+            return -1;
+        }
+        synchronized (ids) {
+            id = ids.get(path);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            if (next >= MAX_IDS) {
+                return -1;
+            }
+            String[][] current = segments;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, Math.min(MAX_IDS, current.length * 2));
+            }
+            current[next] = PermissionTrie.split(path);
+            segments = current;
+            size = next + 1;
+            ids.put(path, next);
+            return next;
+        }
+    }
+
+    /**
+     * Gets the ID of a permission path without interning it
+     *
+     * @param path
+     *         the permission path
+     *
+     * @return the ID, or -1 if the path is not interned
+     */
+    public static int idOf(String path) {
+        Integer id = ids.get(path);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Gets the permission path for an ID
+     *
+     * @param id
+     *         the ID
+     *
+     * @return the path
+     */
+    public static String getPath(int id) {
+        return join(getSegments(id));
+    }
+
+    /**
+     * Joins path segments back into a permission path
+     *
+     * @param path
+     *         the path segments
+     *
+     * @return the permission path
+     */
+    static String join(String[] path) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < path.length; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(path[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the number of interned paths; IDs run from 0 to one less than this
+     *
+     * @return the number of interned paths
+     */
+    public static int size() {
+        return size;
+    }
+
+    /**
+     * Gets the split path for an ID
+     *
+     * @param id
+     *         the ID
+     *
+     * @return the path segments
+     */
+    static String[] getSegments(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No permission with ID " + id);
+        }
+        return segments[id];
+    }
+
+    private static boolean isInternable(String path) {
+        return !path.trim().isEmpty() && path.indexOf('*') < 0;
+    }
+}
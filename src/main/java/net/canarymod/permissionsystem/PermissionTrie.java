@@ -0,0 +1,196 @@
+package net.canarymod.permissionsystem;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, compiled view of a list of {@link PermissionNode} trees.
+ * <p/>
+ * Resolves a permission path in a single walk, answering both whether the path is known
+ * and whether it is granted, with the same semantics as
+ * {@link PermissionNode#resolvePath(String[], int)} and {@link PermissionNode#resolveToValue(String[], int)}.
+ */
+final class PermissionTrie {
+    /** The path is not known to this trie */
+    static final byte MISSING = 0;
+    /** The path is known and granted */
+    static final byte GRANTED = 1;
+    /** The path is known and denied */
+    static final byte DENIED = 2;
+
+    static final PermissionTrie EMPTY = new PermissionTrie(Collections.<String, Node>emptyMap(), null, 0);
+
+    // Node names are shared across all providers; most of them are "canary", "command", "world" and so on
+    private static final Interner<String> segments = Interners.newWeakInterner();
+
+    private final Map<String, Node> roots;
+    private final Node wildcardRoot;
+    private final int size;
+
+    private PermissionTrie(Map<String, Node> roots, Node wildcardRoot, int size) {
+        this.roots = roots;
+        this.wildcardRoot = wildcardRoot;
+        this.size = size;
+    }
+
+    /**
+     * Compiles the given root nodes.
+     * As with a linear scan of the list, a root wildcard shadows any root that comes after it.
+     *
+     * @param nodes
+     *         the root nodes, in lookup order
+     *
+     * @return the compiled trie
+     */
+    static PermissionTrie compile(List<PermissionNode> nodes) {
+        if (nodes.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, Node> roots = new HashMap<String, Node>(capacity(nodes.size()));
+        Node wildcardRoot = null;
+        int[] size = new int[1];
+        for (PermissionNode node : nodes) {
+            if (node.isWildcard()) {
+                if (wildcardRoot == null) {
+                    wildcardRoot = compile(node, size);
+                }
+            }
+            else if (wildcardRoot == null && !roots.containsKey(node.getName())) {
+                Node compiled = compile(node, size);
+                roots.put(compiled.name, compiled);
+            }
+        }
+        return new PermissionTrie(roots, wildcardRoot, size[0]);
+    }
+
+    private static Node compile(PermissionNode node, int[] size) {
+        size[0]++;
+        Map<String, PermissionNode> childs = node.getChilds();
+        Map<String, Node> children;
+        Node wildChild = null;
+        if (childs.isEmpty()) {
+            children = Collections.emptyMap();
+        }
+        else {
+            children = new HashMap<String, Node>(capacity(childs.size()));
+            for (PermissionNode child : childs.values()) {
+                Node compiled = compile(child, size);
+                children.put(compiled.name, compiled);
+                if (compiled.wildcard) {
+                    wildChild = compiled;
+                }
+            }
+        }
+        return new Node(segments.intern(node.getName()), node.getValue(), node.isWildcard(), children, wildChild);
+    }
+
+    private static int capacity(int entries) {
+        return (int) (entries / 0.75F) + 1;
+    }
+
+    /**
+     * Splits a permission on '.', the same way {@code permission.split("\\.")} would
+     *
+     * @param permission
+     *         the permission
+     *
+     * @return the path segments
+     */
+    static String[] split(String permission) {
+        int end = permission.length();
+        while (end > 0 && permission.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == 0) {
+            return permission.isEmpty() ? new String[]{ permission } : new String[0];
+        }
+        int count = 1;
+        for (int i = 0; i < end; i++) {
+            if (permission.charAt(i) == '.') {
+                count++;
+            }
+        }
+        String[] path = new String[count];
+        int start = 0;
+        int index = 0;
+        for (int i = 0; i < end; i++) {
+            if (permission.charAt(i) == '.') {
+                path[index++] = permission.substring(start, i);
+                start = i + 1;
+            }
+        }
+        path[index] = permission.substring(start, end);
+        return path;
+    }
+
+    /**
+     * Resolves the given path
+     *
+     * @param path
+     *         the path segments
+     *
+     * @return {@link #MISSING} if this trie doesn't know the path, {@link #GRANTED} or {@link #DENIED} otherwise
+     */
+    byte resolve(String[] path) {
+        if (path.length == 0) {
+            return MISSING;
+        }
+        Node node = roots.get(path[0]);
+        if (node == null) {
+            node = wildcardRoot;
+            if (node == null) {
+                return MISSING;
+            }
+        }
+        // A denied, non-wildcard node on the way denies everything below it
+        boolean denied = false;
+        for (int i = 1; ; i++) {
+            denied |= !node.value && !node.wildcard;
+            if (i >= path.length) {
+                return denied || !node.value ? DENIED : GRANTED;
+            }
+            Node child = node.children.get(path[i]);
+            if (child != null) {
+                node = child;
+                continue;
+            }
+            if (node.wildChild != null) {
+                return denied || !node.wildChild.value ? DENIED : GRANTED;
+            }
+            if (!node.wildcard) {
+                return MISSING;
+            }
+            return denied || !node.value ? DENIED : GRANTED;
+        }
+    }
+
+    /**
+     * Gets the number of nodes in this trie
+     *
+     * @return the node count
+     */
+    int size() {
+        return size;
+    }
+
+    private static final class Node {
+        final String name;
+        final boolean value;
+        final boolean wildcard;
+        final Map<String, Node> children;
+        final Node wildChild;
+
+        Node(String name, boolean value, boolean wildcard, Map<String, Node> children, Node wildChild) {
+            this.name = name;
+            this.value = value;
+            this.wildcard = wildcard;
+            this.children = children;
+            this.wildChild = wildChild;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package net.canarymod.plugin;
 import net.canarymod.hook.CancelableHook;
 import net.canarymod.hook.Dispatcher;
 import net.canarymod.hook.Hook;
+import net.canarymod.timings.TimingEntry;
+import net.canarymod.timings.Timings;
 
 /**
  * Container for registered plugin listeners
@@ -15,13 +17,32 @@ public class RegisteredPluginListener {
     private Priority methodPriority;
     private int basePriority;
     private Dispatcher executor;
+    private final String handlerName;
+    private final String hookName;
+    private volatile TimingEntry timing; // Created on first timed run
 
     public RegisteredPluginListener(PluginListener l, Plugin plugin, Dispatcher executor, Priority priority) {
+        this(l, plugin, executor, priority, Hook.class, null);
+    }
+
+    /**
+     * @param hookCls
+     *         the {@link Hook} class the listener was registered for
+     * @param handler
+     *         the name of the handling method, or {@code null} if unknown
+     */
+    public RegisteredPluginListener(PluginListener l, Plugin plugin, Dispatcher executor, Priority priority, Class<?> hookCls, String handler) {
         this.listener = l;
         this.plugin = plugin;
         this.basePriority = plugin.getPriority();
         this.executor = executor;
         methodPriority = priority;
+        String listenerName = l.getClass().getSimpleName();
+        if (listenerName.isEmpty()) {
+            listenerName = l.getClass().getName(); // Anonymous listeners
+        }
+        this.handlerName = handler == null ? listenerName : listenerName + "#" + handler;
+        this.hookName = hookCls.getSimpleName();
     }
 
     public PluginListener getListener() {
@@ -49,7 +70,41 @@ public class RegisteredPluginListener {
                 }
             }
         }
-        executor.execute(listener, hook);
+        if (!Timings.isEnabled()) {
+            executor.execute(listener, hook);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            executor.execute(listener, hook);
+            failed = false;
+        }
+        finally {
+            long nanos = System.nanoTime() - start;
+            if (timing == null) {
+                timing = Timings.getEntry(plugin.getName(), handlerName, hookName);
+            }
+            timing.record(nanos, failed);
+        }
+    }
+
+    /**
+     * Gets the execution statistics of this listener
+     *
+     * @return the {@link TimingEntry}, or {@code null} if it never ran while timings were enabled
+     */
+    public TimingEntry getTiming() {
+        return timing;
+    }
+
+    /**
+     * Checks whether this listener runs outside the server thread
+     *
+     * @return {@code true} if async; {@code false} if not
+     */
+    public boolean isAsync() {
+        return executor.async;
     }
 
     public Priority getMethodPriority() {
@@ -0,0 +1,73 @@
+package net.canarymod.tasks;
+
+import net.canarymod.plugin.Plugin;
+
+/**
+ * Asynchronous Server Task
+ * <p/>
+ * Extend this class for tasks that should not hold up the Server's main thread, such as database or web requests.<br>
+ * The task is scheduled in ticks like a {@link ServerTask}, but {@link #run()} is executed on a managed worker thread.
+ * Results that need to touch the game should be handed back with {@link #runOnMainThread(Runnable)}.<br>
+ * Removing the tasks of an owner (as happens when a {@link Plugin} is disabled) also cancels its queued async runs
+ * and interrupts running ones.<br>
+ * A continuous AsyncServerTask is rescheduled once its run finished, so runs never overlap.
+ *
+ * @see ServerTaskManager
+ */
+public abstract class AsyncServerTask extends ServerTask {
+
+    /**
+     * Constructs a one-time use AsyncServerTask
+     *
+     * @param owner
+     *         the {@link TaskOwner} of the task, typically a {@link Plugin}
+     * @param delay
+     *         the delay in ticks before executing. Set to 0 or less to run within the next Server tick
+     *
+     * @throws IllegalArgumentException
+     *         if owner is null
+     */
+    public AsyncServerTask(TaskOwner owner, long delay) {
+        super(owner, delay);
+    }
+
+    /**
+     * Constructs either a one-time use or continuous AsyncServerTask
+     *
+     * @param owner
+     *         the {@link TaskOwner} of the task, typically a {@link Plugin}
+     * @param delay
+     *         the delay in ticks before executing, and between the end of a run and the next for continuous tasks
+     * @param continuous
+     *         {@code true} for continuous; {@code false} for one-time use
+     *
+     * @throws IllegalArgumentException
+     *         if owner is null
+     */
+    public AsyncServerTask(TaskOwner owner, long delay, boolean continuous) {
+        super(owner, delay, continuous);
+    }
+
+    /**
+     * Execution method, called on a worker thread. Override and insert your logic here.<br>
+     * Long running work should check {@link Thread#isInterrupted()} to stop when the task is cancelled.
+     */
+    @Override
+    public abstract void run();
+
+    /**
+     * Queues a callback to run on the Server's main thread within the next tick.<br>
+     * The callback is owned by the same {@link TaskOwner} and is dropped if the owner's tasks are removed first.
+     *
+     * @param callback
+     *         the {@link Runnable} to run on the main thread
+     */
+    protected final void runOnMainThread(final Runnable callback) {
+        ServerTaskManager.addTask(new ServerTask(getOwner(), 0) {
+            @Override
+            public void run() {
+                callback.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package net.canarymod.tasks;
+
+/**
+ * Scheduling state of a queued {@link ServerTask}, linked into a {@link TaskWheel} bucket
+ *
+ * @see ServerTaskManager
+ */
+final class ScheduledTask {
+    final ServerTask task;
+    final long sequence;
+    long due;
+    volatile boolean cancelled;
+    volatile Thread runner; // Worker running an async execution, guarded by the manager lock
+
+    // Intrusive bucket links, guarded by the manager lock
+    TaskWheel.Bucket bucket;
+    ScheduledTask prev;
+    ScheduledTask next;
+
+    ScheduledTask(ServerTask task, long sequence) {
+        this.task = task;
+        this.sequence = sequence;
+    }
+}
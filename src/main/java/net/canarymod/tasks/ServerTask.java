@@ -1,6 +1,7 @@
 package net.canarymod.tasks;
 
 import net.canarymod.plugin.Plugin;
+import net.canarymod.timings.TimingEntry;
 
 /**
  * Server Task
@@ -15,8 +16,10 @@ import net.canarymod.plugin.Plugin;
 public abstract class ServerTask {
     private final long schedule;
     private final boolean continuous;
+    private final boolean deferrable;
     private final TaskOwner owner;
     private long delay;
+    TimingEntry timing; // Created on first timed run
 
     /**
      * Constructs a one-time use ServerTask
@@ -48,12 +51,35 @@ public abstract class ServerTask {
      *         if owner is null
      */
     public ServerTask(TaskOwner owner, long delay, boolean continuous) {
+        this(owner, delay, continuous, false);
+    }
+
+    /**
+     * Constructs a ServerTask that may be deferred
+     *
+     * @param owner
+     *         the {@link TaskOwner} of the task, typically a {@link Plugin}
+     * @param delay
+     *         the delay before executing. Set to 0 or less to run within the next Server tick<br>
+     *         If delay is 0 or less, the task will run with each server tick
+     * @param continuous
+     *         {@code true} for continuous; {@code false} for one-time use
+     * @param deferrable
+     *         {@code true} if the task may be postponed to a later tick when the tick's task budget is used up;
+     *         {@code false} if it must run on the tick it is due
+     *
+     * @throws IllegalArgumentException
+     *         if owner is null
+     * @see ServerTaskManager#setTickBudget(long)
+     */
+    public ServerTask(TaskOwner owner, long delay, boolean continuous, boolean deferrable) {
         if (owner == null) {
             throw new IllegalArgumentException("A ServerTask requires an owner.");
         }
         this.schedule = delay;
         this.delay = delay;
         this.continuous = continuous;
+        this.deferrable = deferrable;
         this.owner = owner;
     }
 
@@ -66,6 +92,15 @@ public abstract class ServerTask {
         return continuous;
     }
 
+    /**
+     * Gets whether the ServerTask may be postponed when the tick's task budget is used up
+     *
+     * @return {@code true} if deferrable; {@code false} if not
+     */
+    public final boolean isDeferrable() {
+        return deferrable;
+    }
+
     /**
      * Gets the {@link TaskOwner} that owns this task
      *
@@ -85,18 +120,13 @@ public abstract class ServerTask {
     public void onReset() {
     }
 
-    /** Internal use method to decrease the delay */
-    final void decrementDelay() {
-        --delay;
-    }
-
     /**
-     * Internal use method to check if it is time to run the task
+     * Internal use method to get the ticks until the next execution
      *
-     * @return {@code true} for execute; {@code false} for not
+     * @return the delay in ticks, at least 1
      */
-    final boolean shouldExecute() {
-        return delay <= 0;
+    final long getDelay() {
+        return Math.max(1, delay);
     }
 
     /** Internal use method to reset the delay on continuous tasks */
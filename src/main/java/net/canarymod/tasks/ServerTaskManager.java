@@ -1,10 +1,24 @@
 package net.canarymod.tasks;
 
+import net.canarymod.config.Configuration;
 import net.canarymod.plugin.Plugin;
+import net.canarymod.timings.Timings;
 
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.canarymod.Canary.log;
 
@@ -12,20 +26,52 @@ import static net.canarymod.Canary.log;
  * Server Task Manager
  * <p/>
  * The Manager for {@link ServerTask}<br>
+ * Tasks are kept in a hierarchical timing wheel, so each tick only touches the tasks due on it.
+ * Tasks due on the same tick run in the order they were scheduled.<br>
+ * {@link AsyncServerTask}s are handed to a managed pool of worker threads when due.<br>
+ * An optional per-tick time budget postpones deferrable tasks to the next tick once used up.<br>
  * If an exception occurs while running a task, it gets removed from the queue, regardless of continuous status
  *
  * @author Jason (darkdiplomat)
  */
 public final class ServerTaskManager {
     private final static ServerTaskManager $;
-    private final ConcurrentHashMap<ServerTask, TaskOwner> tasks;
+    private final Object lock = new Object();
+    private final TaskWheel wheel;
+    private final HashMap<ServerTask, ScheduledTask> tasks;
+    private final HashMap<TaskOwner, Set<ScheduledTask>> owners;
+    private final ConcurrentHashMap<TaskOwner, TaskOwnerStats> asyncStats;
+    private volatile ThreadPoolExecutor workers;
+    private volatile int size;
+    private volatile long tickBudget = -1; // Nanoseconds; unset until first read
+    // Budget state, only touched by the thread running the tasks
+    private List<ScheduledTask> backlog = new ArrayList<ScheduledTask>();
+    private volatile long deferrals;
+    private volatile long maxOverrun;
+    private long sequence;
+
+    /** Server owned tasks first, then by plugin priority, highest first. Stable, so tasks keep their order otherwise */
+    private static final Comparator<ScheduledTask> BY_OWNER_PRIORITY = new Comparator<ScheduledTask>() {
+        @Override
+        public int compare(ScheduledTask o1, ScheduledTask o2) {
+            int p1 = priority(o1.task.getOwner()), p2 = priority(o2.task.getOwner());
+            return p1 > p2 ? -1 : p1 < p2 ? 1 : 0;
+        }
+
+        private int priority(TaskOwner owner) {
+            return owner instanceof Plugin ? ((Plugin) owner).getPriority() : Integer.MAX_VALUE;
+        }
+    };
 
     static {
         $ = new ServerTaskManager();
     }
 
     private ServerTaskManager() {
-        tasks = new ConcurrentHashMap<ServerTask, TaskOwner>();
+        wheel = new TaskWheel();
+        tasks = new HashMap<ServerTask, ScheduledTask>();
+        owners = new HashMap<TaskOwner, Set<ScheduledTask>>();
+        asyncStats = new ConcurrentHashMap<TaskOwner, TaskOwnerStats>();
     }
 
     /**
@@ -37,8 +83,20 @@ public final class ServerTaskManager {
      * @return {@code true} if successfully added; {@code false} if not
      */
     public static boolean addTask(ServerTask task) {
-        synchronized ($.tasks) {
-            $.tasks.put(task, task.getOwner());
+        synchronized ($.lock) {
+            if ($.tasks.containsKey(task)) {
+                return true; // Already queued
+            }
+            ScheduledTask entry = new ScheduledTask(task, $.sequence++);
+            $.tasks.put(task, entry);
+            Set<ScheduledTask> owned = $.owners.get(task.getOwner());
+            if (owned == null) {
+                owned = new LinkedHashSet<ScheduledTask>();
+                $.owners.put(task.getOwner(), owned);
+            }
+            owned.add(entry);
+            $.wheel.schedule(entry, task.getDelay());
+            $.size = $.tasks.size();
             return true;
         }
     }
@@ -53,56 +111,362 @@ public final class ServerTaskManager {
      * @return {@code true} if removed; {@code false} if not found or unable to be removed
      */
     public static boolean removeTask(ServerTask task) {
-        synchronized ($.tasks) {
-            return $.tasks.remove(task) != null;
+        synchronized ($.lock) {
+            ScheduledTask entry = $.tasks.get(task);
+            if (entry == null) {
+                return false;
+            }
+            $.cancel(entry);
+            return true;
         }
     }
 
     /**
-     * Removes all the tasks for a specified {@link TaskOwner}
+     * Removes all the tasks for a specified {@link TaskOwner}, together with its async statistics
      *
      * @param owner
      *         the {@link TaskOwner} to remove tasks for
      */
     public static void removeTasks(TaskOwner owner) {
-        synchronized ($.tasks) {
-            Iterator<Entry<ServerTask, TaskOwner>> taskIter = $.tasks.entrySet().iterator();
-            while (taskIter.hasNext()) {
-                if (taskIter.next().getValue().equals(owner)) {
-                    taskIter.remove();
-                }
+        synchronized ($.lock) {
+            // Don't keep a disabled plugin reachable through its statistics
+            $.asyncStats.remove(owner);
+            Set<ScheduledTask> owned = $.owners.get(owner);
+            if (owned == null) {
+                return;
+            }
+            for (ScheduledTask entry : owned.toArray(new ScheduledTask[owned.size()])) {
+                $.cancel(entry);
             }
         }
     }
 
     /** Internal method called to run the tasks or decrease timers. */
     public static void runTasks() {
-        if ($.tasks.isEmpty()) {
+        if ($.size == 0) {
             // No tasks? no execution needed
+            $.backlog.clear();
             return;
         }
-        synchronized ($.tasks) {
-            Iterator<Entry<ServerTask, TaskOwner>> taskIter = $.tasks.entrySet().iterator();
-            while (taskIter.hasNext()) {
-                ServerTask task = taskIter.next().getKey();
-                task.decrementDelay();
-                if (task.shouldExecute()) {
+        long tickStart = System.nanoTime();
+        List<ScheduledTask> due;
+        synchronized ($.lock) {
+            due = $.wheel.advance();
+        }
+        List<ScheduledTask> work = due;
+        if (!$.backlog.isEmpty()) {
+            // Deferred tasks are oldest, they go first, by priority of their owner
+            work = $.backlog;
+            Collections.sort(work, BY_OWNER_PRIORITY);
+            work.addAll(due);
+            $.backlog = new ArrayList<ScheduledTask>();
+        }
+        if (work.isEmpty()) {
+            return;
+        }
+        long budget = $.tickBudget();
+        boolean timed = Timings.isEnabled();
+        boolean ran = false; // At least one task runs each tick, so deferred tasks can't starve
+        for (ScheduledTask entry : work) {
+            // Tasks may remove other tasks while running, so check again for each
+            if (entry.cancelled) {
+                continue;
+            }
+            ServerTask task = entry.task;
+            if (task instanceof AsyncServerTask) {
+                $.submitAsync(entry);
+                continue;
+            }
+            if (budget > 0 && ran && task.isDeferrable() && System.nanoTime() - tickStart >= budget) {
+                $.backlog.add(entry);
+                continue;
+            }
+            ran = true;
+            long start = timed ? System.nanoTime() : 0;
+            try {
+                task.run();
+            }
+            catch (Throwable thrown) {
+                if (timed) {
+                    time(task, System.nanoTime() - start, true);
+                }
+                log.error("An Exception occurred while executing ServerTask: " + task.getClass().getSimpleName(), thrown);
+                synchronized ($.lock) {
+                    $.cancel(entry);
+                }
+                continue;
+            }
+            if (timed) {
+                time(task, System.nanoTime() - start, false);
+            }
+            if (task.isContinuous()) {
+                task.reset();
+            }
+            synchronized ($.lock) {
+                if (entry.cancelled) {
+                    continue;
+                }
+                if (task.isContinuous()) {
+                    $.wheel.schedule(entry, task.getDelay());
+                }
+                else {
+                    $.cancel(entry);
+                }
+            }
+        }
+        if (budget > 0) {
+            $.deferrals += $.backlog.size();
+            long overrun = System.nanoTime() - tickStart - budget;
+            if (overrun > $.maxOverrun) {
+                $.maxOverrun = overrun;
+            }
+        }
+    }
+
+    /**
+     * Sets the time tasks may take per tick. Once used up, tasks marked deferrable that are due
+     * are postponed to the next tick, where they run before newly due tasks.
+     * Postponed tasks run in order of the {@link Plugin#getPriority()} of their owner, highest first,
+     * after tasks owned by the server itself. Tasks of the same priority keep their order.
+     * Other tasks always run on the tick they are due.
+     *
+     * @param nanos
+     *         the budget in nanoseconds; 0 or less to disable
+     *
+     * @see ServerTask#isDeferrable()
+     */
+    public static void setTickBudget(long nanos) {
+        $.tickBudget = Math.max(0, nanos);
+    }
+
+    /**
+     * Gets the time tasks may take per tick
+     *
+     * @return the budget in nanoseconds; 0 if disabled
+     */
+    public static long getTickBudget() {
+        return $.tickBudget();
+    }
+
+    /**
+     * Gets the total number of times a deferrable task was postponed to a later tick
+     *
+     * @return deferral count
+     */
+    public static long getDeferralCount() {
+        return $.deferrals;
+    }
+
+    /**
+     * Gets the number of deferrable tasks currently waiting for a later tick
+     *
+     * @return deferred task count
+     */
+    public static int getDeferredTaskCount() {
+        return $.backlog.size();
+    }
+
+    /**
+     * Gets the most time task execution exceeded the tick budget by
+     *
+     * @return the longest overrun in nanoseconds; 0 if the budget was never exceeded
+     */
+    public static long getMaxTickOverrun() {
+        return $.maxOverrun;
+    }
+
+    /**
+     * Resets the deferral count and longest overrun
+     */
+    public static void resetBudgetStats() {
+        $.deferrals = 0;
+        $.maxOverrun = 0;
+    }
+
+    private long tickBudget() {
+        long budget = tickBudget;
+        if (budget < 0) {
+            // Not set yet, take it from the configuration
+            budget = TimeUnit.MILLISECONDS.toNanos(Configuration.getServerConfig().getTaskTickBudget());
+            tickBudget = budget;
+        }
+        return budget;
+    }
+
+    /**
+     * Gets the statistics of the async runs of a {@link TaskOwner}
+     *
+     * @param owner
+     *         the {@link TaskOwner}
+     *
+     * @return the {@link TaskOwnerStats}, or {@code null} if the owner never ran an {@link AsyncServerTask}
+     */
+    public static TaskOwnerStats getAsyncStats(TaskOwner owner) {
+        return $.asyncStats.get(owner);
+    }
+
+    /**
+     * Gets the statistics of the async runs of all {@link TaskOwner}s
+     *
+     * @return a copy of the statistics by owner
+     */
+    public static Map<TaskOwner, TaskOwnerStats> getAsyncStats() {
+        return new HashMap<TaskOwner, TaskOwnerStats>($.asyncStats);
+    }
+
+    /**
+     * Stops the worker threads, waiting for queued and running async tasks to finish. Called on server shutdown.
+     *
+     * @param timeout
+     *         maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     *
+     * @return {@code true} if all async tasks finished; {@code false} if the timeout elapsed
+     */
+    public static boolean shutdownWorkers(long timeout, TimeUnit unit) {
+        ThreadPoolExecutor pool;
+        synchronized ($.lock) {
+            pool = $.workers;
+            $.workers = null;
+        }
+        if (pool == null) {
+            return true;
+        }
+        pool.shutdown();
+        try {
+            return pool.awaitTermination(timeout, unit);
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ThreadPoolExecutor workers() {
+        ThreadPoolExecutor pool = workers;
+        if (pool == null) {
+            synchronized (lock) {
+                pool = workers;
+                if (pool == null) {
+                    int threads = Configuration.getServerConfig().getTaskWorkerThreads();
+                    pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "Canary Task Worker-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    pool.allowCoreThreadTimeOut(true);
+                    workers = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private TaskOwnerStats statsFor(TaskOwner owner) {
+        TaskOwnerStats stats = asyncStats.get(owner);
+        if (stats == null) {
+            TaskOwnerStats created = new TaskOwnerStats();
+            stats = asyncStats.putIfAbsent(owner, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Hands a due {@link AsyncServerTask} to the workers. It is rescheduled or removed once it finished.
+     */
+    private void submitAsync(final ScheduledTask entry) {
+        final ServerTask task = entry.task;
+        final TaskOwnerStats stats = statsFor(task.getOwner());
+        final long queuedAt = System.nanoTime();
+        stats.queued();
+        try {
+            workers().execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        if (entry.cancelled) {
+                            stats.cancelledInQueue();
+                            return;
+                        }
+                        entry.runner = Thread.currentThread();
+                    }
+                    long start = System.nanoTime();
+                    stats.started(start - queuedAt);
+                    boolean failed = false;
                     try {
                         task.run();
                     }
                     catch (Throwable thrown) {
-                        log.error("An Exception occurred while executing ServerTask: " + task.getClass().getSimpleName(), thrown);
-                        taskIter.remove();
-                        continue;
+                        failed = true;
+                        log.error("An Exception occurred while executing AsyncServerTask: " + task.getClass().getSimpleName(), thrown);
                     }
-                    if (!task.isContinuous()) {
-                        taskIter.remove();
+                    long nanos = System.nanoTime() - start;
+                    stats.finished(nanos, failed);
+                    if (Timings.isEnabled()) {
+                        time(task, nanos, failed);
                     }
-                    else {
+                    if (!failed && task.isContinuous() && !entry.cancelled) {
                         task.reset();
                     }
+                    synchronized (lock) {
+                        entry.runner = null;
+                        Thread.interrupted(); // Clear a cancellation that raced with the end of the run
+                        if (entry.cancelled) {
+                            return;
+                        }
+                        if (!failed && task.isContinuous()) {
+                            wheel.schedule(entry, task.getDelay());
+                        }
+                        else {
+                            cancel(entry);
+                        }
+                    }
                 }
+            });
+        }
+        catch (RejectedExecutionException rejected) {
+            stats.cancelledInQueue();
+            log.warn("Unable to run AsyncServerTask " + task.getClass().getSimpleName() + ", the workers are shut down");
+            synchronized (lock) {
+                cancel(entry);
+            }
+        }
+    }
+
+    /**
+     * Unschedules and unindexes a task, interrupting it if it is running async. Must hold the lock.
+     */
+    private void cancel(ScheduledTask entry) {
+        entry.cancelled = true;
+        if (entry.runner != null) {
+            entry.runner.interrupt();
+        }
+        wheel.unlink(entry);
+        tasks.remove(entry.task);
+        Set<ScheduledTask> owned = owners.get(entry.task.getOwner());
+        if (owned != null) {
+            owned.remove(entry);
+            if (owned.isEmpty()) {
+                owners.remove(entry.task.getOwner());
             }
         }
+        size = tasks.size();
+    }
+
+    private static void time(ServerTask task, long nanos, boolean failed) {
+        if (task.timing == null) {
+            String name = task.getClass().getSimpleName();
+            task.timing = Timings.getEntry(Timings.ownerName(task.getOwner()), name.isEmpty() ? task.getClass().getName() : name, "ServerTask");
+        }
+        task.timing.record(nanos, failed);
     }
 }
@@ -0,0 +1,92 @@
+package net.canarymod.tasks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the {@link AsyncServerTask} runs of one {@link TaskOwner}
+ *
+ * @see ServerTaskManager#getAsyncStats(TaskOwner)
+ */
+public final class TaskOwnerStats {
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    void queued() {
+        queued.incrementAndGet();
+    }
+
+    void started(long waitNanos) {
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    void finished(long runNanos, boolean error) {
+        running.decrementAndGet();
+        totalRunNanos.addAndGet(runNanos);
+        if (error) {
+            failed.incrementAndGet();
+        }
+        else {
+            completed.incrementAndGet();
+        }
+    }
+
+    void cancelledInQueue() {
+        queued.decrementAndGet();
+        cancelled.incrementAndGet();
+    }
+
+    /** @return runs waiting for a worker */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /** @return runs currently executing */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /** @return runs that finished normally */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /** @return runs that threw an exception */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** @return runs dropped from the queue because the task was removed */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /** @return average time runs waited for a worker, in nanoseconds */
+    public long getAverageWaitNanos() {
+        long runs = completed.get() + failed.get() + running.get();
+        return runs == 0 ? 0 : totalWaitNanos.get() / runs;
+    }
+
+    /** @return longest time a run waited for a worker, in nanoseconds */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /** @return average execution time of finished runs, in nanoseconds */
+    public long getAverageRunNanos() {
+        long runs = completed.get() + failed.get();
+        return runs == 0 ? 0 : totalRunNanos.get() / runs;
+    }
+}
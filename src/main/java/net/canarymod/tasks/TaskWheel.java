@@ -0,0 +1,184 @@
+package net.canarymod.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel counting in server ticks.
+ * <p/>
+ * Level 0 has one bucket per tick for the next 256 ticks, each higher level has 64 buckets covering 64 times the
+ * range of the level below. Tasks further out than all levels wait in an overflow bucket.
+ * Scheduling and removal are O(1); each tick only touches the tasks due on it, plus an occasional cascade of
+ * one higher level bucket into the levels below.
+ * <p/>
+ * Not thread-safe, {@link ServerTaskManager} guards it.
+ */
+final class TaskWheel {
+    private static final int ROOT_BITS = 8;
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVELS = 4; // Including the root; covers 2^26 ticks (~39 days at 20 TPS)
+    private static final int ROOT_MASK = (1 << ROOT_BITS) - 1;
+    private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+    private static final Comparator<ScheduledTask> FIFO = new Comparator<ScheduledTask>() {
+        @Override
+        public int compare(ScheduledTask o1, ScheduledTask o2) {
+            return o1.sequence < o2.sequence ? -1 : o1.sequence > o2.sequence ? 1 : 0;
+        }
+    };
+
+    private final Bucket[][] levels = new Bucket[LEVELS][];
+    private final Bucket overflow = new Bucket();
+    private long tick;
+
+    TaskWheel() {
+        for (int level = 0; level < LEVELS; level++) {
+            levels[level] = new Bucket[level == 0 ? 1 << ROOT_BITS : 1 << LEVEL_BITS];
+            for (int i = 0; i < levels[level].length; i++) {
+                levels[level][i] = new Bucket();
+            }
+        }
+    }
+
+    /**
+     * Gets the last processed tick
+     *
+     * @return the current tick
+     */
+    long currentTick() {
+        return tick;
+    }
+
+    /**
+     * Schedules a task to be due the given amount of ticks after the current one
+     *
+     * @param entry
+     *         the task, not currently scheduled
+     * @param ticks
+     *         the delay in ticks, at least 1
+     */
+    void schedule(ScheduledTask entry, long ticks) {
+        entry.due = tick + ticks;
+        place(entry);
+    }
+
+    /**
+     * Removes a task from its bucket, if it is in one
+     */
+    void unlink(ScheduledTask entry) {
+        if (entry.bucket != null) {
+            entry.bucket.remove(entry);
+        }
+    }
+
+    /**
+     * Advances to the next tick and removes the tasks due on it
+     *
+     * @return the due tasks, oldest scheduled first
+     */
+    List<ScheduledTask> advance() {
+        tick++;
+        int root = (int) (tick & ROOT_MASK);
+        if (root == 0) {
+            cascade(1);
+        }
+        Bucket bucket = levels[0][root];
+        if (bucket.head == null) {
+            return Collections.emptyList();
+        }
+        List<ScheduledTask> due = bucket.drain();
+        if (due.size() > 1) {
+            // Tasks cascaded from higher levels were appended after tasks scheduled later
+            Collections.sort(due, FIFO);
+        }
+        return due;
+    }
+
+    /**
+     * Moves the current bucket of a level down, after cascading the levels above when they wrap too
+     */
+    private void cascade(int level) {
+        if (level == LEVELS) {
+            for (ScheduledTask entry : overflow.drain()) {
+                place(entry);
+            }
+            return;
+        }
+        int index = (int) ((tick >>> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK);
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        for (ScheduledTask entry : levels[level][index].drain()) {
+            place(entry);
+        }
+    }
+
+    private void place(ScheduledTask entry) {
+        long delta = entry.due - tick;
+        if (delta < (1L << ROOT_BITS)) {
+            levels[0][(int) (entry.due & ROOT_MASK)].add(entry);
+            return;
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = ROOT_BITS + level * LEVEL_BITS;
+            if (delta < (1L << shift)) {
+                levels[level][(int) ((entry.due >>> (shift - LEVEL_BITS)) & LEVEL_MASK)].add(entry);
+                return;
+            }
+        }
+        overflow.add(entry);
+    }
+
+    /**
+     * Doubly linked list of tasks, in insertion order
+     */
+    static final class Bucket {
+        ScheduledTask head;
+        ScheduledTask tail;
+
+        void add(ScheduledTask entry) {
+            entry.bucket = this;
+            entry.next = null;
+            entry.prev = tail;
+            if (tail == null) {
+                head = entry;
+            }
+            else {
+                tail.next = entry;
+            }
+            tail = entry;
+        }
+
+        void remove(ScheduledTask entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            }
+            else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            }
+            else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = entry.next = null;
+            entry.bucket = null;
+        }
+
+        List<ScheduledTask> drain() {
+            List<ScheduledTask> drained = new ArrayList<ScheduledTask>();
+            ScheduledTask entry = head;
+            while (entry != null) {
+                ScheduledTask next = entry.next;
+                entry.prev = entry.next = null;
+                entry.bucket = null;
+                drained.add(entry);
+                entry = next;
+            }
+            head = tail = null;
+            return drained;
+        }
+    }
+}
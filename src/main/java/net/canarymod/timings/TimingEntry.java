@@ -0,0 +1,109 @@
+package net.canarymod.timings;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Execution statistics of a single timed handler, such as a hook listener method or a server task
+ *
+ * @see Timings
+ */
+public final class TimingEntry {
+    private final String owner;
+    private final String handler;
+    private final String target;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong exceptions = new AtomicLong();
+
+    TimingEntry(String owner, String handler, String target) {
+        this.owner = owner;
+        this.handler = handler;
+        this.target = target;
+    }
+
+    /**
+     * Records one execution
+     *
+     * @param nanos
+     *         the time the execution took, in nanoseconds
+     * @param failed
+     *         {@code true} if the execution threw an exception
+     */
+    public void record(long nanos, boolean failed) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        if (failed) {
+            exceptions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the name of the owner, typically the plugin name
+     *
+     * @return the owner name
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets the handler description, such as {@code Listener#onChat} or a task class name
+     *
+     * @return the handler
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    /**
+     * Gets what was handled, such as the hook name or {@code ServerTask}
+     *
+     * @return the target
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getExceptionCount() {
+        return exceptions.get();
+    }
+
+    /**
+     * Gets the average execution time
+     *
+     * @return average time in nanoseconds, 0 if never executed
+     */
+    public long getAverageNanos() {
+        long calls = count.get();
+        return calls == 0 ? 0 : totalNanos.get() / calls;
+    }
+
+    void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        exceptions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimingEntry[owner=%s, handler=%s, target=%s, count=%d, total=%dns, max=%dns, exceptions=%d]", owner, handler, target, getCount(), getTotalNanos(), getMaxNanos(), getExceptionCount());
+    }
+}
@@ -0,0 +1,157 @@
+package net.canarymod.timings;
+
+import net.canarymod.plugin.Plugin;
+import net.canarymod.tasks.TaskOwner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opt-in execution timings for hook listeners and server tasks.
+ * <p/>
+ * While disabled, the only cost on the hook and task paths is a read of a volatile flag.
+ *
+ * @see TimingEntry
+ */
+public final class Timings {
+    private static volatile boolean enabled = Boolean.getBoolean("canary.timings");
+    private static volatile long enabledSince = enabled ? System.nanoTime() : 0;
+    private static final ConcurrentHashMap<String, TimingEntry> entries = new ConcurrentHashMap<String, TimingEntry>();
+
+    private Timings() {
+    }
+
+    /**
+     * Checks whether timings are being recorded
+     *
+     * @return {@code true} if enabled; {@code false} if not
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables recording of timings. Enabling resets all recorded data.
+     *
+     * @param enable
+     *         {@code true} to enable; {@code false} to disable
+     */
+    public static void setEnabled(boolean enable) {
+        if (enable && !enabled) {
+            reset();
+        }
+        enabled = enable;
+    }
+
+    /**
+     * Resets all recorded data
+     */
+    public static void reset() {
+        for (TimingEntry entry : entries.values()) {
+            entry.reset();
+        }
+        enabledSince = System.nanoTime();
+    }
+
+    /**
+     * Gets the time recorded data covers
+     *
+     * @return nanoseconds since timings were enabled or reset; 0 if disabled
+     */
+    public static long getSampleNanos() {
+        return enabled ? System.nanoTime() - enabledSince : 0;
+    }
+
+    /**
+     * Gets or creates the entry for a handler
+     *
+     * @param owner
+     *         the owner name, typically the plugin name
+     * @param handler
+     *         the handler description
+     * @param target
+     *         what the handler handles, such as a hook name
+     *
+     * @return the {@link TimingEntry}
+     */
+    public static TimingEntry getEntry(String owner, String handler, String target) {
+        String key = owner + '\u0000' + handler + '\u0000' + target;
+        TimingEntry entry = entries.get(key);
+        if (entry == null) {
+            TimingEntry created = new TimingEntry(owner, handler, target);
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Gets a readable name for a {@link TaskOwner}
+     *
+     * @param owner
+     *         the {@link TaskOwner}
+     *
+     * @return the plugin name, or the owner class name
+     */
+    public static String ownerName(TaskOwner owner) {
+        if (owner instanceof Plugin) {
+            return ((Plugin) owner).getName();
+        }
+        return owner.getClass().getSimpleName();
+    }
+
+    /**
+     * Gets all entries that recorded at least one execution, slowest (by total time) first
+     *
+     * @return snapshot list of entries
+     */
+    public static List<TimingEntry> getEntries() {
+        List<TimingEntry> list = new ArrayList<TimingEntry>();
+        for (TimingEntry entry : entries.values()) {
+            if (entry.getCount() > 0) {
+                list.add(entry);
+            }
+        }
+        Collections.sort(list, new Comparator<TimingEntry>() {
+            @Override
+            public int compare(TimingEntry o1, TimingEntry o2) {
+                long diff = o2.getTotalNanos() - o1.getTotalNanos();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Writes all entries as comma separated values, one line per entry, with a header line
+     *
+     * @param writer
+     *         the {@link Writer} to export to
+     *
+     * @throws IOException
+     *         if writing fails
+     */
+    public static void export(Writer writer) throws IOException {
+        writer.write("owner,handler,target,count,total_ns,avg_ns,max_ns,exceptions\n");
+        for (TimingEntry entry : getEntries()) {
+            writer.write(csv(entry.getOwner()) + ',' + csv(entry.getHandler()) + ',' + csv(entry.getTarget()) + ',' +
+                    entry.getCount() + ',' + entry.getTotalNanos() + ',' + entry.getAverageNanos() + ',' +
+                    entry.getMaxNanos() + ',' + entry.getExceptionCount() + '\n');
+        }
+        writer.flush();
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -1,6 +1,7 @@
 package net.canarymod.user;
 
 import net.canarymod.chat.Colors;
+import net.canarymod.permissionsystem.EffectivePermissions;
 import net.canarymod.permissionsystem.PermissionProvider;
 
 import java.util.ArrayList;
@@ -39,6 +40,11 @@ public class Group {
      */
     private PermissionProvider permissions;
 
+    /**
+     * The permissions of this group and its parents, flattened for fast checks
+     */
+    private final EffectivePermissions effectivePermissions = EffectivePermissions.forGroup(this);
+
     /**
      * List of groups this group inherits/has control over
      */
@@ -117,19 +123,16 @@ public class Group {
         // NOTE: to whoever comes by and thinks, hey a permission check hook is missing:
         // Permission check hooks are fired in all MessageReceivers.
         // Doing it here too would fire a hook for the same request twice.
-        if (permissions.pathExists(permission)) {
-            return permissions.queryPermission(permission);
-        }
-        // if(permissions.queryPermission(permission)) {
-        // return true;
-        // }
+        return effectivePermissions.hasPermission(permission);
+    }
 
-        for (Group g : parentsToList()) {
-            if (g.permissions.pathExists(permission)) {
-                return g.permissions.queryPermission(permission);
-            }
-        }
-        return false;
+    /**
+     * Gets the permissions of this group and its parents, flattened for fast checks
+     *
+     * @return the {@link EffectivePermissions}
+     */
+    public EffectivePermissions getEffectivePermissions() {
+        return effectivePermissions;
     }
 
     /**
@@ -209,6 +212,7 @@ public class Group {
 
     public void setPermissionProvider(PermissionProvider provider) {
         this.permissions = provider;
+        EffectivePermissions.invalidateAll();
     }
 
     public String getName() {
@@ -251,6 +255,7 @@ public class Group {
             group.addChild(this);
         }
         parent = group;
+        EffectivePermissions.invalidateAll();
     }
 
     public void addChild(Group g) {
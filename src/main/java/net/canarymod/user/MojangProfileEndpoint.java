@@ -0,0 +1,117 @@
+package net.canarymod.user;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Looks up UUIDs with Mojang's profile API: a POST of a JSON array of names,
+ * answered with a JSON array of the profiles found, each with an {@code id} and a {@code name}.
+ * <p/>
+ * Any server answering the same way can be used instead by giving its URL.
+ */
+public class MojangProfileEndpoint implements ProfileEndpoint {
+    /** Mojang's profile API */
+    public static final String DEFAULT_URL = "https://api.mojang.com/profiles/minecraft";
+    /** Most names Mojang accepts per request */
+    public static final int MAX_BATCH_SIZE = 10;
+    private static final int TIMEOUT = 5000;
+
+    private final URL url;
+
+    /** Creates an endpoint asking Mojang's profile API */
+    public MojangProfileEndpoint() {
+        this(DEFAULT_URL);
+    }
+
+    /**
+     * Creates an endpoint asking the given URL
+     *
+     * @param url
+     *         the URL to post names to
+     *
+     * @throws IllegalArgumentException
+     *         if the URL is malformed
+     */
+    public MojangProfileEndpoint(String url) {
+        try {
+            this.url = new URL(url);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Malformed profile URL: " + url, e);
+        }
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public Map<String, String> lookup(List<String> names) throws IOException {
+        byte[] body = JSONArray.toJSONString(names).getBytes("UTF-8");
+
+        HttpURLConnection uc = (HttpURLConnection) url.openConnection();
+        uc.setRequestMethod("POST");
+        uc.setUseCaches(false);
+        uc.setDefaultUseCaches(false);
+        uc.setConnectTimeout(TIMEOUT);
+        uc.setReadTimeout(TIMEOUT);
+        uc.addRequestProperty("User-Agent", "Minecraft");
+        uc.addRequestProperty("Cache-Control", "no-cache, no-store, must-revalidate");
+        uc.addRequestProperty("Pragma", "no-cache");
+        uc.setRequestProperty("Content-Type", "application/json");
+        uc.setDoOutput(true);
+        OutputStream out = uc.getOutputStream();
+        try {
+            out.write(body);
+        }
+        finally {
+            out.close();
+        }
+
+        String json;
+        InputStream in = uc.getInputStream();
+        try {
+            Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+            json = scanner.hasNext() ? scanner.next() : "[]";
+        }
+        finally {
+            in.close();
+        }
+
+        Map<String, String> found = new HashMap<String, String>();
+        try {
+            Object parsed = new JSONParser().parse(json);
+            if (!(parsed instanceof JSONArray)) {
+                throw new IOException("Unexpected profile response: " + json);
+            }
+            for (Object entry : (JSONArray) parsed) {
+                JSONObject profile = (JSONObject) entry;
+                String name = (String) profile.get("name");
+                String id = (String) profile.get("id");
+                if (name != null && id != null) {
+                    found.put(name, id);
+                }
+            }
+        }
+        catch (ParseException e) {
+            throw new IOException("Malformed profile response: " + json, e);
+        }
+        catch (ClassCastException e) {
+            throw new IOException("Unexpected profile response: " + json, e);
+        }
+        return found;
+    }
+}
@@ -73,6 +73,7 @@ public class OperatorsProvider {
 
     /**
      * Check if a given Player name or UUID is opped.
+     * Doesn't wait for a lookup: a name whose UUID isn't known yet is not opped, see {@link UUIDResolver#getKnownUUID(String)}.
      *
      * @param nameOrUUID
      *         the uuid/name of a player
@@ -85,7 +86,8 @@ public class OperatorsProvider {
             return ops.contains(nameOrUUID);
         }
         else {
-            return ops.contains(ToolBox.usernameToUUID(nameOrUUID));
+            String uuid = UUIDResolver.get().getKnownUUID(nameOrUUID);
+            return uuid != null && ops.contains(uuid);
         }
     }
 
@@ -106,7 +108,8 @@ public class OperatorsProvider {
     }
 
     /**
-     * Adds a new operators entry
+     * Adds a new operators entry.
+     * May wait for a UUID lookup if given a name, pass a UUID on the server thread.
      *
      * @param entry
      *         the player uuid/name you want to add
@@ -128,7 +131,8 @@ public class OperatorsProvider {
     }
 
     /**
-     * Removes the given player from the ops list
+     * Removes the given player from the ops list.
+     * May wait for a UUID lookup if given a name that isn't in the list, pass a UUID on the server thread.
      *
      * @param entry
      *         the player uuid/name you want to remove
@@ -0,0 +1,34 @@
+package net.canarymod.user;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the UUIDs of player names, for the {@link UUIDResolver}.
+ * <p/>
+ * The default is {@link MojangProfileEndpoint}. Another endpoint, for instance one asking a local stub server,
+ * can be set with {@link UUIDResolver#setEndpoint(ProfileEndpoint)}.
+ */
+public interface ProfileEndpoint {
+
+    /**
+     * Gets the most names looked up by one call to {@link #lookup(List)}
+     *
+     * @return the batch size
+     */
+    int getMaxBatchSize();
+
+    /**
+     * Looks up the UUIDs of some names. Called from the resolver's thread, one call at a time.
+     *
+     * @param names
+     *         the names, no more than {@link #getMaxBatchSize()}
+     *
+     * @return the names that were found, as spelled by the endpoint, mapped to their UUIDs with or without hyphens
+     *
+     * @throws IOException
+     *         if the endpoint could not be asked
+     */
+    Map<String, String> lookup(List<String> names) throws IOException;
+}
@@ -5,25 +5,53 @@ import net.canarymod.ToolBox;
 import net.canarymod.api.PlayerReference;
 import net.canarymod.backbone.BackboneReservelist;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Reserve List Provider
+ * <p/>
+ * Reservations are held as a concurrent set of {@link UUID}s, so checking a UUID takes constant time and no lookups.
+ * Names that couldn't be resolved when they were added are kept apart, and moved to their UUID once the player is known.
  *
  * @author Jason (darkdiplomat)
  */
 public class ReservelistProvider {
     private BackboneReservelist backbonereservelist;
-    private List<String> reservelist;
+    private final Set<UUID> reservelist = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     public ReservelistProvider() {
         backbonereservelist = new BackboneReservelist();
-        reservelist = backbonereservelist.loadReservelist();
+        load();
     }
 
     /** Reload the reservelist from database */
     public void reload() {
-        reservelist = backbonereservelist.loadReservelist();
+        load();
+    }
+
+    private void load() {
+        Set<UUID> loaded = new HashSet<UUID>();
+        Set<String> loadedNames = new HashSet<String>();
+        for (String entry : backbonereservelist.loadReservelist()) {
+            UUID uuid = parse(entry);
+            if (uuid != null) {
+                loaded.add(uuid);
+            }
+            else if (entry != null && !entry.isEmpty()) {
+                loadedNames.add(entry);
+            }
+        }
+        reservelist.retainAll(loaded);
+        reservelist.addAll(loaded);
+        names.retainAll(loadedNames);
+        names.addAll(loadedNames);
     }
 
     /**
@@ -37,7 +65,7 @@ public class ReservelistProvider {
     public boolean isSlotReserved(String nameOrUUID) {
         // Did UUID get passed?
         if (ToolBox.isUUID(nameOrUUID)) {
-            return reservelist.contains(nameOrUUID);
+            return reservelist.contains(UUID.fromString(nameOrUUID));
         }
         else if (Canary.getServer() != null) { // Like at start up...
             // Try to get a UUID reference from a known player
@@ -48,43 +76,90 @@ public class ReservelistProvider {
         }
     }
 
+    /**
+     * Check if a given player has a reserved slot
+     *
+     * @param uuid
+     *         the player's UUID
+     *
+     * @return {@code true} if reserved; {@code false} if not
+     */
+    public boolean isSlotReserved(UUID uuid) {
+        return reservelist.contains(uuid);
+    }
+
     public boolean isSlotReserved(PlayerReference playerReference) {
         if (playerReference != null) {
+            UUID uuid = playerReference.getUUID();
             // Lets update to UUID if we can get a UUID
-            if (reservelist.contains(playerReference.getName())) {
-                if (playerReference.getUUIDString() != null) {
+            if (!names.isEmpty() && names.contains(playerReference.getName())) {
+                if (uuid != null) {
                     removePlayer(playerReference.getName());
-                    addPlayer(playerReference.getUUIDString());
+                    addPlayer(uuid);
                 }
                 return true;
             }
             // UUID test it is
-            return reservelist.contains(playerReference.getUUIDString());
+            return uuid != null && reservelist.contains(uuid);
         }
         return false;
     }
 
     /**
-     * Adds a new whitelist entry
+     * Adds a new reservelist entry.
+     * A name whose UUID isn't known yet is kept as it is, and replaced by the UUID when the player joins.
      *
      * @param name
+     *         the player's name or UUID
      */
     public void addPlayer(String name) {
-        if (!reservelist.contains(name)) {
-            reservelist.add(name);
+        UUID uuid = resolve(name);
+        if (uuid != null) {
+            addPlayer(uuid);
+        }
+        else if (names.add(name)) {
             backbonereservelist.addSlotReservation(name);
         }
     }
 
+    /**
+     * Adds a new reservelist entry
+     *
+     * @param uuid
+     *         the player's UUID
+     */
+    public void addPlayer(UUID uuid) {
+        if (reservelist.add(uuid)) {
+            backbonereservelist.addSlotReservation(uuid.toString());
+        }
+    }
+
     /**
      * Removes the given player from the reservelist
      *
      * @param name
+     *         the player's name or UUID
      */
     public void removePlayer(String name) {
-        if (reservelist.contains(name)) {
-            reservelist.remove(name);
+        if (names.remove(name)) {
             backbonereservelist.removeReservelistEntry(name);
+            return;
+        }
+        UUID uuid = resolve(name);
+        if (uuid != null) {
+            removePlayer(uuid);
+        }
+    }
+
+    /**
+     * Removes the given player from the reservelist
+     *
+     * @param uuid
+     *         the player's UUID
+     */
+    public void removePlayer(UUID uuid) {
+        if (reservelist.remove(uuid)) {
+            backbonereservelist.removeReservelistEntry(uuid.toString());
         }
     }
 
@@ -94,7 +169,7 @@ public class ReservelistProvider {
      * @return
      */
     public int getSize() {
-        return reservelist.size();
+        return reservelist.size() + names.size();
     }
 
     /**
@@ -103,6 +178,23 @@ public class ReservelistProvider {
      * @return
      */
     public String[] getReservations() {
-        return reservelist.toArray(new String[reservelist.size()]);
+        List<String> entries = new ArrayList<String>(getSize());
+        for (UUID uuid : reservelist) {
+            entries.add(uuid.toString());
+        }
+        entries.addAll(names);
+        return entries.toArray(new String[entries.size()]);
+    }
+
+    private static UUID resolve(String subject) {
+        // Doesn't wait for a lookup, names are kept until the player joins
+        return parse(ToolBox.isUUID(subject) ? subject : UUIDResolver.get().getKnownUUID(subject));
+    }
+
+    private static UUID parse(String uuid) {
+        if (uuid == null || !ToolBox.isUUID(uuid.toLowerCase())) {
+            return null;
+        }
+        return UUID.fromString(uuid);
     }
 }
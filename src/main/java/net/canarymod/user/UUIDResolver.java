@@ -0,0 +1,494 @@
+package net.canarymod.user;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import net.canarymod.Canary;
+import net.canarymod.ToolBox;
+import net.canarymod.api.entity.living.humanoid.Player;
+import net.canarymod.tasks.ServerTask;
+import net.canarymod.tasks.ServerTaskManager;
+import net.visualillusionsent.utils.PropertiesFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Resolves player names to UUIDs, see {@link ProfileEndpoint}.
+ * <p/>
+ * Resolved names are cached both ways in memory and in the reverse lookup file, and are asked for again
+ * once they are older than {@link #TTL}. Names that were not found are not asked for again for {@link #MISS_TTL}.
+ * <p/>
+ * Lookups return futures and are asked on a thread of the resolver's own. Lookups of the same name share one request,
+ * names looked up within {@link #BATCH_WINDOW} milliseconds of each other are asked for in one request.
+ * If a request fails, a name that was resolved before keeps its old UUID.
+ * The reverse lookup file is written on the same thread, a few seconds after it changed, rather than on every lookup.
+ */
+public final class UUIDResolver {
+    /** Milliseconds a resolved name is trusted */
+    public static final long TTL = TimeUnit.DAYS.toMillis(3);
+    /** Milliseconds a name that wasn't found isn't asked for again */
+    public static final long MISS_TTL = TimeUnit.MINUTES.toMillis(10);
+    /** Milliseconds to wait for more names before sending a request */
+    public static final long BATCH_WINDOW = 50L;
+    private static final long SAVE_DELAY = 5L; // seconds
+    private static final long WAIT_TIMEOUT = 30L; // seconds
+    private static final Pattern uName = Pattern.compile("[A-Za-z0-9_]{3,16}");
+    private static UUIDResolver instance;
+
+    private final ConcurrentHashMap<String, Profile> byName = new ConcurrentHashMap<String, Profile>(); // Lowercased name
+    private final ConcurrentHashMap<String, Profile> byUUID = new ConcurrentHashMap<String, Profile>();
+    private final ConcurrentHashMap<String, Long> misses = new ConcurrentHashMap<String, Long>(); // Lowercased name
+    private final ConcurrentHashMap<String, SettableFuture<String>> pending = new ConcurrentHashMap<String, SettableFuture<String>>();
+    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    private final AtomicBoolean requestScheduled = new AtomicBoolean();
+    private final ConcurrentHashMap<String, Profile> unsaved = new ConcurrentHashMap<String, Profile>();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+    private final PropertiesFile file; // Only used on the executor once loaded, may be null
+    private volatile ProfileEndpoint endpoint;
+
+    /** Receives a UUID on the server thread, see {@link #resolveOnServerThread(String, Callback)} */
+    public interface Callback {
+
+        /**
+         * @param uuid
+         *         the UUID, or {@code null} if the name is invalid, not found or the lookup failed
+         */
+        void run(String uuid);
+    }
+
+    /**
+     * Creates a resolver
+     *
+     * @param endpoint
+     *         the endpoint to ask
+     * @param file
+     *         the reverse lookup file to load and save resolved names to, may be {@code null} to keep them in memory only
+     */
+    public UUIDResolver(ProfileEndpoint endpoint, PropertiesFile file) {
+        this.endpoint = endpoint;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Canary UUID Resolver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (file != null) {
+            load();
+        }
+    }
+
+    /**
+     * Gets the resolver, creating it with {@link MojangProfileEndpoint} and uuidreverselookup.cfg on first use.
+     * Unsaved names are written by {@link #shutdownInstance()}.
+     *
+     * @return the {@link UUIDResolver}
+     */
+    public static synchronized UUIDResolver get() {
+        if (instance == null) {
+            instance = new UUIDResolver(new MojangProfileEndpoint(), new PropertiesFile("uuidreverselookup.cfg"));
+        }
+        return instance;
+    }
+
+    /**
+     * Shuts down the resolver returned by {@link #get()}, if there is one. Called on server shutdown.
+     * The next call to {@link #get()} creates a new one.
+     */
+    public static void shutdownInstance() {
+        UUIDResolver resolver;
+        synchronized (UUIDResolver.class) {
+            resolver = instance;
+            instance = null;
+        }
+        if (resolver != null) {
+            resolver.shutdown();
+        }
+    }
+
+    /**
+     * Sets the endpoint to ask from now on
+     *
+     * @param endpoint
+     *         the {@link ProfileEndpoint}
+     */
+    public void setEndpoint(ProfileEndpoint endpoint) {
+        if (endpoint == null) {
+            throw new IllegalArgumentException("Endpoint must not be null");
+        }
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Gets the endpoint that is asked
+     *
+     * @return the {@link ProfileEndpoint}
+     */
+    public ProfileEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Resolves a name to a UUID
+     *
+     * @param name
+     *         the player name; a UUID is passed back as it is
+     *
+     * @return a future of the UUID, of {@code null} if the name is invalid or not found
+     */
+    public ListenableFuture<String> resolve(String name) {
+        if (!uName.matcher(name).matches()) {
+            return Futures.immediateFuture(ToolBox.isUUID(name) ? name : null);
+        }
+        // Make sure the server isn't null, this can happen when called early in server init
+        if (Canary.instance() != null && Canary.getServer() != null) {
+            Player player = Canary.getServer().getPlayer(name);
+            if (player != null) {
+                return Futures.immediateFuture(player.getUUIDString());
+            }
+        }
+        String key = name.toLowerCase();
+        long now = System.currentTimeMillis();
+        Profile profile = byName.get(key);
+        if (profile != null && now - profile.verified < TTL) {
+            return Futures.immediateFuture(profile.uuid);
+        }
+        Long missed = misses.get(key);
+        if (profile == null && missed != null && now - missed < MISS_TTL) {
+            return Futures.immediateFuture(null);
+        }
+        SettableFuture<String> future = pending.get(key);
+        if (future != null) {
+            return future;
+        }
+        future = SettableFuture.create();
+        SettableFuture<String> existing = pending.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        queue.add(key);
+        if (requestScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        request();
+                    }
+                }, BATCH_WINDOW, TimeUnit.MILLISECONDS);
+            }
+            catch (RuntimeException e) {
+                // Shut down
+                queue.remove(key);
+                complete(key, null);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Resolves a name to a UUID and hands it to a callback on the server thread, in a later tick.
+     * For the server thread, which must not wait for a lookup.
+     *
+     * @param name
+     *         the player name; a UUID is passed back as it is
+     * @param callback
+     *         the {@link Callback}
+     */
+    public void resolveOnServerThread(final String name, final Callback callback) {
+        Futures.addCallback(resolve(name), new FutureCallback<String>() {
+
+            @Override
+            public void onSuccess(String uuid) {
+                handOver(callback, uuid);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                log.warn("Failed to translate Username " + name + " into a UUID", t);
+                handOver(callback, null);
+            }
+        });
+    }
+
+    private static void handOver(final Callback callback, final String uuid) {
+        ServerTaskManager.addTask(new ServerTask(Canary.instance(), 0) {
+
+            @Override
+            public void run() {
+                callback.run(uuid);
+            }
+        });
+    }
+
+    /**
+     * Resolves a name to a UUID without waiting.
+     * Online players and cached names are answered right away, other names are looked up for the next call.
+     *
+     * @param name
+     *         the player name; a UUID is passed back as it is
+     *
+     * @return the UUID, or {@code null} if it isn't known yet, the name is invalid or not found
+     */
+    public String getKnownUUID(String name) {
+        ListenableFuture<String> future = resolve(name);
+        return future.isDone() ? Futures.getUnchecked(future) : null;
+    }
+
+    /**
+     * Resolves a name to a UUID, waiting up to 30 seconds for the answer if it isn't cached.
+     * Prefer {@link #resolve(String)} where the caller can go on without the answer,
+     * on the server thread use {@link #resolveOnServerThread(String, Callback)} or {@link #getKnownUUID(String)}.
+     *
+     * @param name
+     *         the player name; a UUID is passed back as it is
+     *
+     * @return the UUID, or {@code null} if the name is invalid, not found or the lookup timed out
+     */
+    public String resolveNow(String name) {
+        ListenableFuture<String> future = resolve(name);
+        try {
+            return future.get(WAIT_TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            log.warn("Failed to translate Username into a UUID", e.getCause());
+        }
+        catch (TimeoutException e) {
+            log.warn("Timed out translating Username " + name + " into a UUID");
+        }
+        return null;
+    }
+
+    /**
+     * Gets the cached UUID of a name, without asking for it
+     *
+     * @param name
+     *         the player name
+     *
+     * @return the UUID, or {@code null} if not cached. It may be older than {@link #TTL}.
+     */
+    public String getCachedUUID(String name) {
+        Profile profile = byName.get(name.toLowerCase());
+        return profile != null ? profile.uuid : null;
+    }
+
+    /**
+     * Gets the cached name of a UUID
+     *
+     * @param uuid
+     *         the UUID
+     *
+     * @return the name the UUID was last resolved from, or {@code null} if not cached
+     */
+    public String getCachedName(String uuid) {
+        Profile profile = byUUID.get(uuid);
+        return profile != null ? profile.name : null;
+    }
+
+    /**
+     * Gets the number of names waiting to be asked for
+     *
+     * @return the number of pending names
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the resolver. Pending lookups are answered with {@code null}, unsaved names are written.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(WAIT_TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (String key : pending.keySet()) {
+            complete(key, null);
+        }
+        save();
+    }
+
+    /** Asks the endpoint for the queued names, in batches */
+    private void request() {
+        requestScheduled.set(false);
+        ProfileEndpoint endpoint = this.endpoint;
+        int batchSize = Math.max(1, endpoint.getMaxBatchSize());
+        List<String> batch = new ArrayList<String>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            Map<String, String> found;
+            try {
+                found = endpoint.lookup(batch);
+            }
+            catch (IOException e) {
+                log.warn("Failed to translate Usernames into UUIDs: " + e.getMessage());
+                for (String key : batch) {
+                    // Fall back to what was resolved before
+                    Profile stale = byName.get(key);
+                    complete(key, stale != null ? stale.uuid : null);
+                }
+                batch.clear();
+                continue;
+            }
+            catch (RuntimeException e) {
+                log.error("Profile endpoint failed", e);
+                for (String key : batch) {
+                    complete(key, null);
+                }
+                batch.clear();
+                continue;
+            }
+            Map<String, String> byKey = new HashMap<String, String>();
+            for (Map.Entry<String, String> entry : found.entrySet()) {
+                byKey.put(entry.getKey().toLowerCase(), entry.getKey());
+            }
+            long now = System.currentTimeMillis();
+            for (String key : batch) {
+                String name = byKey.get(key);
+                if (name == null) {
+                    misses.put(key, now);
+                    byName.remove(key);
+                    complete(key, null);
+                }
+                else {
+                    String id = hyphenate(found.get(name));
+                    cache(new Profile(id, name, now), true);
+                    complete(key, id);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void complete(String key, String id) {
+        SettableFuture<String> future = pending.remove(key);
+        if (future != null) {
+            future.set(id);
+        }
+    }
+
+    private void cache(Profile profile, boolean persist) {
+        String key = profile.name.toLowerCase();
+        Profile old = byUUID.put(profile.uuid, profile);
+        if (old != null && !old.name.equalsIgnoreCase(profile.name)) {
+            // Renamed, the old name may belong to someone else by now
+            byName.remove(old.name.toLowerCase(), old);
+        }
+        byName.put(key, profile);
+        misses.remove(key);
+        if (persist && file != null) {
+            unsaved.put(profile.uuid, profile);
+            if (saveScheduled.compareAndSet(false, true)) {
+                try {
+                    executor.schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            save();
+                        }
+                    }, SAVE_DELAY, TimeUnit.SECONDS);
+                }
+                catch (RuntimeException e) {
+                    // Shutting down, saved right after
+                    saveScheduled.set(false);
+                }
+            }
+        }
+    }
+
+    private void load() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> entry : file.getPropertiesMap().entrySet()) {
+            String id = entry.getKey();
+            String name = entry.getValue();
+            if (!ToolBox.isUUID(id) || name == null || name.isEmpty()) {
+                continue;
+            }
+            long verified = 0;
+            String[] comments = file.getComments(id);
+            if (comments != null && comments.length > 0) {
+                try {
+                    verified = Long.parseLong(comments[0].replace(";Verified: ", "").trim());
+                }
+                catch (NumberFormatException nfex) {
+                    // Verify again
+                }
+            }
+            if (verified > now) {
+                verified = 0;
+            }
+            Profile known = byName.get(name.toLowerCase());
+            if (known == null || known.verified < verified) {
+                cache(new Profile(id, name, verified), false);
+            }
+        }
+    }
+
+    private void save() {
+        saveScheduled.set(false);
+        if (file == null || unsaved.isEmpty()) {
+            return;
+        }
+        synchronized (file) {
+            for (String id : new ArrayList<String>(unsaved.keySet())) {
+                Profile profile = unsaved.remove(id);
+                if (profile != null) {
+                    file.setString(profile.uuid, profile.name);
+                    file.setComments(profile.uuid, ";Verified: " + profile.verified);
+                }
+            }
+            try {
+                file.save();
+            }
+            catch (Exception e) {
+                log.warn("Failed to save the UUID lookup cache", e);
+            }
+        }
+    }
+
+    private static String hyphenate(String id) {
+        if (id.length() == 32 && !id.contains("-")) {
+            // Add the hyphens back in
+            return id.substring(0, 8) + "-" + id.substring(8, 12) + "-" + id.substring(12, 16) + "-" + id.substring(16, 20) + "-" + id.substring(20, 32);
+        }
+        return id;
+    }
+
+    private static final class Profile {
+        final String uuid;
+        final String name;
+        final long verified;
+
+        Profile(String uuid, String name, long verified) {
+            this.uuid = uuid;
+            this.name = name;
+            this.verified = verified;
+        }
+    }
+}
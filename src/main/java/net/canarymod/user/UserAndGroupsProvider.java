@@ -264,21 +264,32 @@ public class UserAndGroupsProvider {
 
     /**
      * Add a player that is currently offline.
-     * It will assume default values for any unspecified data
+     * It will assume default values for any unspecified data.
+     * A name is resolved to its UUID without waiting, the player is added on the main thread once it is known.
      *
      * @param name
      * @param group
      */
-    public void addOfflinePlayer(String name, String group) {
-        String uuid = ToolBox.isUUID(name) ? name : ToolBox.usernameToUUID(name);
-        backboneUsers.addUser(uuid, group);
-        if (uuid == null) {
-            log.warn("Player " + name + " already exists. Skipping!");
+    public void addOfflinePlayer(final String name, final String group) {
+        if (ToolBox.isUUID(name)) {
+            addOfflinePlayer(null, name, group);
             return;
         }
-        if (playerData.containsKey(uuid)) {
-            
-        }
+        UUIDResolver.get().resolveOnServerThread(name, new UUIDResolver.Callback() {
+
+            @Override
+            public void run(String uuid) {
+                if (uuid == null) {
+                    log.warn("No UUID found for player " + name + ". Skipping!");
+                    return;
+                }
+                addOfflinePlayer(name, uuid, group);
+            }
+        });
+    }
+
+    private void addOfflinePlayer(String name, String uuid, String group) {
+        backboneUsers.addUser(name, uuid, group);
         String[] content = new String[3];
         content[0] = null;
         content[1] = group;
@@ -2,72 +2,124 @@ package net.canarymod.user;
 
 import net.canarymod.backbone.BackboneWhitelist;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
 import net.canarymod.ToolBox;
 
+import static net.canarymod.Canary.log;
+
 /**
  * Access to the backbone for whitelist
+ * <p/>
+ * Entries are held as a concurrent set of {@link UUID}s, so checking a UUID takes constant time and no lookups.
+ * Checking a name resolves it to its UUID first.
  *
  * @author Chris (damagefilter)
  */
 public class WhitelistProvider {
     private BackboneWhitelist backboneWhitelist;
-    private List<String> whitelist;
+    private final Set<UUID> whitelist = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
 
     public WhitelistProvider() {
         backboneWhitelist = new BackboneWhitelist();
-        whitelist = backboneWhitelist.loadWhitelist();
+        load();
     }
 
     /** Reload the whitelist from database */
     public void reload() {
-        whitelist = backboneWhitelist.loadWhitelist();
+        load();
+    }
+
+    private void load() {
+        Set<UUID> loaded = new HashSet<UUID>();
+        for (String entry : backboneWhitelist.loadWhitelist()) {
+            UUID uuid = parse(entry);
+            if (uuid != null) {
+                loaded.add(uuid);
+            }
+            else {
+                log.warn("Skipping whitelist entry '" + entry + "', it is not a UUID");
+            }
+        }
+        whitelist.retainAll(loaded);
+        whitelist.addAll(loaded);
     }
 
     /**
      * Check if a given player is whitelisted.
+     * Doesn't wait for a lookup: a name whose UUID isn't known yet is not whitelisted, see {@link UUIDResolver#getKnownUUID(String)}.
      *
      * @param subject player name or uuid
      *
      * @return
      */
     public boolean isWhitelisted(String subject) {
-        String uuid = subject;
-        if (!ToolBox.isUUID(uuid)) {
-            uuid = ToolBox.usernameToUUID(uuid);
-        }
+        UUID uuid = parse(ToolBox.isUUID(subject) ? subject : UUIDResolver.get().getKnownUUID(subject));
+        return uuid != null && whitelist.contains(uuid);
+    }
+
+    /**
+     * Check if a given player is whitelisted.
+     *
+     * @param uuid the player's uuid
+     *
+     * @return {@code true} if whitelisted; {@code false} if not
+     */
+    public boolean isWhitelisted(UUID uuid) {
         return whitelist.contains(uuid);
     }
 
     /**
-     * Adds a new whitelist entry
+     * Adds a new whitelist entry.
+     * May wait for a UUID lookup if given a name, use {@link #addPlayer(UUID)} on the server thread.
      *
      * @param subject player name or uuid
      */
     public void addPlayer(String subject) {
-        String uuid = subject;
-        if (!ToolBox.isUUID(uuid)) {
-            uuid = ToolBox.usernameToUUID(uuid);
+        UUID uuid = resolve(subject);
+        if (uuid != null) {
+            addPlayer(uuid);
         }
-        if (!whitelist.contains(uuid)) {
-            whitelist.add(uuid);
-            backboneWhitelist.addWhitelistEntry(uuid);
+    }
+
+    /**
+     * Adds a new whitelist entry
+     *
+     * @param uuid the player's uuid
+     */
+    public void addPlayer(UUID uuid) {
+        if (whitelist.add(uuid)) {
+            backboneWhitelist.addWhitelistEntry(uuid.toString());
         }
     }
 
     /**
-     * Removes the given player from the whitelist
+     * Removes the given player from the whitelist.
+     * May wait for a UUID lookup if given a name, use {@link #removePlayer(UUID)} on the server thread.
      *
      * @param subject player name or uuid
      */
     public void removePlayer(String subject) {
-        String uuid = subject;
-        if (!ToolBox.isUUID(uuid)) {
-            uuid = ToolBox.usernameToUUID(uuid);
+        UUID uuid = resolve(subject);
+        if (uuid != null) {
+            removePlayer(uuid);
         }
-        if (whitelist.contains(uuid)) {
-            whitelist.remove(uuid);
-            backboneWhitelist.removeWhitelistEntry(uuid);
+    }
+
+    /**
+     * Removes the given player from the whitelist
+     *
+     * @param uuid the player's uuid
+     */
+    public void removePlayer(UUID uuid) {
+        if (whitelist.remove(uuid)) {
+            backboneWhitelist.removeWhitelistEntry(uuid.toString());
         }
     }
 
@@ -81,6 +133,21 @@ public class WhitelistProvider {
     }
 
     public String[] getWhitelisted() {
-        return whitelist.toArray(new String[getSize()]);
+        List<String> entries = new ArrayList<String>(whitelist.size());
+        for (UUID uuid : whitelist) {
+            entries.add(uuid.toString());
+        }
+        return entries.toArray(new String[entries.size()]);
+    }
+
+    private static UUID resolve(String subject) {
+        return parse(ToolBox.isUUID(subject) ? subject : ToolBox.usernameToUUID(subject));
+    }
+
+    private static UUID parse(String uuid) {
+        if (uuid == null || !ToolBox.isUUID(uuid.toLowerCase())) {
+            return null;
+        }
+        return UUID.fromString(uuid);
     }
 }
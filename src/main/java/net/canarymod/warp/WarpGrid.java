@@ -0,0 +1,210 @@
+package net.canarymod.warp;
+
+import net.canarymod.api.world.position.Location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The warps of one world in a grid of {@link #CELL_SIZE} block columns, for finding warps by distance
+ * without looking at every warp.
+ * <p/>
+ * A warp is placed by the coordinates it has when added; moving it means removing and adding it again.
+ * Not thread-safe, the {@link WarpProvider} locks it.
+ */
+final class WarpGrid {
+    /** Width and depth of a cell in blocks */
+    static final int CELL_SIZE = 64;
+    private static final int SHIFT = 6;
+
+    private final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+    private final Map<Warp, Entry> entries = new IdentityHashMap<Warp, Entry>();
+
+    void add(Warp warp) {
+        remove(warp);
+        Location location = warp.getLocation();
+        Entry entry = new Entry(warp, location.getX(), location.getY(), location.getZ());
+        List<Entry> cell = cells.get(entry.cell);
+        if (cell == null) {
+            cell = new ArrayList<Entry>(4);
+            cells.put(entry.cell, cell);
+        }
+        cell.add(entry);
+        entries.put(warp, entry);
+    }
+
+    boolean remove(Warp warp) {
+        Entry entry = entries.remove(warp);
+        if (entry == null) {
+            return false;
+        }
+        List<Entry> cell = cells.get(entry.cell);
+        cell.remove(entry);
+        if (cell.isEmpty()) {
+            cells.remove(entry.cell);
+        }
+        return true;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the warps within a distance of a point
+     *
+     * @param x
+     *         the x coordinate
+     * @param y
+     *         the y coordinate
+     * @param z
+     *         the z coordinate
+     * @param radius
+     *         the distance
+     *
+     * @return the warps, nearest first
+     */
+    List<Warp> within(double x, double y, double z, double radius) {
+        List<Scored> found = new ArrayList<Scored>();
+        double radiusSq = radius * radius;
+        int minX = cell(x - radius), maxX = cell(x + radius);
+        int minZ = cell(z - radius), maxZ = cell(z + radius);
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > cells.size()) {
+            // Fewer occupied cells than cells in range
+            for (List<Entry> cell : cells.values()) {
+                collect(cell, x, y, z, radiusSq, found);
+            }
+        }
+        else {
+            for (int cx = minX; cx <= maxX; cx++) {
+                for (int cz = minZ; cz <= maxZ; cz++) {
+                    List<Entry> cell = cells.get(key(cx, cz));
+                    if (cell != null) {
+                        collect(cell, x, y, z, radiusSq, found);
+                    }
+                }
+            }
+        }
+        return sorted(found, found.size());
+    }
+
+    /**
+     * Gets the warps nearest to a point
+     *
+     * @param x
+     *         the x coordinate
+     * @param y
+     *         the y coordinate
+     * @param z
+     *         the z coordinate
+     * @param count
+     *         the most warps to get
+     *
+     * @return the warps, nearest first
+     */
+    List<Warp> nearest(double x, double y, double z, int count) {
+        List<Scored> found = new ArrayList<Scored>();
+        if (count <= 0 || entries.isEmpty()) {
+            return new ArrayList<Warp>(0);
+        }
+        int cx = cell(x), cz = cell(z);
+        int seen = 0;
+        // Search rings of cells outwards. Warps beyond ring r are at least r cells away from the point.
+        for (int r = 0; seen < entries.size(); r++) {
+            if (8L * r > cells.size()) {
+                // The ring has more cells than there are occupied cells, look at all warps instead
+                found.clear();
+                for (List<Entry> cell : cells.values()) {
+                    collect(cell, x, y, z, Double.MAX_VALUE, found);
+                }
+                break;
+            }
+            for (int dx = -r; dx <= r; dx++) {
+                boolean edge = dx == -r || dx == r;
+                for (int dz = -r; dz <= r; dz += edge ? 1 : 2 * r) {
+                    List<Entry> cell = cells.get(key(cx + dx, cz + dz));
+                    if (cell != null) {
+                        collect(cell, x, y, z, Double.MAX_VALUE, found);
+                        seen += cell.size();
+                    }
+                }
+            }
+            if (found.size() >= count) {
+                double bound = (double) r * CELL_SIZE;
+                if (kthDistanceSq(found, count) <= bound * bound) {
+                    break;
+                }
+            }
+        }
+        return sorted(found, count);
+    }
+
+    private static void collect(List<Entry> cell, double x, double y, double z, double radiusSq, List<Scored> found) {
+        for (Entry entry : cell) {
+            double dx = entry.x - x, dy = entry.y - y, dz = entry.z - z;
+            double distanceSq = dx * dx + dy * dy + dz * dz;
+            if (distanceSq <= radiusSq) {
+                found.add(new Scored(entry.warp, distanceSq));
+            }
+        }
+    }
+
+    private static double kthDistanceSq(List<Scored> found, int k) {
+        List<Scored> copy = new ArrayList<Scored>(found);
+        Collections.sort(copy, BY_DISTANCE);
+        return copy.get(k - 1).distanceSq;
+    }
+
+    private static List<Warp> sorted(List<Scored> found, int limit) {
+        Collections.sort(found, BY_DISTANCE);
+        List<Warp> warps = new ArrayList<Warp>(Math.min(limit, found.size()));
+        for (int i = 0; i < found.size() && i < limit; i++) {
+            warps.add(found.get(i).warp);
+        }
+        return warps;
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> SHIFT;
+    }
+
+    private static long key(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    private static final Comparator<Scored> BY_DISTANCE = new Comparator<Scored>() {
+        @Override
+        public int compare(Scored o1, Scored o2) {
+            return Double.compare(o1.distanceSq, o2.distanceSq);
+        }
+    };
+
+    private static final class Entry {
+        final Warp warp;
+        final double x, y, z;
+        final long cell;
+
+        Entry(Warp warp, double x, double y, double z) {
+            this.warp = warp;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.cell = key(cell(x), cell(z));
+        }
+    }
+
+    private static final class Scored {
+        final Warp warp;
+        final double distanceSq;
+
+        Scored(Warp warp, double distanceSq) {
+            this.warp = warp;
+            this.distanceSq = distanceSq;
+        }
+    }
+}
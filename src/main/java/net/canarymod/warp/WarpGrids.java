@@ -0,0 +1,87 @@
+package net.canarymod.warp;
+
+import net.canarymod.api.world.position.Location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link WarpGrid} per world and dimension.
+ * <p/>
+ * Not thread-safe, the {@link WarpProvider} locks it.
+ */
+final class WarpGrids {
+    private final Map<String, WarpGrid> grids = new HashMap<String, WarpGrid>();
+
+    void add(Warp warp) {
+        remove(warp);
+        String world = worldKey(warp.getLocation());
+        WarpGrid grid = grids.get(world);
+        if (grid == null) {
+            grid = new WarpGrid();
+            grids.put(world, grid);
+        }
+        grid.add(warp);
+    }
+
+    boolean remove(Warp warp) {
+        // Look in every world, the warp may have been moved since it was added
+        for (Iterator<WarpGrid> it = grids.values().iterator(); it.hasNext(); ) {
+            WarpGrid grid = it.next();
+            if (grid.remove(warp)) {
+                if (grid.size() == 0) {
+                    it.remove();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        grids.clear();
+    }
+
+    /**
+     * Gets the warps nearest to a location, in the location's world
+     *
+     * @param location
+     *         the location
+     * @param count
+     *         the most warps to get
+     *
+     * @return the warps, nearest first
+     */
+    List<Warp> nearest(Location location, int count) {
+        WarpGrid grid = grids.get(worldKey(location));
+        if (grid == null) {
+            return new ArrayList<Warp>(0);
+        }
+        return grid.nearest(location.getX(), location.getY(), location.getZ(), count);
+    }
+
+    /**
+     * Gets the warps within a distance of a location, in the location's world
+     *
+     * @param location
+     *         the location
+     * @param radius
+     *         the distance
+     *
+     * @return the warps, nearest first
+     */
+    List<Warp> within(Location location, double radius) {
+        WarpGrid grid = grids.get(worldKey(location));
+        if (grid == null) {
+            return new ArrayList<Warp>(0);
+        }
+        return grid.within(location.getX(), location.getY(), location.getZ(), radius);
+    }
+
+    private static String worldKey(Location location) {
+        return location.getWorldName() + "_" + location.getType().getName();
+    }
+}
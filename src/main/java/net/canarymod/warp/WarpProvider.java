@@ -1,8 +1,9 @@
 package net.canarymod.warp;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.position.Location;
@@ -10,16 +11,25 @@ import net.canarymod.backbone.BackboneWarps;
 
 /**
  * Access to the backbone for the whitelist
+ * <p/>
+ * Warps are indexed by name, homes by their owner. Public warps are also indexed by position, per world,
+ * for {@link #getNearestWarps(Location, int)} and {@link #getWarpsWithin(Location, double)}.
+ * The indexes change together with the backbone: a warp is indexed when it is written and unindexed when it is removed.
+ * To move a warp, add it again or use {@link #setHome(Player, Location)} for homes, so its position is indexed again.
+ * If the backbone holds several warps of one name or several homes of one owner, the first one loaded is found.
  *
  * @author Chris (damagefilter)
  */
 public class WarpProvider {
-    private List<Warp> warps;
+    private final List<Warp> warps = new CopyOnWriteArrayList<Warp>();
+    private final ConcurrentHashMap<String, Warp> byName = new ConcurrentHashMap<String, Warp>();
+    private final ConcurrentHashMap<String, Warp> homes = new ConcurrentHashMap<String, Warp>();
+    private final WarpGrids grids = new WarpGrids(); // Guarded by this
     private BackboneWarps backbone;
 
     public WarpProvider() {
         backbone = new BackboneWarps();
-        warps = backbone.loadWarps();
+        load();
     }
 
     /**
@@ -27,14 +37,14 @@ public class WarpProvider {
      *
      * @param warp
      */
-    public void addWarp(Warp warp) {
+    public synchronized void addWarp(Warp warp) {
         Warp test = getWarp(warp.getName());
 
         if (test != null) {
-            warps.remove(test);
+            unindex(test);
         }
         backbone.addWarp(warp);
-        warps.add(warp);
+        index(warp);
     }
 
     /**
@@ -42,9 +52,9 @@ public class WarpProvider {
      *
      * @param warp
      */
-    public void removeWarp(Warp warp) {
+    public synchronized void removeWarp(Warp warp) {
         backbone.removeWarp(warp);
-        warps.remove(warp);
+        unindex(warp);
     }
 
     /**
@@ -52,7 +62,7 @@ public class WarpProvider {
      *
      * @param player
      */
-    public void setHome(Player player, Location location) {
+    public synchronized void setHome(Player player, Location location) {
         Warp w = getHome(player);
 
         if (w != null) {
@@ -62,7 +72,7 @@ public class WarpProvider {
         else {
             Warp newWarp = new Warp(location, "HOME_" + player.getName().toUpperCase(), player.getName(), true);
 
-            warps.add(newWarp);
+            index(newWarp);
             backbone.addWarp(newWarp);
         }
     }
@@ -75,14 +85,8 @@ public class WarpProvider {
      * @return
      */
     public Warp getWarp(String name) {
-        for (Warp g : warps) {
-            if (g.getName().equals(name)) {
-                if (!g.isPlayerHome()) {
-                    return g;
-                }
-            }
-        }
-        return null;
+        Warp warp = byName.get(name);
+        return warp != null && !warp.isPlayerHome() ? warp : null;
     }
 
     /**
@@ -104,14 +108,7 @@ public class WarpProvider {
      * @return
      */
     public Warp getHome(String player) {
-        for (Warp g : warps) {
-            if (g.isPlayerHome()) {
-                if (g.getOwner().equals(player)) {
-                    return g;
-                }
-            }
-        }
-        return null;
+        return homes.get(player);
     }
 
     /**
@@ -124,16 +121,80 @@ public class WarpProvider {
     }
 
     public boolean warpExists(String name) {
-        for (Warp w : warps) {
-            if (w.getName().equals(name)) {
-                return true;
+        return byName.containsKey(name);
+    }
+
+    /**
+     * Gets the public warps nearest to a location, in the location's world
+     *
+     * @param location
+     *         the location
+     * @param count
+     *         the most warps to return
+     *
+     * @return the warps, nearest first
+     */
+    public synchronized List<Warp> getNearestWarps(Location location, int count) {
+        return grids.nearest(location, count);
+    }
+
+    /**
+     * Gets the public warps within a distance of a location, in the location's world
+     *
+     * @param location
+     *         the location
+     * @param radius
+     *         the distance in blocks
+     *
+     * @return the warps, nearest first
+     */
+    public synchronized List<Warp> getWarpsWithin(Location location, double radius) {
+        return grids.within(location, radius);
+    }
+
+    public synchronized void reload() {
+        warps.clear();
+        byName.clear();
+        homes.clear();
+        grids.clear();
+        load();
+    }
+
+    private synchronized void load() {
+        for (Warp warp : backbone.loadWarps()) {
+            if (byName.containsKey(warp.getName())) {
+                // The first one is found by name, like it always was
+                warps.add(warp);
+                continue;
             }
+            index(warp);
         }
-        return false;
     }
 
-    public void reload() {
-        warps.clear();
-        warps = backbone.loadWarps();
+    private void index(Warp warp) {
+        warps.add(warp);
+        byName.put(warp.getName(), warp);
+        if (warp.isPlayerHome()) {
+            if (warp.getOwner() != null) {
+                // The first home of an owner is theirs, like the first warp of a name
+                homes.putIfAbsent(warp.getOwner(), warp);
+            }
+        }
+        else {
+            grids.add(warp);
+        }
+    }
+
+    private void unindex(Warp warp) {
+        warps.remove(warp);
+        byName.remove(warp.getName(), warp);
+        if (warp.isPlayerHome()) {
+            if (warp.getOwner() != null) {
+                homes.remove(warp.getOwner(), warp);
+            }
+        }
+        else {
+            grids.remove(warp);
+        }
     }
 }
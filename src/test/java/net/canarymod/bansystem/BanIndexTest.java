@@ -0,0 +1,134 @@
+package net.canarymod.bansystem;
+
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class BanIndexTest {
+
+    @org.junit.Test
+    public void testParseAddress() throws Exception {
+        Assert.assertEquals(0L, BanIndex.parseAddress("0.0.0.0"));
+        Assert.assertEquals(0xFFFFFFFFL, BanIndex.parseAddress("255.255.255.255"));
+        Assert.assertEquals(0x0A000001L, BanIndex.parseAddress("10.0.0.1"));
+        Assert.assertEquals(0xC0A80164L, BanIndex.parseAddress("192.168.1.100"));
+
+        String[] invalid = {"256.0.0.1", "1.2.3.256", "1.2.3.1000", "1.2.3", "1.2.3.4.", ".1.2.3", "1..2.3", "1.2.3.4.5",
+                "", ".", "a.b.c.d", "1.2.3.-4", " 1.2.3.4", "1.2.3.4 ", "1.2.3.4/8", "10.0.*", "xxx.xxx.xxx"};
+        for (String ip : invalid) {
+            Assert.assertEquals("'" + ip + "' must not parse", -1L, BanIndex.parseAddress(ip));
+        }
+    }
+
+    @org.junit.Test
+    public void testParseNetworks() throws Exception {
+        Assert.assertArrayEquals(new long[]{ key(0x0A000000L, 8) }, BanIndex.parseNetworks("10.0.0.0/8"));
+        Assert.assertArrayEquals("Host bits must be masked off", new long[]{ key(0x0A000000L, 8) }, BanIndex.parseNetworks("10.1.2.3/8"));
+        Assert.assertArrayEquals(new long[]{ key(0x0A000000L, 16) }, BanIndex.parseNetworks("10.0.*"));
+        Assert.assertArrayEquals(new long[]{ key(0x0A000000L, 24) }, BanIndex.parseNetworks("10.0.0.*"));
+        Assert.assertArrayEquals(new long[]{ key(0, 0) }, BanIndex.parseNetworks("*"));
+
+        String[] notNetworks = {"10.0.0.1", "10.0.0.0/33", "10.0.0.0/-1", "10.0.0.0/x", "256.0.0.0/8", "10.0.0.9-10.0.0.1", "10.0.0.1-", "x-10.0.0.1"};
+        for (String pattern : notNetworks) {
+            Assert.assertEquals("'" + pattern + "' must not be a network", 0, BanIndex.parseNetworks(pattern).length);
+        }
+    }
+
+    @org.junit.Test
+    public void testRangeSplitting() throws Exception {
+        Assert.assertArrayEquals("The whole address space is one network", new long[]{ key(0, 0) }, BanIndex.parseNetworks("0.0.0.0-255.255.255.255"));
+        Assert.assertArrayEquals(new long[]{ key(0x0A000000L, 22) }, BanIndex.parseNetworks("10.0.0.0-10.0.3.255"));
+        Assert.assertArrayEquals(new long[]{ key(0x0A000005L, 32) }, BanIndex.parseNetworks("10.0.0.5-10.0.0.5"));
+        Assert.assertArrayEquals(new long[]{ key(0x0A000001L, 32), key(0x0A000002L, 31), key(0x0A000004L, 31), key(0x0A000006L, 32) },
+                BanIndex.parseNetworks("10.0.0.1-10.0.0.6"));
+        Assert.assertArrayEquals("Crossing an octet", new long[]{ key(0x0A0000FFL, 32), key(0x0A000100L, 32) }, BanIndex.parseNetworks("10.0.0.255-10.0.1.0"));
+        Assert.assertArrayEquals(new long[]{ key(0xFFFFFFFEL, 31) }, BanIndex.parseNetworks("255.255.255.254-255.255.255.255"));
+
+        // Unaligned ranges must be covered exactly, without gaps or overlaps
+        String[][] ranges = {{"10.0.0.3", "10.0.2.17"}, {"0.0.0.1", "0.0.1.0"}, {"172.16.0.255", "172.16.4.1"}, {"255.255.252.7", "255.255.255.255"}};
+        for (String[] range : ranges) {
+            long start = BanIndex.parseAddress(range[0]), end = BanIndex.parseAddress(range[1]);
+            long[] networks = BanIndex.parseNetworks(range[0] + "-" + range[1]);
+            long next = start;
+            for (long network : networks) {
+                int prefix = (int) (network >>> 32);
+                long base = network & 0xFFFFFFFFL;
+                Assert.assertEquals("Networks must follow each other in " + Arrays.toString(range), next, base);
+                next = base + (1L << (32 - prefix));
+            }
+            Assert.assertEquals("Networks must end with the range " + Arrays.toString(range), end + 1, next);
+        }
+    }
+
+    @org.junit.Test
+    public void testCovering() throws Exception {
+        BanIndex index = new BanIndex();
+        Ban range = ipBan("10.0.0.1-10.0.0.6");
+        Ban network = ipBan("192.168.0.0/16");
+        Ban single = ipBan("127.0.0.1");
+        index.add(range);
+        index.add(network);
+        index.add(single);
+
+        Assert.assertEquals(0, index.getCovering("10.0.0.0").length);
+        for (int i = 1; i <= 6; i++) {
+            Assert.assertArrayEquals("10.0.0." + i + " must be covered once", new Ban[]{ range }, index.getCovering("10.0.0." + i));
+        }
+        Assert.assertEquals(0, index.getCovering("10.0.0.7").length);
+        Assert.assertArrayEquals(new Ban[]{ network }, index.getCovering("192.168.255.255"));
+        Assert.assertEquals(0, index.getCovering("192.169.0.0").length);
+        Assert.assertArrayEquals(new Ban[]{ single }, index.getCovering("127.0.0.1"));
+        Assert.assertEquals("Addresses that don't parse must only match exactly", 0, index.getCovering("10.0.0.3.").length);
+
+        index.remove(range);
+        Assert.assertEquals(0, index.getCovering("10.0.0.3").length);
+        Assert.assertArrayEquals(new Ban[]{ network }, index.getCovering("192.168.1.1"));
+    }
+
+    @org.junit.Test
+    public void testRemoveExpired() throws Exception {
+        BanIndex index = new BanIndex();
+        Ban removed = timedBan("Removed", 1);
+        Ban expired = timedBan("Expired", 2);
+        Ban running = timedBan("Running", System.currentTimeMillis() / 1000L + 3600);
+        Ban permanent = timedBan("Permanent", -1);
+        index.add(removed);
+        index.add(expired);
+        index.add(running);
+        index.add(permanent);
+
+        Assert.assertTrue(index.remove(removed));
+        List<Ban> result = index.removeExpired();
+        Assert.assertEquals("Bans removed before they expired must be skipped", Arrays.asList(expired), result);
+        Assert.assertEquals(0, index.getByName("expired").length);
+        Assert.assertArrayEquals(new Ban[]{ running, permanent }, index.toArray());
+        Assert.assertTrue("Nothing more has expired", index.removeExpired().isEmpty());
+
+        // Added again after it was removed, the ban must expire once
+        index.add(removed);
+        Assert.assertEquals(Arrays.asList(removed), index.removeExpired());
+        Assert.assertFalse(index.remove(removed));
+    }
+
+    private static long key(long address, int prefix) {
+        return ((long) prefix << 32) | address;
+    }
+
+    private static Ban ipBan(String ip) {
+        Ban ban = new Ban();
+        ban.setSubject(ip);
+        ban.setUUID("uuid-" + ip);
+        ban.setIp(ip);
+        ban.setIsIpBan(true);
+        return ban;
+    }
+
+    private static Ban timedBan(String name, long timestamp) {
+        Ban ban = new Ban();
+        ban.setSubject(name);
+        ban.setUUID(name.toLowerCase());
+        ban.setTimestamp(timestamp);
+        return ban;
+    }
+}
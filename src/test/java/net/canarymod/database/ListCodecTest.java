@@ -0,0 +1,76 @@
+package net.canarymod.database;
+
+import org.junit.Assert;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ListCodecTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @org.junit.Test
+    public void testNumericRoundTrip() throws Exception {
+        roundTrip(Column.DataType.BYTE, Byte.MIN_VALUE, (byte) -1, (byte) 0, (byte) 1, Byte.MAX_VALUE);
+        roundTrip(Column.DataType.SHORT, Short.MIN_VALUE, (short) -1, (short) 0, (short) 300, Short.MAX_VALUE);
+        roundTrip(Column.DataType.INTEGER, Integer.MIN_VALUE, -64, -1, 0, 63, 64, 1 << 20, Integer.MAX_VALUE);
+        roundTrip(Column.DataType.LONG, Long.MIN_VALUE, -1L, 0L, 1L << 40, Long.MAX_VALUE);
+        roundTrip(Column.DataType.FLOAT, -Float.MAX_VALUE, -0.5F, 0F, Float.MIN_VALUE, Float.NaN, Float.POSITIVE_INFINITY);
+        roundTrip(Column.DataType.DOUBLE, -Double.MAX_VALUE, -0.5D, 0D, Double.MIN_VALUE, Double.NaN, Double.NEGATIVE_INFINITY);
+        roundTrip(Column.DataType.BOOLEAN, true, false, true);
+    }
+
+    @org.junit.Test
+    public void testStringRoundTrip() throws Exception {
+        // The old separator and null marker are plain values in the binary format
+        roundTrip(Column.DataType.STRING, "a¶b", "¶", "NULL", "", "ünicöde ☃");
+    }
+
+    @org.junit.Test
+    public void testNullElements() throws Exception {
+        roundTrip(Column.DataType.INTEGER, 1, null, 3);
+        roundTrip(Column.DataType.STRING, null, null, null, null, null, null, null, null, "nine");
+    }
+
+    @org.junit.Test
+    public void testEmptyAndNull() throws Exception {
+        Assert.assertNull(ListCodec.encode(Column.DataType.INTEGER, null));
+        Assert.assertTrue(ListCodec.decode(Column.DataType.INTEGER, null).isEmpty());
+        roundTrip(Column.DataType.INTEGER);
+
+        Assert.assertTrue(ListCodec.decodeText(Column.DataType.INTEGER, null).isEmpty());
+        Assert.assertTrue(ListCodec.decodeText(Column.DataType.INTEGER, "").isEmpty());
+        // An empty list stored in the old format
+        Assert.assertTrue(ListCodec.decode(Column.DataType.DOUBLE, new byte[0]).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testOldTextFormat() throws Exception {
+        Assert.assertEquals(Arrays.<Comparable<?>>asList(1, null, -3), ListCodec.decode(Column.DataType.INTEGER, "1¶NULL¶-3".getBytes(UTF8)));
+        Assert.assertEquals(Arrays.<Comparable<?>>asList(2L, 5L), ListCodec.decode(Column.DataType.LONG, "2¶5".getBytes(UTF8)));
+        Assert.assertEquals(Arrays.<Comparable<?>>asList(1.5D), ListCodec.decode(Column.DataType.DOUBLE, "1.5".getBytes(UTF8)));
+        Assert.assertEquals(Arrays.<Comparable<?>>asList("a", "b"), ListCodec.decode(Column.DataType.STRING, "a¶b".getBytes(UTF8)));
+
+        List<Object> list = Arrays.<Object>asList((short) 4, null, (short) -7);
+        Assert.assertEquals(list, ListCodec.decodeText(Column.DataType.SHORT, ListCodec.encodeText(list)));
+    }
+
+    @org.junit.Test(expected = NumberFormatException.class)
+    public void testOldTextFormatBadNumber() throws Exception {
+        ListCodec.decode(Column.DataType.INTEGER, "1¶two".getBytes(UTF8));
+    }
+
+    @org.junit.Test(expected = IllegalArgumentException.class)
+    public void testTruncated() throws Exception {
+        byte[] data = ListCodec.encode(Column.DataType.LONG, Arrays.asList(1L, Long.MAX_VALUE));
+        ListCodec.decode(Column.DataType.LONG, Arrays.copyOf(data, data.length - 1));
+    }
+
+    private static void roundTrip(Column.DataType type, Object... values) {
+        List<Object> list = new ArrayList<Object>(Arrays.asList(values));
+        byte[] data = ListCodec.encode(type, list);
+        Assert.assertTrue("Must be written in the binary format", ListCodec.isEncoded(data));
+        Assert.assertEquals(type + " list must survive a round trip", list, ListCodec.decode(type, data));
+    }
+}
@@ -0,0 +1,61 @@
+package net.canarymod.database.sqlite;
+
+import net.canarymod.config.Configuration;
+import net.canarymod.database.Column;
+import net.canarymod.database.DataAccess;
+import net.canarymod.database.DatabaseCursor;
+import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.exceptions.DatabaseReadException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SQLiteDatabaseTest {
+
+    public static class StreamDataAccess extends DataAccess {
+        @Column(columnName = "name", dataType = Column.DataType.STRING)
+        public String name;
+
+        public StreamDataAccess() {
+            super("stream_test");
+        }
+
+        @Override
+        public DataAccess getInstance() {
+            return new StreamDataAccess();
+        }
+    }
+
+    @BeforeClass
+    public static void useSQLiteWal() {
+        // Reads come from the connection pool only in WAL mode
+        Configuration.getServerConfig().getFile().setString("data-source", "sqlite");
+        Configuration.getDbConfig().getFile().setString("name", "canary_test");
+        Configuration.getDbConfig().getFile().setBoolean("sqlite-wal", true);
+    }
+
+    @org.junit.Test(timeout = 30000)
+    public void testFailedStreamReleasesConnection() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.getInstance();
+        db.updateSchema(new StreamDataAccess());
+        Map<String, Object> badFilter = new HashMap<String, Object>();
+        badFilter.put("no_such_column", "x");
+        int attempts = Configuration.getDbConfig().getMaxPoolSize() + 5;
+        for (int i = 0; i < attempts; i++) {
+            try {
+                db.stream(new StreamDataAccess(), badFilter);
+                Assert.fail("Streaming with a filter on an unknown column must fail");
+            }
+            catch (DatabaseReadException expected) {
+                // The read connection must have been handed back
+            }
+        }
+        // Had the failed streams kept their connections, the pool would be exhausted and this would wait forever
+        DatabaseCursor cursor = db.stream(new StreamDataAccess(), new HashMap<String, Object>());
+        Assert.assertNull("The table is empty", cursor.next());
+        cursor.close();
+        Assert.assertEquals("Nobody may be waiting for a connection", 0, JdbcConnectionManager.getPoolStats().getAwaiting());
+    }
+}
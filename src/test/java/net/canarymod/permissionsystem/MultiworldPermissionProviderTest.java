@@ -1,7 +1,17 @@
 package net.canarymod.permissionsystem;
 
+import net.canarymod.user.Group;
+import net.canarymod.user.ProfileEndpoint;
+import net.canarymod.user.UUIDResolver;
 import org.junit.Assert;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
 public class MultiworldPermissionProviderTest {
 
     @org.junit.Test
@@ -29,4 +39,201 @@ public class MultiworldPermissionProviderTest {
         Assert.assertTrue("Administrator check shold be granted, was not!", parent.queryPermission("canary.super.administrator"));
         Assert.assertTrue("Administrator check shold be granted, was not!", provider.queryPermission("canary.super.administrator"));
     }
-}
\ No newline at end of file
+
+    @org.junit.Test
+    public void testEffectivePermissions() throws Exception {
+        MultiworldPermissionProvider parentProvider = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider childProvider = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider playerProvider = new MultiworldPermissionProvider();
+
+        Group parent = new Group();
+        parent.setPermissionProvider(parentProvider);
+        Group child = new Group();
+        child.setPermissionProvider(childProvider);
+        child.setParent(parent);
+
+        parentProvider.addPermission("canary.world.*", true, 0);
+        parentProvider.addPermission("canary.command.tp", true, 1);
+        childProvider.addPermission("canary.command.tp", false, 2);
+
+        Assert.assertTrue("canary.world.build must be inherited from the parent's world.*", child.hasPermission("canary.world.build"));
+        Assert.assertFalse("canary.command.tp must be denied by the child", child.hasPermission("canary.command.tp"));
+        Assert.assertTrue("canary.command.tp must be granted to the parent", parent.hasPermission("canary.command.tp"));
+        Assert.assertFalse("Unknown permissions must be denied", child.hasPermission("canary.command.kick"));
+        Assert.assertTrue("Wildcard queries must resolve through the providers", child.hasPermission("canary.world.*"));
+
+        childProvider.addPermission("canary.command.kick", true, 3);
+        Assert.assertTrue("canary.command.kick must be granted after it was added", child.hasPermission("canary.command.kick"));
+
+        child.setParent(null);
+        Assert.assertFalse("canary.world.build must be gone once the parent is", child.hasPermission("canary.world.build"));
+
+        playerProvider.addPermission("canary.command.kick", false, 4);
+        EffectivePermissions player = EffectivePermissions.forPlayer(playerProvider);
+        Assert.assertFalse("The player's own denial must override the group", player.hasPermission("canary.command.kick", child));
+        Assert.assertFalse("Permissions the player doesn't have must come from the group", player.hasPermission("canary.command.tp", child));
+        Assert.assertTrue("Permissions the player doesn't have must come from the group", player.hasPermission("canary.world.build", parent));
+    }
+
+    @org.junit.Test
+    public void testEffectivePermissionsWorldOverrides() throws Exception {
+        MultiworldPermissionProvider global = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider nether = new MultiworldPermissionProvider(global);
+
+        Group globalGroup = new Group();
+        globalGroup.setPermissionProvider(global);
+        Group netherGroup = new Group();
+        netherGroup.setPermissionProvider(nether);
+
+        global.addPermission("canary.world.build", true, 0);
+        global.addPermission("canary.command.home", true, 1);
+        nether.addPermission("canary.world.build", false, 2);
+
+        Assert.assertTrue("canary.world.build must be granted globally", globalGroup.hasPermission("canary.world.build"));
+        Assert.assertFalse("canary.world.build must be denied by the world", netherGroup.hasPermission("canary.world.build"));
+        Assert.assertTrue("canary.command.home must fall back to the global permissions", netherGroup.hasPermission("canary.command.home"));
+
+        global.addPermission("canary.command.spawn", true, 3);
+        Assert.assertTrue("Global changes must reach the world", netherGroup.hasPermission("canary.command.spawn"));
+        nether.addPermission("canary.command.home", false, 4);
+        Assert.assertFalse("World changes must override the global permissions", netherGroup.hasPermission("canary.command.home"));
+        Assert.assertTrue("World changes must leave the global permissions alone", globalGroup.hasPermission("canary.command.home"));
+    }
+
+    @org.junit.Test
+    public void testEffectivePermissionsNegation() throws Exception {
+        MultiworldPermissionProvider parentProvider = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider childProvider = new MultiworldPermissionProvider();
+
+        Group parent = new Group();
+        parent.setPermissionProvider(parentProvider);
+        Group child = new Group();
+        child.setPermissionProvider(childProvider);
+        child.setParent(parent);
+
+        parentProvider.addPermission("canary.command.*", true, 0);
+        childProvider.addPermission("canary.command.ban", false, 1);
+        childProvider.addPermission("canary.mod.*", false, 2);
+        childProvider.addPermission("canary.mod.mute", true, 3);
+        parentProvider.addPermission("canary.mod.kick", true, 4);
+
+        Assert.assertFalse("canary.command.ban must be denied by the child over the parent's wildcard", child.hasPermission("canary.command.ban"));
+        Assert.assertTrue("canary.command.kick must still come from the parent's wildcard", child.hasPermission("canary.command.kick"));
+        Assert.assertTrue("canary.command.ban must still be granted to the parent", parent.hasPermission("canary.command.ban"));
+        Assert.assertTrue("canary.mod.mute must be granted over the child's own denying wildcard", child.hasPermission("canary.mod.mute"));
+        Assert.assertFalse("canary.mod.kick must be denied by the child's wildcard", child.hasPermission("canary.mod.kick"));
+    }
+
+    @org.junit.Test
+    public void testEffectivePermissionsUnknownNodes() throws Exception {
+        MultiworldPermissionProvider provider = new MultiworldPermissionProvider();
+        Group group = new Group();
+        group.setPermissionProvider(provider);
+        provider.addPermission("canary.chat.*", true, 0);
+
+        int size = PermissionRegistry.size();
+        Assert.assertFalse("Unknown permissions must be denied", group.hasPermission("unknown.test.node"));
+        Assert.assertTrue("Unknown permissions must resolve through wildcards", group.hasPermission("canary.chat.unknown.test.node"));
+        Assert.assertEquals("Queries must not intern paths", size, PermissionRegistry.size());
+        Assert.assertEquals(-1, PermissionRegistry.idOf("unknown.test.node"));
+
+        provider.addPermission("unknown.test.node", true, 1);
+        Assert.assertTrue("A path must be granted once it is added", group.hasPermission("unknown.test.node"));
+        Assert.assertTrue("A path must have an ID once it is added", PermissionRegistry.idOf("unknown.test.node") >= 0);
+    }
+
+    @org.junit.Test
+    public void testPlayerGivenByName() throws Exception {
+        final String notch = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+        UUIDResolver resolver = UUIDResolver.get();
+        ProfileEndpoint endpoint = resolver.getEndpoint();
+        resolver.setEndpoint(new ProfileEndpoint() {
+
+            @Override
+            public int getMaxBatchSize() {
+                return 10;
+            }
+
+            @Override
+            public Map<String, String> lookup(List<String> names) {
+                for (String name : names) {
+                    if (name.equalsIgnoreCase("Notch")) {
+                        return Collections.singletonMap("Notch", notch);
+                    }
+                }
+                return Collections.emptyMap();
+            }
+        });
+        try {
+            Assert.assertEquals(notch, resolver.resolve("Notch").get(5, TimeUnit.SECONDS));
+            MultiworldPermissionProvider cached = new MultiworldPermissionProvider(null, true, "Notch");
+            Assert.assertEquals("A cached name must be replaced by its UUID", notch, cached.getOwner());
+
+            MultiworldPermissionProvider uncached = new MultiworldPermissionProvider(null, true, "Nobody_Known");
+            Assert.assertNull("A name without a cached UUID must not own permissions", uncached.getOwner());
+            uncached.addPermission("canary.world.build", true);
+            uncached.reload();
+            Assert.assertTrue("Nothing must be added or loaded before the UUID is known", uncached.getPermissionMap().isEmpty());
+
+            Assert.assertNull(resolver.resolve("Nobody_Known").get(5, TimeUnit.SECONDS));
+            Assert.assertNull("A name that wasn't found must not become the owner", uncached.getOwner());
+            Assert.assertFalse(uncached.queryPermission("canary.world.build"));
+        }
+        finally {
+            resolver.setEndpoint(endpoint);
+        }
+    }
+
+    @org.junit.Test
+    public void testRandomizedEquivalence() throws Exception {
+        String[] segments = {"canary", "world", "command", "mod", "dig", "fly", "tp", "*"};
+        Random random = new Random(20140801L);
+        for (int round = 0; round < 20; round++) {
+            MultiworldPermissionProvider parent = new MultiworldPermissionProvider();
+            MultiworldPermissionProvider provider = new MultiworldPermissionProvider(parent);
+            for (int i = 0; i < 30; i++) {
+                MultiworldPermissionProvider target = random.nextBoolean() ? provider : parent;
+                target.addPermission(randomPath(random, segments), random.nextBoolean(), i);
+            }
+            // More distinct queries than the cache holds, asked twice so both hits and evicted entries are compared
+            List<String> queries = new ArrayList<String>();
+            for (int i = 0; i < 1500; i++) {
+                queries.add(randomPath(random, segments));
+            }
+            for (int pass = 0; pass < 2; pass++) {
+                for (String query : queries) {
+                    Assert.assertEquals("Query " + query + " in round " + round, referenceQuery(provider, query), provider.queryPermission(query));
+                }
+            }
+        }
+    }
+
+    private static String randomPath(Random random, String[] segments) {
+        StringBuilder path = new StringBuilder();
+        int depth = 1 + random.nextInt(5);
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                path.append('.');
+            }
+            // Now and then a segment no provider knows
+            path.append(random.nextInt(12) == 0 ? "unknown" : segments[random.nextInt(segments.length)]);
+        }
+        return path.toString();
+    }
+
+    /** Resolves a permission the way the provider did before it was compiled: linear root lookup, no cache */
+    private static boolean referenceQuery(PermissionProvider provider, String permission) {
+        String[] path = permission.split("\\.");
+        PermissionNode root = null;
+        for (PermissionNode node : provider.getPermissionMap()) {
+            if (node.getName().equals(path[0]) || node.isWildcard()) {
+                root = node;
+                break;
+            }
+        }
+        if ((root == null || !root.resolvePath(path, 1)) && provider.getParent() != null) {
+            return referenceQuery(provider.getParent(), permission);
+        }
+        return root != null && root.resolveToValue(path, 1);
+    }
+}
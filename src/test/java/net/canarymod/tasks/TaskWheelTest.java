@@ -0,0 +1,131 @@
+package net.canarymod.tasks;
+
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TaskWheelTest {
+    private long sequence;
+
+    @org.junit.Test
+    public void testDueAcrossWrapAround() throws Exception {
+        TaskWheel wheel = new TaskWheel();
+        advance(wheel, 250, null); // Start close to the end of the root level
+        long[] delays = {1, 5, 6, 255, 256, 257, 300, 16384, 16385, 16384 * 64 + 3, (1L << 26) - 1, (1L << 26) + 10};
+        Map<ScheduledTask, Long> expected = new IdentityHashMap<ScheduledTask, Long>();
+        for (long delay : delays) {
+            ScheduledTask entry = task();
+            wheel.schedule(entry, delay);
+            expected.put(entry, wheel.currentTick() + delay);
+        }
+        Map<ScheduledTask, Long> fired = new IdentityHashMap<ScheduledTask, Long>();
+        advance(wheel, (1L << 26) + 20, fired);
+        Assert.assertEquals("Every task must run exactly once", expected.size(), fired.size());
+        for (Map.Entry<ScheduledTask, Long> entry : expected.entrySet()) {
+            Assert.assertEquals("Task must run on the tick it is due", entry.getValue(), fired.get(entry.getKey()));
+        }
+    }
+
+    @org.junit.Test
+    public void testReschedulingFromInsideATask() throws Exception {
+        TaskWheel wheel = new TaskWheel();
+        ScheduledTask everyTick = task();
+        ScheduledTask every100 = task();
+        ScheduledTask every300 = task();
+        wheel.schedule(everyTick, 1);
+        wheel.schedule(every100, 100);
+        wheel.schedule(every300, 300);
+        int ticks = 0, hundreds = 0, threeHundreds = 0;
+        for (int i = 0; i < 20000; i++) {
+            for (ScheduledTask entry : wheel.advance()) {
+                // Like a continuous task, scheduled again while the due tasks of this tick are processed
+                if (entry == everyTick) {
+                    ticks++;
+                    wheel.schedule(entry, 1);
+                }
+                else if (entry == every100) {
+                    hundreds++;
+                    Assert.assertEquals("Task with 100 tick delay ran on the wrong tick", 0, wheel.currentTick() % 100);
+                    wheel.schedule(entry, 100);
+                }
+                else if (entry == every300) {
+                    threeHundreds++;
+                    Assert.assertEquals("Task with 300 tick delay ran on the wrong tick", 0, wheel.currentTick() % 300);
+                    wheel.schedule(entry, 300);
+                }
+            }
+        }
+        Assert.assertEquals(20000, ticks);
+        Assert.assertEquals(200, hundreds);
+        Assert.assertEquals(66, threeHundreds);
+    }
+
+    @org.junit.Test
+    public void testCancellation() throws Exception {
+        TaskWheel wheel = new TaskWheel();
+        ScheduledTask first = task();
+        ScheduledTask cancelled = task();
+        ScheduledTask last = task();
+        ScheduledTask far = task();
+        ScheduledTask overflow = task();
+        wheel.schedule(first, 10);
+        wheel.schedule(cancelled, 10);
+        wheel.schedule(last, 10);
+        wheel.schedule(far, 5000);
+        wheel.schedule(overflow, (1L << 26) + 1);
+
+        wheel.unlink(cancelled);
+        wheel.unlink(far);
+        wheel.unlink(overflow);
+        wheel.unlink(overflow); // Not in a bucket anymore, nothing happens
+
+        Map<ScheduledTask, Long> fired = new IdentityHashMap<ScheduledTask, Long>();
+        List<ScheduledTask> order = new ArrayList<ScheduledTask>();
+        for (long i = 0; i < (1L << 26) + 10; i++) {
+            for (ScheduledTask entry : wheel.advance()) {
+                fired.put(entry, wheel.currentTick());
+                order.add(entry);
+            }
+        }
+        Assert.assertEquals("Only the tasks not cancelled must run", 2, fired.size());
+        Assert.assertSame(first, order.get(0));
+        Assert.assertSame(last, order.get(1));
+        Assert.assertEquals(Long.valueOf(10), fired.get(first));
+    }
+
+    @org.junit.Test
+    public void testSameTickRunsInScheduleOrder() throws Exception {
+        TaskWheel wheel = new TaskWheel();
+        ScheduledTask early = task();
+        wheel.schedule(early, 1000); // Placed in a higher level, cascaded down later
+        advance(wheel, 990, null);
+        ScheduledTask late = task();
+        wheel.schedule(late, 10); // Due on the same tick, placed straight into the root level
+
+        List<ScheduledTask> due = null;
+        for (int i = 0; i < 10; i++) {
+            due = wheel.advance();
+        }
+        Assert.assertEquals(1000, wheel.currentTick());
+        Assert.assertEquals(2, due.size());
+        Assert.assertSame("The task scheduled first must run first", early, due.get(0));
+        Assert.assertSame(late, due.get(1));
+    }
+
+    private ScheduledTask task() {
+        return new ScheduledTask(null, sequence++);
+    }
+
+    private static void advance(TaskWheel wheel, long ticks, Map<ScheduledTask, Long> fired) {
+        for (long i = 0; i < ticks; i++) {
+            for (ScheduledTask entry : wheel.advance()) {
+                Assert.assertNotNull("Nothing should be due yet", fired);
+                Assert.assertFalse("Task ran twice", fired.containsKey(entry));
+                fired.put(entry, wheel.currentTick());
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package net.canarymod.user;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UUIDResolverTest {
+    private static final String NOTCH = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+
+    @org.junit.Test
+    public void testBatching() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(3);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+        try {
+            for (int i = 0; i < 7; i++) {
+                endpoint.add("Player" + i, uuid(i));
+            }
+            // Hold the requests until all names are queued, however long that takes
+            CountDownLatch queued = new CountDownLatch(1);
+            endpoint.setGate(queued);
+            List<ListenableFuture<String>> futures = new ArrayList<ListenableFuture<String>>();
+            for (int i = 0; i < 7; i++) {
+                futures.add(resolver.resolve("Player" + i));
+            }
+            ListenableFuture<String> again = resolver.resolve("PLAYER6");
+            Assert.assertSame("Lookups of the same name must share one future", futures.get(6), again);
+            queued.countDown();
+
+            for (int i = 0; i < 7; i++) {
+                Assert.assertEquals(uuid(i), futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+            List<List<String>> batches = endpoint.getBatches();
+            Assert.assertEquals("7 names in batches of 3 must take 3 requests", 3, batches.size());
+            int asked = 0;
+            for (List<String> batch : batches) {
+                Assert.assertTrue("Batches must not exceed the endpoint's size", batch.size() <= 3);
+                asked += batch.size();
+            }
+            Assert.assertEquals("Every name must be asked for once", 7, asked);
+            Assert.assertEquals(0, resolver.getPendingCount());
+        }
+        finally {
+            resolver.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testCaching() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        endpoint.add("Notch", NOTCH.replace("-", ""));
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+        try {
+            Assert.assertNull(resolver.getCachedUUID("Notch"));
+            Assert.assertEquals("UUIDs must be hyphenated", NOTCH, resolver.resolve("Notch").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(NOTCH, resolver.resolve("notch").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(NOTCH, resolver.resolveNow("NOTCH"));
+            Assert.assertEquals("Cached names must not be asked for again", 1, endpoint.getBatches().size());
+            Assert.assertEquals(NOTCH, resolver.getCachedUUID("nOtCh"));
+            Assert.assertEquals("The name must be cached as the endpoint spells it", "Notch", resolver.getCachedName(NOTCH));
+        }
+        finally {
+            resolver.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testNegativeCaching() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+        try {
+            Assert.assertNull(resolver.resolve("Nobody").get(5, TimeUnit.SECONDS));
+            Assert.assertNull(resolver.resolve("nobody").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("Names that weren't found must not be asked for again", 1, endpoint.getBatches().size());
+            Assert.assertNull(resolver.getCachedUUID("Nobody"));
+
+            Assert.assertNull("Invalid names must not be asked for", resolver.resolve("no").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("UUIDs must be passed back", NOTCH, resolver.resolve(NOTCH).get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, endpoint.getBatches().size());
+        }
+        finally {
+            resolver.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testEndpointFailure() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        endpoint.add("Notch", NOTCH);
+        endpoint.setFailing(true);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+        try {
+            Assert.assertNull("A failed lookup must answer null", resolver.resolve("Notch").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, resolver.getPendingCount());
+
+            endpoint.setFailing(false);
+            Assert.assertEquals("A failed lookup must not be cached as not found", NOTCH, resolver.resolve("Notch").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, endpoint.getBatches().size());
+        }
+        finally {
+            resolver.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testShutdown() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        endpoint.add("Notch", NOTCH);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+        resolver.shutdown();
+        Assert.assertNull("Lookups after shutdown must answer null", resolver.resolve("Notch").get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, resolver.getPendingCount());
+    }
+
+    private static String uuid(int i) {
+        return String.format("00000000-0000-0000-0000-%012d", i);
+    }
+
+    /** Answers from a map, recording the names asked for */
+    private static final class StubEndpoint implements ProfileEndpoint {
+        private final int batchSize;
+        private final Map<String, String> profiles = new HashMap<String, String>();
+        private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        private volatile boolean failing;
+        private volatile CountDownLatch gate;
+
+        StubEndpoint(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        synchronized void add(String name, String id) {
+            profiles.put(name, id);
+        }
+
+        void setFailing(boolean failing) {
+            this.failing = failing;
+        }
+
+        void setGate(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        List<List<String>> getBatches() {
+            return batches;
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public synchronized Map<String, String> lookup(List<String> names) throws IOException {
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            batches.add(new ArrayList<String>(names));
+            if (failing) {
+                throw new IOException("Stub endpoint is down");
+            }
+            Map<String, String> found = new HashMap<String, String>();
+            for (String name : names) {
+                for (Map.Entry<String, String> profile : profiles.entrySet()) {
+                    if (profile.getKey().equalsIgnoreCase(name)) {
+                        found.put(profile.getKey(), profile.getValue());
+                    }
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.canarymod.warp;
+
+import net.canarymod.api.world.DimensionType;
+import net.canarymod.api.world.position.Location;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class WarpGridTest {
+
+    @org.junit.Test
+    public void testWithinAcrossCells() throws Exception {
+        WarpGrid grid = new WarpGrid();
+        Warp below = warp("below", 63.5, 64, 10);
+        Warp above = warp("above", 64.5, 64, 10);
+        Warp negative = warp("negative", -0.5, 64, -0.5);
+        Warp positive = warp("positive", 0.5, 64, 0.5);
+        Warp far = warp("far", 2.0, 64, 0);
+        for (Warp warp : Arrays.asList(below, above, negative, positive, far)) {
+            grid.add(warp);
+        }
+
+        Assert.assertEquals(Arrays.asList(below, above), grid.within(63.9, 64, 10, 1));
+        Assert.assertEquals("Cells must split at 0 without folding negative coordinates onto it",
+                Arrays.asList(negative, positive), grid.within(-0.4, 64, -0.4, 1.5));
+        Assert.assertEquals(Arrays.asList(far), grid.within(2.0, 64, 0, 0));
+        Assert.assertTrue(grid.within(32, 64, 32, 1).isEmpty());
+        Assert.assertEquals("A large radius must reach every cell", 5, grid.within(0, 64, 0, WarpGrid.CELL_SIZE * 100).size());
+    }
+
+    @org.junit.Test
+    public void testNearestAcrossCells() throws Exception {
+        WarpGrid grid = new WarpGrid();
+        Warp sameCell = warp("same", 1, 64, 1);
+        Warp nextCell = warp("next", 64.1, 64, 1);
+        Warp diagonal = warp("diagonal", -1, 64, -1);
+        grid.add(sameCell);
+        grid.add(nextCell);
+        grid.add(diagonal);
+
+        Assert.assertEquals("A warp across the cell boundary is nearer than one in the same cell",
+                Arrays.asList(nextCell), grid.nearest(63.9, 64, 1, 1));
+        Assert.assertEquals(Arrays.asList(nextCell, sameCell, diagonal), grid.nearest(63.9, 64, 1, 5));
+        Assert.assertEquals(Arrays.asList(diagonal, sameCell), grid.nearest(-0.5, 64, -0.5, 2));
+        Assert.assertEquals("Warps many cells away must be found", Arrays.asList(nextCell), grid.nearest(64 * 40, 64, 0, 1));
+        Assert.assertTrue(grid.nearest(0, 64, 0, 0).isEmpty());
+
+        Assert.assertTrue(grid.remove(nextCell));
+        Assert.assertFalse(grid.remove(nextCell));
+        Assert.assertEquals(Arrays.asList(sameCell), grid.nearest(63.9, 64, 1, 1));
+    }
+
+    @org.junit.Test
+    public void testRandomizedAgainstLinearScan() throws Exception {
+        Random random = new Random(20140801L);
+        for (int round = 0; round < 20; round++) {
+            WarpGrid grid = new WarpGrid();
+            List<Warp> all = new ArrayList<Warp>();
+            // Sparse in some rounds, dense in others
+            double spread = WarpGrid.CELL_SIZE * (1 + random.nextInt(round % 2 == 0 ? 4 : 200));
+            for (int i = 0; i < 1 + random.nextInt(60); i++) {
+                Warp warp = warp("w" + i, (random.nextDouble() - 0.5) * spread, random.nextInt(256), (random.nextDouble() - 0.5) * spread);
+                all.add(warp);
+                grid.add(warp);
+            }
+            for (int query = 0; query < 50; query++) {
+                double x = (random.nextDouble() - 0.5) * spread * 1.5, y = random.nextInt(256), z = (random.nextDouble() - 0.5) * spread * 1.5;
+                List<Warp> expected = byDistance(all, x, y, z);
+                int count = 1 + random.nextInt(8);
+                Assert.assertEquals("nearest in round " + round, expected.subList(0, Math.min(count, expected.size())), grid.nearest(x, y, z, count));
+
+                double radius = random.nextDouble() * spread / 2;
+                List<Warp> inRange = new ArrayList<Warp>();
+                for (Warp warp : expected) {
+                    if (distanceSq(warp, x, y, z) <= radius * radius) {
+                        inRange.add(warp);
+                    }
+                }
+                Assert.assertEquals("within in round " + round, inRange, grid.within(x, y, z, radius));
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testAcrossWorlds() throws Exception {
+        WarpGrids grids = new WarpGrids();
+        Warp overworld = warp("overworld", location("default", DimensionType.NORMAL, 10, 64, 10));
+        Warp nether = warp("nether", location("default", DimensionType.NETHER, 10, 64, 10));
+        Warp other = warp("other", location("other", DimensionType.NORMAL, 10, 64, 10));
+        grids.add(overworld);
+        grids.add(nether);
+        grids.add(other);
+
+        Assert.assertEquals(Arrays.asList(overworld), grids.nearest(location("default", DimensionType.NORMAL, 0, 64, 0), 5));
+        Assert.assertEquals(Arrays.asList(nether), grids.within(location("default", DimensionType.NETHER, 0, 64, 0), 100));
+        Assert.assertEquals(Arrays.asList(other), grids.nearest(location("other", DimensionType.NORMAL, 1000, 64, 1000), 5));
+        Assert.assertTrue("Worlds without warps must have none", grids.nearest(location("empty", DimensionType.NORMAL, 10, 64, 10), 5).isEmpty());
+
+        // Moved to another world and added again
+        nether.setLocation(location("other", DimensionType.NORMAL, 20, 64, 20));
+        grids.add(nether);
+        Assert.assertTrue(grids.nearest(location("default", DimensionType.NETHER, 0, 64, 0), 5).isEmpty());
+        Assert.assertEquals(Arrays.asList(other, nether), grids.nearest(location("other", DimensionType.NORMAL, 0, 64, 0), 5));
+
+        Assert.assertTrue(grids.remove(other));
+        Assert.assertFalse(grids.remove(other));
+        Assert.assertEquals(Arrays.asList(nether), grids.nearest(location("other", DimensionType.NORMAL, 0, 64, 0), 5));
+        Assert.assertEquals(Arrays.asList(overworld), grids.within(location("default", DimensionType.NORMAL, 10, 64, 10), 0));
+    }
+
+    private static List<Warp> byDistance(List<Warp> all, final double x, final double y, final double z) {
+        List<Warp> sorted = new ArrayList<Warp>(all);
+        Collections.sort(sorted, new Comparator<Warp>() {
+            @Override
+            public int compare(Warp o1, Warp o2) {
+                return Double.compare(distanceSq(o1, x, y, z), distanceSq(o2, x, y, z));
+            }
+        });
+        return sorted;
+    }
+
+    private static double distanceSq(Warp warp, double x, double y, double z) {
+        double dx = warp.getLocation().getX() - x, dy = warp.getLocation().getY() - y, dz = warp.getLocation().getZ() - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static Warp warp(String name, double x, double y, double z) {
+        return warp(name, location("default", DimensionType.NORMAL, x, y, z));
+    }
+
+    private static Warp warp(String name, Location location) {
+        return new Warp(location, name);
+    }
+
+    private static Location location(String world, DimensionType type, double x, double y, double z) {
+        Location location = new Location(x, y, z);
+        location.setWorldName(world);
+        location.setType(type);
+        return location;
+    }
+}